@@ -0,0 +1,352 @@
+package org.rundeck.plugins;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process HTTP endpoint implementing the subset of the S3 REST API used by the plugin, with objects held in
+ * memory: PUT, GET (including byte ranges), HEAD and DELETE of objects, and multipart uploads. Requests must use path
+ * style addressing, signatures are not checked.
+ */
+class FakeS3Server implements AutoCloseable {
+    private static final String META_PREFIX = "x-amz-meta-";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+    FakeS3Server() throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-s3-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return endpoint URL to configure as the plugin endpoint, with path style enabled
+     */
+    String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return number of objects stored
+     */
+    int size() {
+        return objects.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath();
+            String id = URLDecoder.decode(path.substring(1), StandardCharsets.UTF_8);
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            if ("POST".equals(method) && query.containsKey("uploads")) {
+                createMultipartUpload(exchange, id);
+            } else if ("PUT".equals(method) && query.containsKey("uploadId")) {
+                uploadPart(exchange, query.get("uploadId"), Integer.parseInt(query.get("partNumber")));
+            } else if ("POST".equals(method) && query.containsKey("uploadId")) {
+                completeMultipartUpload(exchange, id, query.get("uploadId"));
+            } else if ("DELETE".equals(method) && query.containsKey("uploadId")) {
+                uploads.remove(query.get("uploadId"));
+                send(exchange, 204, new Headers(), null);
+            } else if ("PUT".equals(method)) {
+                putObject(exchange, id);
+            } else if ("GET".equals(method) || "HEAD".equals(method)) {
+                getObject(exchange, id, "HEAD".equals(method));
+            } else if ("DELETE".equals(method)) {
+                objects.remove(id);
+                send(exchange, 204, new Headers(), null);
+            } else {
+                error(exchange, 405, "MethodNotAllowed");
+            }
+        } catch (RuntimeException e) {
+            error(exchange, 500, "InternalError");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void putObject(HttpExchange exchange, String id) throws IOException {
+        byte[] content = readBody(exchange);
+        StoredObject object = new StoredObject(content, userMetadata(exchange.getRequestHeaders()), md5Hex(content));
+        objects.put(id, object);
+        Headers headers = new Headers();
+        headers.set("ETag", object.etag);
+        send(exchange, 200, headers, null);
+    }
+
+    private void getObject(HttpExchange exchange, String id, boolean head) throws IOException {
+        StoredObject object = objects.get(id);
+        if (null == object) {
+            if (head) {
+                send(exchange, 404, new Headers(), null);
+            } else {
+                error(exchange, 404, "NoSuchKey");
+            }
+            return;
+        }
+        Headers headers = new Headers();
+        headers.set("ETag", object.etag);
+        headers.set("Last-Modified", object.lastModified);
+        headers.set("Content-Type", "application/octet-stream");
+        headers.set("Accept-Ranges", "bytes");
+        for (Map.Entry<String, String> entry : object.metadata.entrySet()) {
+            headers.set(META_PREFIX + entry.getKey(), entry.getValue());
+        }
+        int length = object.content.length;
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        if (null != ifMatch && !ifMatch.equals(object.etag)) {
+            error(exchange, 412, "PreconditionFailed");
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (head) {
+            headers.set("Content-Length", Integer.toString(length));
+            send(exchange, 200, headers, null);
+        } else if (null != range && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds[1].isEmpty() ? length - 1 : (int) Math.min(Long.parseLong(bounds[1]), length - 1);
+            if (start >= length) {
+                error(exchange, 416, "InvalidRange");
+                return;
+            }
+            headers.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            send(exchange, 206, headers, new Body(object.content, start, end - start + 1));
+        } else {
+            send(exchange, 200, headers, new Body(object.content, 0, length));
+        }
+    }
+
+    private void createMultipartUpload(HttpExchange exchange, String id) throws IOException {
+        readBody(exchange);
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new MultipartUpload(userMetadata(exchange.getRequestHeaders())));
+        int slash = id.indexOf('/');
+        sendXml(exchange, "<InitiateMultipartUploadResult>" +
+                          "<Bucket>" + id.substring(0, slash) + "</Bucket>" +
+                          "<Key>" + id.substring(slash + 1) + "</Key>" +
+                          "<UploadId>" + uploadId + "</UploadId>" +
+                          "</InitiateMultipartUploadResult>");
+    }
+
+    private void uploadPart(HttpExchange exchange, String uploadId, int partNumber) throws IOException {
+        MultipartUpload upload = uploads.get(uploadId);
+        if (null == upload) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        byte[] content = readBody(exchange);
+        upload.parts.put(partNumber, content);
+        Headers headers = new Headers();
+        headers.set("ETag", md5Hex(content));
+        send(exchange, 200, headers, null);
+    }
+
+    private void completeMultipartUpload(HttpExchange exchange, String id, String uploadId) throws IOException {
+        readBody(exchange);
+        MultipartUpload upload = uploads.remove(uploadId);
+        if (null == upload) {
+            error(exchange, 404, "NoSuchUpload");
+            return;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] part : upload.parts.values()) {
+            content.write(part);
+        }
+        byte[] bytes = content.toByteArray();
+        String etag = "\"" + md5Hex(bytes).replace("\"", "") + "-" + upload.parts.size() + "\"";
+        objects.put(id, new StoredObject(bytes, upload.metadata, etag));
+        sendXml(exchange, "<CompleteMultipartUploadResult>" +
+                          "<ETag>" + etag.replace("\"", "&quot;") + "</ETag>" +
+                          "</CompleteMultipartUploadResult>");
+    }
+
+    /**
+     * Read the request body, decoding the aws-chunked encoding used by the SDK for streaming and checksum trailers
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        byte[] raw;
+        try (InputStream in = exchange.getRequestBody()) {
+            raw = in.readAllBytes();
+        }
+        String sha = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        boolean chunked = (null != sha && sha.startsWith("STREAMING-")) ||
+                          (null != encoding && encoding.contains("aws-chunked"));
+        return chunked ? decodeChunked(raw) : raw;
+    }
+
+    private static byte[] decodeChunked(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length);
+        int pos = 0;
+        while (pos < raw.length) {
+            int lineEnd = indexOfCrlf(raw, pos);
+            String header = new String(raw, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            int semicolon = header.indexOf(';');
+            int size = Integer.parseInt(semicolon >= 0 ? header.substring(0, semicolon) : header.trim(), 16);
+            if (size == 0) {
+                // any remaining lines are checksum trailers
+                break;
+            }
+            out.write(raw, lineEnd + 2, size);
+            pos = lineEnd + 2 + size + 2;
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOfCrlf(byte[] raw, int from) {
+        for (int i = from; i < raw.length - 1; i++) {
+            if (raw[i] == '\r' && raw[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Malformed chunked body");
+    }
+
+    private static Map<String, String> userMetadata(Headers headers) {
+        Map<String, String> metadata = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            String name = entry.getKey().toLowerCase(Locale.ROOT);
+            if (name.startsWith(META_PREFIX) && !entry.getValue().isEmpty()) {
+                metadata.put(name.substring(META_PREFIX.length()), entry.getValue().get(0));
+            }
+        }
+        return metadata;
+    }
+
+    private static Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (null == rawQuery) {
+            return query;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            String name = eq >= 0 ? param.substring(0, eq) : param;
+            String value = eq >= 0 ? URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8) : "";
+            query.put(name, value);
+        }
+        return query;
+    }
+
+    private static void error(HttpExchange exchange, int status, String code) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            send(exchange, status, new Headers(), null);
+            return;
+        }
+        byte[] xml = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                      "<Error><Code>" + code + "</Code><Message>" + code + "</Message></Error>")
+                .getBytes(StandardCharsets.UTF_8);
+        Headers headers = new Headers();
+        headers.set("Content-Type", "application/xml");
+        send(exchange, status, headers, new Body(xml, 0, xml.length));
+    }
+
+    private static void sendXml(HttpExchange exchange, String xml) throws IOException {
+        byte[] bytes = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes(StandardCharsets.UTF_8);
+        Headers headers = new Headers();
+        headers.set("Content-Type", "application/xml");
+        send(exchange, 200, headers, new Body(bytes, 0, bytes.length));
+    }
+
+    private static void send(HttpExchange exchange, int status, Headers headers, Body body) throws IOException {
+        exchange.getResponseHeaders().putAll(headers);
+        exchange.getResponseHeaders().set("x-amz-request-id", "fake");
+        if (null == body || body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body.bytes, body.offset, body.length);
+        }
+    }
+
+    private static String md5Hex(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+            StringBuilder sb = new StringBuilder("\"");
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Body {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        private Body(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class StoredObject {
+        private final byte[] content;
+        private final Map<String, String> metadata;
+        private final String etag;
+        private final String lastModified;
+
+        private StoredObject(byte[] content, Map<String, String> metadata, String etag) {
+            this.content = content;
+            this.metadata = metadata;
+            this.etag = etag;
+            this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
+        }
+    }
+
+    private static final class MultipartUpload {
+        private final Map<String, String> metadata;
+        private final Map<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+
+        private MultipartUpload(Map<String, String> metadata) {
+            this.metadata = metadata;
+        }
+    }
+}
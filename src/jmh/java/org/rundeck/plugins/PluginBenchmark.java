@@ -0,0 +1,117 @@
+package org.rundeck.plugins;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the work done for every execution before any transfer: path expansion, object metadata and
+ * initialize, for execution contexts of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginBenchmark {
+
+    /**
+     * Number of entries in the execution context in addition to the standard ones
+     */
+    @Param({"0", "100", "1000"})
+    int extraContextEntries;
+
+    private Map<String, Object> context;
+    private FakeS3Server server;
+    private S3LogFileStoragePlugin plugin;
+
+    /**
+     * @param execId        execution id
+     * @param extraEntries  number of additional context entries
+     *
+     * @return execution context as given to the plugin by Rundeck
+     */
+    static Map<String, Object> executionContext(String execId, int extraEntries) {
+        Map<String, Object> context = new HashMap<>();
+        context.put(S3LogFileStoragePlugin.META_EXECID, execId);
+        context.put(S3LogFileStoragePlugin.META_ID_FOR_LOGSTORE, execId);
+        context.put(S3LogFileStoragePlugin.META_PROJECT, "benchmark");
+        context.put("id", "7f8e3a04-5a1e-4cbb-a6b6-3a1f0e0e8d51");
+        context.put("name", "benchmark job");
+        context.put("group", "benchmarks/plugin");
+        context.put("username", "admin");
+        context.put("url", "http://rundeck:4440/project/benchmark/execution/show/" + execId);
+        context.put("serverUrl", "http://rundeck:4440");
+        context.put("serverUUID", "3425b691-7319-4cde-9b2b-1d2a6c7e1e9a");
+        for (int i = 0; i < extraEntries; i++) {
+            context.put("option.value" + i, "value " + i);
+        }
+        return context;
+    }
+
+    /**
+     * @param endpoint fake S3 endpoint
+     *
+     * @return plugin configured for the endpoint, not initialized
+     */
+    static S3LogFileStoragePlugin configuredPlugin(String endpoint) {
+        S3LogFileStoragePlugin plugin = new S3LogFileStoragePlugin();
+        plugin.setAWSAccessKeyId("benchmark");
+        plugin.setAWSSecretKey("benchmark");
+        plugin.setBucket("benchmark");
+        plugin.setEndpoint(endpoint);
+        plugin.setPathStyle(true);
+        plugin.setPath("project/${job.project}/${job.group}/${job.id}/${job.execid}");
+        return plugin;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        context = executionContext("1234", extraContextEntries);
+        server = new FakeS3Server();
+        plugin = configuredPlugin(server.getEndpoint());
+        plugin.initialize(context);
+    }
+
+    @TearDown
+    public void tearDown() {
+        plugin.close();
+        server.close();
+    }
+
+    @Benchmark
+    public String expandPath() {
+        return S3LogFileStoragePlugin.expandPath(plugin.getPath(), context);
+    }
+
+    @Benchmark
+    public Map<String, String> createObjectMetadata() {
+        return plugin.createObjectMetadata(1024);
+    }
+
+    /**
+     * Initialize and close a plugin instance using the shared client, as done for each execution
+     */
+    @Benchmark
+    public String initialize() {
+        S3LogFileStoragePlugin instance = configuredPlugin(server.getEndpoint());
+        instance.initialize(context);
+        instance.close();
+        return instance.getExpandedPath();
+    }
+}
@@ -0,0 +1,137 @@
+package org.rundeck.plugins;
+
+import com.dtolabs.rundeck.core.logging.ExecutionFileStorageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store and retrieve throughput against an in-process fake S3 endpoint, for a range of object sizes and numbers of
+ * concurrent executions. Each benchmark thread acts as one execution with its own plugin instance, sharing the S3
+ * client as executions do in Rundeck. Use <code>-t</code> to run at other concurrency levels and
+ * <code>-prof gc</code> for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class TransferBenchmark {
+
+    @Param({"1024", "1048576", "16777216", "100663296"})
+    int objectSize;
+
+    @Param({"none", "netty"})
+    String asyncBackend;
+
+    private final AtomicInteger executions = new AtomicInteger();
+    private FakeS3Server server;
+    private byte[] content;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new FakeS3Server();
+        content = new byte[objectSize];
+        // log-like content, so compression settings behave realistically
+        Random random = new Random(0);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 80 == 79 ? '\n' : 'a' + random.nextInt(26));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * One execution per benchmark thread, with its log already stored for the retrieve benchmarks
+     */
+    @State(Scope.Thread)
+    public static class Execution {
+        S3LogFileStoragePlugin plugin;
+
+        @Setup
+        public void setup(TransferBenchmark benchmark) throws IOException, ExecutionFileStorageException {
+            plugin = PluginBenchmark.configuredPlugin(benchmark.server.getEndpoint());
+            plugin.setAsyncBackend(benchmark.asyncBackend);
+            plugin.initialize(PluginBenchmark.executionContext(
+                    Integer.toString(benchmark.executions.incrementAndGet()),
+                    0
+            ));
+            benchmark.storeLog(this);
+        }
+
+        @TearDown
+        public void tearDown() {
+            plugin.close();
+        }
+    }
+
+    private boolean storeLog(Execution execution) throws IOException, ExecutionFileStorageException {
+        return execution.plugin.store("rdlog", new ByteArrayInputStream(content), content.length, new Date());
+    }
+
+    private long retrieveLog(Execution execution) throws IOException, ExecutionFileStorageException {
+        CountingOutputStream out = new CountingOutputStream();
+        execution.plugin.retrieve("rdlog", out);
+        return out.count;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean store(Execution execution) throws IOException, ExecutionFileStorageException {
+        return storeLog(execution);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean storeConcurrent(Execution execution) throws IOException, ExecutionFileStorageException {
+        return storeLog(execution);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long retrieve(Execution execution) throws IOException, ExecutionFileStorageException {
+        return retrieveLog(execution);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long retrieveConcurrent(Execution execution) throws IOException, ExecutionFileStorageException {
+        return retrieveLog(execution);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
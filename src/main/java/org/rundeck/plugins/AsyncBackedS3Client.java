@@ -0,0 +1,195 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Presents an {@link S3AsyncClient} as an {@link S3Client} for the operations used by the plugin.
+ * <p>
+ * The plugin API is blocking, so each call blocks its calling thread until the response arrives, as with the
+ * blocking client; the calling threads are not freed. What changes is that the network I/O of all transfers in
+ * progress is driven by the async client's event loop threads and shared connection pool.
+ * <p>
+ * Bodies of local files are read with positional reads by the thread requesting more content. Other bodies are read
+ * from their blocking streams on an executor of at most one thread per concurrent request of the async client.
+ * Operations not listed here are not supported.
+ */
+final class AsyncBackedS3Client implements S3Client {
+    private final S3AsyncClient client;
+    private final ExecutorService bodyExecutor;
+
+    AsyncBackedS3Client(S3AsyncClient client) {
+        this(client, S3LogFileStoragePlugin.DEFAULT_ASYNC_MAX_CONCURRENCY);
+    }
+
+    /**
+     * @param maxConcurrency maximum number of concurrent requests of the async client, so of bodies read at once
+     */
+    AsyncBackedS3Client(S3AsyncClient client, int maxConcurrency) {
+        this.client = client;
+        this.bodyExecutor = TransferExecutors.newFixedThreadPool("s3-log-async-body", maxConcurrency);
+    }
+
+    S3AsyncClient getAsyncClient() {
+        return client;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } finally {
+            bodyExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        return await(client.headObject(request));
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        return await(client.deleteObject(request));
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+        return await(client.deleteObjects(request));
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+        return await(client.listObjectsV2(request));
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        return await(client.putObject(request, asyncBody(requestBody)));
+    }
+
+    @Override
+    public <ReturnT> ReturnT getObject(
+            GetObjectRequest request,
+            ResponseTransformer<GetObjectResponse, ReturnT> responseTransformer
+    )
+    {
+        ResponseInputStream<GetObjectResponse> stream = await(client.getObject(
+                request,
+                AsyncResponseTransformer.toBlockingInputStream()
+        ));
+        boolean leaveOpen = false;
+        try {
+            ReturnT result = responseTransformer.transform(
+                    stream.response(),
+                    AbortableInputStream.create(stream, stream::abort)
+            );
+            leaveOpen = responseTransformer.needsConnectionLeftOpen();
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw SdkClientException.create("Failed to read response: " + e.getMessage(), e);
+        } finally {
+            if (!leaveOpen) {
+                stream.abort();
+            }
+        }
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        return await(client.createMultipartUpload(request));
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+        return await(client.uploadPart(request, asyncBody(requestBody)));
+    }
+
+    @Override
+    public UploadPartCopyResponse uploadPartCopy(UploadPartCopyRequest request) {
+        return await(client.uploadPartCopy(request));
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        return await(client.completeMultipartUpload(request));
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        return await(client.abortMultipartUpload(request));
+    }
+
+    private AsyncRequestBody asyncBody(RequestBody requestBody) {
+        if (requestBody.contentStreamProvider() instanceof FileRegion) {
+            return ((FileRegion) requestBody.contentStreamProvider()).asyncRequestBody();
+        }
+        return AsyncRequestBody.fromInputStream(
+                requestBody.contentStreamProvider().newStream(),
+                requestBody.optionalContentLength().orElse(null),
+                bodyExecutor
+        );
+    }
+
+    /**
+     * Wait for the result, rethrowing SDK exceptions as they would be thrown by the blocking client
+     */
+    static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted waiting for S3 response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw SdkClientException.create(cause.getMessage(), cause);
+        }
+    }
+}
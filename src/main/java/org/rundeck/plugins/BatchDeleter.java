@@ -0,0 +1,246 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Deletes many objects with DeleteObjects requests of up to {@link #MAX_KEYS} keys, sending batches in parallel.
+ * <p>
+ * A batch which fails as a whole reports its error for each of its keys, and keys S3 could not delete report their own
+ * error, so one failure does not stop the rest of a purge.
+ */
+class BatchDeleter {
+    private static final Logger logger = LoggerFactory.getLogger(BatchDeleter.class.getName());
+
+    /**
+     * Largest number of keys in a single DeleteObjects request accepted by S3
+     */
+    static final int MAX_KEYS = 1000;
+
+    private final S3Client s3Client;
+    private final int concurrency;
+    private final AwsRequestOverrideConfiguration requestOverride;
+    private final RequestGuard guard;
+
+    /**
+     * Sends each DeleteObjects request, such as to count it against request limits
+     */
+    interface RequestGuard {
+        /**
+         * @param request sends the request
+         *
+         * @return the response
+         *
+         * @throws S3Exception        on S3 service errors
+         * @throws SdkClientException on client errors, or if the request is not allowed
+         */
+        DeleteObjectsResponse send(Supplier<DeleteObjectsResponse> request);
+    }
+
+    /**
+     * @param concurrency     maximum number of requests sent at the same time
+     * @param requestOverride override configuration applied to each request, or null
+     */
+    BatchDeleter(S3Client s3Client, int concurrency, AwsRequestOverrideConfiguration requestOverride) {
+        this(s3Client, concurrency, requestOverride, null);
+    }
+
+    /**
+     * @param concurrency     maximum number of requests sent at the same time
+     * @param requestOverride override configuration applied to each request, or null
+     * @param guard           sends each DeleteObjects request, or null to send them directly
+     */
+    BatchDeleter(
+            S3Client s3Client,
+            int concurrency,
+            AwsRequestOverrideConfiguration requestOverride,
+            RequestGuard guard
+    )
+    {
+        this.s3Client = s3Client;
+        this.concurrency = Math.max(1, concurrency);
+        this.requestOverride = requestOverride;
+        this.guard = guard;
+    }
+
+    /**
+     * Delete the keys
+     *
+     * @param bucket  bucket
+     * @param keys    object keys
+     * @param deleted called with the keys of each batch once it has been sent, whether or not it succeeded
+     */
+    PurgeResult delete(String bucket, Collection<String> keys, Consumer<String> deleted) {
+        try (Batches batches = new Batches(bucket, deleted)) {
+            List<String> batch = new ArrayList<>(MAX_KEYS);
+            for (String key : keys) {
+                batch.add(key);
+                if (batch.size() == MAX_KEYS) {
+                    batches.submit(batch);
+                    batch = new ArrayList<>(MAX_KEYS);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.submit(batch);
+            }
+            return batches.result();
+        }
+    }
+
+    /**
+     * Delete all objects with the prefix. Each page of the listing is deleted while the next is listed.
+     *
+     * @param bucket  bucket
+     * @param prefix  key prefix
+     * @param deleted called with the keys of each batch once it has been sent, whether or not it succeeded
+     *
+     * @throws S3Exception        if the objects cannot be listed
+     * @throws SdkClientException if the objects cannot be listed
+     */
+    PurgeResult deletePrefix(String bucket, String prefix, Consumer<String> deleted) {
+        try (Batches batches = new Batches(bucket, deleted)) {
+            String token = null;
+            do {
+                ListObjectsV2Response page = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                                                                            .bucket(bucket)
+                                                                            .prefix(prefix)
+                                                                            .maxKeys(MAX_KEYS)
+                                                                            .continuationToken(token)
+                                                                            .overrideConfiguration(requestOverride)
+                                                                            .build());
+                List<String> batch = new ArrayList<>();
+                if (null != page.contents()) {
+                    for (S3Object object : page.contents()) {
+                        batch.add(object.key());
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batches.submit(batch);
+                }
+                token = Boolean.TRUE.equals(page.isTruncated()) ? page.nextContinuationToken() : null;
+            } while (null != token);
+            return batches.result();
+        }
+    }
+
+    /**
+     * @return error message by key for the keys which were not deleted
+     */
+    private Map<String, String> deleteBatch(String bucket, List<String> keys) {
+        List<ObjectIdentifier> objects = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            objects.add(ObjectIdentifier.builder().key(key).build());
+        }
+        DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                                                           .bucket(bucket)
+                                                           .delete(Delete.builder()
+                                                                           .objects(objects)
+                                                                           .quiet(true)
+                                                                           .build())
+                                                           .overrideConfiguration(requestOverride)
+                                                           .build();
+        Map<String, String> errors = new HashMap<>();
+        try {
+            DeleteObjectsResponse response = null != guard
+                                             ? guard.send(() -> s3Client.deleteObjects(request))
+                                             : s3Client.deleteObjects(request);
+            if (null != response.errors()) {
+                for (S3Error error : response.errors()) {
+                    errors.put(error.key(), error.code() + ": " + error.message());
+                }
+            }
+        } catch (S3Exception | SdkClientException e) {
+            logger.debug("Failed to delete batch of {} keys: {}", keys.size(), e.getMessage());
+            for (String key : keys) {
+                errors.put(key, e.getMessage());
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Batches in flight, at most {@link #concurrency} at a time
+     */
+    private final class Batches implements AutoCloseable {
+        private final String bucket;
+        private final Consumer<String> deleted;
+        private final ExecutorService executor = TransferExecutors.newFixedThreadPool("s3-log-delete", concurrency);
+        private final Semaphore inFlight = new Semaphore(concurrency);
+        private final List<Future<Map<String, String>>> results = new ArrayList<>();
+        private long keys;
+
+        private Batches(String bucket, Consumer<String> deleted) {
+            this.bucket = bucket;
+            this.deleted = deleted;
+        }
+
+        private void submit(List<String> batch) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw SdkClientException.create("Interrupted while deleting objects", e);
+            }
+            keys += batch.size();
+            results.add(executor.submit(() -> {
+                try {
+                    return deleteBatch(bucket, batch);
+                } finally {
+                    batch.forEach(deleted);
+                    inFlight.release();
+                }
+            }));
+        }
+
+        private PurgeResult result() {
+            Map<String, String> errors = new HashMap<>();
+            for (Future<Map<String, String>> result : results) {
+                try {
+                    errors.putAll(result.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw SdkClientException.create("Interrupted while deleting objects", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw SdkClientException.create(cause.getMessage(), cause);
+                }
+            }
+            return new PurgeResult(keys - errors.size(), errors);
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending requests to a bucket which is failing, so that each caller does not wait out the SDK timeouts and
+ * retries, and limits the requests in flight to it, so that a bucket which responds slowly cannot hold every thread.
+ * Shared by all plugin instances using the same endpoint, bucket and settings.
+ * <p>
+ * The breaker opens when at least the failure rate of the last {@link #WINDOW_SIZE} calls failed. Client errors, such
+ * as timeouts, and S3 errors worth retrying, such as 500 and 503, are failures, but errors such as 404 and 403 are not.
+ * Timed calls taking longer than the slow call duration are failures too. While open, calls are rejected until the open
+ * duration has passed, then {@link #PROBE_CALLS} calls are let through: the breaker closes if they all succeed, and
+ * opens again if one fails.
+ */
+final class CircuitBreaker {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class.getName());
+
+    static final int WINDOW_SIZE = 20;
+    /**
+     * Calls in the window before the breaker can open
+     */
+    static final int MIN_CALLS = 10;
+    static final int PROBE_CALLS = 3;
+
+    private static final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    enum State {
+        CLOSED,
+        OPEN,
+        /**
+         * Letting probe calls through after being open
+         */
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureRate;
+    private final long slowCallMillis;
+    private final long openMillis;
+    private final int maxInFlight;
+    private final LongSupplier clock;
+    /**
+     * Outcome of the last calls, true if failed
+     */
+    private final boolean[] window = new boolean[WINDOW_SIZE];
+    private int windowCount;
+    private int windowNext;
+    private int windowFailures;
+    private State state = State.CLOSED;
+    /**
+     * Incremented on each change of state, so calls started before are not counted after
+     */
+    private long epoch;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+    private int inFlight;
+
+    /**
+     * @param name           name used in log messages
+     * @param failureRate    percentage of failed calls which opens the breaker, or 0 to only limit calls in flight
+     * @param slowCallMillis duration after which a timed call is a failure, or 0 to not count durations
+     * @param openMillis     time calls are rejected for once the breaker opens
+     * @param maxInFlight    maximum calls in flight, or 0 for no limit
+     */
+    CircuitBreaker(
+            String name,
+            int failureRate,
+            long slowCallMillis,
+            long openMillis,
+            int maxInFlight,
+            LongSupplier clock
+    )
+    {
+        this.name = name;
+        this.failureRate = failureRate;
+        this.slowCallMillis = slowCallMillis;
+        this.openMillis = openMillis;
+        this.maxInFlight = maxInFlight;
+        this.clock = clock;
+    }
+
+    /**
+     * @param endpoint custom endpoint, or null for AWS
+     *
+     * @return the breaker for the endpoint, bucket and settings, created if needed
+     * @see #CircuitBreaker(String, int, long, long, int, LongSupplier)
+     */
+    static CircuitBreaker forTarget(
+            String endpoint,
+            String bucket,
+            int failureRate,
+            long slowCallMillis,
+            long openMillis,
+            int maxInFlight
+    )
+    {
+        String name = null != endpoint ? endpoint + "/" + bucket : bucket;
+        return breakers.computeIfAbsent(
+                name + "/" + failureRate + "/" + slowCallMillis + "/" + openMillis + "/" + maxInFlight,
+                k -> new CircuitBreaker(name, failureRate, slowCallMillis, openMillis, maxInFlight,
+                                        System::currentTimeMillis)
+        );
+    }
+
+    /**
+     * Start a call, unless the breaker is open or the maximum calls are in flight
+     *
+     * @param timed true if the call's duration is counted, for calls whose duration does not depend on the size of
+     *              the content transferred
+     *
+     * @return the call, which must be closed when it ends
+     *
+     * @throws RejectedException if the call must not be sent
+     */
+    synchronized Call start(boolean timed) throws RejectedException {
+        if (maxInFlight > 0 && inFlight >= maxInFlight) {
+            throw new RejectedException("Too many S3 requests in flight to " + name + ", limit is " + maxInFlight);
+        }
+        if (State.OPEN == state) {
+            if (clock.getAsLong() - openedAt < openMillis) {
+                throw new RejectedException("S3 requests to " + name + " are failing, not sending requests for " +
+                                            (openMillis - (clock.getAsLong() - openedAt)) + " ms");
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (State.HALF_OPEN == state) {
+            if (probesStarted >= PROBE_CALLS) {
+                throw new RejectedException("S3 requests to " + name + " are failing, waiting for test requests");
+            }
+            probesStarted++;
+        }
+        inFlight++;
+        return new Call(this, epoch, timed, clock.getAsLong());
+    }
+
+    private synchronized void end(Call call) {
+        inFlight--;
+        if (call.epoch != epoch) {
+            return;
+        }
+        boolean failed = call.failed
+                         || call.timed && slowCallMillis > 0 && clock.getAsLong() - call.started > slowCallMillis;
+        if (State.HALF_OPEN == state) {
+            if (failed) {
+                open();
+            } else if (++probesSucceeded >= PROBE_CALLS) {
+                transition(State.CLOSED);
+                logger.info("S3 requests to {} are succeeding again, closed the circuit breaker", name);
+            }
+            return;
+        }
+        if (windowCount == WINDOW_SIZE && window[windowNext]) {
+            windowFailures--;
+        }
+        window[windowNext] = failed;
+        windowNext = (windowNext + 1) % WINDOW_SIZE;
+        windowCount = Math.min(WINDOW_SIZE, windowCount + 1);
+        if (failed) {
+            windowFailures++;
+        }
+        if (failureRate > 0 && windowCount >= MIN_CALLS && windowFailures * 100 >= failureRate * windowCount) {
+            logger.warn("{} of the last {} S3 requests to {} failed or were slow, opened the circuit breaker",
+                        windowFailures, windowCount, name);
+            open();
+        }
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        openedAt = clock.getAsLong();
+    }
+
+    private void transition(State next) {
+        state = next;
+        epoch++;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        windowCount = 0;
+        windowNext = 0;
+        windowFailures = 0;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return true if the error means S3 is failing, rather than that the request was not valid
+     */
+    static boolean isFailure(Throwable e) {
+        return e instanceof SdkClientException || e instanceof S3Exception && S3Errors.isRetryable((S3Exception) e);
+    }
+
+    /**
+     * A call allowed to start
+     */
+    static final class Call {
+        /**
+         * Counts nothing
+         */
+        static final Call NONE = new Call(null, 0, false, 0);
+
+        private final CircuitBreaker breaker;
+        private final long epoch;
+        private final boolean timed;
+        private final long started;
+        private boolean failed;
+        private boolean closed;
+
+        private Call(CircuitBreaker breaker, long epoch, boolean timed, long started) {
+            this.breaker = breaker;
+            this.epoch = epoch;
+            this.timed = timed;
+            this.started = started;
+        }
+
+        /**
+         * Record a failure of the call, counted if it means S3 is failing
+         */
+        void failed(Throwable e) {
+            if (isFailure(e)) {
+                failed = true;
+            }
+        }
+
+        /**
+         * End the call
+         */
+        void close() {
+            if (null == breaker || closed) {
+                return;
+            }
+            closed = true;
+            breaker.end(this);
+        }
+    }
+
+    /**
+     * A call was not started because the breaker is open or the maximum calls are in flight
+     */
+    static final class RejectedException extends Exception {
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Finds the stored files of executions with ListObjectsV2 over the prefix their paths share, instead of a HEAD request
+ * for each file.
+ * <p>
+ * Files of an execution are keyed {@code <path>.<filetype>}. The listing starts after the first path and stops once it
+ * has passed the keys of the last, so executions with nearby paths, such as a page of consecutive executions of a
+ * project, are found with one or a few list requests.
+ */
+class ExecutionLister {
+    private final S3Client s3Client;
+    private final AwsRequestOverrideConfiguration requestOverride;
+
+    /**
+     * @param requestOverride override configuration applied to each request, or null
+     */
+    ExecutionLister(S3Client s3Client, AwsRequestOverrideConfiguration requestOverride) {
+        this.s3Client = s3Client;
+        this.requestOverride = requestOverride;
+    }
+
+    /**
+     * @param bucket bucket
+     * @param paths  expanded paths of the executions
+     *
+     * @return stored files by filetype for each path, empty for paths with no files
+     */
+    Map<String, Map<String, StoredFile>> list(String bucket, Collection<String> paths) {
+        Map<String, Map<String, StoredFile>> found = new HashMap<>();
+        TreeSet<String> sorted = new TreeSet<>(paths);
+        for (String path : sorted) {
+            found.put(path, new TreeMap<>());
+        }
+        if (sorted.isEmpty()) {
+            return found;
+        }
+        String first = sorted.first();
+        // the last key prefix, which is not always that of the last path, as '.' sorts after some path characters
+        String last = null;
+        for (String path : sorted) {
+            if (null == last || (path + ".").compareTo(last) > 0) {
+                last = path + ".";
+            }
+        }
+        String token = null;
+        do {
+            ListObjectsV2Response page = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+                                                                        .bucket(bucket)
+                                                                        .prefix(commonPrefix(first, last))
+                                                                        .startAfter(null == token ? first : null)
+                                                                        .continuationToken(token)
+                                                                        .overrideConfiguration(requestOverride)
+                                                                        .build());
+            if (null != page.contents()) {
+                for (S3Object object : page.contents()) {
+                    String key = object.key();
+                    if (key.compareTo(last) > 0 && !key.startsWith(last)) {
+                        return found;
+                    }
+                    addFile(found, object);
+                }
+            }
+            token = Boolean.TRUE.equals(page.isTruncated()) ? page.nextContinuationToken() : null;
+        } while (null != token);
+        return found;
+    }
+
+    /**
+     * Add the object to the files of the execution with the longest path it starts with, followed by a dot
+     */
+    private static void addFile(Map<String, Map<String, StoredFile>> found, S3Object object) {
+        String key = object.key();
+        for (int dot = key.lastIndexOf('.'); dot > 0; dot = key.lastIndexOf('.', dot - 1)) {
+            Map<String, StoredFile> files = found.get(key.substring(0, dot));
+            if (null != files && dot < key.length() - 1) {
+                files.put(key.substring(dot + 1), new StoredFile(
+                        key,
+                        null != object.size() ? object.size() : 0,
+                        object.eTag(),
+                        object.lastModified()
+                ));
+                return;
+            }
+        }
+    }
+
+    static String commonPrefix(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < length && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return a.substring(0, i);
+    }
+}
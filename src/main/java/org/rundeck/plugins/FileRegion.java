@@ -0,0 +1,228 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A range of a local file to upload. Content is read from the file with positional reads each time a request body is
+ * sent, so nothing is buffered on the heap for retries, and parts of a multipart upload can be read concurrently.
+ * <p>
+ * Reading does not move the position of the stream the region was created from, and closing a stream returned by
+ * {@link #newStream()} does not close the file.
+ */
+final class FileRegion implements ContentStreamProvider {
+    /**
+     * Size of the buffers sent by {@link #asyncRequestBody()}
+     */
+    static final int ASYNC_CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long offset;
+    private final long length;
+
+    private FileRegion(FileChannel channel, long offset, long length) {
+        this.channel = channel;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param stream content to upload
+     * @param length number of bytes to upload from the current position of the stream
+     *
+     * @return the region of the file read by the stream, or null if it does not read a local file of at least that
+     * length
+     */
+    static FileRegion of(InputStream stream, long length) {
+        if (!(stream instanceof FileInputStream) || length < 0) {
+            return null;
+        }
+        try {
+            FileChannel channel = ((FileInputStream) stream).getChannel();
+            long position = channel.position();
+            if (channel.size() - position < length) {
+                return null;
+            }
+            return new FileRegion(channel, position, length);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @param start  offset within this region
+     * @param length number of bytes
+     *
+     * @return part of this region
+     */
+    FileRegion slice(long start, long length) {
+        if (start < 0 || length < 0 || start + length > this.length) {
+            throw new IllegalArgumentException(
+                    "Range " + start + "+" + length + " is outside of region of " + this.length + " bytes");
+        }
+        return new FileRegion(channel, offset + start, length);
+    }
+
+    /**
+     * @return body reading the region from the file for each attempt
+     */
+    RequestBody requestBody() {
+        return RequestBody.fromContentProvider(this, length, "application/octet-stream");
+    }
+
+    /**
+     * @return body of an async client reading the region from the file for each attempt, on the thread which requests
+     * more content, so that it needs no thread of its own
+     */
+    AsyncRequestBody asyncRequestBody() {
+        return new AsyncRequestBody() {
+            @Override
+            public Optional<Long> contentLength() {
+                return Optional.of(length);
+            }
+
+            @Override
+            public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+                ChunkSubscription subscription = new ChunkSubscription(subscriber);
+                subscriber.onSubscribe(subscription);
+                subscription.drain();
+            }
+        };
+    }
+
+    /**
+     * @return stream of the region, from the start
+     */
+    @Override
+    public InputStream newStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int count = read(b, 0, 1);
+                return count < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (position >= length) {
+                    return -1;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, length - position));
+                int count = channel.read(buffer, offset + position);
+                if (count < 0) {
+                    throw new IOException("File ended after " + position + " bytes of a " + length + " byte upload");
+                }
+                position += count;
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, length - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, length - position);
+            }
+        };
+    }
+
+    /**
+     * Sends the region in chunks as they are requested. A request made while sending a chunk is served by the loop
+     * already sending, rather than recursively.
+     */
+    private final class ChunkSubscription implements Subscription {
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean done;
+        private long position;
+
+        private ChunkSubscription(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " chunks, must be positive"));
+                return;
+            }
+            demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!done) {
+                    if (position >= length) {
+                        done = true;
+                        subscriber.onComplete();
+                    } else if (demand.get() > 0) {
+                        ByteBuffer chunk;
+                        try {
+                            chunk = readChunk();
+                        } catch (IOException e) {
+                            done = true;
+                            subscriber.onError(e);
+                            break;
+                        }
+                        demand.decrementAndGet();
+                        subscriber.onNext(chunk);
+                    } else {
+                        break;
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private ByteBuffer readChunk() throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(ASYNC_CHUNK_SIZE, length - position));
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, offset + position + chunk.position()) < 0) {
+                    throw new IOException("File ended after " + (position + chunk.position()) + " bytes of a " +
+                                          length + " byte upload");
+                }
+            }
+            position += chunk.limit();
+            chunk.flip();
+            return chunk;
+        }
+    }
+}
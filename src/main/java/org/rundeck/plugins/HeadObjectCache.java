@@ -0,0 +1,167 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded in-memory cache of HEAD results for an S3 client, recording whether an object exists and its user metadata.
+ * <p>
+ * Rundeck checks availability of the same files repeatedly, for example while polling for a log stored by another
+ * cluster member. Results are kept for a TTL given by the caller, with a separate TTL for missing objects. A cache
+ * belongs to one client, so results are shared by executions sharing that client and never between clients using
+ * different credentials or endpoints.
+ */
+class HeadObjectCache {
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final Map<S3Client, HeadObjectCache> caches = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final Map<String, Result> entries;
+    /**
+     * Version at which each recently stored or deleted object was last invalidated
+     */
+    private final Map<String, Long> invalidated;
+    private long version;
+    /**
+     * Latest version among objects no longer in {@link #invalidated}
+     */
+    private long evictedVersion;
+
+    HeadObjectCache(int maxEntries, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > HeadObjectCache.this.maxEntries;
+            }
+        };
+        this.invalidated = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() > HeadObjectCache.this.maxEntries) {
+                    evictedVersion = Math.max(evictedVersion, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param client S3 client
+     *
+     * @return the cache for the client, created if needed
+     */
+    static HeadObjectCache forClient(S3Client client) {
+        return caches.computeIfAbsent(
+                client,
+                k -> new HeadObjectCache(DEFAULT_MAX_ENTRIES, System::currentTimeMillis)
+        );
+    }
+
+    /**
+     * @param bucket            bucket
+     * @param key               object key
+     * @param ttlMillis         time an existing object is cached
+     * @param negativeTtlMillis time a missing object is cached
+     *
+     * @return the cached result, or null if not cached or expired
+     */
+    synchronized Result get(String bucket, String key, long ttlMillis, long negativeTtlMillis) {
+        String id = id(bucket, key);
+        Result result = entries.get(id);
+        if (null == result) {
+            return null;
+        }
+        long ttl = result.exists ? ttlMillis : negativeTtlMillis;
+        if (clock.getAsLong() - result.time >= ttl) {
+            entries.remove(id);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return token to pass to {@link #found} or {@link #missing} for a HEAD request started now
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Record that the object exists, unless it was invalidated since the request was started
+     */
+    synchronized void found(String bucket, String key, Map<String, String> metadata, long version) {
+        put(bucket, key, new Result(true, null != metadata ? new HashMap<>(metadata) : null, clock.getAsLong()),
+            version);
+    }
+
+    /**
+     * Record that the object does not exist, unless it was invalidated since the request was started
+     */
+    synchronized void missing(String bucket, String key, long version) {
+        put(bucket, key, new Result(false, null, clock.getAsLong()), version);
+    }
+
+    private void put(String bucket, String key, Result result, long version) {
+        String id = id(bucket, key);
+        Long invalidatedAt = invalidated.get(id);
+        if (version < (null != invalidatedAt ? invalidatedAt : evictedVersion)) {
+            // the object may have been stored or deleted while the request was in flight
+            return;
+        }
+        entries.put(id, result);
+    }
+
+    /**
+     * Remove the result for an object which is being stored or deleted, and ignore results of requests for it which
+     * are in flight
+     */
+    synchronized void invalidate(String bucket, String key) {
+        String id = id(bucket, key);
+        version++;
+        invalidated.remove(id);
+        invalidated.put(id, version);
+        entries.remove(id);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static String id(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    /**
+     * A cached HEAD result
+     */
+    static final class Result {
+        private final boolean exists;
+        private final Map<String, String> metadata;
+        private final long time;
+
+        private Result(boolean exists, Map<String, String> metadata, long time) {
+            this.exists = exists;
+            this.metadata = metadata;
+            this.time = time;
+        }
+
+        boolean exists() {
+            return exists;
+        }
+
+        Map<String, String> getMetadata() {
+            return metadata;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.crt.AwsCrtHttpClient;
+import software.amazon.awssdk.http.crt.TcpKeepAliveConfiguration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+
+import java.time.Duration;
+
+/**
+ * HTTP settings of the S3 clients: the HTTP implementation of the blocking client, its connection pool, and the
+ * timeouts of each S3 call.
+ * <p>
+ * Pool settings an implementation does not support are ignored: the URLConnection client uses the JDK's keep-alive
+ * cache, and the CRT client has no connection time to live and always closes idle connections. The pool settings,
+ * except the maximum connections, also apply to the Netty client of the async backend, and the timeouts to both
+ * blocking and async clients.
+ */
+final class HttpTransport {
+    /**
+     * Interval of TCP keep-alive probes of the CRT client, which has no system default
+     */
+    static final Duration CRT_KEEP_ALIVE_INTERVAL = Duration.ofSeconds(30);
+    static final Duration CRT_KEEP_ALIVE_TIMEOUT = Duration.ofSeconds(10);
+
+    private final String httpClient;
+    private final int maxConnections;
+    private final long connectionTimeToLiveMillis;
+    private final long connectionMaxIdleMillis;
+    private final boolean reapIdleConnections;
+    private final boolean tcpKeepAlive;
+    private final long apiCallAttemptTimeoutMillis;
+    private final long apiCallTimeoutMillis;
+
+    /**
+     * @param httpClient                  HTTP implementation of the blocking client
+     * @param maxConnections              maximum pooled connections
+     * @param connectionTimeToLiveMillis  time after which a pooled connection is closed, or 0 for no limit
+     * @param connectionMaxIdleMillis     time after which an idle pooled connection is closed
+     * @param reapIdleConnections         true to close idle connections in the background, rather than when the pool
+     *                                    is next used
+     * @param tcpKeepAlive                true to send TCP keep-alive probes
+     * @param apiCallAttemptTimeoutMillis time allowed for each attempt of an S3 call, or 0 for no limit
+     * @param apiCallTimeoutMillis        time allowed for an S3 call including retries, or 0 for no limit
+     */
+    HttpTransport(
+            String httpClient,
+            int maxConnections,
+            long connectionTimeToLiveMillis,
+            long connectionMaxIdleMillis,
+            boolean reapIdleConnections,
+            boolean tcpKeepAlive,
+            long apiCallAttemptTimeoutMillis,
+            long apiCallTimeoutMillis
+    )
+    {
+        this.httpClient = httpClient;
+        this.maxConnections = maxConnections;
+        this.connectionTimeToLiveMillis = connectionTimeToLiveMillis;
+        this.connectionMaxIdleMillis = connectionMaxIdleMillis;
+        this.reapIdleConnections = reapIdleConnections;
+        this.tcpKeepAlive = tcpKeepAlive;
+        this.apiCallAttemptTimeoutMillis = apiCallAttemptTimeoutMillis;
+        this.apiCallTimeoutMillis = apiCallTimeoutMillis;
+    }
+
+    /**
+     * @return builder of the blocking client's HTTP implementation. If the CRT client is selected and the AWS CRT
+     * library is not available, this or building the client throws {@link NoClassDefFoundError} or
+     * {@link UnsatisfiedLinkError}
+     */
+    SdkHttpClient.Builder<?> httpClientBuilder() {
+        if (S3LogFileStoragePlugin.HTTP_CLIENT_URL_CONNECTION.equals(httpClient)) {
+            return UrlConnectionHttpClient.builder();
+        }
+        if (S3LogFileStoragePlugin.HTTP_CLIENT_CRT.equals(httpClient)) {
+            return crtHttpClientBuilder();
+        }
+        ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+                .maxConnections(maxConnections)
+                .connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdleMillis))
+                .useIdleConnectionReaper(reapIdleConnections)
+                .tcpKeepAlive(tcpKeepAlive);
+        if (connectionTimeToLiveMillis > 0) {
+            builder.connectionTimeToLive(Duration.ofMillis(connectionTimeToLiveMillis));
+        }
+        return builder;
+    }
+
+    /**
+     * Separate so that the CRT classes are only loaded if selected
+     */
+    private SdkHttpClient.Builder<?> crtHttpClientBuilder() {
+        AwsCrtHttpClient.Builder builder = AwsCrtHttpClient.builder()
+                .maxConcurrency(maxConnections)
+                .connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdleMillis));
+        if (tcpKeepAlive) {
+            builder.tcpKeepAliveConfiguration(TcpKeepAliveConfiguration.builder()
+                                                      .keepAliveInterval(CRT_KEEP_ALIVE_INTERVAL)
+                                                      .keepAliveTimeout(CRT_KEEP_ALIVE_TIMEOUT)
+                                                      .build());
+        }
+        return builder;
+    }
+
+    /**
+     * Apply the pool settings to the async client's Netty HTTP client
+     *
+     * @return the builder
+     */
+    NettyNioAsyncHttpClient.Builder configure(NettyNioAsyncHttpClient.Builder builder) {
+        builder.connectionMaxIdleTime(Duration.ofMillis(connectionMaxIdleMillis))
+               .tcpKeepAlive(tcpKeepAlive);
+        if (connectionTimeToLiveMillis > 0) {
+            builder.connectionTimeToLive(Duration.ofMillis(connectionTimeToLiveMillis));
+        }
+        return builder;
+    }
+
+    /**
+     * Apply the call timeouts to the client configuration
+     *
+     * @return the builder
+     */
+    ClientOverrideConfiguration.Builder configure(ClientOverrideConfiguration.Builder builder) {
+        if (apiCallAttemptTimeoutMillis > 0) {
+            builder.apiCallAttemptTimeout(Duration.ofMillis(apiCallAttemptTimeoutMillis));
+        }
+        if (apiCallTimeoutMillis > 0) {
+            builder.apiCallTimeout(Duration.ofMillis(apiCallTimeoutMillis));
+        }
+        return builder;
+    }
+
+    /**
+     * @return the settings, to tell apart clients built with different settings
+     */
+    String options() {
+        return "http=" + httpClient +
+               ",maxConnections=" + maxConnections +
+               ",connectionTtl=" + connectionTimeToLiveMillis +
+               ",maxIdle=" + connectionMaxIdleMillis +
+               ",reapIdle=" + reapIdleConnections +
+               ",keepAlive=" + tcpKeepAlive +
+               ",attemptTimeout=" + apiCallAttemptTimeoutMillis +
+               ",callTimeout=" + apiCallTimeoutMillis;
+    }
+}
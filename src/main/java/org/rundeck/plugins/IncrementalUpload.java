@@ -0,0 +1,187 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Stores a file which grows between stores, such as the log of a running execution which Rundeck stores again at each
+ * checkpoint, uploading only what was written since the previous store.
+ * <p>
+ * Each store is a multipart upload which is completed, so the object always holds the whole file as last stored. If
+ * the object is still the one written by the previous store and the file still starts with the content stored then,
+ * that content is copied within S3 as the first parts of the upload, and only the rest of the file is uploaded.
+ * Otherwise the whole file is uploaded. The file must be at least {@link MultipartUploader#MIN_PART_SIZE} long.
+ * <p>
+ * Stores are tracked by bucket and key rather than by plugin instance, as Rundeck uses a new instance for each store.
+ * Objects not stored again within {@link #EXPIRE_AFTER_MILLIS} are forgotten.
+ */
+final class IncrementalUpload {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalUpload.class.getName());
+
+    static final long EXPIRE_AFTER_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Map<String, IncrementalUpload> uploads = new ConcurrentHashMap<>();
+
+    private final String bucket;
+    private final String key;
+    private final long maxCopyPartSize;
+    private long storedLength;
+    private long storedCrc;
+    private String storedETag;
+    private volatile long lastStored;
+
+    IncrementalUpload(String bucket, String key) {
+        this(bucket, key, MultipartUploader.MAX_PART_SIZE);
+    }
+
+    /**
+     * @param maxCopyPartSize largest part copied from the stored object
+     */
+    IncrementalUpload(String bucket, String key, long maxCopyPartSize) {
+        this.bucket = bucket;
+        this.key = key;
+        this.maxCopyPartSize = maxCopyPartSize;
+    }
+
+    /**
+     * Forgets the objects not stored for {@link #EXPIRE_AFTER_MILLIS}
+     *
+     * @param now current time in milliseconds
+     *
+     * @return the stores of the object, created if needed
+     */
+    static IncrementalUpload forObject(String bucket, String key, long now) {
+        uploads.values().removeIf(upload -> upload.lastStored > 0 && now - upload.lastStored > EXPIRE_AFTER_MILLIS);
+        return uploads.computeIfAbsent(bucket + "/" + key, k -> new IncrementalUpload(bucket, key));
+    }
+
+    /**
+     * Forget the stores of the object, such as when it is deleted
+     *
+     * @return the stores of the object, or null if there were none
+     */
+    static IncrementalUpload remove(String bucket, String key) {
+        return uploads.remove(bucket + "/" + key);
+    }
+
+    /**
+     * Store the file, copying the content stored by the previous store if the file still starts with it. The upload is
+     * aborted if this fails.
+     *
+     * @param uploader uploads the parts
+     * @param metadata user metadata of the object
+     * @param file     the file
+     * @param partSize size of each uploaded part, increased if needed to stay within the S3 part count limit
+     * @param now      current time in milliseconds
+     *
+     * @return number of bytes uploaded, the rest were copied
+     */
+    synchronized long store(
+            MultipartUploader uploader,
+            Map<String, String> metadata,
+            FileRegion file,
+            long partSize,
+            long now
+    )
+            throws IOException
+    {
+        lastStored = now;
+        long length = file.getLength();
+        CRC32C crc = new CRC32C();
+        long checked = null != storedETag && storedLength <= length ? storedLength : 0;
+        update(crc, file, 0, checked);
+        long copied = checked > 0 && crc.getValue() == storedCrc ? checked : 0;
+        update(crc, file, checked, length);
+        String eTag;
+        try {
+            try {
+                eTag = upload(uploader, metadata, file, copied, partSize);
+            } catch (S3Exception e) {
+                if (0 == copied || e.statusCode() != 412) {
+                    throw e;
+                }
+                logger.debug("{}:{} changed since it was stored, uploading all of it", bucket, key);
+                copied = 0;
+                eTag = upload(uploader, metadata, file, 0, partSize);
+            }
+        } catch (RuntimeException e) {
+            storedETag = null;
+            throw e;
+        }
+        logger.debug("Stored {}:{} copying {} bytes and uploading {}", bucket, key, copied, length - copied);
+        storedLength = length;
+        storedCrc = crc.getValue();
+        storedETag = eTag;
+        return length - copied;
+    }
+
+    /**
+     * @return length of the file last stored, or 0 if the object is not known
+     */
+    synchronized long getStoredLength() {
+        return null != storedETag ? storedLength : 0;
+    }
+
+    /**
+     * Upload the file, copying its first bytes from the stored object
+     *
+     * @return ETag of the object
+     */
+    private String upload(
+            MultipartUploader uploader,
+            Map<String, String> metadata,
+            FileRegion file,
+            long copied,
+            long partSize
+    )
+    {
+        String uploadId = uploader.start(bucket, key, metadata);
+        try {
+            List<CompletedPart> parts = new ArrayList<>();
+            long copyParts = (copied + maxCopyPartSize - 1) / maxCopyPartSize;
+            for (long i = 0; i < copyParts; i++) {
+                parts.add(uploader.copyPart(
+                        bucket,
+                        key,
+                        uploadId,
+                        parts.size() + 1,
+                        storedETag,
+                        copied * i / copyParts,
+                        copied * (i + 1) / copyParts
+                ));
+            }
+            long length = file.getLength();
+            long free = MultipartUploader.MAX_PARTS - parts.size();
+            long size = Math.max(partSize, (length - copied + free - 1) / free);
+            for (long offset = copied; offset < length; offset += size) {
+                long partLength = Math.min(size, length - offset);
+                FileRegion part = file.slice(offset, partLength);
+                parts.add(uploader.uploadPart(bucket, key, uploadId, parts.size() + 1, partLength, part));
+            }
+            return uploader.complete(bucket, key, uploadId, parts).eTag();
+        } catch (RuntimeException e) {
+            uploader.abort(bucket, key, uploadId);
+            throw e;
+        }
+    }
+
+    private static void update(CRC32C crc, FileRegion file, long start, long end) throws IOException {
+        if (end > start) {
+            try (CheckedInputStream in = new CheckedInputStream(file.slice(start, end - start).newStream(), crc)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package org.rundeck.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Several small files of an execution stored as one object, so that storing and reading them costs one request
+ * instead of one for each file.
+ * <p>
+ * The object holds the content of each file, followed by an index and a fixed length trailer:
+ * <pre>
+ * content... | index | index length (int) | "RDBUNDL1"
+ * index: entry count (int), then for each entry: filetype (UTF), codec (UTF), offset (long), length (long)
+ * </pre>
+ * so that the index, and often the files themselves, can be read with one request for the end of the object.
+ */
+final class LogBundle {
+    static final byte[] MAGIC = "RDBUNDL1".getBytes(StandardCharsets.US_ASCII);
+    static final int TRAILER_LENGTH = Integer.BYTES + MAGIC.length;
+    /**
+     * Bytes requested from the end of a bundle by the first read, enough for the index and small files
+     */
+    static final int TAIL_LENGTH = 64 * 1024;
+
+    private LogBundle() {
+    }
+
+    /**
+     * A file in a bundle
+     */
+    static final class Entry {
+        private final String filetype;
+        private final LogCompression compression;
+        private final long offset;
+        private final long length;
+
+        Entry(String filetype, LogCompression compression, long offset, long length) {
+            this.filetype = filetype;
+            this.compression = compression;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        String getFiletype() {
+            return filetype;
+        }
+
+        /**
+         * @return codec the stored content was compressed with
+         */
+        LogCompression getCompression() {
+            return compression;
+        }
+
+        /**
+         * @return offset of the stored content in the bundle
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return length of the stored content
+         */
+        long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Collects files in memory and writes the bundle
+     */
+    static final class Builder {
+        private final LogCompression compression;
+        private final List<byte[]> contents = new ArrayList<>();
+        private final List<Entry> entries = new ArrayList<>();
+        private long offset;
+        private byte[] index;
+
+        /**
+         * @param compression codec each file is compressed with
+         */
+        Builder(LogCompression compression) {
+            this.compression = compression;
+        }
+
+        Builder add(String filetype, byte[] content) throws IOException {
+            byte[] stored = content;
+            if (LogCompression.NONE != compression) {
+                try (InputStream compressed = compression.compress(new ByteArrayInputStream(content))) {
+                    stored = compressed.readAllBytes();
+                }
+            }
+            return addStored(filetype, compression, stored);
+        }
+
+        /**
+         * Add a file already compressed, such as one copied from another bundle
+         *
+         * @param compression codec the content was compressed with
+         * @param stored      the compressed content
+         */
+        Builder addStored(String filetype, LogCompression compression, byte[] stored) {
+            contents.add(stored);
+            entries.add(new Entry(filetype, compression, offset, stored.length));
+            offset += stored.length;
+            index = null;
+            return this;
+        }
+
+        List<String> getFiletypes() {
+            List<String> filetypes = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                filetypes.add(entry.getFiletype());
+            }
+            return filetypes;
+        }
+
+        /**
+         * @return length of the bundle
+         */
+        long length() {
+            return offset + index().length;
+        }
+
+        /**
+         * @return a new stream of the bundle, which can be called again for a retry
+         */
+        InputStream newStream() {
+            List<InputStream> streams = new ArrayList<>(contents.size() + 1);
+            for (byte[] content : contents) {
+                streams.add(new ByteArrayInputStream(content));
+            }
+            streams.add(new ByteArrayInputStream(index()));
+            return new SequenceInputStream(Collections.enumeration(streams));
+        }
+
+        /**
+         * @return the index followed by the trailer
+         */
+        private byte[] index() {
+            if (null == index) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(buffer)) {
+                    out.writeInt(entries.size());
+                    for (Entry entry : entries) {
+                        out.writeUTF(entry.getFiletype());
+                        out.writeUTF(entry.getCompression().getName());
+                        out.writeLong(entry.getOffset());
+                        out.writeLong(entry.getLength());
+                    }
+                    out.writeInt(out.size());
+                    out.write(MAGIC);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                index = buffer.toByteArray();
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @param tail        last bytes of a bundle, at least {@link #TRAILER_LENGTH}
+     * @param totalLength length of the bundle
+     *
+     * @return offset of the index in the bundle
+     *
+     * @throws IOException if the bytes do not end with a bundle trailer
+     */
+    static long indexOffset(byte[] tail, long totalLength) throws IOException {
+        if (tail.length < TRAILER_LENGTH ||
+            !Arrays.equals(MAGIC, Arrays.copyOfRange(tail, tail.length - MAGIC.length, tail.length))) {
+            throw new IOException("Not a log bundle");
+        }
+        int indexLength = ByteBuffer.wrap(tail, tail.length - TRAILER_LENGTH, Integer.BYTES).getInt();
+        long offset = totalLength - TRAILER_LENGTH - indexLength;
+        if (indexLength < Integer.BYTES || offset < 0) {
+            throw new IOException("Log bundle index length is not valid: " + indexLength);
+        }
+        return offset;
+    }
+
+    /**
+     * @param index the index, without the trailer
+     *
+     * @return entries by filetype
+     */
+    static Map<String, Entry> readIndex(byte[] index) throws IOException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(index))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String filetype = in.readUTF();
+                String codec = in.readUTF();
+                long offset = in.readLong();
+                long length = in.readLong();
+                LogCompression compression;
+                try {
+                    compression = LogCompression.forName(codec);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                entries.put(filetype, new Entry(filetype, compression, offset, length));
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,172 @@
+package org.rundeck.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression applied to stored objects. The codec is recorded in the object's user metadata, so objects stored
+ * without compression, or before compression was enabled, are still read as they are.
+ */
+enum LogCompression {
+    NONE("none") {
+        @Override
+        InputStream compress(InputStream stream) {
+            return stream;
+        }
+
+        @Override
+        InputStream decompress(InputStream stream) {
+            return stream;
+        }
+    },
+    GZIP("gzip") {
+        @Override
+        InputStream compress(InputStream stream) throws IOException {
+            return new GzipCompressingInputStream(stream);
+        }
+
+        @Override
+        InputStream decompress(InputStream stream) throws IOException {
+            return new GZIPInputStream(stream, BUFFER_SIZE);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String name;
+
+    LogCompression(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return value stored in the object metadata
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param stream uncompressed content
+     *
+     * @return stream of the compressed content, compressed as it is read
+     */
+    abstract InputStream compress(InputStream stream) throws IOException;
+
+    /**
+     * @param stream compressed content
+     *
+     * @return stream of the uncompressed content
+     */
+    abstract InputStream decompress(InputStream stream) throws IOException;
+
+    /**
+     * @param name codec name, blank for none
+     *
+     * @return the codec
+     *
+     * @throws IllegalArgumentException if the codec is not supported
+     */
+    static LogCompression forName(String name) {
+        if (null == name || "".equals(name.trim())) {
+            return NONE;
+        }
+        for (LogCompression compression : values()) {
+            if (compression.name.equalsIgnoreCase(name.trim())) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported compression: " + name);
+    }
+
+    /**
+     * @param metadata user metadata of an object
+     * @param metaKey  metadata key of the codec
+     *
+     * @return codec used for the object, {@link #NONE} if not recorded
+     *
+     * @throws IllegalArgumentException if the codec is not supported
+     */
+    static LogCompression fromMetadata(Map<String, String> metadata, String metaKey) {
+        if (null == metadata) {
+            return NONE;
+        }
+        return forName(metadata.get(metaKey));
+    }
+
+    /**
+     * Reads from the source only as compressed output is consumed, so the whole content is never held in memory.
+     */
+    private static final class GzipCompressingInputStream extends InputStream {
+        private final InputStream source;
+        private final Buffer buffer = new Buffer();
+        private final GZIPOutputStream gzip;
+        private final byte[] chunk = new byte[BUFFER_SIZE];
+        private int position;
+        private boolean finished;
+
+        GzipCompressingInputStream(InputStream source) throws IOException {
+            this.source = source;
+            this.gzip = new GZIPOutputStream(buffer, BUFFER_SIZE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position >= buffer.size()) {
+                if (finished) {
+                    return -1;
+                }
+                buffer.reset();
+                position = 0;
+                fill();
+            }
+            int count = Math.min(len, buffer.size() - position);
+            System.arraycopy(buffer.bytes(), position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private void fill() throws IOException {
+            int count = source.read(chunk);
+            if (count < 0) {
+                // writes the trailer and releases the deflater
+                gzip.close();
+                finished = true;
+            } else {
+                gzip.write(chunk, 0, count);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!finished) {
+                    finished = true;
+                    gzip.close();
+                }
+            } finally {
+                source.close();
+            }
+        }
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,605 @@
+package org.rundeck.plugins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Local disk cache of retrieved S3 objects, shared by all plugin instances using the same directory.
+ * <p>
+ * Each object is stored as a {@code .data} file with its content and a {@code .meta} file with its endpoint, bucket,
+ * key, ETag and user metadata. Objects are identified by their endpoint as well as their bucket and key, so that
+ * instances using S3-compatible stores with the same bucket names never share entries. Both files are written to
+ * temporary files and moved into place, data first, so an interrupted write never leaves an entry with partial
+ * content. Entries are evicted in least recently used order once the total size exceeds the limit.
+ */
+class LogFileCache {
+    private static final Logger logger = LoggerFactory.getLogger(LogFileCache.class.getName());
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String PROP_ENDPOINT = "endpoint";
+    private static final String PROP_BUCKET = "bucket";
+    private static final String PROP_KEY = "key";
+    private static final String PROP_ETAG = "etag";
+    private static final String PROP_LENGTH = "length";
+    private static final String PROP_VALIDATED = "validated";
+    private static final String PROP_META_PREFIX = "meta.";
+
+    private static final Map<String, LogFileCache> caches = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final LongSupplier clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile long maxBytes;
+    private long totalBytes;
+
+    LogFileCache(File directory, long maxBytes, LongSupplier clock) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+        load();
+    }
+
+    /**
+     * @param directory cache directory
+     * @param maxBytes  maximum total size of cached content
+     *
+     * @return the cache for the directory, shared by all callers in this JVM
+     */
+    static LogFileCache forDirectory(File directory, long maxBytes) throws IOException {
+        String path = directory.getCanonicalPath();
+        LogFileCache cache = caches.get(path);
+        if (null == cache) {
+            synchronized (caches) {
+                cache = caches.get(path);
+                if (null == cache) {
+                    cache = new LogFileCache(new File(path), maxBytes, System::currentTimeMillis);
+                    caches.put(path, cache);
+                }
+            }
+        }
+        cache.maxBytes = maxBytes;
+        return cache;
+    }
+
+    /**
+     * Load existing entries, removing temporary files and incomplete entries left by an earlier process
+     */
+    private void load() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory: " + directory);
+        }
+        File[] files = directory.listFiles();
+        if (null == files) {
+            throw new IOException("Cannot read cache directory: " + directory);
+        }
+        List<Entry> loaded = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                delete(file);
+            } else if (name.endsWith(META_SUFFIX)) {
+                Entry entry = readEntry(file);
+                if (null == entry) {
+                    delete(file);
+                    delete(dataFile(id(file)));
+                } else {
+                    loaded.add(entry);
+                }
+            } else if (name.endsWith(DATA_SUFFIX) && !metaFile(id(file)).exists()) {
+                delete(file);
+            }
+        }
+        loaded.sort((a, b) -> Long.compare(a.data.lastModified(), b.data.lastModified()));
+        synchronized (this) {
+            for (Entry entry : loaded) {
+                entries.put(entry.id, entry);
+                totalBytes += entry.length;
+            }
+            evict();
+        }
+        logger.debug("Loaded {} cached files ({} bytes) from {}", loaded.size(), totalBytes, directory);
+    }
+
+    private Entry readEntry(File meta) {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(meta)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        File data = dataFile(id(meta));
+        try {
+            long length = Long.parseLong(props.getProperty(PROP_LENGTH));
+            long validated = Long.parseLong(props.getProperty(PROP_VALIDATED));
+            if (!data.isFile() || data.length() != length) {
+                return null;
+            }
+            Map<String, String> metadata = new HashMap<>();
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(PROP_META_PREFIX)) {
+                    metadata.put(name.substring(PROP_META_PREFIX.length()), props.getProperty(name));
+                }
+            }
+            return new Entry(
+                    id(meta),
+                    props.getProperty(PROP_ENDPOINT),
+                    props.getProperty(PROP_BUCKET),
+                    props.getProperty(PROP_KEY),
+                    props.getProperty(PROP_ETAG),
+                    metadata,
+                    length,
+                    validated,
+                    data
+            );
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param endpoint custom endpoint, or null for AWS
+     *
+     * @return the entry for the object, or null if it is not cached
+     */
+    Entry get(String endpoint, String bucket, String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(id(endpoint, bucket, key));
+        }
+        if (null != entry) {
+            // keeps the LRU order across restarts
+            entry.data.setLastModified(clock.getAsLong());
+        }
+        return entry;
+    }
+
+    /**
+     * @return stream of the entry content, or null if the entry has been evicted
+     */
+    InputStream open(Entry entry) {
+        try {
+            return new FileInputStream(entry.data);
+        } catch (FileNotFoundException e) {
+            remove(entry);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the entry was validated against S3 within the interval
+     */
+    boolean isFresh(Entry entry, long intervalMillis) {
+        return clock.getAsLong() - entry.validated < intervalMillis;
+    }
+
+    /**
+     * Record that the entry was found to be current in S3
+     */
+    Entry revalidated(Entry entry) {
+        Entry updated = new Entry(entry.id, entry.endpoint, entry.bucket, entry.key, entry.eTag, entry.metadata,
+                                  entry.length, clock.getAsLong(), entry.data);
+        try {
+            writeMeta(updated);
+        } catch (IOException e) {
+            logger.warn("Failed to update cache entry for {}: {}", entry.key, e.getMessage());
+            return entry;
+        }
+        synchronized (this) {
+            if (entries.get(entry.id) == entry) {
+                entries.put(entry.id, updated);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Remove the object from the cache, if present
+     *
+     * @param endpoint custom endpoint, or null for AWS
+     */
+    void remove(String endpoint, String bucket, String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(id(endpoint, bucket, key));
+            if (null != entry) {
+                totalBytes -= entry.length;
+            }
+        }
+        if (null != entry) {
+            deleteFiles(entry);
+        }
+    }
+
+    /**
+     * Remove the entry, unless it has already been replaced
+     */
+    void remove(Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.id) != entry) {
+                return;
+            }
+            entries.remove(entry.id);
+            totalBytes -= entry.length;
+        }
+        deleteFiles(entry);
+    }
+
+    /**
+     * @param endpoint custom endpoint, or null for AWS
+     * @param bucket   bucket
+     * @param key      object key
+     * @param target   stream receiving the content
+     *
+     * @return stream which writes to the target and to a new cache entry, committed with
+     *         {@link Writer#commit(String, Map)}
+     */
+    Writer writer(String endpoint, String bucket, String key, OutputStream target) {
+        return new Writer(endpoint, bucket, key, target);
+    }
+
+    synchronized long size() {
+        return totalBytes;
+    }
+
+    synchronized int count() {
+        return entries.size();
+    }
+
+    private void add(Entry entry) {
+        List<Entry> evicted;
+        synchronized (this) {
+            Entry previous = entries.put(entry.id, entry);
+            if (null != previous) {
+                totalBytes -= previous.length;
+            }
+            totalBytes += entry.length;
+            evicted = evict();
+        }
+        for (Entry e : evicted) {
+            deleteFiles(e);
+        }
+    }
+
+    /**
+     * @return entries removed from the index, whose files must be deleted by the caller
+     */
+    private List<Entry> evict() {
+        if (totalBytes <= maxBytes) {
+            return Collections.emptyList();
+        }
+        List<Entry> evicted = new ArrayList<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            totalBytes -= entry.length;
+            evicted.add(entry);
+        }
+        return evicted;
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties props = new Properties();
+        if (null != entry.endpoint) {
+            props.setProperty(PROP_ENDPOINT, entry.endpoint);
+        }
+        props.setProperty(PROP_BUCKET, entry.bucket);
+        props.setProperty(PROP_KEY, entry.key);
+        if (null != entry.eTag) {
+            props.setProperty(PROP_ETAG, entry.eTag);
+        }
+        props.setProperty(PROP_LENGTH, Long.toString(entry.length));
+        props.setProperty(PROP_VALIDATED, Long.toString(entry.validated));
+        for (Map.Entry<String, String> meta : entry.metadata.entrySet()) {
+            props.setProperty(PROP_META_PREFIX + meta.getKey(), meta.getValue());
+        }
+        File temp = File.createTempFile(entry.id, TEMP_SUFFIX, directory);
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                props.store(out, null);
+                out.getFD().sync();
+            }
+            move(temp, metaFile(entry.id));
+        } finally {
+            delete(temp);
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+        // meta first, so a partially deleted entry is never loaded
+        delete(metaFile(entry.id));
+        delete(entry.data);
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.debug("Failed to delete cache file {}", file);
+        }
+    }
+
+    private File dataFile(String id) {
+        return new File(directory, id + DATA_SUFFIX);
+    }
+
+    private File metaFile(String id) {
+        return new File(directory, id + META_SUFFIX);
+    }
+
+    private static String id(File file) {
+        String name = file.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    static String id(String bucket, String key) {
+        return id(null, bucket, key);
+    }
+
+    /**
+     * @return the id of the object, the same as before endpoints were included for objects stored in AWS
+     */
+    static String id(String endpoint, String bucket, String key) {
+        String name = null != endpoint ? endpoint + "/" + bucket + "/" + key : bucket + "/" + key;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(name.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A cached object
+     */
+    static final class Entry {
+        private final String id;
+        private final String endpoint;
+        private final String bucket;
+        private final String key;
+        private final String eTag;
+        private final Map<String, String> metadata;
+        private final long length;
+        private final long validated;
+        private final File data;
+
+        private Entry(
+                String id,
+                String endpoint,
+                String bucket,
+                String key,
+                String eTag,
+                Map<String, String> metadata,
+                long length,
+                long validated,
+                File data
+        )
+        {
+            this.id = id;
+            this.endpoint = endpoint;
+            this.bucket = bucket;
+            this.key = key;
+            this.eTag = eTag;
+            this.metadata = metadata;
+            this.length = length;
+            this.validated = validated;
+            this.data = data;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        Map<String, String> getMetadata() {
+            return metadata;
+        }
+
+        long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Writes content to the target stream and to a temporary file. Failures writing the temporary file, or content
+     * larger than the cache, only prevent the entry from being cached. Closing without committing discards the
+     * temporary file. The target stream is not closed.
+     */
+    final class Writer extends OutputStream {
+        private final String endpoint;
+        private final String bucket;
+        private final String key;
+        private final OutputStream target;
+        private File temp;
+        private OutputStream out;
+        private long length;
+        private boolean done;
+
+        private Writer(String endpoint, String bucket, String key, OutputStream target) {
+            this.endpoint = endpoint;
+            this.bucket = bucket;
+            this.key = key;
+            this.target = target;
+            try {
+                temp = File.createTempFile(id(endpoint, bucket, key), TEMP_SUFFIX, directory);
+                out = new FileOutputStream(temp);
+            } catch (IOException e) {
+                logger.warn("Cannot write to cache directory {}: {}", directory, e.getMessage());
+                discard();
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            if (null != out) {
+                try {
+                    out.write(b);
+                    length++;
+                    checkLength();
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            if (null != out) {
+                try {
+                    out.write(b, off, len);
+                    length += len;
+                    checkLength();
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        private void checkLength() {
+            if (length > maxBytes) {
+                logger.debug("Not caching {}: larger than the cache", key);
+                discard();
+            }
+        }
+
+        private void failed(IOException e) {
+            logger.warn("Failed to write cache file for {}: {}", key, e.getMessage());
+            discard();
+        }
+
+        private void discard() {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // already failing
+                }
+                out = null;
+            }
+            if (null != temp) {
+                delete(temp);
+                temp = null;
+            }
+        }
+
+        /**
+         * @param source content to cache
+         *
+         * @return stream reading the source, writing everything read to this writer
+         */
+        InputStream tee(InputStream source) {
+            return new FilterInputStream(source) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        write(b);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    if (count > 0) {
+                        write(b, off, count);
+                    }
+                    return count;
+                }
+            };
+        }
+
+        /**
+         * Add the written content to the cache
+         *
+         * @param eTag     ETag of the object
+         * @param metadata user metadata of the object
+         */
+        void commit(String eTag, Map<String, String> metadata) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (null == out) {
+                return;
+            }
+            String id = id(endpoint, bucket, key);
+            Entry entry = new Entry(
+                    id,
+                    endpoint,
+                    bucket,
+                    key,
+                    eTag,
+                    null != metadata ? new HashMap<>(metadata) : new HashMap<>(),
+                    length,
+                    clock.getAsLong(),
+                    dataFile(id)
+            );
+            try {
+                try (FileOutputStream file = (FileOutputStream) out) {
+                    file.getFD().sync();
+                }
+                out = null;
+                move(temp, entry.data);
+                temp = null;
+                writeMeta(entry);
+            } catch (IOException e) {
+                logger.warn("Failed to add {} to the cache: {}", key, e.getMessage());
+                discard();
+                delete(entry.data);
+                return;
+            }
+            add(entry);
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            discard();
+        }
+    }
+}
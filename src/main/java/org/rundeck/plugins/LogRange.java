@@ -0,0 +1,157 @@
+package org.rundeck.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The part of a stored file written by a ranged retrieve, with the length of the whole file so that a viewer can page
+ * through it.
+ */
+public final class LogRange {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_TAIL_BUFFER = Integer.MAX_VALUE - 8;
+
+    private final long start;
+    private final long length;
+    private final long totalLength;
+
+    LogRange(long start, long length, long totalLength) {
+        this.start = start;
+        this.length = length;
+        this.totalLength = totalLength;
+    }
+
+    /**
+     * @return offset of the first byte written
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return length of the whole file
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * @return Range header value for the bytes requested
+     */
+    static String header(long start, long length) {
+        if (start < 0) {
+            return "bytes=-" + length;
+        }
+        if (length < 0) {
+            return "bytes=" + start + "-";
+        }
+        return "bytes=" + start + "-" + (start + length - 1);
+    }
+
+    /**
+     * Write the requested bytes of the whole content, reading it to the end to find its length
+     *
+     * @param content whole file
+     * @param out     destination
+     * @param start   offset of the first byte, or -1 for the last {@code length} bytes
+     * @param length  number of bytes, or -1 for all bytes from {@code start}
+     */
+    static LogRange slice(InputStream content, OutputStream out, long start, long length) throws IOException {
+        if (start < 0) {
+            return tail(content, out, length);
+        }
+        long skipped = skip(content, start);
+        if (skipped < start) {
+            return new LogRange(skipped, 0, skipped);
+        }
+        long copied = copy(content, out, length);
+        long rest = skip(content, Long.MAX_VALUE);
+        return new LogRange(start, copied, start + copied + rest);
+    }
+
+    /**
+     * Write the last bytes of the content, which are buffered until it ends. The buffer grows with the content read, up
+     * to {@code length}, so that asking for more bytes than the content has does not allocate the requested length.
+     */
+    private static LogRange tail(InputStream content, OutputStream out, long length) throws IOException {
+        int capacity = (int) Math.min(length, MAX_TAIL_BUFFER);
+        byte[] ring = new byte[Math.min(capacity, BUFFER_SIZE)];
+        long total = 0;
+        if (ring.length > 0) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = content.read(buffer)) >= 0) {
+                if (ring.length < capacity && total + count > ring.length) {
+                    // nothing has wrapped around yet, as the ring is only full at capacity
+                    long needed = Math.max(total + count, 2L * ring.length);
+                    ring = Arrays.copyOf(ring, (int) Math.min(capacity, needed));
+                }
+                for (int i = 0; i < count; ) {
+                    int position = (int) ((total + i) % ring.length);
+                    int chunk = Math.min(count - i, ring.length - position);
+                    System.arraycopy(buffer, i, ring, position, chunk);
+                    i += chunk;
+                }
+                total += count;
+            }
+        } else {
+            total = skip(content, Long.MAX_VALUE);
+        }
+        int kept = (int) Math.min(total, ring.length);
+        int first = (int) ((total - kept) % Math.max(1, ring.length));
+        int head = Math.min(kept, ring.length - first);
+        out.write(ring, first, head);
+        out.write(ring, 0, kept - head);
+        return new LogRange(total - kept, kept, total);
+    }
+
+    /**
+     * @return number of bytes copied, up to {@code length} or to the end if negative
+     */
+    static long copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copied = 0;
+        while (length < 0 || copied < length) {
+            int size = (int) (length < 0 ? buffer.length : Math.min(buffer.length, length - copied));
+            int count = in.read(buffer, 0, size);
+            if (count < 0) {
+                break;
+            }
+            out.write(buffer, 0, count);
+            copied += count;
+        }
+        return copied;
+    }
+
+    /**
+     * Reads rather than using {@link InputStream#skip}, which for some streams can move past the end
+     *
+     * @return number of bytes skipped, fewer than {@code count} only if the stream ended
+     */
+    private static long skip(InputStream in, long count) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public String toString() {
+        return "LogRange{start=" + start + ", length=" + length + ", totalLength=" + totalLength + "}";
+    }
+}
@@ -0,0 +1,472 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Uploads a stream to S3 as a multipart upload, sending parts in parallel and retrying failed parts individually.
+ * <p>
+ * Parts are read from the stream in order into memory, so at most {@code concurrency + 1} parts are buffered at a
+ * time. Parts of a local file are read from the file when sent instead, and again on retry.
+ */
+class MultipartUploader {
+    private static final Logger logger = LoggerFactory.getLogger(MultipartUploader.class.getName());
+
+    /**
+     * Smallest part size accepted by S3, except for the last part
+     */
+    static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    /**
+     * Largest part size accepted by S3, including parts copied from another object
+     */
+    static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+    /**
+     * Largest part held in memory, the largest array the JVM can allocate. Parts of local files are not limited
+     */
+    static final int MAX_BUFFERED_PART_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * Largest number of parts in a single upload accepted by S3
+     */
+    static final int MAX_PARTS = 10000;
+    static final int DEFAULT_PART_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private final S3Client s3Client;
+    private final long partSize;
+    private final int concurrency;
+    private final int partAttempts;
+    private final AwsRequestOverrideConfiguration requestOverride;
+
+    MultipartUploader(S3Client s3Client, long partSize, int concurrency, int partAttempts) {
+        this(s3Client, partSize, concurrency, partAttempts, null);
+    }
+
+    /**
+     * @param requestOverride override configuration applied to each request, or null
+     */
+    MultipartUploader(
+            S3Client s3Client,
+            long partSize,
+            int concurrency,
+            int partAttempts,
+            AwsRequestOverrideConfiguration requestOverride
+    )
+    {
+        this.s3Client = s3Client;
+        this.partSize = partSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.partAttempts = Math.max(1, partAttempts);
+        this.requestOverride = requestOverride;
+    }
+
+    /**
+     * Upload the content of the stream. The upload is aborted if any part fails after all attempts.
+     *
+     * @param bucket   bucket
+     * @param key      object key
+     * @param metadata user metadata
+     * @param stream   content
+     * @param length   content length, or -1 to read the stream until it ends
+     *
+     * @throws S3Exception        on S3 service errors
+     * @throws SdkClientException on client errors or if the stream cannot be read
+     */
+    void upload(String bucket, String key, Map<String, String> metadata, InputStream stream, long length) {
+        upload(bucket, key, metadata, new StreamParts(stream, length, effectivePartSize(length)));
+    }
+
+    /**
+     * Upload the content of a local file. The upload is aborted if any part fails after all attempts.
+     *
+     * @param bucket   bucket
+     * @param key      object key
+     * @param metadata user metadata
+     * @param file     content
+     *
+     * @throws S3Exception        on S3 service errors
+     * @throws SdkClientException on client errors or if the file cannot be read
+     */
+    void upload(String bucket, String key, Map<String, String> metadata, FileRegion file) {
+        upload(bucket, key, metadata, new FileParts(file, effectivePartSize(file.getLength())));
+    }
+
+    private void upload(String bucket, String key, Map<String, String> metadata, PartSource source) {
+        String uploadId = start(bucket, key, metadata);
+
+        ExecutorService executor = TransferExecutors.newFixedThreadPool("s3-log-multipart", concurrency);
+        Semaphore inFlight = new Semaphore(concurrency);
+        List<Future<CompletedPart>> parts = new ArrayList<>();
+        try {
+            int partNumber = 1;
+            Part part;
+            while (null != (part = source.next(partNumber))) {
+                acquire(inFlight);
+                final int number = partNumber++;
+                final Part next = part;
+                parts.add(executor.submit(() -> {
+                    try {
+                        return uploadPart(bucket, key, uploadId, number, next);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+                failFast(parts);
+            }
+            List<CompletedPart> completed = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> future : parts) {
+                completed.add(await(future));
+            }
+            complete(bucket, key, uploadId, completed);
+        } catch (RuntimeException e) {
+            for (Future<CompletedPart> future : parts) {
+                future.cancel(true);
+            }
+            abort(bucket, key, uploadId);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Increase the configured part size if needed to stay within the S3 part count limit. The configured size is used
+     * if the length is not known.
+     */
+    long effectivePartSize(long length) {
+        if (length < 0) {
+            return partSize;
+        }
+        long minimum = (length + MAX_PARTS - 1) / MAX_PARTS;
+        return Math.max(partSize, minimum);
+    }
+
+    /**
+     * Start a multipart upload, which must be completed or aborted
+     *
+     * @return upload id
+     */
+    String start(String bucket, String key, Map<String, String> metadata) {
+        String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                                                                 .bucket(bucket)
+                                                                 .key(key)
+                                                                 .metadata(metadata)
+                                                                 .overrideConfiguration(requestOverride)
+                                                                 .build()).uploadId();
+        logger.debug("Started multipart upload {} for {}:{}", uploadId, bucket, key);
+        return uploadId;
+    }
+
+    /**
+     * @return the response, with the ETag of the object
+     */
+    CompleteMultipartUploadResponse complete(String bucket, String key, String uploadId, List<CompletedPart> parts) {
+        CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                .overrideConfiguration(requestOverride)
+                .build();
+        CompleteMultipartUploadResponse response = s3Client.completeMultipartUpload(request);
+        logger.debug("Completed multipart upload {} with {} parts", uploadId, parts.size());
+        return response;
+    }
+
+    /**
+     * Upload one part of a started upload in the calling thread, retrying as configured
+     *
+     * @param content content of the part, opened again for each attempt
+     */
+    CompletedPart uploadPart(
+            String bucket,
+            String key,
+            String uploadId,
+            int partNumber,
+            long length,
+            ContentStreamProvider content
+    )
+    {
+        try {
+            return uploadPart(bucket, key, uploadId, partNumber, new Part(length, content));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted during multipart upload", e);
+        }
+    }
+
+    private CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, Part part)
+            throws InterruptedException
+    {
+        UploadPartRequest request = UploadPartRequest.builder()
+                                                     .bucket(bucket)
+                                                     .key(key)
+                                                     .uploadId(uploadId)
+                                                     .partNumber(partNumber)
+                                                     .contentLength(part.length)
+                                                     .overrideConfiguration(requestOverride)
+                                                     .build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                UploadPartResponse response = s3Client.uploadPart(
+                        request,
+                        RequestBody.fromContentProvider(part.content, part.length, "application/octet-stream")
+                );
+                return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+            } catch (S3Exception e) {
+                if (attempt >= partAttempts || !S3Errors.isRetryable(e)) {
+                    throw e;
+                }
+                logger.debug("Retrying part {} of upload {}: {}", partNumber, uploadId, e.getMessage());
+            } catch (SdkClientException e) {
+                if (attempt >= partAttempts) {
+                    throw e;
+                }
+                logger.debug("Retrying part {} of upload {}: {}", partNumber, uploadId, e.getMessage());
+            }
+            Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+        }
+    }
+
+    /**
+     * Copy a byte range of the object, as it was when it had the ETag, as one part of a started upload of the same
+     * object, retrying as configured
+     *
+     * @param start offset of the first byte
+     * @param end   offset after the last byte
+     *
+     * @throws S3Exception with status 412 if the object no longer has the ETag
+     */
+    CompletedPart copyPart(String bucket, String key, String uploadId, int partNumber, String eTag, long start, long end)
+    {
+        UploadPartCopyRequest request = UploadPartCopyRequest.builder()
+                                                             .sourceBucket(bucket)
+                                                             .sourceKey(key)
+                                                             .destinationBucket(bucket)
+                                                             .destinationKey(key)
+                                                             .uploadId(uploadId)
+                                                             .partNumber(partNumber)
+                                                             .copySourceRange(RangedDownloader.range(start, end))
+                                                             .copySourceIfMatch(eTag)
+                                                             .overrideConfiguration(requestOverride)
+                                                             .build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                String partETag = s3Client.uploadPartCopy(request).copyPartResult().eTag();
+                return CompletedPart.builder().partNumber(partNumber).eTag(partETag).build();
+            } catch (S3Exception e) {
+                if (attempt >= partAttempts || !S3Errors.isRetryable(e)) {
+                    throw e;
+                }
+                logger.debug("Retrying copied part {} of upload {}: {}", partNumber, uploadId, e.getMessage());
+            } catch (SdkClientException e) {
+                if (attempt >= partAttempts) {
+                    throw e;
+                }
+                logger.debug("Retrying copied part {} of upload {}: {}", partNumber, uploadId, e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw SdkClientException.create("Interrupted during multipart upload", e);
+            }
+        }
+    }
+
+    /**
+     * Abort a started upload, logging a failure to do so
+     */
+    void abort(String bucket, String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                                                  .bucket(bucket)
+                                                  .key(key)
+                                                  .uploadId(uploadId)
+                                                  .overrideConfiguration(requestOverride)
+                                                  .build());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to abort multipart upload {} for {}: {}", uploadId, key, e.getMessage());
+        }
+    }
+
+    static byte[] readPart(InputStream stream, int size) {
+        byte[] data = new byte[size];
+        int read = 0;
+        try {
+            while (read < size) {
+                int count = stream.read(data, read, size - read);
+                if (count < 0) {
+                    throw SdkClientException.create(
+                            "Stream ended after " + read + " bytes of a " + size + " byte part");
+                }
+                read += count;
+            }
+        } catch (IOException e) {
+            throw SdkClientException.create("Failed to read content for upload: " + e.getMessage(), e);
+        }
+        return data;
+    }
+
+    /**
+     * Read up to {@code size} bytes, fewer only if the stream ends
+     */
+    private static byte[] readAvailable(InputStream stream, int size) {
+        byte[] data = new byte[size];
+        int read = 0;
+        try {
+            while (read < size) {
+                int count = stream.read(data, read, size - read);
+                if (count < 0) {
+                    return Arrays.copyOf(data, read);
+                }
+                read += count;
+            }
+        } catch (IOException e) {
+            throw SdkClientException.create("Failed to read content for upload: " + e.getMessage(), e);
+        }
+        return data;
+    }
+
+    /**
+     * Stop reading more parts once any part has failed
+     */
+    private static void failFast(List<Future<CompletedPart>> parts) {
+        for (Future<CompletedPart> part : parts) {
+            if (part.isDone()) {
+                await(part);
+            }
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted during multipart upload", e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw SdkClientException.create("Interrupted during multipart upload", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw SdkClientException.create(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Content of one part, which can be read again for a retry
+     */
+    private static final class Part {
+        private final long length;
+        private final ContentStreamProvider content;
+
+        private Part(long length, ContentStreamProvider content) {
+            this.length = length;
+            this.content = content;
+        }
+    }
+
+    private interface PartSource {
+        /**
+         * @return the next part, or null if there are no more
+         */
+        Part next(int partNumber);
+    }
+
+    /**
+     * Reads parts from a stream into memory
+     */
+    private static final class StreamParts implements PartSource {
+        private final InputStream stream;
+        private final long length;
+        private final long size;
+        private long remaining;
+        private boolean ended;
+
+        private StreamParts(InputStream stream, long length, long size) {
+            this.stream = stream;
+            this.length = length;
+            this.size = Math.min(size, MAX_BUFFERED_PART_SIZE);
+            this.remaining = length;
+        }
+
+        @Override
+        public Part next(int partNumber) {
+            if (ended || (length >= 0 && remaining <= 0)) {
+                return null;
+            }
+            byte[] data = length < 0
+                          ? readAvailable(stream, (int) size)
+                          : readPart(stream, (int) Math.min(size, remaining));
+            if (length < 0 && data.length == 0 && partNumber > 1) {
+                return null;
+            }
+            remaining -= data.length;
+            ended = length < 0 && data.length < size;
+            return new Part(data.length, () -> new ByteArrayInputStream(data));
+        }
+    }
+
+    /**
+     * Parts of a local file, read when sent
+     */
+    private static final class FileParts implements PartSource {
+        private final FileRegion file;
+        private final long size;
+        private long offset;
+
+        private FileParts(FileRegion file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        @Override
+        public Part next(int partNumber) {
+            if (offset >= file.getLength()) {
+                return null;
+            }
+            FileRegion part = file.slice(offset, Math.min(size, file.getLength() - offset));
+            offset += part.getLength();
+            return new Part(part.getLength(), part);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.rundeck.plugins;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of one operation on one bucket
+ */
+class OperationStats implements OperationStatsMXBean {
+    private final String bucket;
+    private final S3Operation operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<String, LongAdder> errorsByStatus = new ConcurrentHashMap<>();
+
+    OperationStats(String bucket, S3Operation operation) {
+        this.bucket = bucket;
+        this.operation = operation;
+    }
+
+    void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * @param micros duration
+     * @param status null if successful, otherwise the error status
+     */
+    void completed(long micros, String status) {
+        inFlight.decrement();
+        latency.record(micros);
+        if (null != status) {
+            errors.increment();
+            errorsByStatus.computeIfAbsent(status, k -> new LongAdder()).increment();
+        }
+    }
+
+    void addBytes(long count) {
+        bytes.add(count);
+    }
+
+    @Override
+    public String getBucket() {
+        return bucket;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation.getName();
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByStatus() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : errorsByStatus.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP95Millis() {
+        return latency.getPercentile(95) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return latency.getMax() / 1000.0;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        errors.reset();
+        bytes.reset();
+        errorsByStatus.clear();
+    }
+}
@@ -0,0 +1,47 @@
+package org.rundeck.plugins;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one operation on one bucket. Values are totals since the plugin was loaded or the last
+ * reset; latencies are in milliseconds.
+ */
+public interface OperationStatsMXBean {
+    String getBucket();
+
+    String getOperation();
+
+    /**
+     * @return number of completed operations, successful or not
+     */
+    long getCount();
+
+    long getErrorCount();
+
+    /**
+     * @return errors by S3 status code, or "client" for errors without a response, "io" for I/O errors
+     */
+    Map<String, Long> getErrorsByStatus();
+
+    /**
+     * @return operations in progress
+     */
+    long getInFlight();
+
+    /**
+     * @return log bytes stored or retrieved
+     */
+    long getBytes();
+
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP95Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+
+    void reset();
+}
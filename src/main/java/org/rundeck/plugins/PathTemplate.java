@@ -0,0 +1,130 @@
+package org.rundeck.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A path format parsed once into literal text and <code>${context.key}</code> references.
+ * <p>
+ * Expansion gives the same result as removing leading slashes, replacing references with
+ * <code>DataContextUtils.replaceDataReferences</code> using the execution context as the "job" data context and blank
+ * for unexpanded references, then collapsing repeated slashes. It is done in a single pass, without copying the
+ * context.
+ */
+final class PathTemplate {
+    /**
+     * Property reference syntax of DataContextUtils
+     */
+    private static final Pattern REFERENCE = Pattern.compile("\\$\\{([^\\s.]+)\\.([^}\\s]+?)\\}");
+    private static final String CONTEXT_NAME = "job";
+    private static final int MAX_CACHED = 256;
+    private static final int ESTIMATED_VALUE_LENGTH = 16;
+
+    private static final Map<String, PathTemplate> cache = new ConcurrentHashMap<>();
+
+    private final String[] literals;
+    private final Reference[] references;
+    private final int estimatedLength;
+
+    private PathTemplate(List<String> literals, List<Reference> references) {
+        this.literals = literals.toArray(new String[0]);
+        this.references = references.toArray(new Reference[0]);
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.estimatedLength = length + this.references.length * ESTIMATED_VALUE_LENGTH;
+    }
+
+    /**
+     * @param pathFormat path format
+     *
+     * @return the compiled template, reused for the same format
+     */
+    static PathTemplate compile(String pathFormat) {
+        PathTemplate template = cache.get(pathFormat);
+        if (null == template) {
+            template = parse(pathFormat);
+            if (cache.size() >= MAX_CACHED) {
+                cache.clear();
+            }
+            cache.put(pathFormat, template);
+        }
+        return template;
+    }
+
+    private static PathTemplate parse(String pathFormat) {
+        int start = 0;
+        while (start < pathFormat.length() && pathFormat.charAt(start) == '/') {
+            start++;
+        }
+        String format = pathFormat.substring(start);
+
+        // literals[i] precedes references[i], the last literal follows the last reference
+        List<String> literals = new ArrayList<>();
+        List<Reference> references = new ArrayList<>();
+        Matcher matcher = REFERENCE.matcher(format);
+        int last = 0;
+        while (matcher.find()) {
+            literals.add(format.substring(last, matcher.start()));
+            references.add(new Reference(matcher.group(1), matcher.group(2), matcher.group()));
+            last = matcher.end();
+        }
+        literals.add(format.substring(last));
+        return new PathTemplate(literals, references);
+    }
+
+    /**
+     * @param context execution context, or null to leave references unexpanded
+     *
+     * @return expanded path
+     */
+    String expand(Map<String, ?> context) {
+        StringBuilder sb = new StringBuilder(estimatedLength);
+        for (int i = 0; i < references.length; i++) {
+            appendCollapsed(sb, literals[i]);
+            appendCollapsed(sb, references[i].value(context));
+        }
+        appendCollapsed(sb, literals[references.length]);
+        return sb.toString();
+    }
+
+    /**
+     * Append text, skipping a slash which follows another slash
+     */
+    private static void appendCollapsed(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '/' || sb.length() == 0 || sb.charAt(sb.length() - 1) != '/') {
+                sb.append(c);
+            }
+        }
+    }
+
+    private static final class Reference {
+        private final String contextName;
+        private final String key;
+        private final String text;
+
+        private Reference(String contextName, String key, String text) {
+            this.contextName = contextName;
+            this.key = key;
+            this.text = text;
+        }
+
+        String value(Map<String, ?> context) {
+            if (null == context) {
+                return text;
+            }
+            if (!CONTEXT_NAME.equals(contextName)) {
+                return "";
+            }
+            Object value = context.get(key);
+            return null != value ? value.toString() : "";
+        }
+    }
+}
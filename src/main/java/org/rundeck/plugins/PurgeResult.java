@@ -0,0 +1,44 @@
+package org.rundeck.plugins;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of deleting many stored files: the number deleted and the error for each key which was not deleted.
+ */
+public final class PurgeResult {
+    private final long deleted;
+    private final Map<String, String> errors;
+
+    PurgeResult(long deleted, Map<String, String> errors) {
+        this.deleted = deleted;
+        this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+    }
+
+    /**
+     * @return number of keys deleted, including keys which did not exist
+     */
+    public long getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return error message by key, for keys which were not deleted
+     */
+    public Map<String, String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return true if every key was deleted
+     */
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PurgeResult{deleted=" + deleted + ", errors=" + errors.size() + "}";
+    }
+}
@@ -0,0 +1,468 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Downloads an S3 object using parallel byte range requests.
+ * <p>
+ * The first request asks for the first {@code partSize} bytes, so objects up to that size are fetched with a single
+ * request. Objects no larger than {@code threshold} are not split further: their remainder is streamed from one more
+ * request once the first response is read. For larger objects, the total length in the first {@code Content-Range} is
+ * used to schedule the remaining parts straight away, so the first response is streamed while up to
+ * {@code concurrency} parts are fetched, and no more than {@code concurrency} parts are held in memory at once. Parts
+ * are returned in order and failed parts are retried individually. Range requests are conditional on the ETag of the
+ * first response, so the object cannot change between parts.
+ */
+class RangedDownloader {
+    private static final Logger logger = LoggerFactory.getLogger(RangedDownloader.class.getName());
+
+    static final int DEFAULT_PART_ATTEMPTS = 3;
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private final S3Client s3Client;
+    private final long threshold;
+    private final long partSize;
+    private final int concurrency;
+    private final int partAttempts;
+    private final AwsRequestOverrideConfiguration requestOverride;
+    private final RequestHedger hedger;
+
+    RangedDownloader(S3Client s3Client, long threshold, long partSize, int concurrency, int partAttempts) {
+        this(s3Client, threshold, partSize, concurrency, partAttempts, null, null);
+    }
+
+    /**
+     * @param requestOverride override configuration applied to each request, or null
+     * @param hedger          hedges the first request, or null
+     */
+    RangedDownloader(
+            S3Client s3Client,
+            long threshold,
+            long partSize,
+            int concurrency,
+            int partAttempts,
+            AwsRequestOverrideConfiguration requestOverride,
+            RequestHedger hedger
+    )
+    {
+        this.s3Client = s3Client;
+        this.threshold = threshold;
+        this.partSize = partSize;
+        this.concurrency = Math.max(1, concurrency);
+        this.partAttempts = Math.max(1, partAttempts);
+        this.requestOverride = requestOverride;
+        this.hedger = hedger;
+    }
+
+    /**
+     * Open the object for reading. The returned stream must be closed to release the connection and any buffered
+     * parts.
+     *
+     * @param bucket bucket
+     * @param key    object key
+     *
+     * @return stream of the whole object, with the response of the first request
+     *
+     * @throws S3Exception        on S3 service errors
+     * @throws SdkClientException on client errors
+     */
+    ResponseInputStream<GetObjectResponse> open(String bucket, String key) {
+        ResponseInputStream<GetObjectResponse> first;
+        try {
+            GetObjectRequest request = GetObjectRequest.builder()
+                                                       .bucket(bucket)
+                                                       .key(key)
+                                                       .range(range(0, partSize))
+                                                       .overrideConfiguration(requestOverride)
+                                                       .build();
+            first = null != hedger
+                    ? hedger.call(
+                            () -> s3Client.getObject(request, ResponseTransformer.toInputStream()),
+                            ResponseInputStream::abort
+                    )
+                    : s3Client.getObject(request, ResponseTransformer.toInputStream());
+        } catch (S3Exception e) {
+            if (e.statusCode() != 416) {
+                throw e;
+            }
+            // range not satisfiable: the object is empty
+            return s3Client.getObject(
+                    GetObjectRequest.builder().bucket(bucket).key(key).overrideConfiguration(requestOverride).build(),
+                    ResponseTransformer.toInputStream()
+            );
+        }
+        GetObjectResponse response = first.response();
+        long total = totalLength(response.contentRange());
+        if (total <= partSize) {
+            // small object, or the server ignored the range and returned the whole object
+            return first;
+        }
+        InputStream rest;
+        if (total <= threshold) {
+            logger.debug("Downloading {}:{} ({} bytes) in two ranges", bucket, key, total);
+            rest = new RemainderInputStream(bucket, key, response.eTag(), total);
+        } else {
+            logger.debug("Downloading {}:{} ({} bytes) in ranges of {} bytes", bucket, key, total, partSize);
+            rest = new PartsInputStream(bucket, key, response.eTag(), total);
+        }
+        return new ResponseInputStream<>(
+                response,
+                AbortableInputStream.create(new FirstRangeInputStream(key, first, rest))
+        );
+    }
+
+    /**
+     * @return header value for the bytes in [start, end)
+     */
+    static String range(long start, long end) {
+        return "bytes=" + start + "-" + (end - 1);
+    }
+
+    /**
+     * @param contentRange Content-Range header value, e.g. {@code bytes 100-199/1234}
+     *
+     * @return offset of the first byte in the response, or -1 if not known
+     */
+    static long rangeStart(String contentRange) {
+        if (null == contentRange || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange Content-Range header value, e.g. {@code bytes 0-99/1234}
+     *
+     * @return total object length, or -1 if not known
+     */
+    static long totalLength(String contentRange) {
+        if (null == contentRange) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private GetObjectRequest rangeRequest(String bucket, String key, String eTag, long start, long end) {
+        return GetObjectRequest.builder()
+                               .bucket(bucket)
+                               .key(key)
+                               .range(range(start, end))
+                               .ifMatch(eTag)
+                               .overrideConfiguration(requestOverride)
+                               .build();
+    }
+
+    private byte[] fetchPart(String bucket, String key, String eTag, long start, long end)
+            throws InterruptedException
+    {
+        GetObjectRequest request = rangeRequest(bucket, key, eTag, start, end);
+        return withRetries(key, start, end, () -> {
+            byte[] data = s3Client.getObject(request, ResponseTransformer.toBytes()).asByteArrayUnsafe();
+            if (data.length != end - start) {
+                throw SdkClientException.create(
+                        "Expected " + (end - start) + " bytes for range " + start + "-" + (end - 1) +
+                        " of " + key + " but received " + data.length);
+            }
+            return data;
+        });
+    }
+
+    private <T> T withRetries(String key, long start, long end, Supplier<T> request) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request.get();
+            } catch (S3Exception e) {
+                if (attempt >= partAttempts || !S3Errors.isRetryable(e)) {
+                    throw e;
+                }
+                logger.debug("Retrying range {}-{} of {}: {}", start, end - 1, key, e.getMessage());
+            } catch (SdkClientException e) {
+                if (attempt >= partAttempts) {
+                    throw e;
+                }
+                logger.debug("Retrying range {}-{} of {}: {}", start, end - 1, key, e.getMessage());
+            }
+            Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+        }
+    }
+
+    /**
+     * Reads the first response, which must hold {@code partSize} bytes, then the rest of the object.
+     */
+    private class FirstRangeInputStream extends InputStream {
+        private final String key;
+        private final InputStream rest;
+        private InputStream first;
+        private long firstRead;
+        private boolean closed;
+
+        FirstRangeInputStream(String key, InputStream first, InputStream rest) {
+            this.key = key;
+            this.first = first;
+            this.rest = rest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (null != first) {
+                int count = first.read(b, off, (int) Math.min(len, partSize - firstRead));
+                if (count > 0) {
+                    firstRead += count;
+                    return count;
+                }
+                if (firstRead != partSize) {
+                    throw new IOException("Expected " + partSize + " bytes in the first range of " + key +
+                                          " but received " + firstRead);
+                }
+                first.close();
+                first = null;
+            }
+            return rest.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                rest.close();
+            } finally {
+                if (null != first) {
+                    first.close();
+                    first = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams the rest of an object no larger than the threshold from one request, sent once it is first read.
+     */
+    private class RemainderInputStream extends InputStream {
+        private final String bucket;
+        private final String key;
+        private final String eTag;
+        private final long total;
+        private ResponseInputStream<GetObjectResponse> response;
+        private long read;
+        private boolean finished;
+
+        RemainderInputStream(String bucket, String key, String eTag, long total) {
+            this.bucket = bucket;
+            this.key = key;
+            this.eTag = eTag;
+            this.total = total;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (null == response) {
+                GetObjectRequest request = rangeRequest(bucket, key, eTag, partSize, total);
+                try {
+                    response = withRetries(
+                            key,
+                            partSize,
+                            total,
+                            () -> s3Client.getObject(request, ResponseTransformer.toInputStream())
+                    );
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + key);
+                }
+            }
+            int count = response.read(b, off, (int) Math.min(len, total - partSize - read));
+            if (count > 0) {
+                read += count;
+                return count;
+            }
+            if (read != total - partSize) {
+                throw new IOException("Expected " + (total - partSize) + " bytes for range " + partSize + "-" +
+                                      (total - 1) + " of " + key + " but received " + read);
+            }
+            finished = true;
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null == response) {
+                return;
+            }
+            if (!finished) {
+                // abort rather than drain the rest of the range
+                response.abort();
+            }
+            response.close();
+            response = null;
+            finished = true;
+        }
+    }
+
+    /**
+     * Reads the parts after the first in order, keeping up to {@code concurrency} parts in flight or in memory,
+     * including the part being read.
+     */
+    private class PartsInputStream extends InputStream {
+        private final String bucket;
+        private final String key;
+        private final String eTag;
+        private final long total;
+        private final ExecutorService executor;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private long nextStart;
+        private byte[] current;
+        private int position;
+        private boolean closed;
+
+        /**
+         * @param total length of the object
+         */
+        PartsInputStream(String bucket, String key, String eTag, long total) {
+            this.bucket = bucket;
+            this.key = key;
+            this.eTag = eTag;
+            this.total = total;
+            this.nextStart = partSize;
+            this.executor = TransferExecutors.newFixedThreadPool("s3-log-ranged", concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (nextStart >= total) {
+                return;
+            }
+            long start = nextStart;
+            long end = Math.min(total, start + partSize);
+            nextStart = end;
+            pending.add(executor.submit(() -> fetchPart(bucket, key, eTag, start, end)));
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (null == current || position >= current.length) {
+                if (null != current) {
+                    // the part is released before the next is scheduled, so at most concurrency parts are held
+                    current = null;
+                    schedule();
+                }
+                if (pending.isEmpty()) {
+                    return -1;
+                }
+                current = await(pending.poll());
+                position = 0;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private byte[] await(Future<byte[]> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while downloading " + key);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            current = null;
+            executor.shutdownNow();
+        }
+    }
+}
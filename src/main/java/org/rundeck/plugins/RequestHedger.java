@@ -0,0 +1,309 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Hedges S3 requests to cut tail latency: if a request has not responded within a percentile of recent response
+ * times, a duplicate is sent and the first response wins. The loser is interrupted, and its response is discarded if
+ * it arrives anyway.
+ * <p>
+ * Each request adds a fraction of a token to a budget, and each duplicate spends a whole token, so duplicates are
+ * limited to that fraction of requests even when S3 is slow for every request. Response times are kept per client and
+ * operation, as GET and HEAD have different latencies.
+ * <p>
+ * Requests being hedged run on a shared pool of at most {@link #MAX_THREADS} threads. While all are busy, requests run
+ * on the caller's thread without a duplicate, and no duplicate is sent for requests already started.
+ */
+class RequestHedger {
+    private static final Logger logger = LoggerFactory.getLogger(RequestHedger.class.getName());
+
+    /**
+     * Number of recent response times the delay is computed from
+     */
+    static final int WINDOW = 1000;
+    /**
+     * Responses needed before requests are hedged
+     */
+    static final int MIN_SAMPLES = 20;
+    static final long MIN_DELAY_MICROS = 1000;
+    static final double MAX_TOKENS = 10;
+    private static final int RECOMPUTE_INTERVAL = 50;
+    static final int MAX_THREADS = 64;
+
+    private static final Map<S3Client, Map<String, RequestHedger>> hedgers =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final ExecutorService EXECUTOR = TransferExecutors.newBoundedCachedThreadPool(
+            "s3-log-hedge",
+            MAX_THREADS
+    );
+
+    private final ExecutorService executor;
+    private final LongSupplier nanoClock;
+    private final double percentile;
+    private final double budgetRatio;
+    private final long[] samples = new long[WINDOW];
+    private int sampleCount;
+    private int sampleNext;
+    private int sinceRecompute;
+    private long delayMicros = -1;
+    private double tokens;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedged = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * @param executor    runs the requests
+     * @param nanoClock   time source in nanoseconds
+     * @param percentile  percentile of recent response times to wait before hedging, between 0 and 100
+     * @param budgetRatio maximum ratio of hedged requests to requests
+     */
+    RequestHedger(ExecutorService executor, LongSupplier nanoClock, double percentile, double budgetRatio) {
+        this.executor = executor;
+        this.nanoClock = nanoClock;
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * @param client        S3 client
+     * @param operation     operation name, response times are kept separately for each
+     * @param percentile    percentile of recent response times to wait before hedging
+     * @param budgetPercent maximum percentage of requests hedged
+     *
+     * @return the hedger for the client and operation, created if needed
+     */
+    static RequestHedger forClient(S3Client client, String operation, int percentile, int budgetPercent) {
+        return hedgers.computeIfAbsent(client, k -> new ConcurrentHashMap<>()).computeIfAbsent(
+                operation + "/" + percentile + "/" + budgetPercent,
+                k -> new RequestHedger(EXECUTOR, System::nanoTime, percentile, budgetPercent / 100.0)
+        );
+    }
+
+    /**
+     * Run the request, sending a duplicate if it is slow and the budget allows
+     *
+     * @param request S3 request, which may be run twice
+     * @param discard releases a response which lost the race
+     *
+     * @return the first response
+     */
+    <T> T call(Supplier<T> request, Consumer<? super T> discard) {
+        requests.increment();
+        deposit();
+        long delay = getDelayMicros();
+        if (delay < 0) {
+            return timed(request);
+        }
+
+        Race<T> race = new Race<>(discard);
+        Future<?> primary;
+        try {
+            primary = executor.submit(() -> race.run(request, false));
+        } catch (RejectedExecutionException e) {
+            logger.debug("No thread to hedge the request, sending it without a duplicate");
+            return timed(request);
+        }
+        Future<?> hedge = null;
+        try {
+            Outcome<T> outcome = race.results.poll(delay, TimeUnit.MICROSECONDS);
+            int pending = 1;
+            if (null == outcome && withdraw()) {
+                try {
+                    hedge = executor.submit(() -> race.run(request, true));
+                    hedged.increment();
+                    logger.debug("Hedging request after {}us", delay);
+                    pending++;
+                } catch (RejectedExecutionException e) {
+                    refund();
+                    logger.debug("No thread to send a duplicate request");
+                }
+            }
+            RuntimeException failure = null;
+            while (true) {
+                if (null == outcome) {
+                    outcome = race.results.take();
+                }
+                pending--;
+                if (null == outcome.error) {
+                    if (outcome.hedge) {
+                        hedgeWins.increment();
+                    }
+                    return outcome.value;
+                }
+                if (null == failure) {
+                    failure = outcome.error;
+                }
+                if (pending == 0) {
+                    throw failure;
+                }
+                outcome = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            race.abandon();
+            throw SdkClientException.create("Interrupted while waiting for S3 response", e);
+        } finally {
+            primary.cancel(true);
+            if (null != hedge) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private <T> T timed(Supplier<T> request) {
+        long start = nanoClock.getAsLong();
+        try {
+            T value = request.get();
+            record(start);
+            return value;
+        } catch (S3Exception e) {
+            // an error response still measures the response time
+            record(start);
+            throw e;
+        }
+    }
+
+    private void record(long startNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanoClock.getAsLong() - startNanos);
+        synchronized (samples) {
+            samples[sampleNext] = micros;
+            sampleNext = (sampleNext + 1) % WINDOW;
+            sampleCount = Math.min(WINDOW, sampleCount + 1);
+            if (sampleCount >= MIN_SAMPLES && (delayMicros < 0 || ++sinceRecompute >= RECOMPUTE_INTERVAL)) {
+                sinceRecompute = 0;
+                long[] sorted = Arrays.copyOf(samples, sampleCount);
+                Arrays.sort(sorted);
+                int rank = (int) Math.ceil(percentile / 100 * sampleCount) - 1;
+                delayMicros = Math.max(MIN_DELAY_MICROS, sorted[Math.max(0, Math.min(sampleCount - 1, rank))]);
+            }
+        }
+    }
+
+    private synchronized void deposit() {
+        tokens = Math.min(MAX_TOKENS, tokens + budgetRatio);
+    }
+
+    private synchronized void refund() {
+        tokens = Math.min(MAX_TOKENS, tokens + 1);
+    }
+
+    private synchronized boolean withdraw() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * @return time to wait for a response before hedging, or -1 if there are too few responses to tell
+     */
+    long getDelayMicros() {
+        synchronized (samples) {
+            return delayMicros;
+        }
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getHedged() {
+        return hedged.sum();
+    }
+
+    /**
+     * @return hedged requests which responded first
+     */
+    long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    private static final class Outcome<T> {
+        private final T value;
+        private final RuntimeException error;
+        private final boolean hedge;
+
+        private Outcome(T value, RuntimeException error, boolean hedge) {
+            this.value = value;
+            this.error = error;
+            this.hedge = hedge;
+        }
+    }
+
+    /**
+     * The requests for one call, the first successful response claims the win and later ones are discarded
+     */
+    private final class Race<T> {
+        private final BlockingQueue<Outcome<T>> results = new LinkedBlockingQueue<>();
+        private final AtomicBoolean won = new AtomicBoolean();
+        private final Consumer<? super T> discard;
+        private volatile boolean abandoned;
+
+        private Race(Consumer<? super T> discard) {
+            this.discard = discard;
+        }
+
+        private void run(Supplier<T> request, boolean hedge) {
+            T value;
+            try {
+                value = timed(request);
+            } catch (RuntimeException e) {
+                results.add(new Outcome<>(null, e, hedge));
+                return;
+            }
+            if (!won.compareAndSet(false, true)) {
+                release(value);
+                return;
+            }
+            Outcome<T> outcome = new Outcome<>(value, null, hedge);
+            results.add(outcome);
+            if (abandoned && results.remove(outcome)) {
+                release(value);
+            }
+        }
+
+        /**
+         * The caller stopped waiting, release a winning response it will not take
+         */
+        private void abandon() {
+            abandoned = true;
+            Outcome<T> outcome;
+            while (null != (outcome = results.poll())) {
+                if (null == outcome.error) {
+                    release(outcome.value);
+                }
+            }
+        }
+
+        private void release(T value) {
+            try {
+                discard.accept(value);
+            } catch (RuntimeException e) {
+                logger.debug("Failed to discard hedged response: {}", e.getMessage(), e);
+            }
+        }
+    }
+}
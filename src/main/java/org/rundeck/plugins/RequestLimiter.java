@@ -0,0 +1,222 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the S3 operations in flight to a bucket from all plugin instances in the JVM, so that a burst of finishing
+ * executions does not send hundreds of requests at once and set off throttling. When plugin instances are configured
+ * with different maximums for the same bucket, the smallest applies.
+ * <p>
+ * The limit adapts to S3: it is halved when S3 responds with throttling, at most once for the operations in flight at
+ * the time, and raised by about one after each limit's worth of successful operations, up to the configured maximum.
+ * Operations wait in order of priority: reads, which a user is waiting for, before writes and deletes, which run in the
+ * background. Writes and deletes can each use at most {@link #BACKGROUND_SHARE} of the limit, so that some permits are
+ * left for reads.
+ */
+final class RequestLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(RequestLimiter.class.getName());
+
+    static final double BACKGROUND_SHARE = 0.75;
+
+    private static final Map<String, RequestLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * Classes of operation, in order of priority
+     */
+    enum Kind {
+        /**
+         * Retrieve and availability checks
+         */
+        READ,
+        /**
+         * Store
+         */
+        WRITE,
+        DELETE
+    }
+
+    private final String name;
+    private int max;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final int[] inFlight = new int[Kind.values().length];
+    private final int[] waiting = new int[Kind.values().length];
+    private double limit;
+    private long epoch;
+
+    /**
+     * @param name name used in log messages
+     * @param max  maximum operations in flight, at least 1
+     */
+    RequestLimiter(String name, int max) {
+        this.name = name;
+        this.max = max;
+        this.limit = max;
+    }
+
+    /**
+     * @param endpoint custom endpoint, or null for AWS
+     * @param max      maximum operations in flight, lowering the maximum of an existing limiter if smaller
+     *
+     * @return the limiter for the endpoint and bucket, created if needed
+     */
+    static RequestLimiter forTarget(String endpoint, String bucket, int max) {
+        String name = null != endpoint ? endpoint + "/" + bucket : bucket;
+        RequestLimiter limiter = limiters.computeIfAbsent(name, k -> new RequestLimiter(name, max));
+        limiter.lowerMax(max);
+        return limiter;
+    }
+
+    private void lowerMax(int max) {
+        lock.lock();
+        try {
+            if (max < this.max) {
+                logger.info("Lowered the request limit to {} from {} for {}", max, this.max, name);
+                this.max = max;
+                limit = Math.min(limit, max);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until an operation of the kind can start
+     *
+     * @return the permit, which must be closed when the operation ends
+     */
+    Permit acquire(Kind kind) throws InterruptedException {
+        lock.lock();
+        try {
+            waiting[kind.ordinal()]++;
+            try {
+                while (!canStart(kind)) {
+                    changed.await();
+                }
+            } finally {
+                waiting[kind.ordinal()]--;
+            }
+            inFlight[kind.ordinal()]++;
+            return new Permit(this, kind, epoch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if an operation of the kind is within the limits and no operation of higher priority is waiting
+     * which could start instead
+     */
+    private boolean canStart(Kind kind) {
+        if (!withinLimits(kind)) {
+            return false;
+        }
+        for (int i = 0; i < kind.ordinal(); i++) {
+            if (waiting[i] > 0 && withinLimits(Kind.values()[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean withinLimits(Kind kind) {
+        int total = 0;
+        for (int count : inFlight) {
+            total += count;
+        }
+        return total < getLimit() && inFlight[kind.ordinal()] < kindLimit(kind);
+    }
+
+    private int kindLimit(Kind kind) {
+        int current = getLimit();
+        return Kind.READ == kind ? current : Math.max(1, (int) (current * BACKGROUND_SHARE));
+    }
+
+    private void release(Permit permit, boolean throttled) {
+        lock.lock();
+        try {
+            inFlight[permit.kind.ordinal()]--;
+            if (throttled) {
+                // operations started before the last decrease do not lower the limit again
+                if (permit.epoch == epoch) {
+                    epoch++;
+                    limit = Math.max(1, limit / 2);
+                    logger.warn("S3 is throttling requests to {}, lowered the request limit to {}", name, getLimit());
+                }
+            } else if (limit < max) {
+                limit = Math.min(max, limit + 1 / limit);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return current limit of operations in flight
+     */
+    int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return operations of the kind in flight
+     */
+    int getInFlight(Kind kind) {
+        lock.lock();
+        try {
+            return inFlight[kind.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An operation allowed to start
+     */
+    static final class Permit {
+        /**
+         * Limits nothing
+         */
+        static final Permit NONE = new Permit(null, Kind.READ, 0);
+
+        private final RequestLimiter limiter;
+        private final Kind kind;
+        private final long epoch;
+        private boolean throttled;
+        private boolean closed;
+
+        private Permit(RequestLimiter limiter, Kind kind, long epoch) {
+            this.limiter = limiter;
+            this.kind = kind;
+            this.epoch = epoch;
+        }
+
+        /**
+         * Record a failure of the operation, which lowers the limit if S3 was throttling
+         */
+        void failed(Throwable e) {
+            if (e instanceof S3Exception && S3Errors.isThrottling((S3Exception) e)) {
+                throttled = true;
+            }
+        }
+
+        /**
+         * Release the permit
+         */
+        void close() {
+            if (null == limiter || closed) {
+                return;
+            }
+            closed = true;
+            limiter.release(this, throttled);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.rundeck.plugins;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Count, mean and maximum of values recorded within a sliding time window, kept in a ring of fixed length slots so
+ * old values expire a slot at a time.
+ */
+class RollingSummary {
+    private final LongSupplier clock;
+    private final long slotMillis;
+    private final long[] slotStart;
+    private final long[] counts;
+    private final long[] sums;
+    private final long[] maxes;
+
+    /**
+     * @param windowMillis length of the window
+     * @param slots        number of slots the window is divided into
+     * @param clock        time source in milliseconds
+     */
+    RollingSummary(long windowMillis, int slots, LongSupplier clock) {
+        this.clock = clock;
+        this.slotMillis = Math.max(1, windowMillis / slots);
+        this.slotStart = new long[slots];
+        this.counts = new long[slots];
+        this.sums = new long[slots];
+        this.maxes = new long[slots];
+        Arrays.fill(slotStart, Long.MIN_VALUE);
+    }
+
+    synchronized void record(long value) {
+        long now = clock.getAsLong();
+        long start = now - Math.floorMod(now, slotMillis);
+        int slot = (int) Math.floorMod(now / slotMillis, (long) counts.length);
+        if (slotStart[slot] != start) {
+            slotStart[slot] = start;
+            counts[slot] = 0;
+            sums[slot] = 0;
+            maxes[slot] = 0;
+        }
+        counts[slot]++;
+        sums[slot] += value;
+        maxes[slot] = Math.max(maxes[slot], value);
+    }
+
+    synchronized long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (current(i)) {
+                count += counts[i];
+            }
+        }
+        return count;
+    }
+
+    synchronized long getSum() {
+        long sum = 0;
+        for (int i = 0; i < sums.length; i++) {
+            if (current(i)) {
+                sum += sums[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return mean of values in the window, 0 if none
+     */
+    synchronized double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) getSum() / count : 0;
+    }
+
+    /**
+     * @return maximum of values in the window, 0 if none
+     */
+    synchronized long getMax() {
+        long max = 0;
+        for (int i = 0; i < maxes.length; i++) {
+            if (current(i)) {
+                max = Math.max(max, maxes[i]);
+            }
+        }
+        return max;
+    }
+
+    private boolean current(int slot) {
+        long now = clock.getAsLong();
+        long oldest = now - Math.floorMod(now, slotMillis) - (counts.length - 1) * slotMillis;
+        return slotStart[slot] >= oldest;
+    }
+}
@@ -0,0 +1,277 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of {@link S3Client} instances shared by plugin instances.
+ * <p>
+ * Rundeck creates a new plugin instance for every execution, so without sharing each execution would build its own
+ * HTTP connection pool. Clients are keyed by the settings that affect how they connect, reference counted while in
+ * use, and closed once they have been unused for longer than their idle timeout. The shared pool closes idle clients
+ * from a background thread, so that their connections are closed even if no plugin is used again.
+ */
+class S3ClientPool {
+    private static final Logger logger = LoggerFactory.getLogger(S3ClientPool.class.getName());
+
+    private static final S3ClientPool INSTANCE = new S3ClientPool(System::currentTimeMillis, newSweeper());
+
+    private final Map<ClientKey, Entry> entries = new HashMap<>();
+    private final LongSupplier clock;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Creates a pool which only closes idle clients when a client is acquired or released, or on {@link #evictIdle()}
+     */
+    S3ClientPool(LongSupplier clock) {
+        this(clock, null);
+    }
+
+    /**
+     * @param sweeper runs {@link #evictIdle()} once a released client's idle timeout has passed, or null
+     */
+    S3ClientPool(LongSupplier clock, ScheduledExecutorService sweeper) {
+        this.clock = clock;
+        this.sweeper = sweeper;
+    }
+
+    /**
+     * @return executor for idle client eviction, whose thread ends when there is nothing to evict
+     */
+    static ScheduledExecutorService newSweeper() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                1,
+                TransferExecutors.threadFactory("s3-log-client-sweeper")
+        );
+        executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @return the shared pool for this JVM
+     */
+    static S3ClientPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquire a client for the key, creating it with the factory if no client is registered for it yet. The client is
+     * built outside the pool's lock, so that building one does not hold up acquiring the clients of other keys. If
+     * another client for the key was registered meanwhile, that one is used and the new one is closed.
+     *
+     * @param key               client settings
+     * @param idleTimeoutMillis time the client is kept open after the last lease is released
+     * @param factory           creates the client if needed
+     *
+     * @return a lease which must be closed when the client is no longer used
+     */
+    Lease acquire(ClientKey key, long idleTimeoutMillis, Supplier<S3Client> factory) {
+        List<S3Client> evicted;
+        Entry entry;
+        synchronized (this) {
+            evicted = removeIdle();
+            entry = entries.get(key);
+            if (null != entry) {
+                lease(entry, idleTimeoutMillis);
+            }
+        }
+        closeAll(evicted);
+        if (null != entry) {
+            return new Lease(entry);
+        }
+        S3Client client = factory.get();
+        boolean created = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (null == entry) {
+                entry = new Entry(key, client);
+                entries.put(key, entry);
+                created = true;
+                logger.debug("Created shared S3 client for {}", key);
+            }
+            lease(entry, idleTimeoutMillis);
+        }
+        if (!created) {
+            logger.debug("Closing S3 client built at the same time as the shared client for {}", key);
+            closeAll(Collections.singletonList(client));
+        }
+        return new Lease(entry);
+    }
+
+    private void lease(Entry entry, long idleTimeoutMillis) {
+        entry.refCount++;
+        entry.idleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+    }
+
+    private void release(Entry entry) {
+        List<S3Client> evicted;
+        long idleTimeoutMillis = 0;
+        synchronized (this) {
+            entry.refCount--;
+            if (entry.refCount == 0) {
+                entry.idleSince = clock.getAsLong();
+                idleTimeoutMillis = entry.idleTimeoutMillis;
+            }
+            evicted = removeIdle();
+        }
+        closeAll(evicted);
+        if (idleTimeoutMillis > 0 && null != sweeper) {
+            try {
+                sweeper.schedule(this::evictIdle, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.debug("Idle S3 client is closed on next use of the pool: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Close and remove clients that have had no leases for longer than their idle timeout.
+     *
+     * @return number of clients closed
+     */
+    int evictIdle() {
+        List<S3Client> evicted;
+        synchronized (this) {
+            evicted = removeIdle();
+        }
+        closeAll(evicted);
+        return evicted.size();
+    }
+
+    /**
+     * @return number of clients currently registered
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private List<S3Client> removeIdle() {
+        List<S3Client> evicted = new ArrayList<>();
+        long now = clock.getAsLong();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refCount <= 0 && now - entry.idleSince >= entry.idleTimeoutMillis) {
+                iterator.remove();
+                evicted.add(entry.client);
+                logger.debug("Closing idle shared S3 client for {}", entry.key);
+            }
+        }
+        return evicted;
+    }
+
+    private static void closeAll(List<S3Client> clients) {
+        for (S3Client client : clients) {
+            try {
+                client.close();
+            } catch (RuntimeException e) {
+                logger.warn("Failed to close S3 client: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static final class Entry {
+        final ClientKey key;
+        final S3Client client;
+        int refCount;
+        long idleSince;
+        long idleTimeoutMillis;
+
+        Entry(ClientKey key, S3Client client) {
+            this.key = key;
+            this.client = client;
+        }
+    }
+
+    /**
+     * A reference to a shared client, releasing it when closed. Closing more than once has no effect.
+     */
+    final class Lease implements Closeable {
+        private final Entry entry;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        S3Client client() {
+            return entry.client;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Settings that determine whether two plugin instances can use the same client.
+     */
+    static final class ClientKey {
+        private final String credentialsSource;
+        private final String region;
+        private final String endpoint;
+        private final boolean pathStyle;
+        private final String options;
+
+        /**
+         * @param options any other settings used to build the client, in a stable order
+         */
+        ClientKey(String credentialsSource, String region, String endpoint, boolean pathStyle, String options) {
+            this.credentialsSource = credentialsSource;
+            this.region = region;
+            this.endpoint = endpoint;
+            this.pathStyle = pathStyle;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey that = (ClientKey) o;
+            return pathStyle == that.pathStyle &&
+                   Objects.equals(credentialsSource, that.credentialsSource) &&
+                   Objects.equals(region, that.region) &&
+                   Objects.equals(endpoint, that.endpoint) &&
+                   Objects.equals(options, that.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialsSource, region, endpoint, pathStyle, options);
+        }
+
+        /**
+         * Does not include the credentials source, which may identify an access key.
+         */
+        @Override
+        public String toString() {
+            return "region=" + region + ", endpoint=" + endpoint + ", pathStyle=" + pathStyle + ", " + options;
+        }
+    }
+}
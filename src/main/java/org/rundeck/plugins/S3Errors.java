@@ -0,0 +1,25 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Classification of S3 errors shared by the transfer helpers.
+ */
+final class S3Errors {
+    private S3Errors() {
+    }
+
+    /**
+     * @return true if the request may succeed when sent again: server errors, request timeouts and throttling
+     */
+    static boolean isRetryable(S3Exception e) {
+        return e.statusCode() >= 500 || e.statusCode() == 408 || e.statusCode() == 429;
+    }
+
+    /**
+     * @return true if S3 is asking for fewer requests: 503 Slow Down, or 429 from S3 compatible stores
+     */
+    static boolean isThrottling(S3Exception e) {
+        return e.statusCode() == 503 || e.statusCode() == 429;
+    }
+}
@@ -1,23 +1,32 @@
 package org.rundeck.plugins;
 
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.S3CrtAsyncClientBuilder;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import com.dtolabs.rundeck.core.dispatcher.DataContextUtils;
 import com.dtolabs.rundeck.core.logging.ExecutionFileStorageException;
 import com.dtolabs.rundeck.core.logging.ExecutionMultiFileStorage;
 import com.dtolabs.rundeck.core.logging.MultiFileStorageRequest;
@@ -27,25 +36,52 @@ import com.dtolabs.rundeck.core.plugins.Plugin;
 import com.dtolabs.rundeck.plugins.ServiceNameConstants;
 import com.dtolabs.rundeck.plugins.descriptions.PluginDescription;
 import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
+import com.dtolabs.rundeck.plugins.descriptions.SelectValues;
 import com.dtolabs.rundeck.plugins.logging.ExecutionFileStoragePlugin;
 import com.dtolabs.utils.Streams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.Cleaner;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
 
 
 /**
@@ -53,9 +89,43 @@ import java.util.Set;
  */
 @Plugin(service = ServiceNameConstants.ExecutionFileStorage, name = "org.rundeck.amazon-s3")
 @PluginDescription(title = "S3", description = "Stores log files into an S3 bucket")
-public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, ExecutionMultiFileStorage {
+public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, ExecutionMultiFileStorage, Closeable {
     public static final String DEFAULT_PATH_FORMAT = "project/${job.project}/${job.execid}";
     public static final String DEFAULT_REGION = "us-east-1";
+    public static final int DEFAULT_SHARED_CLIENT_IDLE_TIMEOUT = 300;
+    public static final long DEFAULT_MULTIPART_THRESHOLD = 64L * 1024 * 1024;
+    public static final long DEFAULT_MULTIPART_PART_SIZE = 16L * 1024 * 1024;
+    public static final int DEFAULT_MULTIPART_CONCURRENCY = 4;
+    public static final int DEFAULT_STORE_CONCURRENCY = 4;
+    public static final long DEFAULT_RANGED_DOWNLOAD_THRESHOLD = 32L * 1024 * 1024;
+    public static final long DEFAULT_RANGED_DOWNLOAD_PART_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_RANGED_DOWNLOAD_CONCURRENCY = 4;
+    public static final long DEFAULT_CACHE_MAX_SIZE = 1024L * 1024 * 1024;
+    public static final int DEFAULT_CACHE_REVALIDATE_INTERVAL = 0;
+    public static final String DEFAULT_COMPRESSION = "none";
+    public static final String ASYNC_BACKEND_NONE = "none";
+    public static final String ASYNC_BACKEND_NETTY = "netty";
+    public static final String ASYNC_BACKEND_CRT = "crt";
+    public static final int DEFAULT_ASYNC_MAX_CONCURRENCY = 100;
+    public static final long DEFAULT_SLOW_CALL_THRESHOLD = 5000;
+    public static final int DEFAULT_HEDGE_PERCENTILE = 95;
+    public static final int DEFAULT_HEDGE_BUDGET = 5;
+    public static final int DEFAULT_PURGE_CONCURRENCY = 4;
+    public static final long DEFAULT_BUNDLE_MAX_FILE_SIZE = 4L * 1024 * 1024;
+    public static final String BUNDLE_FILETYPE = "rdbundle";
+    public static final int DEFAULT_SHARD_LENGTH = 2;
+    public static final int MAX_SHARD_LENGTH = 16;
+    public static final int DEFAULT_WRITE_BEHIND_CONCURRENCY = 4;
+    public static final int DEFAULT_WRITE_BEHIND_MAX_ATTEMPTS = 10;
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+    public static final long DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION = 10000;
+    public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+    public static final String HTTP_CLIENT_APACHE = "apache";
+    public static final String HTTP_CLIENT_URL_CONNECTION = "url-connection";
+    public static final String HTTP_CLIENT_CRT = "crt";
+    public static final int DEFAULT_MAX_CONNECTIONS = 100;
+    public static final int DEFAULT_CONNECTION_TIME_TO_LIVE = 60;
+    public static final int DEFAULT_CONNECTION_MAX_IDLE_TIME = 15;
     public static final String META_EXECID = "execid";
 
     public static final String META_ID_FOR_LOGSTORE = "execIdForLogStore";
@@ -67,9 +137,22 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
     public static final String META_URL = "url";
     public static final String META_SERVERURL = "serverUrl";
     public static final String META_SERVER_UUID = "serverUUID";
+    public static final String META_COMPRESSION = "compression";
+    public static final String META_BUNDLE = "bundle";
+    public static final String META_CRC32C = "crc32c";
+    public static final String META_LENGTH = "length";
+    /**
+     * Context key of the shard of an execution, available in the path as <code>${job.shard}</code>
+     */
+    public static final String SHARD_KEY = "shard";
 
     protected static Logger logger = LoggerFactory.getLogger(S3LogFileStoragePlugin.class.getName());
 
+    /**
+     * Releases S3 clients held by plugin instances that were discarded without being closed
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
     @PluginProperty(title = "AWS Access Key", description = "AWS Access Key")
     private String AWSAccessKeyId;
 
@@ -98,6 +181,8 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
                           "* `${job.id}` = job UUID (or blank).\n" +
                           "* `${job.group}` = job group (or blank).\n" +
                           "* `${job.name}` = job name (or blank).\n" +
+                          "* `${job.shard}` = hash prefix of the execution ID, to spread executions across " +
+                          "key prefixes.\n" +
                           "",
             defaultValue = DEFAULT_PATH_FORMAT)
     private String path;
@@ -135,7 +220,377 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
             defaultValue = "false")
     private boolean pathStyle;
 
+    @PluginProperty(
+            title = "Share S3 Client",
+            description = "Reuse S3 clients and their connection pools across executions which use the same " +
+                          "credentials, region, endpoint and path style. Default: true",
+            defaultValue = "true")
+    private boolean shareClient = true;
+
+    @PluginProperty(
+            title = "Shared Client Idle Timeout",
+            description = "Seconds to keep a shared S3 client open after the last execution using it has finished. " +
+                          "Default: " + DEFAULT_SHARED_CLIENT_IDLE_TIMEOUT,
+            defaultValue = "" + DEFAULT_SHARED_CLIENT_IDLE_TIMEOUT)
+    private int sharedClientIdleTimeout = DEFAULT_SHARED_CLIENT_IDLE_TIMEOUT;
+
+    @PluginProperty(
+            title = "Multipart Upload Threshold",
+            description = "Files of at least this many bytes are uploaded as a multipart upload, sending parts in " +
+                          "parallel. Set to 0 to always use a single request. Default: " +
+                          DEFAULT_MULTIPART_THRESHOLD,
+            defaultValue = "" + DEFAULT_MULTIPART_THRESHOLD)
+    private long multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+
+    @PluginProperty(
+            title = "Multipart Upload Part Size",
+            description = "Size in bytes of each part of a multipart upload, at least 5242880 (5 MiB) and at " +
+                          "most 5368709120 (5 GiB). Each part being uploaded is held in memory. Default: " +
+                          DEFAULT_MULTIPART_PART_SIZE,
+            defaultValue = "" + DEFAULT_MULTIPART_PART_SIZE)
+    private long multipartPartSize = DEFAULT_MULTIPART_PART_SIZE;
+
+    @PluginProperty(
+            title = "Multipart Upload Concurrency",
+            description = "Maximum number of parts of a single file uploaded at the same time. Default: " +
+                          DEFAULT_MULTIPART_CONCURRENCY,
+            defaultValue = "" + DEFAULT_MULTIPART_CONCURRENCY)
+    private int multipartConcurrency = DEFAULT_MULTIPART_CONCURRENCY;
+
+    @PluginProperty(
+            title = "Store Concurrency",
+            description = "Maximum number of an execution's files (log, state, etc.) uploaded at the same time. " +
+                          "Set to 1 to upload them one after another. Default: " + DEFAULT_STORE_CONCURRENCY,
+            defaultValue = "" + DEFAULT_STORE_CONCURRENCY)
+    private int storeConcurrency = DEFAULT_STORE_CONCURRENCY;
+
+    @PluginProperty(
+            title = "Ranged Download Threshold",
+            description = "Files larger than this many bytes are downloaded using parallel byte range requests. " +
+                          "Set to 0 to always download in one request. Default: " + DEFAULT_RANGED_DOWNLOAD_THRESHOLD,
+            defaultValue = "" + DEFAULT_RANGED_DOWNLOAD_THRESHOLD)
+    private long rangedDownloadThreshold = DEFAULT_RANGED_DOWNLOAD_THRESHOLD;
+
+    @PluginProperty(
+            title = "Ranged Download Part Size",
+            description = "Size in bytes of each byte range of a ranged download. The first range is requested " +
+                          "alone and the others in parallel once the file length is known. Up to the ranged " +
+                          "download concurrency of parts are held in memory. Default: " +
+                          DEFAULT_RANGED_DOWNLOAD_PART_SIZE,
+            defaultValue = "" + DEFAULT_RANGED_DOWNLOAD_PART_SIZE)
+    private long rangedDownloadPartSize = DEFAULT_RANGED_DOWNLOAD_PART_SIZE;
+
+    @PluginProperty(
+            title = "Ranged Download Concurrency",
+            description = "Maximum number of byte ranges of a single file downloaded at the same time. Default: " +
+                          DEFAULT_RANGED_DOWNLOAD_CONCURRENCY,
+            defaultValue = "" + DEFAULT_RANGED_DOWNLOAD_CONCURRENCY)
+    private int rangedDownloadConcurrency = DEFAULT_RANGED_DOWNLOAD_CONCURRENCY;
+
+    @PluginProperty(
+            title = "Local Cache Directory",
+            description = "Directory on the Rundeck server used to cache retrieved log files, so that viewing the " +
+                          "same log again does not download it from S3. Leave blank to disable the cache.")
+    private String cacheDirectory;
+
+    @PluginProperty(
+            title = "Local Cache Size",
+            description = "Maximum total size in bytes of the local cache. The least recently used files are " +
+                          "removed when it is exceeded. Default: " + DEFAULT_CACHE_MAX_SIZE,
+            defaultValue = "" + DEFAULT_CACHE_MAX_SIZE)
+    private long cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
+
+    @PluginProperty(
+            title = "Local Cache Revalidate Interval",
+            description = "Seconds a cached file is served without checking its ETag in S3. With 0, the ETag is " +
+                          "checked with a HEAD request each time the file is served, so a file changed by " +
+                          "another server is never served stale. Default: " + DEFAULT_CACHE_REVALIDATE_INTERVAL,
+            defaultValue = "" + DEFAULT_CACHE_REVALIDATE_INTERVAL)
+    private int cacheRevalidateInterval = DEFAULT_CACHE_REVALIDATE_INTERVAL;
+
+    @PluginProperty(
+            title = "Compression",
+            description = "Compress log files as they are stored. Files are decompressed when retrieved, and files " +
+                          "stored without compression can still be retrieved. Default: " + DEFAULT_COMPRESSION,
+            defaultValue = DEFAULT_COMPRESSION)
+    @SelectValues(values = {"none", "gzip"})
+    private String compression = DEFAULT_COMPRESSION;
+
+    @PluginProperty(
+            title = "Availability Cache TTL",
+            description = "Seconds the result of checking that a file exists in S3 is reused. Other cluster " +
+                          "members do not see a file stored or deleted by this one until the result expires. 0 to " +
+                          "check every time. Default: 0",
+            defaultValue = "0")
+    private int headCacheTtl;
+
+    @PluginProperty(
+            title = "Availability Cache Negative TTL",
+            description = "Seconds the result of checking that a file does not exist in S3 is reused. 0 to check " +
+                          "every time. Default: 0",
+            defaultValue = "0")
+    private int headCacheNegativeTtl;
+
+    @PluginProperty(
+            title = "Async Client",
+            description = "Use the non-blocking S3 client, with network I/O for all transfers driven by a few event " +
+                          "loop threads. Rundeck's threads still wait for each transfer. `netty` uses the Netty HTTP " +
+                          "client, `crt` uses the AWS Common Runtime client which requires the aws-crt library. " +
+                          "Default: " + ASYNC_BACKEND_NONE,
+            defaultValue = ASYNC_BACKEND_NONE)
+    @SelectValues(values = {ASYNC_BACKEND_NONE, ASYNC_BACKEND_NETTY, ASYNC_BACKEND_CRT})
+    private String asyncBackend = ASYNC_BACKEND_NONE;
+
+    @PluginProperty(
+            title = "Async Client Max Concurrency",
+            description = "Maximum number of concurrent requests of the async client. Default: " +
+                          DEFAULT_ASYNC_MAX_CONCURRENCY,
+            defaultValue = "" + DEFAULT_ASYNC_MAX_CONCURRENCY)
+    private int asyncMaxConcurrency = DEFAULT_ASYNC_MAX_CONCURRENCY;
+
+    @PluginProperty(
+            title = "Metrics",
+            description = "Publish latency, throughput and error metrics of store, retrieve, availability check and " +
+                          "delete operations for each bucket with JMX. Default: true",
+            defaultValue = "true")
+    private boolean metricsEnabled = true;
+
+    @PluginProperty(
+            title = "AWS SDK Metrics",
+            description = "Publish rolling summaries of the AWS SDK metrics of S3 calls with JMX: time resolving " +
+                          "credentials, waiting for a pooled connection, the service call and time to first byte, " +
+                          "and retries. Default: false",
+            defaultValue = "false")
+    private boolean sdkMetricsEnabled;
+
+    @PluginProperty(
+            title = "Slow Call Threshold",
+            description = "When AWS SDK metrics are enabled, log S3 calls taking at least this many milliseconds, " +
+                          "with the timing of each attempt and the execution id. Set to 0 to not log. Default: " +
+                          DEFAULT_SLOW_CALL_THRESHOLD,
+            defaultValue = "" + DEFAULT_SLOW_CALL_THRESHOLD)
+    private long slowCallThreshold = DEFAULT_SLOW_CALL_THRESHOLD;
+
+    @PluginProperty(
+            title = "Hedged Requests",
+            description = "If a GET or HEAD request has not responded within a percentile of recent response times, " +
+                          "send a duplicate request and use the first response. Default: false",
+            defaultValue = "false")
+    private boolean hedgeRequests;
+
+    @PluginProperty(
+            title = "Hedge Percentile",
+            description = "Percentile of recent response times to wait for before sending a duplicate request, " +
+                          "between 50 and 99. Default: " + DEFAULT_HEDGE_PERCENTILE,
+            defaultValue = "" + DEFAULT_HEDGE_PERCENTILE)
+    private int hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+    @PluginProperty(
+            title = "Hedge Budget",
+            description = "Maximum percentage of GET and HEAD requests which are duplicated. Default: " +
+                          DEFAULT_HEDGE_BUDGET,
+            defaultValue = "" + DEFAULT_HEDGE_BUDGET)
+    private int hedgeBudget = DEFAULT_HEDGE_BUDGET;
+
+    @PluginProperty(
+            title = "Incremental Uploads",
+            description = "When Rundeck stores a log file again as it grows during an execution, copy the part " +
+                          "stored before within S3 and upload only the rest, as parts of the Multipart Upload Part " +
+                          "Size. Used for files of at least one part. Not used with compression. Default: false",
+            defaultValue = "false")
+    private boolean incrementalUpload;
+
+    @PluginProperty(
+            title = "Purge Concurrency",
+            description = "Maximum number of batch delete requests, of up to 1000 files each, sent at the same time " +
+                          "when purging the files of many executions. Default: " + DEFAULT_PURGE_CONCURRENCY,
+            defaultValue = "" + DEFAULT_PURGE_CONCURRENCY)
+    private int purgeConcurrency = DEFAULT_PURGE_CONCURRENCY;
+
+    @PluginProperty(
+            title = "Bundle Storage",
+            description = "Store an execution's small files (log, state, etc.) as a single object with an index, so " +
+                          "that storing, checking and reading them costs one request instead of one for each file. " +
+                          "Default: false",
+            defaultValue = "false")
+    private boolean bundleStorage;
+
+    @PluginProperty(
+            title = "Bundle Max File Size",
+            description = "Files larger than this many bytes are stored as separate objects when bundle storage is " +
+                          "enabled. Bundled files are held in memory. Default: " + DEFAULT_BUNDLE_MAX_FILE_SIZE,
+            defaultValue = "" + DEFAULT_BUNDLE_MAX_FILE_SIZE)
+    private long bundleMaxFileSize = DEFAULT_BUNDLE_MAX_FILE_SIZE;
+
+    @PluginProperty(
+            title = "Read Bundles",
+            description = "With bundle storage turned off, still look for files in the bundles stored while it was " +
+                          "on, and remove deleted files from them. Costs a HEAD request for the bundle on each " +
+                          "missed availability check and on each delete. Always done with bundle storage " +
+                          "enabled. Default: false",
+            defaultValue = "false")
+    private boolean readBundles;
+
+    @PluginProperty(
+            title = "Skip Unchanged Files",
+            description = "Record a CRC32C checksum of each stored file, and skip uploading a file again when the " +
+                          "object already holds the same content, such as when Rundeck retries storing an " +
+                          "execution's files. Costs a HEAD request for each file stored. Default: false",
+            defaultValue = "false")
+    private boolean skipUnchanged;
+
+    @PluginProperty(
+            title = "Shard Length",
+            description = "Number of hex characters of the `${job.shard}` path variable, a hash of the execution ID. " +
+                          "Each character spreads executions across 16 times as many key prefixes. Default: " +
+                          DEFAULT_SHARD_LENGTH,
+            defaultValue = "" + DEFAULT_SHARD_LENGTH)
+    private int shardLength = DEFAULT_SHARD_LENGTH;
+
+    @PluginProperty(
+            title = "Fallback Path",
+            description = "Path format files are read from when they are not found at the path, such as the previous " +
+                          "path when `${job.shard}` is added to it. Files are always stored at the path, and deleted " +
+                          "from both. Default: none")
+    private String fallbackPath;
+
+    @PluginProperty(
+            title = "Request Limit",
+            description = "Maximum S3 operations in flight to the bucket from all executions, so that a burst of " +
+                          "finishing executions does not set off throttling. If configurations using the same " +
+                          "bucket set different limits, the smallest applies. Lowered when S3 responds with 503 Slow " +
+                          "Down and raised again gradually. Retrieves and availability checks are served first, " +
+                          "stores and deletes can each use at most three quarters of the limit. 0 for no limit. " +
+                          "Default: 0",
+            defaultValue = "0")
+    private int requestLimit;
+
+    @PluginProperty(
+            title = "Write-Behind Directory",
+            description = "Local directory where stored files are queued and uploaded to S3 in the background, so " +
+                          "that storing an execution's files does not wait for S3. Queued files are kept until " +
+                          "uploaded, including across restarts, and can be retrieved meanwhile. Use a directory on " +
+                          "the Rundeck server's local disk, not shared with other servers. Default: none")
+    private String writeBehindDirectory;
+
+    @PluginProperty(
+            title = "Write-Behind Concurrency",
+            description = "Maximum number of queued files uploaded at the same time. Default: " +
+                          DEFAULT_WRITE_BEHIND_CONCURRENCY,
+            defaultValue = "" + DEFAULT_WRITE_BEHIND_CONCURRENCY)
+    private int writeBehindConcurrency = DEFAULT_WRITE_BEHIND_CONCURRENCY;
+
+    @PluginProperty(
+            title = "Write-Behind Max Attempts",
+            description = "Upload attempts for a queued file, with exponentially increasing delays of up to 5 " +
+                          "minutes between them, before it is moved to the `failed` subdirectory of the write-behind " +
+                          "directory. Default: " + DEFAULT_WRITE_BEHIND_MAX_ATTEMPTS,
+            defaultValue = "" + DEFAULT_WRITE_BEHIND_MAX_ATTEMPTS)
+    private int writeBehindMaxAttempts = DEFAULT_WRITE_BEHIND_MAX_ATTEMPTS;
+
+    @PluginProperty(
+            title = "Circuit Breaker",
+            description = "Stop sending requests to the bucket for the open duration when too many recent requests " +
+                          "failed with timeouts or server errors, so that each store and retrieve fails at once " +
+                          "instead of waiting out the timeouts and retries. Default: false",
+            defaultValue = "false")
+    private boolean circuitBreaker;
+
+    @PluginProperty(
+            title = "Circuit Breaker Failure Rate",
+            description = "Percentage of the last 20 requests which must have failed, or been slow, to stop sending " +
+                          "requests, from 1 to 100. Default: " + DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE,
+            defaultValue = "" + DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE)
+    private int circuitBreakerFailureRate = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE;
+
+    @PluginProperty(
+            title = "Circuit Breaker Slow Call Duration",
+            description = "Availability checks and deletes taking longer than this many milliseconds count as " +
+                          "failed, 0 to only count errors. Default: " + DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION,
+            defaultValue = "" + DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION)
+    private long circuitBreakerSlowCallDuration = DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_DURATION;
+
+    @PluginProperty(
+            title = "Circuit Breaker Open Duration",
+            description = "Seconds requests are not sent for once too many failed, before a few test requests are " +
+                          "sent. Default: " + DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION,
+            defaultValue = "" + DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION)
+    private int circuitBreakerOpenDuration = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION;
+
+    @PluginProperty(
+            title = "Bulkhead Limit",
+            description = "Maximum S3 operations in flight to the bucket from all executions, beyond which further " +
+                          "operations fail at once instead of waiting, so that a slow bucket cannot hold every " +
+                          "thread of the server. 0 for no limit. Default: 0",
+            defaultValue = "0")
+    private int bulkheadLimit;
+
+    @PluginProperty(
+            title = "HTTP Client",
+            description = "HTTP implementation of the S3 client when the async client is not used. `apache` pools " +
+                          "connections, `url-connection` uses the JDK's HTTP client and has a smaller footprint, " +
+                          "`crt` uses the AWS Common Runtime client which requires the aws-crt-client library. " +
+                          "Default: " + HTTP_CLIENT_APACHE,
+            defaultValue = HTTP_CLIENT_APACHE)
+    @SelectValues(values = {HTTP_CLIENT_APACHE, HTTP_CLIENT_URL_CONNECTION, HTTP_CLIENT_CRT})
+    private String httpClient = HTTP_CLIENT_APACHE;
+
+    @PluginProperty(
+            title = "Max Connections",
+            description = "Maximum pooled connections of the `apache` and `crt` HTTP clients, shared by all " +
+                          "executions using the client. Default: " + DEFAULT_MAX_CONNECTIONS,
+            defaultValue = "" + DEFAULT_MAX_CONNECTIONS)
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    @PluginProperty(
+            title = "Connection Time to Live",
+            description = "Seconds after which a pooled connection is closed even if in use, so that new " +
+                          "connections follow changes to the endpoint's DNS. 0 for no limit. Default: " +
+                          DEFAULT_CONNECTION_TIME_TO_LIVE,
+            defaultValue = "" + DEFAULT_CONNECTION_TIME_TO_LIVE)
+    private int connectionTimeToLive = DEFAULT_CONNECTION_TIME_TO_LIVE;
+
+    @PluginProperty(
+            title = "Connection Max Idle Time",
+            description = "Seconds after which an idle pooled connection is closed. Keep below the endpoint's idle " +
+                          "timeout, which is about 20 seconds for S3, so that requests are not sent on connections " +
+                          "the server is closing. Default: " + DEFAULT_CONNECTION_MAX_IDLE_TIME,
+            defaultValue = "" + DEFAULT_CONNECTION_MAX_IDLE_TIME)
+    private int connectionMaxIdleTime = DEFAULT_CONNECTION_MAX_IDLE_TIME;
+
+    @PluginProperty(
+            title = "Reap Idle Connections",
+            description = "Close idle connections of the `apache` HTTP client in the background, rather than when " +
+                          "the pool is next used. Default: true",
+            defaultValue = "true")
+    private boolean reapIdleConnections = true;
+
+    @PluginProperty(
+            title = "TCP Keep-Alive",
+            description = "Send TCP keep-alive probes on pooled connections, so that connections dropped by a " +
+                          "firewall or load balancer are detected. Default: true",
+            defaultValue = "true")
+    private boolean tcpKeepAlive = true;
+
+    @PluginProperty(
+            title = "API Call Attempt Timeout",
+            description = "Milliseconds allowed for each attempt of an S3 call, after which it is retried. " +
+                          "Applies to each part of multipart uploads and ranged downloads, so keep it long enough " +
+                          "to transfer a file below the multipart threshold. 0 for no limit. Default: 0",
+            defaultValue = "0")
+    private long apiCallAttemptTimeout;
+
+    @PluginProperty(
+            title = "API Call Timeout",
+            description = "Milliseconds allowed for an S3 call including all its retries. 0 for no limit. Default: 0",
+            defaultValue = "0")
+    private long apiCallTimeout;
+
     protected String expandedPath;
+    /**
+     * Expanded fallback path, or null if not configured
+     */
+    private String fallbackExpandedPath;
 
     public S3LogFileStoragePlugin() {
         super();
@@ -143,6 +598,34 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
 
     protected S3Client s3Client;
 
+    private Cleaner.Cleanable clientCleanable;
+
+    private LogFileCache logFileCache;
+
+    private LogCompression logCompression = LogCompression.NONE;
+
+    private HeadObjectCache headObjectCache;
+
+    private S3Metrics metrics;
+
+    /**
+     * Attaches the execution's SDK metric publisher to requests, null if SDK metrics are disabled
+     */
+    private AwsRequestOverrideConfiguration requestOverride;
+
+    private RequestHedger getHedger;
+
+    private RequestHedger headHedger;
+    private RequestLimiter requestLimiter;
+
+    private CircuitBreaker breaker;
+
+    private HttpTransport httpTransport;
+
+    private WriteBehindQueue writeBehindQueue;
+
+    private final QueuedUploader queuedUploader = new QueuedUploader();
+
     protected Map<String, ?> context;
 
     public void initialize(Map<String, ?> context) {
@@ -153,9 +636,11 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
         }
 
         AwsCredentialsProvider credentialsProvider;
+        String credentialsSource;
         if (null != AWSAccessKeyId && null != AWSSecretKey) {
             credentialsProvider = StaticCredentialsProvider.create(
                     AwsBasicCredentials.create(AWSAccessKeyId, AWSSecretKey));
+            credentialsSource = staticCredentialsSource(credentialsProvider.resolveCredentials());
         } else if (null != getAWSCredentialsFile()) {
             File creds = new File(getAWSCredentialsFile());
             if (!creds.exists() || !creds.canRead()) {
@@ -168,8 +653,10 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
                 throw new RuntimeException("Credentials file could not be read: " + getAWSCredentialsFile() + ": " +
                         e.getMessage(), e);
             }
+            credentialsSource = staticCredentialsSource(credentialsProvider.resolveCredentials());
         } else {
             credentialsProvider = DefaultCredentialsProvider.create();
+            credentialsSource = "default";
         }
 
         Region awsRegion = Region.of(getRegion());
@@ -181,7 +668,56 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
             logger.warn("Signature V2 is not supported in AWS SDK v2. Forcing Signature V4.");
         }
 
-        s3Client = createS3Client(credentialsProvider, awsRegion);
+        if (!ASYNC_BACKEND_NONE.equals(getAsyncBackend()) &&
+            !ASYNC_BACKEND_NETTY.equals(getAsyncBackend()) &&
+            !ASYNC_BACKEND_CRT.equals(getAsyncBackend())) {
+            throw new IllegalArgumentException("Unsupported asyncBackend: " + getAsyncBackend());
+        }
+        if (!ASYNC_BACKEND_NONE.equals(getAsyncBackend()) && getAsyncMaxConcurrency() < 1) {
+            throw new IllegalArgumentException("asyncMaxConcurrency must be at least 1");
+        }
+        if (!HTTP_CLIENT_APACHE.equals(getHttpClient()) &&
+            !HTTP_CLIENT_URL_CONNECTION.equals(getHttpClient()) &&
+            !HTTP_CLIENT_CRT.equals(getHttpClient())) {
+            throw new IllegalArgumentException("Unsupported httpClient: " + getHttpClient());
+        }
+        if (getMaxConnections() < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        if (getConnectionTimeToLive() < 0) {
+            throw new IllegalArgumentException("connectionTimeToLive must not be negative");
+        }
+        if (getConnectionMaxIdleTime() < 1) {
+            throw new IllegalArgumentException("connectionMaxIdleTime must be at least 1");
+        }
+        if (getApiCallAttemptTimeout() < 0) {
+            throw new IllegalArgumentException("apiCallAttemptTimeout must not be negative");
+        }
+        if (getApiCallTimeout() < 0) {
+            throw new IllegalArgumentException("apiCallTimeout must not be negative");
+        }
+        if (ASYNC_BACKEND_CRT.equals(getAsyncBackend())) {
+            // the CRT-based S3 client takes no ClientOverrideConfiguration, only its own settings
+            if (getApiCallAttemptTimeout() > 0 || getApiCallTimeout() > 0) {
+                throw new IllegalArgumentException(
+                        "apiCallAttemptTimeout and apiCallTimeout are not supported with asyncBackend crt");
+            }
+            if (isSdkMetricsEnabled()) {
+                logger.warn("sdkMetricsEnabled has no effect with asyncBackend crt, which publishes no SDK metrics");
+            }
+        }
+        httpTransport = new HttpTransport(
+                getHttpClient(),
+                getMaxConnections(),
+                TimeUnit.SECONDS.toMillis(getConnectionTimeToLive()),
+                TimeUnit.SECONDS.toMillis(getConnectionMaxIdleTime()),
+                isReapIdleConnections(),
+                isTcpKeepAlive(),
+                getApiCallAttemptTimeout(),
+                getApiCallTimeout()
+        );
+
+        s3Client = obtainS3Client(credentialsProvider, credentialsSource, awsRegion);
 
         if (null == bucket || "".equals(bucket.trim())) {
             throw new IllegalArgumentException("bucket was not set");
@@ -192,19 +728,143 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
         if (!getPath().contains("${job.execid}") && !getPath().endsWith("/")) {
             throw new IllegalArgumentException("path must contain ${job.execid} or end with /");
         }
-        String configpath = getPath();
-        if (!configpath.contains("${job.execid}") && configpath.endsWith("/")) {
-            configpath = path + "/${job.execid}";
+        if (getShardLength() < 1 || getShardLength() > MAX_SHARD_LENGTH) {
+            throw new IllegalArgumentException("shardLength must be between 1 and " + MAX_SHARD_LENGTH);
         }
-        expandedPath = (context.get("isRemoteFilePath") != null && context.get("isRemoteFilePath").equals("true"))
-                ? String.valueOf(context.get("outputfilepath").toString())
-                : expandPath(configpath, context);
+        expandedPath = expandContextPath(getPath(), context);
         if (null == expandedPath || "".equals(expandedPath.trim())) {
             throw new IllegalArgumentException("expanded value of path was empty");
         }
         if (expandedPath.endsWith("/")) {
             throw new IllegalArgumentException("expanded value of path must not end with /");
         }
+        if (isFallbackPath()) {
+            if (!getFallbackPath().contains("${job.execid}") && !getFallbackPath().endsWith("/")) {
+                throw new IllegalArgumentException("fallbackPath must contain ${job.execid} or end with /");
+            }
+            fallbackExpandedPath = expandFallbackPath(context, expandedPath);
+            if (null != fallbackExpandedPath && fallbackExpandedPath.endsWith("/")) {
+                throw new IllegalArgumentException("expanded value of fallbackPath must not end with /");
+            }
+        }
+        if (getMultipartThreshold() > 0 || isIncrementalUpload()) {
+            if (getMultipartPartSize() < MultipartUploader.MIN_PART_SIZE) {
+                throw new IllegalArgumentException("multipartPartSize must be at least " +
+                                                   MultipartUploader.MIN_PART_SIZE);
+            }
+            if (getMultipartPartSize() > MultipartUploader.MAX_PART_SIZE) {
+                throw new IllegalArgumentException("multipartPartSize must be at most " +
+                                                   MultipartUploader.MAX_PART_SIZE);
+            }
+            if (getMultipartConcurrency() < 1) {
+                throw new IllegalArgumentException("multipartConcurrency must be at least 1");
+            }
+        }
+        if (getRangedDownloadThreshold() > 0) {
+            if (getRangedDownloadPartSize() < 1) {
+                throw new IllegalArgumentException("rangedDownloadPartSize must be at least 1");
+            }
+            if (getRangedDownloadConcurrency() < 1) {
+                throw new IllegalArgumentException("rangedDownloadConcurrency must be at least 1");
+            }
+        }
+        logCompression = LogCompression.forName(getCompression());
+        headObjectCache = getHeadCacheTtl() > 0 || getHeadCacheNegativeTtl() > 0
+                          ? HeadObjectCache.forClient(s3Client)
+                          : null;
+        metrics = isMetricsEnabled() ? S3Metrics.getInstance() : null;
+        if (getSlowCallThreshold() < 0) {
+            throw new IllegalArgumentException("slowCallThreshold must not be negative");
+        }
+        requestOverride = isSdkMetricsEnabled()
+                          ? AwsRequestOverrideConfiguration.builder()
+                                  .addMetricPublisher(SdkMetricsPublisher.getInstance().forExecution(
+                                          String.valueOf(null != context.get(META_ID_FOR_LOGSTORE)
+                                                         ? context.get(META_ID_FOR_LOGSTORE)
+                                                         : context.get(META_EXECID)),
+                                          getSlowCallThreshold()
+                                  ))
+                                  .build()
+                          : null;
+        getHedger = null;
+        headHedger = null;
+        if (isHedgeRequests()) {
+            if (getHedgePercentile() < 50 || getHedgePercentile() > 99) {
+                throw new IllegalArgumentException("hedgePercentile must be between 50 and 99");
+            }
+            if (getHedgeBudget() < 1 || getHedgeBudget() > 100) {
+                throw new IllegalArgumentException("hedgeBudget must be between 1 and 100");
+            }
+            getHedger = RequestHedger.forClient(s3Client, "GetObject", getHedgePercentile(), getHedgeBudget());
+            headHedger = RequestHedger.forClient(s3Client, "HeadObject", getHedgePercentile(), getHedgeBudget());
+        }
+        if (getRequestLimit() < 0) {
+            throw new IllegalArgumentException("requestLimit must not be negative");
+        }
+        requestLimiter = getRequestLimit() > 0
+                         ? RequestLimiter.forTarget(getEndpoint(), getBucket(), getRequestLimit())
+                         : null;
+        if (isCircuitBreaker()) {
+            if (getCircuitBreakerFailureRate() < 1 || getCircuitBreakerFailureRate() > 100) {
+                throw new IllegalArgumentException("circuitBreakerFailureRate must be between 1 and 100");
+            }
+            if (getCircuitBreakerSlowCallDuration() < 0) {
+                throw new IllegalArgumentException("circuitBreakerSlowCallDuration must not be negative");
+            }
+            if (getCircuitBreakerOpenDuration() < 1) {
+                throw new IllegalArgumentException("circuitBreakerOpenDuration must be at least 1");
+            }
+        }
+        if (getBulkheadLimit() < 0) {
+            throw new IllegalArgumentException("bulkheadLimit must not be negative");
+        }
+        breaker = isCircuitBreaker() || getBulkheadLimit() > 0
+                  ? CircuitBreaker.forTarget(
+                          getEndpoint(),
+                          getBucket(),
+                          isCircuitBreaker() ? getCircuitBreakerFailureRate() : 0,
+                          getCircuitBreakerSlowCallDuration(),
+                          TimeUnit.SECONDS.toMillis(getCircuitBreakerOpenDuration()),
+                          getBulkheadLimit()
+                  )
+                  : null;
+        if (getPurgeConcurrency() < 1) {
+            throw new IllegalArgumentException("purgeConcurrency must be at least 1");
+        }
+        if (isBundleStorage() && (getBundleMaxFileSize() < 1 || getBundleMaxFileSize() > Integer.MAX_VALUE - 8)) {
+            throw new IllegalArgumentException("bundleMaxFileSize must be between 1 and " + (Integer.MAX_VALUE - 8));
+        }
+        logFileCache = null;
+        if (null != getCacheDirectory() && !"".equals(getCacheDirectory().trim())) {
+            try {
+                logFileCache = LogFileCache.forDirectory(new File(getCacheDirectory().trim()), getCacheMaxSize());
+            } catch (IOException e) {
+                logger.error("Local cache is disabled, directory cannot be used: {}: {}",
+                             getCacheDirectory(), e.getMessage());
+            }
+        }
+        writeBehindQueue = null;
+        if (null != getWriteBehindDirectory() && !"".equals(getWriteBehindDirectory().trim())) {
+            if (getWriteBehindConcurrency() < 1) {
+                throw new IllegalArgumentException("writeBehindConcurrency must be at least 1");
+            }
+            if (getWriteBehindMaxAttempts() < 1) {
+                throw new IllegalArgumentException("writeBehindMaxAttempts must be at least 1");
+            }
+            try {
+                writeBehindQueue = WriteBehindQueue.forDirectory(
+                        new File(getWriteBehindDirectory().trim()),
+                        getWriteBehindConcurrency(),
+                        getWriteBehindMaxAttempts()
+                );
+            } catch (IOException e) {
+                logger.error("Write-behind is disabled, directory cannot be used: {}: {}",
+                             getWriteBehindDirectory(), e.getMessage());
+            }
+            if (null != writeBehindQueue) {
+                queuedUploader.added(writeBehindQueue.recover(getBucket(), queuedUploader));
+            }
+        }
     }
 
     private AwsCredentialsProvider loadCredentialsFromFile(File creds) throws IOException {
@@ -222,20 +882,112 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
         return StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
     }
 
+    /**
+     * Identifies static credentials for client sharing without keeping the secret key
+     */
+    private static String staticCredentialsSource(AwsCredentials credentials) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(credentials.secretAccessKey().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder("static:").append(credentials.accessKeyId()).append(':');
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the shared client for this configuration, or a new client if sharing is disabled. Any client previously
+     * obtained by this instance is released first.
+     */
+    private S3Client obtainS3Client(
+            final AwsCredentialsProvider credentialsProvider,
+            final String credentialsSource,
+            final Region awsRegion
+    )
+    {
+        releaseClient();
+        if (!isShareClient()) {
+            S3Client client = createS3Client(credentialsProvider, awsRegion);
+            clientCleanable = CLEANER.register(this, client::close);
+            return client;
+        }
+        S3ClientPool.Lease lease = S3ClientPool.getInstance().acquire(
+                new S3ClientPool.ClientKey(
+                        credentialsSource,
+                        awsRegion.id(),
+                        getEndpoint(),
+                        isPathStyle(),
+                        clientOptions()
+                ),
+                TimeUnit.SECONDS.toMillis(getSharedClientIdleTimeout()),
+                () -> createS3Client(credentialsProvider, awsRegion)
+        );
+        clientCleanable = CLEANER.register(this, lease::close);
+        return lease.client();
+    }
+
+    /**
+     * @return settings other than credentials, region, endpoint and path style which are used to build the client
+     */
+    private String clientOptions() {
+        String options = ASYNC_BACKEND_NONE.equals(getAsyncBackend())
+                         ? "async=" + ASYNC_BACKEND_NONE
+                         : "async=" + getAsyncBackend() + ",maxConcurrency=" + getAsyncMaxConcurrency();
+        options += "," + httpTransport.options();
+        return isSdkMetricsEnabled() ? options + ",sdkMetrics=true" : options;
+    }
+
+    /**
+     * @return client configuration with the call timeouts, publishing SDK metrics if enabled
+     */
+    private ClientOverrideConfiguration clientOverrideConfiguration() {
+        ClientOverrideConfiguration.Builder builder = httpTransport.configure(ClientOverrideConfiguration.builder());
+        if (isSdkMetricsEnabled()) {
+            builder.addMetricPublisher(SdkMetricsPublisher.getInstance());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Releases the S3 client used by this instance. A shared client stays open for other executions until it has been
+     * idle for the configured timeout. If files stored by this instance are still in the write-behind queue, the client
+     * is released once they have been uploaded.
+     */
+    @Override
+    public void close() {
+        if (queuedUploader.deferClose()) {
+            logger.debug("Keeping the S3 client open until queued files are uploaded");
+            return;
+        }
+        releaseClient();
+    }
+
+    private void releaseClient() {
+        if (null != clientCleanable) {
+            clientCleanable.clean();
+            clientCleanable = null;
+        }
+    }
+
     /**
      * can override for testing
      */
     protected S3Client createS3Client(AwsCredentialsProvider credentialsProvider, Region region) {
+        if (!ASYNC_BACKEND_NONE.equals(getAsyncBackend())) {
+            return new AsyncBackedS3Client(createS3AsyncClient(credentialsProvider, region), getAsyncMaxConcurrency());
+        }
         S3ClientBuilder builder = S3Client.builder()
                 .credentialsProvider(credentialsProvider)
-                .region(region);
+                .region(region)
+                .overrideConfiguration(clientOverrideConfiguration());
 
-        if (null != getEndpoint() && !getEndpoint().trim().isEmpty()) {
-            String ep = getEndpoint().trim();
-            if (!ep.startsWith("http://") && !ep.startsWith("https://")) {
-                ep = "https://" + ep;
-            }
-            builder.endpointOverride(URI.create(ep));
+        URI endpointUri = endpointUri();
+        if (null != endpointUri) {
+            builder.endpointOverride(endpointUri);
         }
 
         if (isPathStyle()) {
@@ -244,84 +996,482 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
                     .build());
         }
 
-        return builder.build();
+        try {
+            return builder.httpClientBuilder(httpTransport.httpClientBuilder()).build();
+        } catch (NoClassDefFoundError | UnsatisfiedLinkError e) {
+            if (!HTTP_CLIENT_CRT.equals(getHttpClient())) {
+                throw e;
+            }
+            throw new IllegalArgumentException(
+                    "httpClient crt requires the AWS CRT HTTP client (software.amazon.awssdk:aws-crt-client): " +
+                    e.getMessage(), e);
+        }
     }
 
     /**
-     * Expands the path format using the context data
-     *
-     * @param pathFormat format
-     * @param context context data
-     *
-     * @return expanded path
+     * Creates the non-blocking client for the configured async backend, can override for testing
      */
-    static String expandPath(String pathFormat, Map<String, ?> context) {
-        String result = pathFormat.replaceAll("^/+", "");
-        if (null != context) {
-            result = DataContextUtils.replaceDataReferences(
-                    result,
-                    DataContextUtils.addContext("job", stringMap(context), new HashMap<>()),
-                    null,
-                    false,
-                    true
-            );
+    protected S3AsyncClient createS3AsyncClient(AwsCredentialsProvider credentialsProvider, Region region) {
+        URI endpointUri = endpointUri();
+        if (ASYNC_BACKEND_CRT.equals(getAsyncBackend())) {
+            // no timeouts, metric publishers or connection pool settings, see initialize
+            S3CrtAsyncClientBuilder builder = S3AsyncClient.crtBuilder()
+                    .credentialsProvider(credentialsProvider)
+                    .region(region)
+                    .forcePathStyle(isPathStyle())
+                    .maxConcurrency(getAsyncMaxConcurrency());
+            if (null != endpointUri) {
+                builder.endpointOverride(endpointUri);
+            }
+            try {
+                return builder.build();
+            } catch (NoClassDefFoundError | UnsatisfiedLinkError e) {
+                throw new IllegalArgumentException(
+                        "asyncBackend crt requires the AWS CRT library (software.amazon.awssdk.crt:aws-crt): " +
+                        e.getMessage(), e);
+            }
         }
-        result = result.replaceAll("/+", "/");
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                .credentialsProvider(credentialsProvider)
+                .region(region)
+                .overrideConfiguration(clientOverrideConfiguration())
+                .httpClientBuilder(httpTransport.configure(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(getAsyncMaxConcurrency())));
 
-        return result;
-    }
+        if (null != endpointUri) {
+            builder.endpointOverride(endpointUri);
+        }
 
-    private static Map<String, String> stringMap(final Map<String, ?> context) {
-        HashMap<String, String> result = new HashMap<>();
-        for (String s : context.keySet()) {
-            Object o = context.get(s);
-            if (o != null) {
-                result.put(s, o.toString());
-            }
+        if (isPathStyle()) {
+            builder.serviceConfiguration(S3Configuration.builder()
+                    .pathStyleAccessEnabled(true)
+                    .build());
         }
-        return result;
+
+        return builder.build();
     }
 
-    public boolean isAvailable(final String filetype) throws ExecutionFileStorageException {
-        HashMap<String, Object> expected = new HashMap<>();
-        expected.put(metaKey(META_EXECID), context.get(META_ID_FOR_LOGSTORE));
-        return isPathAvailable(resolvedFilepath(expandedPath, filetype), expected);
+    /**
+     * @return the configured endpoint, https if no scheme is given, or null if not set
+     */
+    private URI endpointUri() {
+        if (null == getEndpoint() || getEndpoint().trim().isEmpty()) {
+            return null;
+        }
+        String ep = getEndpoint().trim();
+        if (!ep.startsWith("http://") && !ep.startsWith("https://")) {
+            ep = "https://" + ep;
+        }
+        return URI.create(ep);
     }
 
-    @Override
-    public String getConfiguredPathTemplate() {
-        return this.path;
+    /**
+     * @return the endpoint identifying cached files along with their bucket and key, or null for AWS
+     */
+    private String cacheEndpoint() {
+        URI uri = endpointUri();
+        return null != uri ? uri.toString() : null;
     }
 
-    protected boolean isPathAvailable(final String key, Map<String, Object> expectedMeta)
-            throws ExecutionFileStorageException
-    {
-        logger.debug("getState for S3 bucket {}:{}", getBucket(), key);
-        try {
-            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+    /**
+     * @param pathFormat the configured path or fallback path
+     *
+     * @return the path expanded for an execution's context
+     */
+    private String expandContextPath(String pathFormat, Map<String, ?> context) {
+        String configpath = pathFormat;
+        if (!configpath.contains("${job.execid}") && configpath.endsWith("/")) {
+            configpath = pathFormat + "/${job.execid}";
+        }
+        if (configpath.contains("${job." + SHARD_KEY + "}")) {
+            Map<String, Object> sharded = new HashMap<>(context);
+            sharded.put(SHARD_KEY, shard(String.valueOf(context.get(META_EXECID)), getShardLength()));
+            context = sharded;
+        }
+        return (context.get("isRemoteFilePath") != null && context.get("isRemoteFilePath").equals("true"))
+                ? String.valueOf(context.get("outputfilepath").toString())
+                : expandPath(configpath, context);
+    }
+
+    /**
+     * @return the fallback path expanded for an execution's context, or null if not configured or the same as the
+     * path
+     */
+    private String expandFallbackPath(Map<String, ?> context, String executionPath) {
+        if (!isFallbackPath()) {
+            return null;
+        }
+        String fallback = expandContextPath(getFallbackPath(), context);
+        return fallback.equals(executionPath) ? null : fallback;
+    }
+
+    private boolean isFallbackPath() {
+        return null != getFallbackPath() && !"".equals(getFallbackPath().trim());
+    }
+
+    /**
+     * @return the paths an execution's files may be stored at: the path, then the fallback path if configured
+     */
+    private List<String> executionPaths(Map<String, ?> context) {
+        String executionPath = expandContextPath(getPath(), context);
+        String fallback = expandFallbackPath(context, executionPath);
+        return null != fallback ? Arrays.asList(executionPath, fallback) : Collections.singletonList(executionPath);
+    }
+
+    /**
+     * @return the paths this execution's files may be stored at
+     */
+    private List<String> executionPaths() {
+        return null != fallbackExpandedPath
+               ? Arrays.asList(expandedPath, fallbackExpandedPath)
+               : Collections.singletonList(expandedPath);
+    }
+
+    /**
+     * @param execid execution id
+     * @param length number of hex characters
+     *
+     * @return the start of the hex SHA-256 hash of the execution id, which spreads consecutive executions evenly
+     * across key prefixes
+     */
+    static String shard(String execid, int length) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(execid.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(length + 1);
+            for (int i = 0; sb.length() < length; i++) {
+                sb.append(String.format("%02x", hash[i]));
+            }
+            return sb.substring(0, length);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Expands the path format using the context data
+     *
+     * @param pathFormat format
+     * @param context context data
+     *
+     * @return expanded path
+     */
+    static String expandPath(String pathFormat, Map<String, ?> context) {
+        return PathTemplate.compile(pathFormat).expand(context);
+    }
+
+    public boolean isAvailable(final String filetype) throws ExecutionFileStorageException {
+        if (null != queued(filetype)) {
+            return true;
+        }
+        HashMap<String, Object> expected = new HashMap<>();
+        expected.put(metaKey(META_EXECID), context.get(META_ID_FOR_LOGSTORE));
+        for (String executionPath : executionPaths()) {
+            if (isStoredAt(executionPath, filetype, expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * With {@link #isReadingBundles()}, the bundle is checked even with bundle storage turned off, so that files
+     * bundled before it was stay readable
+     *
+     * @param expectedMeta metadata expected on the file or bundle, or null
+     */
+    private boolean isStoredAt(
+            final String executionPath,
+            final String filetype,
+            final Map<String, Object> expectedMeta
+    )
+            throws ExecutionFileStorageException
+    {
+        if (isBundleStorage()) {
+            return isBundled(executionPath, filetype, expectedMeta) ||
+                   isPathAvailable(resolvedFilepath(executionPath, filetype), expectedMeta);
+        }
+        return isPathAvailable(resolvedFilepath(executionPath, filetype), expectedMeta) ||
+               isReadingBundles() && isBundled(executionPath, filetype, expectedMeta);
+    }
+
+    /**
+     * @return true if files may be found in bundles: with bundle storage, or with read bundles for files bundled
+     * before bundle storage was turned off
+     */
+    private boolean isReadingBundles() {
+        return isBundleStorage() || isReadBundles();
+    }
+
+    /**
+     * @return true if a read of the file failed because it is not stored separately, but it is in the execution's
+     * bundle. Only checked with bundle storage turned off and read bundles on, for files bundled before it was
+     */
+    private boolean isOnlyBundled(
+            final String executionPath,
+            final String filetype,
+            final ExecutionFileStorageException e
+    )
+            throws ExecutionFileStorageException
+    {
+        return !isBundleStorage() && isReadBundles() &&
+               e.getCause() instanceof S3Exception &&
+               ((S3Exception) e.getCause()).statusCode() == 404 &&
+               isBundled(executionPath, filetype, null);
+    }
+
+    /**
+     * @return the path a file is read from: the path, unless the file is only stored at the fallback path
+     */
+    private String readPath(final String filetype) throws ExecutionFileStorageException {
+        if (null == fallbackExpandedPath || isStoredAt(expandedPath, filetype, null)) {
+            return expandedPath;
+        }
+        return isStoredAt(fallbackExpandedPath, filetype, null) ? fallbackExpandedPath : expandedPath;
+    }
+
+    /**
+     * @param expectedMeta metadata expected on the bundle, or null
+     *
+     * @return true if the execution's bundle exists and holds the file type
+     */
+    private boolean isBundled(
+            final String executionPath,
+            final String filetype,
+            final Map<String, Object> expectedMeta
+    )
+            throws ExecutionFileStorageException
+    {
+        return bundledFiletypes(availableMetadata(bundleKey(executionPath), expectedMeta)).contains(filetype);
+    }
+
+    /**
+     * @param metadata user metadata of a bundle, or null
+     *
+     * @return the file types listed in the metadata
+     */
+    private List<String> bundledFiletypes(final Map<String, String> metadata) {
+        if (null == metadata || null == metadata.get(metaKey(META_BUNDLE))) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(metadata.get(metaKey(META_BUNDLE)).split(",")));
+    }
+
+    private String bundleKey(final String executionPath) {
+        return resolvedFilepath(executionPath, BUNDLE_FILETYPE);
+    }
+
+    /**
+     * @return the file of this execution waiting in the write-behind queue, or null
+     */
+    private WriteBehindQueue.Entry queued(final String filetype) {
+        if (null == writeBehindQueue) {
+            return null;
+        }
+        return writeBehindQueue.get(getBucket(), resolvedFilepath(expandedPath, filetype));
+    }
+
+    /**
+     * @return content of the file of this execution waiting in the write-behind queue, or null
+     */
+    private InputStream openQueued(final String filetype) {
+        WriteBehindQueue.Entry entry = queued(filetype);
+        return null != entry ? writeBehindQueue.open(entry) : null;
+    }
+
+    @Override
+    public String getConfiguredPathTemplate() {
+        return this.path;
+    }
+
+    /**
+     * Find which files of this execution are stored with a single list request, instead of a HEAD request for each
+     * file type. Unlike {@link #isAvailable(String)}, the execution id in the file metadata is not checked. The files
+     * in an execution's bundle are found with one HEAD request for the bundle.
+     *
+     * @return stored files by file type
+     */
+    public Map<String, StoredFile> listAvailable() throws ExecutionFileStorageException {
+        return listWithFallback(Collections.singletonMap(expandedPath, fallbackExpandedPath)).get(expandedPath);
+    }
+
+    /**
+     * Find the stored files of a batch of executions, such as a page of an execution list, by listing the prefix their
+     * paths share. Executions with nearby paths, such as consecutive executions of a project, are found with one or a
+     * few list requests.
+     *
+     * @param contexts context data of each execution, as passed to {@link #initialize(Map)}
+     *
+     * @return stored files by file type for each execution, by execution id
+     */
+    public Map<String, Map<String, StoredFile>> listAvailable(final Collection<? extends Map<String, ?>> contexts)
+            throws ExecutionFileStorageException
+    {
+        Map<String, String> paths = new LinkedHashMap<>();
+        Map<String, String> fallbacks = new HashMap<>();
+        for (Map<String, ?> executionContext : contexts) {
+            String executionPath = expandContextPath(getPath(), executionContext);
+            paths.put(String.valueOf(executionContext.get(META_EXECID)), executionPath);
+            fallbacks.put(executionPath, expandFallbackPath(executionContext, executionPath));
+        }
+        Map<String, Map<String, StoredFile>> found = listWithFallback(fallbacks);
+        Map<String, Map<String, StoredFile>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, String> execution : paths.entrySet()) {
+            result.put(execution.getKey(), found.get(execution.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * Paths and fallback paths are listed separately, as they usually do not share a prefix
+     *
+     * @param paths fallback path, or null, by path
+     *
+     * @return stored files by file type for each path, including files only stored at its fallback path
+     */
+    private Map<String, Map<String, StoredFile>> listWithFallback(final Map<String, String> paths)
+            throws ExecutionFileStorageException
+    {
+        Map<String, Map<String, StoredFile>> found = listAvailablePaths(paths.keySet());
+        Set<String> fallbacks = new LinkedHashSet<>(paths.values());
+        fallbacks.remove(null);
+        if (fallbacks.isEmpty()) {
+            return found;
+        }
+        Map<String, Map<String, StoredFile>> fallbackFound = listAvailablePaths(fallbacks);
+        Map<String, Map<String, StoredFile>> result = new HashMap<>();
+        for (Map.Entry<String, String> path : paths.entrySet()) {
+            Map<String, StoredFile> files = new TreeMap<>();
+            if (null != path.getValue()) {
+                files.putAll(fallbackFound.get(path.getValue()));
+            }
+            files.putAll(found.get(path.getKey()));
+            result.put(path.getKey(), files);
+        }
+        return result;
+    }
+
+    private Map<String, Map<String, StoredFile>> listAvailablePaths(final Collection<String> paths)
+            throws ExecutionFileStorageException
+    {
+        logger.debug("Listing stored files in S3 bucket {} for {} executions", getBucket(), paths.size());
+        S3Metrics.Sample sample = startSample(S3Operation.LIST);
+        try {
+            Map<String, Map<String, StoredFile>> found = new ExecutionLister(s3Client, requestOverride)
+                    .list(getBucket(), paths);
+            sample.succeeded();
+            for (Map<String, StoredFile> files : found.values()) {
+                expandBundle(files);
+            }
+            return found;
+        } catch (S3Exception e) {
+            sample.failed(e);
+            logger.error("S3 service error on list", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            sample.failed(e);
+            logger.error("AWS client error on list", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } finally {
+            sample.close();
+        }
+    }
+
+    /**
+     * Replace a listed bundle with the file types its metadata lists, each described by the bundle object. As for
+     * reads, a file stored both separately and in the bundle is read from the bundle if bundle storage is enabled
+     */
+    private void expandBundle(final Map<String, StoredFile> files) throws ExecutionFileStorageException {
+        StoredFile bundle = files.remove(BUNDLE_FILETYPE);
+        if (null == bundle) {
+            return;
+        }
+        for (String filetype : bundledFiletypes(availableMetadata(bundle.getKey(), null))) {
+            if (isBundleStorage() || !files.containsKey(filetype)) {
+                files.put(filetype, bundle);
+            }
+        }
+    }
+
+    protected boolean isPathAvailable(final String key, Map<String, Object> expectedMeta)
+            throws ExecutionFileStorageException
+    {
+        return null != availableMetadata(key, expectedMeta);
+    }
+
+    /**
+     * @return user metadata of the object, or null if it does not exist
+     */
+    private Map<String, String> availableMetadata(final String key, final Map<String, Object> expectedMeta)
+            throws ExecutionFileStorageException
+    {
+        logger.debug("getState for S3 bucket {}:{}", getBucket(), key);
+        long cacheVersion = 0;
+        if (null != headObjectCache) {
+            HeadObjectCache.Result cached = headObjectCache.get(
+                    getBucket(),
+                    key,
+                    TimeUnit.SECONDS.toMillis(getHeadCacheTtl()),
+                    TimeUnit.SECONDS.toMillis(getHeadCacheNegativeTtl())
+            );
+            if (null != cached) {
+                logger.debug("getState: using cached result for {}", key);
+                if (!cached.exists()) {
+                    return null;
+                }
+                checkMetadata(cached.getMetadata(), expectedMeta);
+                return null != cached.getMetadata() ? cached.getMetadata() : Collections.emptyMap();
+            }
+            cacheVersion = headObjectCache.version();
+        }
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.READ);
+        CircuitBreaker.Call call = startCall(permit, true);
+        S3Metrics.Sample sample = startSample(S3Operation.HEAD);
+        try {
+            Map<String, String> metadata = headPath(key, expectedMeta, cacheVersion);
+            sample.succeeded();
+            return metadata;
+        } catch (ExecutionFileStorageException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            sample.failed(cause);
+            permit.failed(cause);
+            call.failed(cause);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    private Map<String, String> headPath(
+            final String key,
+            final Map<String, Object> expectedMeta,
+            final long cacheVersion
+    )
+            throws ExecutionFileStorageException
+    {
+        try {
+            HeadObjectRequest request = HeadObjectRequest.builder()
                     .bucket(getBucket())
                     .key(key)
-                    .build());
+                    .overrideConfiguration(requestOverride)
+                    .build();
+            HeadObjectResponse response = null != headHedger
+                                          ? headHedger.call(() -> s3Client.headObject(request), r -> {})
+                                          : s3Client.headObject(request);
             Map<String, String> userMetadata = response.metadata();
-
-            logger.debug("Metadata {}", userMetadata);
-            if (null != expectedMeta) {
-                for (String s : expectedMeta.keySet()) {
-                    String metaVal = null;
-                    if (null != userMetadata) {
-                        metaVal = userMetadata.get(s);
-                    }
-                    boolean matches = expectedMeta.get(s).equals(metaVal);
-                    if (!matches) {
-                        logger.warn("S3 Object metadata '{}' was not expected: {}, expected {}",
-                                s, metaVal, expectedMeta.get(s));
-                    }
-                }
+            if (null != headObjectCache) {
+                headObjectCache.found(getBucket(), key, userMetadata, cacheVersion);
             }
-            return true;
+
+            checkMetadata(userMetadata, expectedMeta);
+            return null != userMetadata ? userMetadata : Collections.emptyMap();
         } catch (S3Exception e) {
             if (e.statusCode() == 404) {
                 logger.debug("getState: S3 Object not found for {}", key);
+                if (null != headObjectCache) {
+                    headObjectCache.missing(getBucket(), key, cacheVersion);
+                }
             } else {
                 logger.error("Failed get metadata", e);
                 throw new ExecutionFileStorageException(e.getMessage(), e);
@@ -331,7 +1481,24 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
             throw new ExecutionFileStorageException(e.getMessage(), e);
         }
 
-        return false;
+        return null;
+    }
+
+    private void checkMetadata(final Map<String, String> userMetadata, final Map<String, Object> expectedMeta) {
+        logger.debug("Metadata {}", userMetadata);
+        if (null != expectedMeta) {
+            for (String s : expectedMeta.keySet()) {
+                String metaVal = null;
+                if (null != userMetadata) {
+                    metaVal = userMetadata.get(s);
+                }
+                boolean matches = expectedMeta.get(s).equals(metaVal);
+                if (!matches) {
+                    logger.warn("S3 Object metadata '{}' was not expected: {}, expected {}",
+                            s, metaVal, expectedMeta.get(s));
+                }
+            }
+        }
     }
 
     public boolean store(final String filetype, InputStream stream, long length, Date lastModified)
@@ -353,85 +1520,858 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
     )
             throws ExecutionFileStorageException
     {
-        logger.debug("Storing content to S3 bucket {} path {}", getBucket(), key);
-        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                .bucket(getBucket())
-                .key(key)
-                .metadata(userMetadata)
-                .contentLength(length)
-                .build();
-        try {
-            s3Client.putObject(putObjectRequest, RequestBody.fromInputStream(stream, length));
-            return true;
-        } catch (S3Exception e) {
-            logger.error("S3 error on store attempt", e);
-            throw new ExecutionFileStorageException(e.getMessage(), e);
-        } catch (SdkClientException e) {
-            logger.debug("Job could still be executing: {}", e.getMessage());
-            throw new ExecutionFileStorageException(e.getMessage(), e);
+        if (null != writeBehindQueue) {
+            return enqueue(stream, length, key, userMetadata);
         }
+        return storeNow(stream, length, key, userMetadata);
     }
 
-    @Override
-    public void storeMultiple(final MultiFileStorageRequest files) throws IOException, ExecutionFileStorageException {
-        Set<String> availableFiletypes = files.getAvailableFiletypes();
-        logger.debug("Storing multiple files to S3 bucket {} filetypes: {}",
-                getBucket(), availableFiletypes
-        );
-        for (String filetype : availableFiletypes) {
-            StorageFile storageFile = files.getStorageFile(filetype);
-            boolean success;
-            try {
-                success = store(
-                        filetype,
-                        storageFile.getInputStream(),
-                        storageFile.getLength(),
-                        storageFile.getLastModified()
-                );
-                files.storageResultForFiletype(filetype, success);
-            } catch (ExecutionFileStorageException e) {
-                if (files instanceof MultiFileStorageRequestErrors) {
-                    MultiFileStorageRequestErrors errors = (MultiFileStorageRequestErrors) files;
-                    errors.storageFailureForFiletype(filetype, e.getMessage());
-                } else {
-                    logger.error(e.getMessage());
-                    logger.debug(e.getMessage(), e);
-                    files.storageResultForFiletype(filetype, false);
-                }
-            }
+    private boolean storeNow(
+            final InputStream stream,
+            final long length,
+            final String key,
+            final Map<String, String> userMetadata
+    )
+            throws ExecutionFileStorageException
+    {
+        if (isSkipUnchanged() && length >= 0) {
+            return storeIfChanged(stream, length, key, userMetadata);
         }
+        return storeStream(stream, length, key, userMetadata);
     }
 
-    public boolean deleteFile(String filetype) throws IOException, ExecutionFileStorageException {
+    /**
+     * Copy the content to the write-behind queue, to be uploaded in the background
+     */
+    private boolean enqueue(
+            final InputStream stream,
+            final long length,
+            final String key,
+            final Map<String, String> userMetadata
+    )
+            throws ExecutionFileStorageException
+    {
+        queuedUploader.added(1);
         try {
-            String filePath = resolvedFilepath(expandedPath, filetype);
-            s3Client.deleteObject(DeleteObjectRequest.builder()
-                    .bucket(getBucket())
-                    .key(filePath)
-                    .build());
-            return true;
-        } catch (S3Exception e) {
-            logger.error("S3 service error on delete", e);
-            throw new ExecutionFileStorageException(e.getMessage(), e);
-        } catch (SdkClientException e) {
-            logger.error("AWS client error on delete", e);
+            writeBehindQueue.add(getBucket(), key, userMetadata, stream, length, queuedUploader);
+        } catch (IOException e) {
+            queuedUploader.added(-1);
+            logger.error("Failed to queue content for S3 bucket {} path {}: {}", getBucket(), key, e.getMessage());
             throw new ExecutionFileStorageException(e.getMessage(), e);
         }
+        logger.debug("Queued content for S3 bucket {} path {}", getBucket(), key);
+        return true;
     }
 
     /**
-     * Metadata keys from the Execution context that will be stored as User Metadata in the S3 Object
+     * Uploads the files this instance queued, and files left in the queue for the bucket by an earlier process. The S3
+     * client is kept open until they are no longer queued.
      */
-    private static final String[] STORED_META = new String[]{META_EXECID, META_USERNAME,
-            META_PROJECT, META_URL, META_SERVERURL,
-            META_SERVER_UUID};
+    private final class QueuedUploader implements WriteBehindQueue.Uploader {
+        private int pending;
+        private boolean closeDeferred;
+
+        @Override
+        public void upload(final WriteBehindQueue.Entry entry, final InputStream content)
+                throws ExecutionFileStorageException
+        {
+            storeNow(content, entry.getLength(), entry.getKey(), entry.getMetadata());
+        }
 
-    protected Map<String, String> createObjectMetadata(long length) {
-        Map<String, String> metadata = new HashMap<>();
-        for (String s : STORED_META) {
-            Object v = context.get(s);
-            if (null != v) {
-                metadata.put(metaKey(s), isEncodeUserMetadata() ? encodeStringToURLRequest(v.toString()) : v.toString());
+        @Override
+        public void finished(final WriteBehindQueue.Entry entry, final WriteBehindQueue.Status status) {
+            if (WriteBehindQueue.Status.STORED == status && entry.getAttempts() > 1) {
+                logger.info("Stored queued file {} after {} attempts", entry.getKey(), entry.getAttempts());
+            }
+            boolean release;
+            synchronized (this) {
+                pending--;
+                release = closeDeferred && 0 == pending;
+            }
+            if (release) {
+                releaseClient();
+            }
+        }
+
+        synchronized void added(final int count) {
+            pending += count;
+        }
+
+        /**
+         * @return true if files are still queued, in which case the client is released when the last one is finished
+         */
+        synchronized boolean deferClose() {
+            closeDeferred = pending > 0;
+            return closeDeferred;
+        }
+    }
+
+    /**
+     * Store the content unless the object already holds the same content. The content is read twice, once for its
+     * checksum and once to upload it if needed, so content not read from a local file is copied to a temporary file
+     * first.
+     */
+    private boolean storeIfChanged(
+            final InputStream stream,
+            final long length,
+            final String key,
+            final Map<String, String> userMetadata
+    )
+            throws ExecutionFileStorageException
+    {
+        try {
+            FileRegion file = FileRegion.of(stream, length);
+            if (null != file) {
+                return storeIfChanged(stream, file, length, key, userMetadata);
+            }
+            File temp = File.createTempFile("s3-log", ".tmp");
+            try {
+                try (OutputStream out = new FileOutputStream(temp)) {
+                    LogRange.copy(stream, out, length);
+                }
+                try (FileInputStream copy = new FileInputStream(temp)) {
+                    file = FileRegion.of(copy, length);
+                    if (null == file) {
+                        throw new IOException("Content ended after " + temp.length() + " of " + length + " bytes");
+                    }
+                    return storeIfChanged(copy, file, length, key, userMetadata);
+                }
+            } finally {
+                if (!temp.delete()) {
+                    logger.warn("Failed to delete temporary file {}", temp);
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to read content to store: {}", e.getMessage());
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        }
+    }
+
+    private boolean storeIfChanged(
+            final InputStream stream,
+            final FileRegion file,
+            final long length,
+            final String key,
+            final Map<String, String> userMetadata
+    )
+            throws IOException, ExecutionFileStorageException
+    {
+        Map<String, String> metadata = new HashMap<>(userMetadata);
+        metadata.put(metaKey(META_CRC32C), crc32c(file.newStream()));
+        metadata.put(metaKey(META_LENGTH), Long.toString(length));
+        if (isUnchanged(key, metadata)) {
+            logger.debug("Skipping store of unchanged {}", key);
+            return true;
+        }
+        return storeStream(stream, length, key, metadata);
+    }
+
+
+    /**
+     * @return base64 CRC32C of the content, as S3 encodes checksums
+     */
+    static String crc32c(final InputStream content) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (CheckedInputStream in = new CheckedInputStream(content, crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        byte[] value = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array();
+        return Base64.getEncoder().encodeToString(value);
+    }
+
+    /**
+     * @param metadata metadata of the content to store, with its checksum and length
+     *
+     * @return true if the object exists with the same checksum and length recorded
+     */
+    private boolean isUnchanged(final String key, final Map<String, String> metadata)
+            throws ExecutionFileStorageException
+    {
+        // not answered from the HEAD cache, which may not have seen a write by another server
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.WRITE);
+        CircuitBreaker.Call call = startCall(permit, true);
+        S3Metrics.Sample sample = startSample(S3Operation.HEAD);
+        try {
+            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(getBucket())
+                    .key(key)
+                    .overrideConfiguration(requestOverride)
+                    .build());
+            sample.succeeded();
+            Map<String, String> existing = null != response.metadata() ? response.metadata() : Collections.emptyMap();
+            return metadata.get(metaKey(META_CRC32C)).equals(existing.get(metaKey(META_CRC32C)))
+                   && metadata.get(metaKey(META_LENGTH)).equals(existing.get(metaKey(META_LENGTH)));
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                sample.succeeded();
+                return false;
+            }
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("S3 service error on head", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("AWS client error on head", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    private boolean storeStream(
+            final InputStream stream,
+            final long length,
+            final String key,
+            final Map<String, String> userMetadata
+    )
+            throws ExecutionFileStorageException
+    {
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.WRITE);
+        CircuitBreaker.Call call = startCall(permit, false);
+        S3Metrics.Sample sample = startSample(S3Operation.STORE);
+        try {
+            FileRegion file = LogCompression.NONE == logCompression ? FileRegion.of(stream, length) : null;
+            boolean stored;
+            if (null != file) {
+                stored = storeObject(stream, file, length, key, userMetadata);
+                sample.addBytes(length);
+            } else {
+                stored = storeObject(sample.counting(stream), null, length, key, userMetadata);
+            }
+            sample.succeeded();
+            return stored;
+        } catch (ExecutionFileStorageException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            sample.failed(cause);
+            permit.failed(cause);
+            call.failed(cause);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    /**
+     * @param file the region of a local file read by the stream, uploaded directly from the file, or null
+     */
+    private boolean storeObject(
+            final InputStream stream,
+            final FileRegion file,
+            final long length,
+            final String key,
+            final Map<String, String> userMetadata
+    )
+            throws ExecutionFileStorageException
+    {
+        logger.debug("Storing content to S3 bucket {} path {}", getBucket(), key);
+        if (null != logFileCache) {
+            logFileCache.remove(cacheEndpoint(), getBucket(), key);
+        }
+        try {
+            if (null != file && isIncrementalUpload() && length >= getMultipartPartSize()) {
+                long now = System.currentTimeMillis();
+                IncrementalUpload.forObject(getBucket(), key, now)
+                                 .store(createMultipartUploader(), userMetadata, file, getMultipartPartSize(), now);
+                return true;
+            }
+            if (LogCompression.NONE != logCompression) {
+                Map<String, String> metadata = new HashMap<>(userMetadata);
+                metadata.put(metaKey(META_COMPRESSION), logCompression.getName());
+                putCompressed(logCompression.compress(stream), key, metadata);
+                return true;
+            }
+            if (isMultipartUpload(length)) {
+                if (null != file) {
+                    createMultipartUploader().upload(getBucket(), key, userMetadata, file);
+                } else {
+                    createMultipartUploader().upload(getBucket(), key, userMetadata, stream, length);
+                }
+                return true;
+            }
+            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                    .bucket(getBucket())
+                    .key(key)
+                    .metadata(userMetadata)
+                    .contentLength(length)
+                    .overrideConfiguration(requestOverride)
+                    .build();
+            s3Client.putObject(
+                    putObjectRequest,
+                    null != file ? file.requestBody() : RequestBody.fromInputStream(stream, length)
+            );
+            return true;
+        } catch (S3Exception e) {
+            logger.error("S3 error on store attempt", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            logger.debug("Job could still be executing: {}", e.getMessage());
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (IOException e) {
+            logger.debug("Job could still be executing: {}", e.getMessage());
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } finally {
+            invalidateHeadCache(key);
+        }
+    }
+
+    /**
+     * @return permit for an operation on the configured bucket, which must be closed, waiting while the request limit
+     * is reached
+     */
+    private RequestLimiter.Permit acquirePermit(final RequestLimiter.Kind kind) throws ExecutionFileStorageException {
+        if (null == requestLimiter) {
+            return RequestLimiter.Permit.NONE;
+        }
+        try {
+            return requestLimiter.acquire(kind);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionFileStorageException("Interrupted while waiting to send S3 request", e);
+        }
+    }
+
+    /**
+     * @param permit permit for the operation, closed if the call is rejected
+     * @param timed  true if the duration of the call does not depend on the size of a file
+     *
+     * @return call counted by the circuit breaker, which must be closed
+     *
+     * @throws ExecutionFileStorageException if the circuit breaker is open or the bulkhead limit is reached
+     */
+    private CircuitBreaker.Call startCall(final RequestLimiter.Permit permit, final boolean timed)
+            throws ExecutionFileStorageException
+    {
+        if (null == breaker) {
+            return CircuitBreaker.Call.NONE;
+        }
+        try {
+            return breaker.start(timed);
+        } catch (CircuitBreaker.RejectedException e) {
+            permit.close();
+            logger.debug(e.getMessage());
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return timing of an operation on the configured bucket, which must be closed
+     */
+    private S3Metrics.Sample startSample(final S3Operation operation) {
+        return null != metrics ? metrics.start(getBucket(), operation) : S3Metrics.Sample.NONE;
+    }
+
+    /**
+     * Called once an object has been written or deleted, so that HEAD results cached or in flight before then are not
+     * used
+     */
+    private void invalidateHeadCache(final String key) {
+        if (null != headObjectCache) {
+            headObjectCache.invalidate(getBucket(), key);
+        }
+    }
+
+    /**
+     * The compressed length is not known in advance, so compressed content that fits in one part is sent in a single
+     * request and anything larger as a multipart upload. If multipart uploads are disabled the content is written to a
+     * temporary file first.
+     */
+    private void putCompressed(final InputStream compressed, final String key, final Map<String, String> metadata)
+            throws IOException
+    {
+        if (getMultipartThreshold() <= 0) {
+            File temp = File.createTempFile("s3-log", ".tmp");
+            try {
+                try (OutputStream out = new FileOutputStream(temp)) {
+                    Streams.copyStream(compressed, out);
+                }
+                s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(getBucket())
+                        .key(key)
+                        .metadata(metadata)
+                        .contentLength(temp.length())
+                        .overrideConfiguration(requestOverride)
+                        .build(), RequestBody.fromFile(temp));
+            } finally {
+                if (!temp.delete()) {
+                    logger.warn("Failed to delete temporary file {}", temp);
+                }
+            }
+            return;
+        }
+        int headSize = (int) Math.min(getMultipartPartSize(), MultipartUploader.MAX_BUFFERED_PART_SIZE);
+        byte[] head = compressed.readNBytes(headSize);
+        if (head.length < headSize) {
+            s3Client.putObject(PutObjectRequest.builder()
+                    .bucket(getBucket())
+                    .key(key)
+                    .metadata(metadata)
+                    .contentLength((long) head.length)
+                    .overrideConfiguration(requestOverride)
+                    .build(), RequestBody.fromBytes(head));
+            return;
+        }
+        createMultipartUploader().upload(
+                getBucket(),
+                key,
+                metadata,
+                new SequenceInputStream(new ByteArrayInputStream(head), compressed),
+                -1
+        );
+    }
+
+    protected boolean isMultipartUpload(final long length) {
+        return getMultipartThreshold() > 0 && length >= getMultipartThreshold();
+    }
+
+    protected MultipartUploader createMultipartUploader() {
+        return new MultipartUploader(
+                s3Client,
+                getMultipartPartSize(),
+                getMultipartConcurrency(),
+                MultipartUploader.DEFAULT_PART_ATTEMPTS,
+                requestOverride
+        );
+    }
+
+    @Override
+    public void storeMultiple(final MultiFileStorageRequest files) throws IOException, ExecutionFileStorageException {
+        Set<String> availableFiletypes = files.getAvailableFiletypes();
+        logger.debug("Storing multiple files to S3 bucket {} filetypes: {}",
+                getBucket(), availableFiletypes
+        );
+        if (isBundleStorage() && null == writeBehindQueue) {
+            availableFiletypes = storeBundle(files, availableFiletypes);
+        }
+        if (getStoreConcurrency() <= 1 || availableFiletypes.size() <= 1) {
+            for (String filetype : availableFiletypes) {
+                StorageFile storageFile = files.getStorageFile(filetype);
+                try {
+                    files.storageResultForFiletype(filetype, storeFile(filetype, storageFile));
+                } catch (ExecutionFileStorageException e) {
+                    storageFailure(files, filetype, e);
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = TransferExecutors.newFixedThreadPool(
+                "s3-log-store",
+                Math.min(getStoreConcurrency(), availableFiletypes.size())
+        );
+        try {
+            Map<String, Future<Boolean>> results = new LinkedHashMap<>();
+            for (String filetype : availableFiletypes) {
+                StorageFile storageFile = files.getStorageFile(filetype);
+                results.put(filetype, executor.submit(() -> storeFile(filetype, storageFile)));
+            }
+            // results are reported from the calling thread, as the request may not be thread safe
+            for (Map.Entry<String, Future<Boolean>> result : results.entrySet()) {
+                String filetype = result.getKey();
+                try {
+                    files.storageResultForFiletype(filetype, result.getValue().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ExecutionFileStorageException) {
+                        storageFailure(files, filetype, (ExecutionFileStorageException) cause);
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else {
+                        storageFailure(files, filetype, new ExecutionFileStorageException(cause.getMessage(), cause));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while storing files to S3");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean storeFile(final String filetype, final StorageFile storageFile)
+            throws IOException, ExecutionFileStorageException
+    {
+        return store(
+                filetype,
+                storageFile.getInputStream(),
+                storageFile.getLength(),
+                storageFile.getLastModified()
+        );
+    }
+
+    /**
+     * Store the files no larger than the bundle max file size as one bundle object, if there are at least two of them
+     *
+     * @return the file types left to store as separate objects
+     */
+    private Set<String> storeBundle(final MultiFileStorageRequest files, final Set<String> filetypes)
+            throws IOException
+    {
+        List<String> bundled = new ArrayList<>();
+        Set<String> separate = new LinkedHashSet<>();
+        for (String filetype : filetypes) {
+            long length = files.getStorageFile(filetype).getLength();
+            if (length >= 0 && length <= getBundleMaxFileSize()) {
+                bundled.add(filetype);
+            } else {
+                separate.add(filetype);
+            }
+        }
+        if (bundled.size() < 2) {
+            return filetypes;
+        }
+        LogBundle.Builder bundle = new LogBundle.Builder(logCompression);
+        for (String filetype : bundled) {
+            StorageFile storageFile = files.getStorageFile(filetype);
+            try (InputStream stream = storageFile.getInputStream()) {
+                byte[] content = stream.readNBytes((int) storageFile.getLength());
+                if (content.length != storageFile.getLength()) {
+                    throw new IOException("Expected " + storageFile.getLength() + " bytes of " + filetype +
+                                          " but read " + content.length);
+                }
+                bundle.add(filetype, content);
+            } catch (IOException e) {
+                logger.debug("Failed to read {} for bundle: {}", filetype, e.getMessage());
+                storageFailure(files, filetype, new ExecutionFileStorageException(e.getMessage(), e));
+            }
+        }
+        if (bundle.getFiletypes().isEmpty()) {
+            return separate;
+        }
+        for (String filetype : bundle.getFiletypes()) {
+            // the separate copy of the file stored by an earlier store is not used
+            IncrementalUpload.remove(getBucket(), resolvedFilepath(expandedPath, filetype));
+        }
+        try {
+            storeBundleObject(bundleKey(expandedPath), bundle);
+            for (String filetype : bundle.getFiletypes()) {
+                files.storageResultForFiletype(filetype, true);
+            }
+        } catch (ExecutionFileStorageException e) {
+            for (String filetype : bundle.getFiletypes()) {
+                storageFailure(files, filetype, e);
+            }
+        }
+        return separate;
+    }
+
+    private void storeBundleObject(final String key, final LogBundle.Builder bundle)
+            throws ExecutionFileStorageException
+    {
+        long length = bundle.length();
+        Map<String, String> metadata = createObjectMetadata(length);
+        metadata.put(metaKey(META_BUNDLE), String.join(",", bundle.getFiletypes()));
+        if (isSkipUnchanged()) {
+            try {
+                metadata.put(metaKey(META_CRC32C), crc32c(bundle.newStream()));
+            } catch (IOException e) {
+                throw new ExecutionFileStorageException(e.getMessage(), e);
+            }
+            metadata.put(metaKey(META_LENGTH), Long.toString(length));
+            if (isUnchanged(key, metadata)) {
+                logger.debug("Skipping store of unchanged bundle {}", key);
+                return;
+            }
+        }
+        logger.debug("Storing bundle of {} to S3 bucket {} path {}", bundle.getFiletypes(), getBucket(), key);
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.WRITE);
+        CircuitBreaker.Call call = startCall(permit, false);
+        S3Metrics.Sample sample = startSample(S3Operation.STORE);
+        try {
+            if (null != logFileCache) {
+                logFileCache.remove(cacheEndpoint(), getBucket(), key);
+            }
+            if (isMultipartUpload(length)) {
+                createMultipartUploader().upload(getBucket(), key, metadata, bundle.newStream(), length);
+            } else {
+                s3Client.putObject(
+                        PutObjectRequest.builder()
+                                .bucket(getBucket())
+                                .key(key)
+                                .metadata(metadata)
+                                .contentLength(length)
+                                .overrideConfiguration(requestOverride)
+                                .build(),
+                        RequestBody.fromContentProvider(bundle::newStream, length, "application/octet-stream")
+                );
+            }
+            sample.addBytes(length);
+            sample.succeeded();
+        } catch (S3Exception | SdkClientException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("S3 error on bundle store attempt", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } finally {
+            invalidateHeadCache(key);
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    private void storageFailure(
+            final MultiFileStorageRequest files,
+            final String filetype,
+            final ExecutionFileStorageException e
+    )
+    {
+        if (files instanceof MultiFileStorageRequestErrors) {
+            MultiFileStorageRequestErrors errors = (MultiFileStorageRequestErrors) files;
+            errors.storageFailureForFiletype(filetype, e.getMessage());
+        } else {
+            logger.error(e.getMessage());
+            logger.debug(e.getMessage(), e);
+            files.storageResultForFiletype(filetype, false);
+        }
+    }
+
+    public boolean deleteFile(String filetype) throws IOException, ExecutionFileStorageException {
+        if (null != writeBehindQueue) {
+            writeBehindQueue.remove(getBucket(), resolvedFilepath(expandedPath, filetype));
+        }
+        List<String> keys = new ArrayList<>();
+        for (String executionPath : executionPaths()) {
+            keys.add(resolvedFilepath(executionPath, filetype));
+            if (isReadingBundles() && removeFromBundle(executionPath, Collections.singleton(filetype))) {
+                keys.add(bundleKey(executionPath));
+            }
+        }
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.DELETE);
+        CircuitBreaker.Call call = startCall(permit, true);
+        S3Metrics.Sample sample = startSample(S3Operation.DELETE);
+        try {
+            boolean deleted = true;
+            for (String key : keys) {
+                deleted &= deleteObject(key);
+            }
+            sample.succeeded();
+            return deleted;
+        } catch (ExecutionFileStorageException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            sample.failed(cause);
+            permit.failed(cause);
+            call.failed(cause);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    /**
+     * Remove files from the execution's bundle, if they are in one, by storing the bundle again without them. Only
+     * called when {@link #isReadingBundles()}, like reads.
+     *
+     * @return true if no other files are left in the bundle, which should then be deleted
+     */
+    private boolean removeFromBundle(final String executionPath, final Collection<String> filetypes)
+            throws IOException, ExecutionFileStorageException
+    {
+        String key = bundleKey(executionPath);
+        List<String> remaining = bundledFiletypes(availableMetadata(key, null));
+        if (!remaining.removeAll(filetypes)) {
+            return false;
+        }
+        if (remaining.isEmpty()) {
+            return true;
+        }
+        byte[] content = retrieveBundle(key);
+        long indexOffset = LogBundle.indexOffset(content, content.length);
+        Map<String, LogBundle.Entry> entries = LogBundle.readIndex(Arrays.copyOfRange(
+                content,
+                (int) indexOffset,
+                content.length - LogBundle.TRAILER_LENGTH
+        ));
+        LogBundle.Builder bundle = new LogBundle.Builder(logCompression);
+        for (String other : remaining) {
+            LogBundle.Entry entry = entries.get(other);
+            if (null == entry) {
+                throw new IOException("File type " + other + " is not in bundle " + key);
+            }
+            int offset = (int) entry.getOffset();
+            bundle.addStored(other, entry.getCompression(), Arrays.copyOfRange(
+                    content,
+                    offset,
+                    offset + (int) entry.getLength()
+            ));
+        }
+        logger.debug("Storing bundle {} without {}", key, filetypes);
+        storeBundleObject(key, bundle);
+        return false;
+    }
+
+    private boolean deleteObject(final String filePath) throws ExecutionFileStorageException {
+        try {
+            if (null != logFileCache) {
+                logFileCache.remove(cacheEndpoint(), getBucket(), filePath);
+            }
+            IncrementalUpload.remove(getBucket(), filePath);
+            s3Client.deleteObject(DeleteObjectRequest.builder()
+                    .bucket(getBucket())
+                    .key(filePath)
+                    .overrideConfiguration(requestOverride)
+                    .build());
+            return true;
+        } catch (S3Exception e) {
+            logger.error("S3 service error on delete", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            logger.error("AWS client error on delete", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } finally {
+            invalidateHeadCache(filePath);
+        }
+    }
+
+    /**
+     * Delete the files of many executions, such as when old executions are removed, with batch delete requests of up
+     * to 1000 files sent in parallel. Files which do not exist are counted as deleted. Bundled files are removed
+     * from their bundle, which is deleted only once no other files are left in it.
+     *
+     * @param contexts  context data of each execution, as passed to {@link #initialize(Map)}
+     * @param filetypes file types to delete for each execution
+     *
+     * @return the number of files deleted and the error for each file which was not
+     */
+    public PurgeResult purge(final Collection<? extends Map<String, ?>> contexts, final Collection<String> filetypes)
+            throws ExecutionFileStorageException
+    {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Map<String, ?> executionContext : contexts) {
+            for (String executionPath : executionPaths(executionContext)) {
+                if (null == executionPath || "".equals(executionPath.trim()) || executionPath.endsWith("/")) {
+                    throw new IllegalArgumentException("expanded value of path is not valid: " + executionPath);
+                }
+                for (String filetype : filetypes) {
+                    keys.add(resolvedFilepath(executionPath, filetype));
+                }
+                try {
+                    if (isReadingBundles() && removeFromBundle(executionPath, filetypes)) {
+                        keys.add(bundleKey(executionPath));
+                    }
+                } catch (IOException e) {
+                    throw new ExecutionFileStorageException(e.getMessage(), e);
+                }
+            }
+        }
+        if (null != writeBehindQueue) {
+            for (String key : keys) {
+                writeBehindQueue.remove(getBucket(), key);
+            }
+        }
+        logger.debug("Purging {} files from S3 bucket {}", keys.size(), getBucket());
+        return purgeKeys(deleter -> deleter.delete(getBucket(), keys, this::deleted));
+    }
+
+    /**
+     * Delete all files under a prefix of the bucket, such as the files of a project, with batch delete requests sent
+     * in parallel as the files are listed.
+     *
+     * @param prefix key prefix, must not be empty
+     *
+     * @return the number of files deleted and the error for each file which was not
+     */
+    public PurgeResult purgePrefix(final String prefix) throws ExecutionFileStorageException {
+        if (null == prefix || "".equals(prefix.trim())) {
+            throw new IllegalArgumentException("prefix must not be empty");
+        }
+        logger.debug("Purging files from S3 bucket {} with prefix {}", getBucket(), prefix);
+        return purgeKeys(deleter -> deleter.deletePrefix(getBucket(), prefix, this::deleted));
+    }
+
+    private PurgeResult purgeKeys(final Function<BatchDeleter, PurgeResult> purge)
+            throws ExecutionFileStorageException
+    {
+        S3Metrics.Sample sample = startSample(S3Operation.PURGE);
+        try {
+            PurgeResult result = purge.apply(new BatchDeleter(
+                    s3Client,
+                    getPurgeConcurrency(),
+                    requestOverride,
+                    this::sendDeleteBatch
+            ));
+            if (!result.isSuccessful()) {
+                logger.warn("Failed to delete {} of {} files from S3 bucket {}",
+                            result.getErrors().size(), result.getDeleted() + result.getErrors().size(), getBucket());
+            }
+            sample.succeeded();
+            return result;
+        } catch (S3Exception e) {
+            sample.failed(e);
+            logger.error("S3 service error on purge", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            sample.failed(e);
+            logger.error("AWS client error on purge", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } finally {
+            sample.close();
+        }
+    }
+
+    /**
+     * Send a batch delete request of a purge, counted by the request limiter and circuit breaker like a single delete
+     *
+     * @throws SdkClientException if the request is rejected, so that the batch fails
+     */
+    private DeleteObjectsResponse sendDeleteBatch(final Supplier<DeleteObjectsResponse> request) {
+        RequestLimiter.Permit permit;
+        CircuitBreaker.Call call;
+        try {
+            permit = acquirePermit(RequestLimiter.Kind.DELETE);
+            call = startCall(permit, true);
+        } catch (ExecutionFileStorageException e) {
+            throw SdkClientException.create(e.getMessage(), e);
+        }
+        try {
+            return request.get();
+        } catch (S3Exception | SdkClientException e) {
+            permit.failed(e);
+            call.failed(e);
+            throw e;
+        } finally {
+            permit.close();
+            call.close();
+        }
+    }
+
+    /**
+     * Called after a batch delete request for the key was sent
+     */
+    private void deleted(final String key) {
+        if (null != logFileCache) {
+            logFileCache.remove(cacheEndpoint(), getBucket(), key);
+        }
+        IncrementalUpload.remove(getBucket(), key);
+        invalidateHeadCache(key);
+    }
+
+    /**
+     * Metadata keys from the Execution context that will be stored as User Metadata in the S3 Object
+     */
+    private static final String[] STORED_META = new String[]{META_EXECID, META_USERNAME,
+            META_PROJECT, META_URL, META_SERVERURL,
+            META_SERVER_UUID};
+
+    protected Map<String, String> createObjectMetadata(long length) {
+        Map<String, String> metadata = new HashMap<>();
+        for (String s : STORED_META) {
+            Object v = context.get(s);
+            if (null != v) {
+                metadata.put(metaKey(s), isEncodeUserMetadata() ? encodeStringToURLRequest(v.toString()) : v.toString());
             }
         }
         return metadata;
@@ -441,34 +2381,495 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
         return _PREFIX_META + s;
     }
 
-    private String encodeStringToURLRequest(String value) {
+    private String encodeStringToURLRequest(String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.toString());
+        } catch (UnsupportedEncodingException e) {
+            logger.warn(e.getMessage(), e);
+        }
+
+        return value;
+    }
+
+    public boolean retrieve(final String filetype, OutputStream stream)
+            throws IOException, ExecutionFileStorageException
+    {
+        InputStream queuedContent = openQueued(filetype);
+        if (null != queuedContent) {
+            try (InputStream in = queuedContent) {
+                in.transferTo(stream);
+            }
+            return true;
+        }
+        String executionPath = readPath(filetype);
+        if (isBundleStorage() && isBundled(executionPath, filetype, null)) {
+            stream.write(retrieveBundled(executionPath, filetype));
+            return true;
+        }
+        try {
+            return retrievePath(stream, resolvedFilepath(executionPath, filetype));
+        } catch (ExecutionFileStorageException e) {
+            if (!isOnlyBundled(executionPath, filetype, e)) {
+                throw e;
+            }
+            stream.write(retrieveBundled(executionPath, filetype));
+            return true;
+        }
+    }
+
+    /**
+     * Retrieve part of a stored file, such as a page of a large log. Only the requested bytes are transferred from S3,
+     * unless the file was stored compressed, in which case the whole file is downloaded and decompressed.
+     *
+     * @param filetype file type
+     * @param stream   destination, not closed
+     * @param offset   offset of the first byte
+     * @param length   maximum number of bytes, fewer are written if the file ends first
+     *
+     * @return the bytes written and the length of the file
+     */
+    public LogRange retrieveRange(
+            final String filetype,
+            final OutputStream stream,
+            final long offset,
+            final long length
+    )
+            throws IOException, ExecutionFileStorageException
+    {
+        if (offset < 0 || length < 1) {
+            throw new IllegalArgumentException("offset must not be negative and length must be at least 1");
+        }
+        return retrieveRangeFor(filetype, stream, offset, length);
+    }
+
+    /**
+     * Retrieve a stored file from an offset to its end, such as the part of a log not yet seen
+     *
+     * @see #retrieveRange(String, OutputStream, long, long)
+     */
+    public LogRange retrieveFrom(final String filetype, final OutputStream stream, final long offset)
+            throws IOException, ExecutionFileStorageException
+    {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative");
+        }
+        return retrieveRangeFor(filetype, stream, offset, -1);
+    }
+
+    /**
+     * Retrieve the last bytes of a stored file, such as the last page of a log
+     *
+     * @see #retrieveRange(String, OutputStream, long, long)
+     */
+    public LogRange retrieveTail(final String filetype, final OutputStream stream, final long length)
+            throws IOException, ExecutionFileStorageException
+    {
+        if (length < 1) {
+            throw new IllegalArgumentException("length must be at least 1");
+        }
+        return retrieveRangeFor(filetype, stream, -1, length);
+    }
+
+    private LogRange retrieveRangeFor(
+            final String filetype,
+            final OutputStream stream,
+            final long start,
+            final long length
+    )
+            throws IOException, ExecutionFileStorageException
+    {
+        InputStream queuedContent = openQueued(filetype);
+        if (null != queuedContent) {
+            try (InputStream in = queuedContent) {
+                return LogRange.slice(in, stream, start, length);
+            }
+        }
+        String executionPath = readPath(filetype);
+        if (isBundleStorage() && isBundled(executionPath, filetype, null)) {
+            byte[] content = retrieveBundled(executionPath, filetype);
+            return LogRange.slice(new ByteArrayInputStream(content), stream, start, length);
+        }
+        try {
+            return retrieveRangePath(stream, resolvedFilepath(executionPath, filetype), start, length);
+        } catch (ExecutionFileStorageException e) {
+            if (!isOnlyBundled(executionPath, filetype, e)) {
+                throw e;
+            }
+            byte[] content = retrieveBundled(executionPath, filetype);
+            return LogRange.slice(new ByteArrayInputStream(content), stream, start, length);
+        }
+    }
+
+    /**
+     * @param start  offset of the first byte, or -1 for the last {@code length} bytes
+     * @param length number of bytes, or -1 for all bytes from {@code start}
+     */
+    protected LogRange retrieveRangePath(
+            final OutputStream stream,
+            final String key,
+            final long start,
+            final long length
+    )
+            throws IOException, ExecutionFileStorageException
+    {
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.READ);
+        CircuitBreaker.Call call = startCall(permit, false);
+        S3Metrics.Sample sample = startSample(S3Operation.RETRIEVE);
+        try {
+            LogRange range = retrieveRangeObject(sample.counting(stream), key, start, length);
+            sample.succeeded();
+            return range;
+        } catch (ExecutionFileStorageException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            sample.failed(cause);
+            permit.failed(cause);
+            call.failed(cause);
+            throw e;
+        } catch (IOException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    private LogRange retrieveRangeObject(
+            final OutputStream stream,
+            final String key,
+            final long start,
+            final long length
+    )
+            throws IOException, ExecutionFileStorageException
+    {
+        try {
+            if (null != logFileCache) {
+                LogRange cached = retrieveRangeCached(logFileCache, stream, key, start, length);
+                if (null != cached) {
+                    return cached;
+                }
+            }
+            ResponseInputStream<GetObjectResponse> response = null;
+            try {
+                response = s3Client.getObject(
+                        GetObjectRequest.builder()
+                                .bucket(getBucket())
+                                .key(key)
+                                .range(LogRange.header(start, length))
+                                .overrideConfiguration(requestOverride)
+                                .build(),
+                        ResponseTransformer.toInputStream()
+                );
+            } catch (S3Exception e) {
+                if (e.statusCode() != 416) {
+                    throw e;
+                }
+                // range not satisfiable: the offset is at or after the end, or the file is empty
+                HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                        .bucket(getBucket())
+                        .key(key)
+                        .overrideConfiguration(requestOverride)
+                        .build());
+                if (!isCompressed(head.metadata())) {
+                    long total = null != head.contentLength() ? head.contentLength() : 0;
+                    return new LogRange(total, 0, total);
+                }
+            }
+            if (null != response) {
+                try (ResponseInputStream<GetObjectResponse> ranged = response) {
+                    Map<String, String> metadata = ranged.response().metadata();
+                    String contentRange = ranged.response().contentRange();
+                    long total = RangedDownloader.totalLength(contentRange);
+                    long first = RangedDownloader.rangeStart(contentRange);
+                    if (!isCompressed(metadata) && total >= 0 && first >= 0) {
+                        return new LogRange(first, LogRange.copy(ranged, stream, -1), total);
+                    }
+                    if (!isCompressed(metadata)) {
+                        // the whole file was returned
+                        return LogRange.slice(ranged, stream, start, length);
+                    }
+                    ranged.abort();
+                }
+            }
+            // offsets within compressed content do not match offsets in the file
+            logger.debug("Retrieving all of compressed {} for a range", key);
+            try (ResponseInputStream<GetObjectResponse> inputStream = getObject(key);
+                 InputStream content = decompress(inputStream, inputStream.response().metadata())) {
+                return LogRange.slice(content, stream, start, length);
+            }
+        } catch (S3Exception e) {
+            if (e.statusCode() == 404) {
+                logger.debug("S3 object not found on get object: {}", key);
+            } else {
+                logger.error("S3 service error on get object", e);
+            }
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            logger.error("AWS client error on get object", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the range from the local cache, or null if the object is not cached
+     */
+    private LogRange retrieveRangeCached(
+            final LogFileCache cache,
+            final OutputStream stream,
+            final String key,
+            final long start,
+            final long length
+    )
+            throws IOException
+    {
+        LogFileCache.Entry entry = cache.get(cacheEndpoint(), getBucket(), key);
+        if (null != entry && !cache.isFresh(entry, TimeUnit.SECONDS.toMillis(getCacheRevalidateInterval()))) {
+            entry = revalidate(cache, entry, key);
+        }
+        if (null == entry) {
+            return null;
+        }
+        InputStream cached = cache.open(entry);
+        if (null == cached) {
+            return null;
+        }
+        logger.debug("Retrieving range of {} from local cache", key);
+        try (InputStream content = decompress(cached, entry.getMetadata())) {
+            if (isCompressed(entry.getMetadata())) {
+                return LogRange.slice(content, stream, start, length);
+            }
+            long total = entry.getLength();
+            long first = start < 0 ? Math.max(0, total - length) : Math.min(start, total);
+            long count = start < 0 || length < 0 ? total - first : Math.min(length, total - first);
+            if (content.skip(first) != first) {
+                throw new IOException("Cached copy of " + key + " is shorter than expected");
+            }
+            return new LogRange(first, LogRange.copy(content, stream, count), total);
+        }
+    }
+
+    /**
+     * @return uncompressed content of a file in the execution's bundle
+     */
+    private byte[] retrieveBundled(final String executionPath, final String filetype)
+            throws IOException, ExecutionFileStorageException
+    {
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.READ);
+        CircuitBreaker.Call call = startCall(permit, false);
+        S3Metrics.Sample sample = startSample(S3Operation.RETRIEVE);
+        try {
+            byte[] content = readBundleEntry(bundleKey(executionPath), filetype);
+            sample.addBytes(content.length);
+            sample.succeeded();
+            return content;
+        } catch (S3Exception e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("S3 service error on get bundle", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("AWS client error on get bundle", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (IOException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    /**
+     * @return stored content of the whole bundle
+     */
+    private byte[] retrieveBundle(final String key) throws IOException, ExecutionFileStorageException {
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.READ);
+        CircuitBreaker.Call call = startCall(permit, false);
+        S3Metrics.Sample sample = startSample(S3Operation.RETRIEVE);
+        try (ResponseInputStream<GetObjectResponse> response = getObject(key)) {
+            byte[] content = response.readAllBytes();
+            sample.addBytes(content.length);
+            sample.succeeded();
+            return content;
+        } catch (S3Exception e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("S3 service error on get bundle", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (SdkClientException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            logger.error("AWS client error on get bundle", e);
+            throw new ExecutionFileStorageException(e.getMessage(), e);
+        } catch (IOException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
+    }
+
+    /**
+     * Read the end of the bundle, which holds the index and often the file itself, and then anything else needed from
+     * the same version of the bundle
+     */
+    private byte[] readBundleEntry(final String key, final String filetype) throws IOException {
+        byte[] tail;
+        long total;
+        String eTag;
+        try (ResponseInputStream<GetObjectResponse> response = getBundleRange(
+                key,
+                LogRange.header(-1, LogBundle.TAIL_LENGTH),
+                null
+        )) {
+            tail = response.readAllBytes();
+            total = RangedDownloader.totalLength(response.response().contentRange());
+            eTag = response.response().eTag();
+        }
+        if (total < 0) {
+            total = tail.length;
+        }
+        long tailOffset = total - tail.length;
+        long indexOffset = LogBundle.indexOffset(tail, total);
+        Map<String, LogBundle.Entry> entries = LogBundle.readIndex(bundleBytes(
+                key,
+                eTag,
+                tail,
+                tailOffset,
+                indexOffset,
+                total - LogBundle.TRAILER_LENGTH - indexOffset
+        ));
+        LogBundle.Entry entry = entries.get(filetype);
+        if (null == entry) {
+            throw new IOException("File type " + filetype + " is not in bundle " + key);
+        }
+        byte[] stored = bundleBytes(key, eTag, tail, tailOffset, entry.getOffset(), entry.getLength());
+        try (InputStream content = entry.getCompression().decompress(new ByteArrayInputStream(stored))) {
+            return content.readAllBytes();
+        }
+    }
+
+    /**
+     * @return bytes of the bundle, from the tail already read if it holds them
+     */
+    private byte[] bundleBytes(
+            final String key,
+            final String eTag,
+            final byte[] tail,
+            final long tailOffset,
+            final long offset,
+            final long length
+    )
+            throws IOException
+    {
+        if (offset >= tailOffset || length < 1) {
+            int start = (int) Math.max(0, offset - tailOffset);
+            return Arrays.copyOfRange(tail, start, start + (int) Math.max(0, length));
+        }
+        try (ResponseInputStream<GetObjectResponse> response = getBundleRange(
+                key,
+                LogRange.header(offset, length),
+                eTag
+        )) {
+            byte[] bytes = response.readAllBytes();
+            if (bytes.length != length) {
+                throw new IOException("Expected " + length + " bytes of bundle " + key + " but got " + bytes.length);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * @param eTag version of the object required, or null
+     */
+    private ResponseInputStream<GetObjectResponse> getBundleRange(
+            final String key,
+            final String range,
+            final String eTag
+    )
+    {
+        return s3Client.getObject(
+                GetObjectRequest.builder()
+                        .bucket(getBucket())
+                        .key(key)
+                        .range(range)
+                        .ifMatch(eTag)
+                        .overrideConfiguration(requestOverride)
+                        .build(),
+                ResponseTransformer.toInputStream()
+        );
+    }
+
+    private boolean isCompressed(final Map<String, String> metadata) throws IOException {
         try {
-            return URLEncoder.encode(value, StandardCharsets.UTF_8.toString());
-        } catch (UnsupportedEncodingException e) {
-            logger.warn(e.getMessage(), e);
+            return LogCompression.NONE != LogCompression.fromMetadata(metadata, metaKey(META_COMPRESSION));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
         }
-
-        return value;
     }
 
-    public boolean retrieve(final String filetype, OutputStream stream)
+    protected boolean retrievePath(final OutputStream stream, final String key)
             throws IOException, ExecutionFileStorageException
     {
-        return retrievePath(stream, resolvedFilepath(expandedPath, filetype));
+        RequestLimiter.Permit permit = acquirePermit(RequestLimiter.Kind.READ);
+        CircuitBreaker.Call call = startCall(permit, false);
+        S3Metrics.Sample sample = startSample(S3Operation.RETRIEVE);
+        try {
+            boolean retrieved = retrieveObject(sample.counting(stream), key);
+            sample.succeeded();
+            return retrieved;
+        } catch (ExecutionFileStorageException e) {
+            Throwable cause = null != e.getCause() ? e.getCause() : e;
+            sample.failed(cause);
+            permit.failed(cause);
+            call.failed(cause);
+            throw e;
+        } catch (IOException e) {
+            sample.failed(e);
+            permit.failed(e);
+            call.failed(e);
+            throw e;
+        } finally {
+            sample.close();
+            permit.close();
+            call.close();
+        }
     }
 
-    protected boolean retrievePath(final OutputStream stream, final String key)
+    private boolean retrieveObject(final OutputStream stream, final String key)
             throws IOException, ExecutionFileStorageException
     {
         try {
-            try (InputStream inputStream = s3Client.getObject(
-                    GetObjectRequest.builder().bucket(getBucket()).key(key).build(),
-                    ResponseTransformer.toInputStream())) {
-                Streams.copyStream(inputStream, stream);
+            if (null != logFileCache) {
+                return retrieveCached(logFileCache, stream, key);
+            }
+            try (ResponseInputStream<GetObjectResponse> inputStream = getObject(key);
+                 InputStream content = decompress(inputStream, inputStream.response().metadata())) {
+                Streams.copyStream(content, stream);
             }
             return true;
         } catch (S3Exception e) {
-            logger.error("S3 service error on get object", e);
+            if (e.statusCode() == 404) {
+                logger.debug("S3 object not found on get object: {}", key);
+            } else {
+                logger.error("S3 service error on get object", e);
+            }
             throw new ExecutionFileStorageException(e.getMessage(), e);
         } catch (SdkClientException e) {
             logger.error("AWS client error on get object", e);
@@ -476,6 +2877,115 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
         }
     }
 
+    /**
+     * Serve the object from the local cache if present and current, otherwise download it while adding it to the cache
+     */
+    private boolean retrieveCached(final LogFileCache cache, final OutputStream stream, final String key)
+            throws IOException
+    {
+        LogFileCache.Entry entry = cache.get(cacheEndpoint(), getBucket(), key);
+        if (null != entry && !cache.isFresh(entry, TimeUnit.SECONDS.toMillis(getCacheRevalidateInterval()))) {
+            entry = revalidate(cache, entry, key);
+        }
+        if (null != entry) {
+            InputStream cached = cache.open(entry);
+            if (null != cached) {
+                logger.debug("Retrieving {} from local cache", key);
+                try (InputStream inputStream = decompress(cached, entry.getMetadata())) {
+                    Streams.copyStream(inputStream, stream);
+                }
+                return true;
+            }
+        }
+        try (ResponseInputStream<GetObjectResponse> inputStream = getObject(key);
+             LogFileCache.Writer writer = cache.writer(
+                     cacheEndpoint(),
+                     getBucket(),
+                     key,
+                     OutputStream.nullOutputStream()
+             )) {
+            // the cache holds the object as stored, so the raw content is written to it before decompressing
+            InputStream raw = writer.tee(inputStream);
+            try (InputStream content = decompress(raw, inputStream.response().metadata())) {
+                Streams.copyStream(content, stream);
+                Streams.copyStream(raw, OutputStream.nullOutputStream());
+            }
+            writer.commit(inputStream.response().eTag(), inputStream.response().metadata());
+        }
+        return true;
+    }
+
+    /**
+     * @return stream of the uncompressed content, using the codec recorded in the object metadata
+     */
+    private InputStream decompress(final InputStream stream, final Map<String, String> metadata)
+            throws IOException
+    {
+        LogCompression codec;
+        try {
+            codec = LogCompression.fromMetadata(metadata, metaKey(META_COMPRESSION));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return codec.decompress(stream);
+    }
+
+    /**
+     * @return the entry if its ETag still matches the object in S3, otherwise null after removing it
+     */
+    private LogFileCache.Entry revalidate(final LogFileCache cache, final LogFileCache.Entry entry, final String key) {
+        try {
+            HeadObjectResponse response = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(getBucket())
+                    .key(key)
+                    .overrideConfiguration(requestOverride)
+                    .build());
+            if (null != entry.getETag() && entry.getETag().equals(response.eTag())) {
+                return cache.revalidated(entry);
+            }
+        } catch (S3Exception e) {
+            if (e.statusCode() != 404) {
+                throw e;
+            }
+        }
+        logger.debug("Cached copy of {} is out of date", key);
+        cache.remove(entry);
+        return null;
+    }
+
+    /**
+     * Open the object for reading, using parallel range requests for large objects if enabled
+     */
+    protected ResponseInputStream<GetObjectResponse> getObject(final String key) {
+        if (getRangedDownloadThreshold() > 0) {
+            return createRangedDownloader().open(getBucket(), key);
+        }
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(getBucket())
+                .key(key)
+                .overrideConfiguration(requestOverride)
+                .build();
+        if (null != getHedger) {
+            return getHedger.call(
+                    () -> s3Client.getObject(request, ResponseTransformer.toInputStream()),
+                    ResponseInputStream::abort
+            );
+        }
+        return s3Client.getObject(request, ResponseTransformer.toInputStream());
+    }
+
+    protected RangedDownloader createRangedDownloader() {
+        return new RangedDownloader(
+                s3Client,
+                getRangedDownloadThreshold(),
+                getRangedDownloadPartSize(),
+                getRangedDownloadConcurrency(),
+                RangedDownloader.DEFAULT_PART_ATTEMPTS,
+                requestOverride,
+                getHedger
+        );
+    }
+
     public static void main(String[] args) throws IOException, ExecutionFileStorageException {
         S3LogFileStoragePlugin s3LogFileStoragePlugin = new S3LogFileStoragePlugin();
         String action = args[0];
@@ -602,4 +3112,388 @@ public class S3LogFileStoragePlugin implements ExecutionFileStoragePlugin, Execu
     public void setEncodeUserMetadata(boolean encodeUserMetadata) {
         this.encodeUserMetadata = encodeUserMetadata;
     }
+
+    public boolean isShareClient() {
+        return shareClient;
+    }
+
+    public void setShareClient(boolean shareClient) {
+        this.shareClient = shareClient;
+    }
+
+    public int getSharedClientIdleTimeout() {
+        return sharedClientIdleTimeout;
+    }
+
+    public void setSharedClientIdleTimeout(int sharedClientIdleTimeout) {
+        this.sharedClientIdleTimeout = sharedClientIdleTimeout;
+    }
+
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    public long getMultipartPartSize() {
+        return multipartPartSize;
+    }
+
+    public void setMultipartPartSize(long multipartPartSize) {
+        this.multipartPartSize = multipartPartSize;
+    }
+
+    public int getMultipartConcurrency() {
+        return multipartConcurrency;
+    }
+
+    public void setMultipartConcurrency(int multipartConcurrency) {
+        this.multipartConcurrency = multipartConcurrency;
+    }
+
+    public int getStoreConcurrency() {
+        return storeConcurrency;
+    }
+
+    public void setStoreConcurrency(int storeConcurrency) {
+        this.storeConcurrency = storeConcurrency;
+    }
+
+    public long getRangedDownloadThreshold() {
+        return rangedDownloadThreshold;
+    }
+
+    public void setRangedDownloadThreshold(long rangedDownloadThreshold) {
+        this.rangedDownloadThreshold = rangedDownloadThreshold;
+    }
+
+    public long getRangedDownloadPartSize() {
+        return rangedDownloadPartSize;
+    }
+
+    public void setRangedDownloadPartSize(long rangedDownloadPartSize) {
+        this.rangedDownloadPartSize = rangedDownloadPartSize;
+    }
+
+    public int getRangedDownloadConcurrency() {
+        return rangedDownloadConcurrency;
+    }
+
+    public void setRangedDownloadConcurrency(int rangedDownloadConcurrency) {
+        this.rangedDownloadConcurrency = rangedDownloadConcurrency;
+    }
+
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public int getCacheRevalidateInterval() {
+        return cacheRevalidateInterval;
+    }
+
+    public void setCacheRevalidateInterval(int cacheRevalidateInterval) {
+        this.cacheRevalidateInterval = cacheRevalidateInterval;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public int getHeadCacheTtl() {
+        return headCacheTtl;
+    }
+
+    public void setHeadCacheTtl(int headCacheTtl) {
+        this.headCacheTtl = headCacheTtl;
+    }
+
+    public int getHeadCacheNegativeTtl() {
+        return headCacheNegativeTtl;
+    }
+
+    public void setHeadCacheNegativeTtl(int headCacheNegativeTtl) {
+        this.headCacheNegativeTtl = headCacheNegativeTtl;
+    }
+
+    public String getAsyncBackend() {
+        return asyncBackend;
+    }
+
+    public void setAsyncBackend(String asyncBackend) {
+        this.asyncBackend = asyncBackend;
+    }
+
+    public int getAsyncMaxConcurrency() {
+        return asyncMaxConcurrency;
+    }
+
+    public void setAsyncMaxConcurrency(int asyncMaxConcurrency) {
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public boolean isSdkMetricsEnabled() {
+        return sdkMetricsEnabled;
+    }
+
+    public void setSdkMetricsEnabled(boolean sdkMetricsEnabled) {
+        this.sdkMetricsEnabled = sdkMetricsEnabled;
+    }
+
+    public long getSlowCallThreshold() {
+        return slowCallThreshold;
+    }
+
+    public void setSlowCallThreshold(long slowCallThreshold) {
+        this.slowCallThreshold = slowCallThreshold;
+    }
+
+    public boolean isHedgeRequests() {
+        return hedgeRequests;
+    }
+
+    public void setHedgeRequests(boolean hedgeRequests) {
+        this.hedgeRequests = hedgeRequests;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(int hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public int getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    public void setHedgeBudget(int hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+    }
+
+    public boolean isIncrementalUpload() {
+        return incrementalUpload;
+    }
+
+    public void setIncrementalUpload(boolean incrementalUpload) {
+        this.incrementalUpload = incrementalUpload;
+    }
+
+    public int getPurgeConcurrency() {
+        return purgeConcurrency;
+    }
+
+    public void setPurgeConcurrency(int purgeConcurrency) {
+        this.purgeConcurrency = purgeConcurrency;
+    }
+
+    public boolean isBundleStorage() {
+        return bundleStorage;
+    }
+
+    public void setBundleStorage(boolean bundleStorage) {
+        this.bundleStorage = bundleStorage;
+    }
+
+    public boolean isReadBundles() {
+        return readBundles;
+    }
+
+    public void setReadBundles(boolean readBundles) {
+        this.readBundles = readBundles;
+    }
+
+    public long getBundleMaxFileSize() {
+        return bundleMaxFileSize;
+    }
+
+    public void setBundleMaxFileSize(long bundleMaxFileSize) {
+        this.bundleMaxFileSize = bundleMaxFileSize;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    public int getShardLength() {
+        return shardLength;
+    }
+
+    public void setShardLength(int shardLength) {
+        this.shardLength = shardLength;
+    }
+
+    public String getFallbackPath() {
+        return fallbackPath;
+    }
+
+    public void setFallbackPath(String fallbackPath) {
+        this.fallbackPath = fallbackPath;
+    }
+
+    public int getRequestLimit() {
+        return requestLimit;
+    }
+
+    public void setRequestLimit(int requestLimit) {
+        this.requestLimit = requestLimit;
+    }
+
+    public String getWriteBehindDirectory() {
+        return writeBehindDirectory;
+    }
+
+    public void setWriteBehindDirectory(String writeBehindDirectory) {
+        this.writeBehindDirectory = writeBehindDirectory;
+    }
+
+    public int getWriteBehindConcurrency() {
+        return writeBehindConcurrency;
+    }
+
+    public void setWriteBehindConcurrency(int writeBehindConcurrency) {
+        this.writeBehindConcurrency = writeBehindConcurrency;
+    }
+
+    public int getWriteBehindMaxAttempts() {
+        return writeBehindMaxAttempts;
+    }
+
+    public void setWriteBehindMaxAttempts(int writeBehindMaxAttempts) {
+        this.writeBehindMaxAttempts = writeBehindMaxAttempts;
+    }
+
+    public boolean isCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void setCircuitBreaker(boolean circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public int getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    public void setCircuitBreakerFailureRate(int circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+    }
+
+    public long getCircuitBreakerSlowCallDuration() {
+        return circuitBreakerSlowCallDuration;
+    }
+
+    public void setCircuitBreakerSlowCallDuration(long circuitBreakerSlowCallDuration) {
+        this.circuitBreakerSlowCallDuration = circuitBreakerSlowCallDuration;
+    }
+
+    public int getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public void setCircuitBreakerOpenDuration(int circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+    }
+
+    public int getBulkheadLimit() {
+        return bulkheadLimit;
+    }
+
+    public void setBulkheadLimit(int bulkheadLimit) {
+        this.bulkheadLimit = bulkheadLimit;
+    }
+
+    public String getHttpClient() {
+        return httpClient;
+    }
+
+    public void setHttpClient(String httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    public void setConnectionTimeToLive(int connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public int getConnectionMaxIdleTime() {
+        return connectionMaxIdleTime;
+    }
+
+    public void setConnectionMaxIdleTime(int connectionMaxIdleTime) {
+        this.connectionMaxIdleTime = connectionMaxIdleTime;
+    }
+
+    public boolean isReapIdleConnections() {
+        return reapIdleConnections;
+    }
+
+    public void setReapIdleConnections(boolean reapIdleConnections) {
+        this.reapIdleConnections = reapIdleConnections;
+    }
+
+    public boolean isTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public long getApiCallAttemptTimeout() {
+        return apiCallAttemptTimeout;
+    }
+
+    public void setApiCallAttemptTimeout(long apiCallAttemptTimeout) {
+        this.apiCallAttemptTimeout = apiCallAttemptTimeout;
+    }
+
+    public long getApiCallTimeout() {
+        return apiCallTimeout;
+    }
+
+    public void setApiCallTimeout(long apiCallTimeout) {
+        this.apiCallTimeout = apiCallTimeout;
+    }
 }
@@ -0,0 +1,232 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency, throughput and error metrics of plugin operations by bucket, published as MXBeans named
+ * <code>org.rundeck.plugins:type=S3LogStorage,bucket=&lt;bucket&gt;,operation=&lt;operation&gt;</code>.
+ */
+class S3Metrics {
+    private static final Logger logger = LoggerFactory.getLogger(S3Metrics.class.getName());
+
+    static final String JMX_DOMAIN = "org.rundeck.plugins";
+
+    private static final S3Metrics instance = new S3Metrics(
+            ManagementFactory.getPlatformMBeanServer(),
+            System::nanoTime
+    );
+
+    private final MBeanServer mBeanServer;
+    private final LongSupplier nanoClock;
+    private final Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param mBeanServer server to register metrics with, or null to not publish them
+     * @param nanoClock   time source in nanoseconds
+     */
+    S3Metrics(MBeanServer mBeanServer, LongSupplier nanoClock) {
+        this.mBeanServer = mBeanServer;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return metrics published to the platform MBean server
+     */
+    static S3Metrics getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return metrics for the operation on the bucket, registered on first use
+     */
+    OperationStats stats(String bucket, S3Operation operation) {
+        return stats.computeIfAbsent(bucket + "/" + operation.getName(), k -> {
+            OperationStats created = new OperationStats(bucket, operation);
+            register(created);
+            return created;
+        });
+    }
+
+    /**
+     * Start timing an operation. The sample must be closed when the operation ends, after recording a failure if it
+     * failed.
+     */
+    Sample start(String bucket, S3Operation operation) {
+        OperationStats operationStats = stats(bucket, operation);
+        operationStats.started();
+        return new Sample(operationStats, nanoClock);
+    }
+
+    private void register(OperationStats operationStats) {
+        if (null == mBeanServer) {
+            return;
+        }
+        try {
+            register(mBeanServer, operationStats, objectName(operationStats.getBucket(), operationStats.getOperation()));
+        } catch (JMException e) {
+            logger.warn("Unable to register S3 metrics with JMX: {}", e.getMessage());
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Register the bean, replacing one left by a previous load of the plugin
+     */
+    static void register(MBeanServer mBeanServer, Object bean, ObjectName name) throws JMException {
+        try {
+            mBeanServer.registerMBean(bean, name);
+        } catch (InstanceAlreadyExistsException e) {
+            mBeanServer.unregisterMBean(name);
+            mBeanServer.registerMBean(bean, name);
+        }
+    }
+
+    static ObjectName objectName(String bucket, String operation) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=S3LogStorage,bucket=" + ObjectName.quote(bucket) +
+                              ",operation=" + operation);
+    }
+
+    /**
+     * @param e failure
+     *
+     * @return the S3 status code, "client" if there was no response, "io" for I/O errors, otherwise "other"
+     */
+    static String errorStatus(Throwable e) {
+        if (e instanceof S3Exception) {
+            return Integer.toString(((S3Exception) e).statusCode());
+        }
+        if (e instanceof SdkClientException) {
+            return "client";
+        }
+        if (e instanceof IOException) {
+            return "io";
+        }
+        return "other";
+    }
+
+    /**
+     * Timing of one operation
+     */
+    static final class Sample {
+        /**
+         * Records nothing
+         */
+        static final Sample NONE = new Sample(null, null);
+
+        private final OperationStats stats;
+        private final LongSupplier nanoClock;
+        private final long start;
+        private String errorStatus;
+        private boolean succeeded;
+        private boolean closed;
+
+        private Sample(OperationStats stats, LongSupplier nanoClock) {
+            this.stats = stats;
+            this.nanoClock = nanoClock;
+            this.start = null != nanoClock ? nanoClock.getAsLong() : 0;
+        }
+
+        /**
+         * Record that the operation completed, any failure not recorded before closing is counted as "other"
+         */
+        void succeeded() {
+            if (null != stats) {
+                succeeded = true;
+            }
+        }
+
+        void failed(Throwable e) {
+            if (null != stats) {
+                errorStatus = errorStatus(e);
+            }
+        }
+
+        void addBytes(long count) {
+            if (null != stats) {
+                stats.addBytes(count);
+            }
+        }
+
+        /**
+         * @return stream counting bytes read as transferred bytes
+         */
+        InputStream counting(InputStream stream) {
+            if (null == stats) {
+                return stream;
+            }
+            return new FilterInputStream(stream) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        addBytes(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int count = super.read(b, off, len);
+                    if (count > 0) {
+                        addBytes(count);
+                    }
+                    return count;
+                }
+            };
+        }
+
+        /**
+         * @return stream counting bytes written as transferred bytes
+         */
+        OutputStream counting(OutputStream stream) {
+            if (null == stats) {
+                return stream;
+            }
+            return new FilterOutputStream(stream) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    addBytes(1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    addBytes(len);
+                }
+
+                @Override
+                public void close() {
+                    // the caller's stream is not closed by the plugin
+                }
+            };
+        }
+
+        void close() {
+            if (null == stats || closed) {
+                return;
+            }
+            closed = true;
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanoClock.getAsLong() - start);
+            stats.completed(micros, succeeded ? null : null != errorStatus ? errorStatus : "other");
+        }
+    }
+}
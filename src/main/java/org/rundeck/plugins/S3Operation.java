@@ -0,0 +1,26 @@
+package org.rundeck.plugins;
+
+/**
+ * Plugin operations for which metrics are recorded
+ */
+enum S3Operation {
+    STORE("store"),
+    RETRIEVE("retrieve"),
+    HEAD("head"),
+    LIST("list"),
+    DELETE("delete"),
+    PURGE("purge");
+
+    private final String name;
+
+    S3Operation(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name used in metric names
+     */
+    String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,141 @@
+package org.rundeck.plugins;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Rolling summaries of the AWS SDK metrics of one S3 API operation
+ */
+class SdkCallStats implements SdkCallStatsMXBean {
+    static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int SLOTS = 6;
+
+    private final String operation;
+    private final RollingSummary apiCall;
+    private final RollingSummary failures;
+    private final RollingSummary retries;
+    private final RollingSummary credentialsFetch;
+    private final RollingSummary concurrencyAcquire;
+    private final RollingSummary serviceCall;
+    private final RollingSummary timeToFirstByte;
+    private final RollingSummary pendingConcurrencyAcquires;
+
+    SdkCallStats(String operation, LongSupplier clock) {
+        this.operation = operation;
+        this.apiCall = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.failures = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.retries = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.credentialsFetch = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.concurrencyAcquire = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.serviceCall = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.timeToFirstByte = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+        this.pendingConcurrencyAcquires = new RollingSummary(WINDOW_MILLIS, SLOTS, clock);
+    }
+
+    void record(SdkMetricsPublisher.Call call) {
+        apiCall.record(call.getApiCallMicros());
+        if (!call.isSuccessful()) {
+            failures.record(1);
+        }
+        if (call.getRetries() > 0) {
+            retries.record(call.getRetries());
+        }
+        if (call.getCredentialsFetchMicros() >= 0) {
+            credentialsFetch.record(call.getCredentialsFetchMicros());
+        }
+        for (SdkMetricsPublisher.Attempt attempt : call.getAttempts()) {
+            if (attempt.getConcurrencyAcquireMicros() >= 0) {
+                concurrencyAcquire.record(attempt.getConcurrencyAcquireMicros());
+            }
+            if (attempt.getServiceCallMicros() >= 0) {
+                serviceCall.record(attempt.getServiceCallMicros());
+            }
+            if (attempt.getTimeToFirstByteMicros() >= 0) {
+                timeToFirstByte.record(attempt.getTimeToFirstByteMicros());
+            }
+            if (attempt.getPendingConcurrencyAcquires() >= 0) {
+                pendingConcurrencyAcquires.record(attempt.getPendingConcurrencyAcquires());
+            }
+        }
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getWindowSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(WINDOW_MILLIS);
+    }
+
+    @Override
+    public long getCalls() {
+        return apiCall.getCount();
+    }
+
+    @Override
+    public long getFailedCalls() {
+        return failures.getCount();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.getSum();
+    }
+
+    @Override
+    public double getApiCallMeanMillis() {
+        return apiCall.getMean() / 1000;
+    }
+
+    @Override
+    public double getApiCallMaxMillis() {
+        return apiCall.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getCredentialsFetchMeanMillis() {
+        return credentialsFetch.getMean() / 1000;
+    }
+
+    @Override
+    public double getCredentialsFetchMaxMillis() {
+        return credentialsFetch.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getConcurrencyAcquireMeanMillis() {
+        return concurrencyAcquire.getMean() / 1000;
+    }
+
+    @Override
+    public double getConcurrencyAcquireMaxMillis() {
+        return concurrencyAcquire.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getServiceCallMeanMillis() {
+        return serviceCall.getMean() / 1000;
+    }
+
+    @Override
+    public double getServiceCallMaxMillis() {
+        return serviceCall.getMax() / 1000.0;
+    }
+
+    @Override
+    public double getTimeToFirstByteMeanMillis() {
+        return timeToFirstByte.getMean() / 1000;
+    }
+
+    @Override
+    public double getTimeToFirstByteMaxMillis() {
+        return timeToFirstByte.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getMaxPendingConcurrencyAcquires() {
+        return pendingConcurrencyAcquires.getMax();
+    }
+}
@@ -0,0 +1,60 @@
+package org.rundeck.plugins;
+
+/**
+ * JMX view of the AWS SDK metrics of one S3 API operation, summarized over the last minute. Durations are in
+ * milliseconds.
+ */
+public interface SdkCallStatsMXBean {
+    /**
+     * @return S3 API operation name, such as PutObject
+     */
+    String getOperation();
+
+    long getWindowSeconds();
+
+    long getCalls();
+
+    long getFailedCalls();
+
+    /**
+     * @return retries made by the SDK
+     */
+    long getRetries();
+
+    /**
+     * @return total time of calls, including retries and backoff
+     */
+    double getApiCallMeanMillis();
+
+    double getApiCallMaxMillis();
+
+    double getCredentialsFetchMeanMillis();
+
+    double getCredentialsFetchMaxMillis();
+
+    /**
+     * @return time waiting for a connection from the HTTP client pool, per attempt
+     */
+    double getConcurrencyAcquireMeanMillis();
+
+    double getConcurrencyAcquireMaxMillis();
+
+    /**
+     * @return time of the HTTP request to S3, per attempt
+     */
+    double getServiceCallMeanMillis();
+
+    double getServiceCallMaxMillis();
+
+    /**
+     * @return time from sending the request to the first byte of the response, per attempt
+     */
+    double getTimeToFirstByteMeanMillis();
+
+    double getTimeToFirstByteMaxMillis();
+
+    /**
+     * @return largest number of requests seen waiting for a pooled connection
+     */
+    long getMaxPendingConcurrencyAcquires();
+}
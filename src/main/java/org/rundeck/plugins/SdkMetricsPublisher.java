@@ -0,0 +1,330 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Receives the metrics the AWS SDK collects for each API call and its attempts, and keeps rolling summaries by
+ * operation of the phases of a call: credential resolution, waiting for a pooled HTTP connection, the service call and
+ * time to first byte, and retries. Summaries are published as MXBeans named
+ * <code>org.rundeck.plugins:type=S3LogStorageSdk,operation=&lt;operation&gt;</code>.
+ * <p>
+ * Publishers returned by {@link #forExecution} additionally log calls slower than a threshold, with the breakdown of
+ * each attempt and the execution id, so that a slow store can be attributed to connection pool starvation or to slow S3
+ * responses.
+ */
+class SdkMetricsPublisher implements MetricPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(SdkMetricsPublisher.class.getName());
+
+    private static final String API_CALL_ATTEMPT = "ApiCallAttempt";
+
+    private static final SdkMetricsPublisher instance = new SdkMetricsPublisher(
+            ManagementFactory.getPlatformMBeanServer(),
+            System::currentTimeMillis
+    );
+
+    private final MBeanServer mBeanServer;
+    private final LongSupplier clock;
+    private final Map<String, SdkCallStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param mBeanServer server to register summaries with, or null to not publish them
+     * @param clock       time source in milliseconds
+     */
+    SdkMetricsPublisher(MBeanServer mBeanServer, LongSupplier clock) {
+        this.mBeanServer = mBeanServer;
+        this.clock = clock;
+    }
+
+    /**
+     * @return publisher shared by all clients, published to the platform MBean server
+     */
+    static SdkMetricsPublisher getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param executionId     execution id included in the slow call log
+     * @param slowCallMillis  calls taking at least this long are logged, 0 to not log
+     *
+     * @return publisher to attach to the requests of an execution, recording to this publisher's summaries
+     */
+    MetricPublisher forExecution(final String executionId, final long slowCallMillis) {
+        return new MetricPublisher() {
+            @Override
+            public void publish(MetricCollection metricCollection) {
+                Call call = record(metricCollection);
+                if (slowCallMillis > 0 && call.getApiCallMicros() >= slowCallMillis * 1000) {
+                    logger.warn("Slow S3 call for execution {}: {}", executionId, call);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void publish(MetricCollection metricCollection) {
+        record(metricCollection);
+    }
+
+    /**
+     * Shared by clients, so it is not closed with a client
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return summaries for the operation, registered on first use
+     */
+    SdkCallStats stats(String operation) {
+        return stats.computeIfAbsent(operation, k -> {
+            SdkCallStats created = new SdkCallStats(operation, clock);
+            if (null != mBeanServer) {
+                try {
+                    S3Metrics.register(
+                            mBeanServer,
+                            created,
+                            new ObjectName(S3Metrics.JMX_DOMAIN + ":type=S3LogStorageSdk,operation=" +
+                                           ObjectName.quote(operation))
+                    );
+                } catch (JMException e) {
+                    logger.warn("Unable to register S3 SDK metrics with JMX: {}", e.getMessage());
+                    logger.debug(e.getMessage(), e);
+                }
+            }
+            return created;
+        });
+    }
+
+    private Call record(MetricCollection metricCollection) {
+        Call call = Call.from(metricCollection);
+        try {
+            stats(call.getOperation()).record(call);
+        } catch (RuntimeException e) {
+            // metrics must never fail a request
+            logger.debug("Failed to record SDK metrics: {}", e.getMessage(), e);
+        }
+        return call;
+    }
+
+    private static <T> T first(MetricCollection collection, SdkMetric<T> metric) {
+        List<T> values = collection.metricValues(metric);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return the value in the collection or else in its HttpClient child collection
+     */
+    private static <T> T firstIncludingHttp(MetricCollection collection, SdkMetric<T> metric) {
+        T value = first(collection, metric);
+        if (null != value) {
+            return value;
+        }
+        for (MetricCollection child : collection.children()) {
+            value = first(child, metric);
+            if (null != value) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static long micros(Duration duration) {
+        return null != duration ? duration.toNanos() / 1000 : -1;
+    }
+
+    private static long number(Integer value) {
+        return null != value ? value : -1;
+    }
+
+    private static String millis(long micros) {
+        return micros >= 0 ? (micros / 1000) + " ms" : "-";
+    }
+
+    /**
+     * Metrics of one API call
+     */
+    static final class Call {
+        private final String operation;
+        private final boolean successful;
+        private final long apiCallMicros;
+        private final long credentialsFetchMicros;
+        private final int retries;
+        private final List<Attempt> attempts;
+
+        private Call(
+                String operation,
+                boolean successful,
+                long apiCallMicros,
+                long credentialsFetchMicros,
+                int retries,
+                List<Attempt> attempts
+        )
+        {
+            this.operation = operation;
+            this.successful = successful;
+            this.apiCallMicros = apiCallMicros;
+            this.credentialsFetchMicros = credentialsFetchMicros;
+            this.retries = retries;
+            this.attempts = attempts;
+        }
+
+        static Call from(MetricCollection apiCall) {
+            List<Attempt> attempts = new ArrayList<>();
+            long attemptCredentials = -1;
+            for (MetricCollection attempt : apiCall.children()) {
+                if (!API_CALL_ATTEMPT.equals(attempt.name())) {
+                    continue;
+                }
+                attempts.add(Attempt.from(attempt));
+                long credentials = micros(first(attempt, CoreMetric.CREDENTIALS_FETCH_DURATION));
+                if (credentials >= 0) {
+                    attemptCredentials = Math.max(0, attemptCredentials) + credentials;
+                }
+            }
+            String operation = first(apiCall, CoreMetric.OPERATION_NAME);
+            Boolean successful = first(apiCall, CoreMetric.API_CALL_SUCCESSFUL);
+            Integer retries = first(apiCall, CoreMetric.RETRY_COUNT);
+            long credentials = micros(first(apiCall, CoreMetric.CREDENTIALS_FETCH_DURATION));
+            return new Call(
+                    null != operation ? operation : "unknown",
+                    null == successful || successful,
+                    Math.max(0, micros(first(apiCall, CoreMetric.API_CALL_DURATION))),
+                    credentials >= 0 ? credentials : attemptCredentials,
+                    null != retries ? retries : Math.max(0, attempts.size() - 1),
+                    Collections.unmodifiableList(attempts)
+            );
+        }
+
+        String getOperation() {
+            return operation;
+        }
+
+        boolean isSuccessful() {
+            return successful;
+        }
+
+        long getApiCallMicros() {
+            return apiCallMicros;
+        }
+
+        /**
+         * @return time resolving credentials, -1 if not reported
+         */
+        long getCredentialsFetchMicros() {
+            return credentialsFetchMicros;
+        }
+
+        int getRetries() {
+            return retries;
+        }
+
+        List<Attempt> getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(operation)
+              .append(successful ? "" : " failed")
+              .append(" took ").append(millis(apiCallMicros))
+              .append(", credentials ").append(millis(credentialsFetchMicros))
+              .append(", retries ").append(retries);
+            for (int i = 0; i < attempts.size(); i++) {
+                sb.append("; attempt ").append(i + 1).append(": ").append(attempts.get(i));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Metrics of one attempt of an API call. Durations are in microseconds, values not reported are -1.
+     */
+    static final class Attempt {
+        private final long concurrencyAcquireMicros;
+        private final long serviceCallMicros;
+        private final long timeToFirstByteMicros;
+        private final long backoffMicros;
+        private final long pendingConcurrencyAcquires;
+        private final long leasedConcurrency;
+        private final long maxConcurrency;
+        private final long statusCode;
+        private final String requestId;
+
+        private Attempt(MetricCollection attempt) {
+            this.concurrencyAcquireMicros = micros(firstIncludingHttp(
+                    attempt,
+                    HttpMetric.CONCURRENCY_ACQUIRE_DURATION
+            ));
+            this.serviceCallMicros = micros(first(attempt, CoreMetric.SERVICE_CALL_DURATION));
+            this.timeToFirstByteMicros = micros(first(attempt, CoreMetric.TIME_TO_FIRST_BYTE));
+            this.backoffMicros = micros(first(attempt, CoreMetric.BACKOFF_DELAY_DURATION));
+            this.pendingConcurrencyAcquires = number(firstIncludingHttp(
+                    attempt,
+                    HttpMetric.PENDING_CONCURRENCY_ACQUIRES
+            ));
+            this.leasedConcurrency = number(firstIncludingHttp(attempt, HttpMetric.LEASED_CONCURRENCY));
+            this.maxConcurrency = number(firstIncludingHttp(attempt, HttpMetric.MAX_CONCURRENCY));
+            this.statusCode = number(firstIncludingHttp(attempt, HttpMetric.HTTP_STATUS_CODE));
+            this.requestId = first(attempt, CoreMetric.AWS_REQUEST_ID);
+        }
+
+        static Attempt from(MetricCollection attempt) {
+            return new Attempt(attempt);
+        }
+
+        /**
+         * @return time waiting for a pooled HTTP connection
+         */
+        long getConcurrencyAcquireMicros() {
+            return concurrencyAcquireMicros;
+        }
+
+        long getServiceCallMicros() {
+            return serviceCallMicros;
+        }
+
+        long getTimeToFirstByteMicros() {
+            return timeToFirstByteMicros;
+        }
+
+        long getPendingConcurrencyAcquires() {
+            return pendingConcurrencyAcquires;
+        }
+
+        @Override
+        public String toString() {
+            return "status " + (statusCode >= 0 ? statusCode : "-") +
+                   ", backoff " + millis(backoffMicros) +
+                   ", connection wait " + millis(concurrencyAcquireMicros) +
+                   " (leased " + (leasedConcurrency >= 0 ? leasedConcurrency : "-") +
+                   "/" + (maxConcurrency >= 0 ? maxConcurrency : "-") +
+                   ", pending " + (pendingConcurrencyAcquires >= 0 ? pendingConcurrencyAcquires : "-") + ")" +
+                   ", service call " + millis(serviceCallMicros) +
+                   ", first byte " + millis(timeToFirstByteMicros) +
+                   (null != requestId ? ", request id " + requestId : "");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.rundeck.plugins;
+
+import java.time.Instant;
+
+/**
+ * A file found in S3 by listing, without its metadata. For a file in an execution's bundle, the key, size, ETag and
+ * modification time are those of the bundle.
+ */
+public final class StoredFile {
+    private final String key;
+    private final long size;
+    private final String eTag;
+    private final Instant lastModified;
+
+    StoredFile(String key, long size, String eTag, Instant lastModified) {
+        this.key = key;
+        this.size = size;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return object key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return stored size in bytes, which is the compressed size for files stored with compression, and the size of
+     * the whole bundle for a bundled file
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredFile{key='" + key + "', size=" + size + ", eTag=" + eTag + "}";
+    }
+}
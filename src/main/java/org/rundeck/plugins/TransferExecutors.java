@@ -0,0 +1,91 @@
+package org.rundeck.plugins;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for blocking S3 transfers. Virtual threads are used when the JVM provides them (Java 21+),
+ * otherwise daemon platform threads.
+ */
+final class TransferExecutors {
+    private static final boolean VIRTUAL_THREADS = null != virtualThreadFactory("probe");
+
+    private TransferExecutors() {
+    }
+
+    /**
+     * @return true if tasks run on virtual threads
+     */
+    static boolean isVirtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+
+    /**
+     * @param prefix  thread name prefix
+     * @param threads maximum number of tasks run at the same time
+     *
+     * @return a new executor which must be shut down by the caller
+     */
+    static ExecutorService newFixedThreadPool(String prefix, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), threadFactory(prefix));
+    }
+
+    /**
+     * @param prefix  thread name prefix
+     * @param threads maximum number of threads, idle threads end after a minute
+     *
+     * @return a new executor which rejects tasks with {@link java.util.concurrent.RejectedExecutionException} while
+     * all threads are busy, rather than queueing them
+     */
+    static ExecutorService newBoundedCachedThreadPool(String prefix, int threads) {
+        return new ThreadPoolExecutor(
+                0,
+                Math.max(1, threads),
+                60,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                threadFactory(prefix)
+        );
+    }
+
+    /**
+     * @param prefix thread name prefix
+     *
+     * @return factory for virtual threads if available, otherwise for daemon threads
+     */
+    static ThreadFactory threadFactory(String prefix) {
+        if (VIRTUAL_THREADS) {
+            ThreadFactory factory = virtualThreadFactory(prefix);
+            if (null != factory) {
+                return factory;
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Uses reflection because the plugin is compiled for Java 17
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix + "-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,600 @@
+package org.rundeck.plugins;
+
+import com.dtolabs.rundeck.core.logging.ExecutionFileStorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local queue of files waiting to be uploaded to S3, so that storing a file does not wait for S3. Shared by all plugin
+ * instances using the same directory.
+ * <p>
+ * Each queued file is a {@code .data} file with its content and a {@code .meta} file with its bucket, key and user
+ * metadata. Both are synced and moved into place, data first, before {@link #add} returns, so a queued file survives a
+ * restart. Files left by an earlier process are uploaded once a plugin instance for their bucket calls
+ * {@link #recover}. Failed uploads are retried with exponential backoff, and a file which fails every attempt is moved
+ * to the {@code failed} subdirectory.
+ */
+final class WriteBehindQueue {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class.getName());
+
+    static final String FAILED_DIRECTORY = "failed";
+    static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long SHUTDOWN_WAIT_SECONDS = 5;
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String PROP_BUCKET = "bucket";
+    private static final String PROP_KEY = "key";
+    private static final String PROP_LENGTH = "length";
+    private static final String PROP_QUEUED = "queued";
+    private static final String PROP_ATTEMPTS = "attempts";
+    private static final String PROP_META_PREFIX = "meta.";
+
+    private static final Map<String, WriteBehindQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Final status of a queued file
+     */
+    enum Status {
+        STORED,
+        /**
+         * Every attempt failed, the file was moved to the failed directory
+         */
+        FAILED,
+        /**
+         * Removed, or replaced by a newer file for the same object, before it was uploaded
+         */
+        CANCELLED
+    }
+
+    /**
+     * Uploads queued files
+     */
+    interface Uploader {
+        /**
+         * Upload the content of a queued file, called again after a failure until an attempt succeeds or the maximum
+         * attempts are reached
+         */
+        void upload(Entry entry, InputStream content) throws IOException, ExecutionFileStorageException;
+
+        /**
+         * Called once when the file is no longer queued
+         */
+        void finished(Entry entry, Status status);
+    }
+
+    private final File directory;
+    private final File failedDirectory;
+    private final long retryDelayMillis;
+    private final ScheduledThreadPoolExecutor executor;
+    /**
+     * Latest entry for each object, by bucket and key
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+    /**
+     * Entries loaded from the directory which no uploader has claimed yet
+     */
+    private final List<Entry> unclaimed = new ArrayList<>();
+    /**
+     * Entries being uploaded, by bucket and key
+     */
+    private final Map<String, Entry> uploading = new HashMap<>();
+    private volatile int maxAttempts;
+
+    WriteBehindQueue(File directory, int threads, int maxAttempts, long retryDelayMillis) throws IOException {
+        this.directory = directory;
+        this.failedDirectory = new File(directory, FAILED_DIRECTORY);
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+        this.executor = new ScheduledThreadPoolExecutor(
+                Math.max(1, threads),
+                TransferExecutors.threadFactory("s3-log-write-behind")
+        );
+        load();
+    }
+
+    /**
+     * @param directory   queue directory
+     * @param threads     number of files uploaded at the same time
+     * @param maxAttempts upload attempts before a file is moved to the failed directory
+     *
+     * @return the queue for the directory, shared by all callers in this JVM
+     */
+    static WriteBehindQueue forDirectory(File directory, int threads, int maxAttempts) throws IOException {
+        String path = directory.getCanonicalPath();
+        WriteBehindQueue queue = queues.get(path);
+        if (null == queue) {
+            synchronized (queues) {
+                queue = queues.get(path);
+                if (null == queue) {
+                    queue = new WriteBehindQueue(new File(path), threads, maxAttempts, DEFAULT_RETRY_DELAY_MILLIS);
+                    queues.put(path, queue);
+                }
+            }
+        }
+        queue.maxAttempts = maxAttempts;
+        if (threads > queue.executor.getCorePoolSize()) {
+            queue.executor.setCorePoolSize(threads);
+        }
+        return queue;
+    }
+
+    /**
+     * Load files left by an earlier process, removing temporary files and incomplete entries, and keeping only the
+     * latest file for each object
+     */
+    private void load() throws IOException {
+        if (!failedDirectory.isDirectory() && !failedDirectory.mkdirs()) {
+            throw new IOException("Cannot create queue directory: " + failedDirectory);
+        }
+        File[] files = directory.listFiles();
+        if (null == files) {
+            throw new IOException("Cannot read queue directory: " + directory);
+        }
+        List<Entry> loaded = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                delete(file);
+            } else if (name.endsWith(META_SUFFIX)) {
+                Entry entry = readEntry(file);
+                if (null == entry) {
+                    logger.warn("Removing unreadable queued file {}", file);
+                    delete(file);
+                    delete(dataFile(id(file)));
+                } else {
+                    loaded.add(entry);
+                }
+            } else if (name.endsWith(DATA_SUFFIX) && !metaFile(id(file)).exists()) {
+                delete(file);
+            }
+        }
+        loaded.sort((a, b) -> Long.compare(a.queued, b.queued));
+        synchronized (this) {
+            for (Entry entry : loaded) {
+                Entry previous = entries.put(entry.objectId, entry);
+                if (null != previous) {
+                    unclaimed.remove(previous);
+                    deleteFiles(previous);
+                }
+                unclaimed.add(entry);
+            }
+        }
+        logger.debug("Loaded {} queued files from {}", unclaimed.size(), directory);
+    }
+
+    private Entry readEntry(File meta) {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(meta)) {
+            props.load(in);
+        } catch (IOException e) {
+            return null;
+        }
+        File data = dataFile(id(meta));
+        try {
+            long length = Long.parseLong(props.getProperty(PROP_LENGTH));
+            if (!data.isFile() || data.length() != length
+                || null == props.getProperty(PROP_BUCKET) || null == props.getProperty(PROP_KEY)) {
+                return null;
+            }
+            Map<String, String> metadata = new HashMap<>();
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(PROP_META_PREFIX)) {
+                    metadata.put(name.substring(PROP_META_PREFIX.length()), props.getProperty(name));
+                }
+            }
+            Entry entry = new Entry(
+                    id(meta),
+                    props.getProperty(PROP_BUCKET),
+                    props.getProperty(PROP_KEY),
+                    metadata,
+                    length,
+                    Long.parseLong(props.getProperty(PROP_QUEUED)),
+                    data
+            );
+            entry.attempts = Integer.parseInt(props.getProperty(PROP_ATTEMPTS, "0"));
+            return entry;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queue content to upload, replacing any file queued earlier for the same object
+     *
+     * @param length   length of the content, or -1 if not known
+     * @param uploader uploads the file
+     *
+     * @return the queued file
+     *
+     * @throws IOException if the content cannot be read or written to the queue directory
+     */
+    Entry add(
+            String bucket,
+            String key,
+            Map<String, String> metadata,
+            InputStream content,
+            long length,
+            Uploader uploader
+    )
+            throws IOException
+    {
+        String id = UUID.randomUUID().toString();
+        File data = dataFile(id);
+        File temp = File.createTempFile(id, TEMP_SUFFIX, directory);
+        Entry entry;
+        try {
+            long written;
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                written = LogRange.copy(content, out, length);
+                out.getFD().sync();
+            }
+            if (length >= 0 && written < length) {
+                throw new IOException("Content ended after " + written + " of " + length + " bytes");
+            }
+            entry = new Entry(id, bucket, key, new HashMap<>(metadata), written, System.currentTimeMillis(), data);
+            move(temp, data);
+            writeMeta(entry);
+        } catch (IOException e) {
+            delete(data);
+            throw e;
+        } finally {
+            delete(temp);
+        }
+        entry.uploader = uploader;
+        Entry previous;
+        synchronized (this) {
+            previous = entries.put(entry.objectId, entry);
+            if (null != previous) {
+                unclaimed.remove(previous);
+            }
+        }
+        if (null != previous) {
+            cancelled(previous);
+        }
+        executor.execute(() -> run(entry));
+        return entry;
+    }
+
+    /**
+     * Upload the files for the bucket left by an earlier process with the uploader
+     *
+     * @return number of files claimed
+     */
+    int recover(String bucket, Uploader uploader) {
+        List<Entry> claimed = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : new ArrayList<>(unclaimed)) {
+                if (entry.bucket.equals(bucket)) {
+                    unclaimed.remove(entry);
+                    entry.uploader = uploader;
+                    claimed.add(entry);
+                }
+            }
+        }
+        for (Entry entry : claimed) {
+            executor.execute(() -> run(entry));
+        }
+        if (!claimed.isEmpty()) {
+            logger.info("Uploading {} files queued for S3 bucket {} before a restart", claimed.size(), bucket);
+        }
+        return claimed.size();
+    }
+
+    /**
+     * @return the file queued for the object, or null if there is none
+     */
+    synchronized Entry get(String bucket, String key) {
+        return entries.get(LogFileCache.id(bucket, key));
+    }
+
+    /**
+     * @return stream of the queued content, or null if the file is no longer queued
+     */
+    InputStream open(Entry entry) {
+        try {
+            return new FileInputStream(entry.data);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Remove the file queued for the object, if any. An upload already in progress is not stopped.
+     *
+     * @return true if a file was removed
+     */
+    boolean remove(String bucket, String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(LogFileCache.id(bucket, key));
+            if (null != entry) {
+                unclaimed.remove(entry);
+            }
+        }
+        if (null == entry) {
+            return false;
+        }
+        cancelled(entry);
+        return true;
+    }
+
+    /**
+     * @return number of files queued
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stop uploading, leaving queued files in the directory, and wait for uploads in progress to end
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Uploads of queued files did not end within {} seconds", SHUTDOWN_WAIT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isQueued(Entry entry) {
+        return entries.get(entry.objectId) == entry;
+    }
+
+    private void run(Entry entry) {
+        synchronized (this) {
+            if (!isQueued(entry)) {
+                return;
+            }
+            if (uploading.containsKey(entry.objectId)) {
+                // started when the upload of the file it replaced ends, so that the older content is not stored last
+                entry.deferred = true;
+                return;
+            }
+            uploading.put(entry.objectId, entry);
+        }
+        entry.attempts++;
+        try (InputStream content = open(entry)) {
+            if (null == content) {
+                return;
+            }
+            entry.uploader.upload(entry, content);
+        } catch (IOException | ExecutionFileStorageException | RuntimeException e) {
+            failed(entry, e);
+            return;
+        } finally {
+            uploadEnded(entry);
+        }
+        // a file removed or replaced during the upload was already reported as cancelled
+        if (remove(entry)) {
+            deleteFiles(entry);
+            logger.debug("Uploaded queued file for {} after {} attempts", entry.key, entry.attempts);
+            entry.uploader.finished(entry, Status.STORED);
+        }
+    }
+
+    /**
+     * Start the file which replaced the entry during its upload, if any
+     */
+    private void uploadEnded(Entry entry) {
+        Entry next;
+        synchronized (this) {
+            uploading.remove(entry.objectId);
+            next = entries.get(entry.objectId);
+            if (null == next || !next.deferred) {
+                return;
+            }
+            next.deferred = false;
+        }
+        try {
+            executor.execute(() -> run(next));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Not uploading {} after shutdown, the file stays queued", next.key);
+        }
+    }
+
+    private void failed(Entry entry, Exception e) {
+        if (entry.attempts < maxAttempts) {
+            synchronized (this) {
+                // not recreated if removed meanwhile
+                if (!isQueued(entry)) {
+                    return;
+                }
+                try {
+                    writeMeta(entry);
+                } catch (IOException ex) {
+                    logger.debug("Failed to record attempts for {}: {}", entry.key, ex.getMessage());
+                }
+            }
+            long delay = retryDelay(entry.attempts);
+            logger.warn("Failed to upload queued file for {}, attempt {} of {}, retrying in {} ms: {}",
+                        entry.key, entry.attempts, maxAttempts, delay, e.getMessage());
+            try {
+                executor.schedule(() -> run(entry), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                logger.debug("Not retrying {} after shutdown, the file stays queued", entry.key);
+            }
+            return;
+        }
+        if (!remove(entry)) {
+            return;
+        }
+        try {
+            move(entry.data, new File(failedDirectory, entry.data.getName()));
+            move(metaFile(entry.id), new File(failedDirectory, metaFile(entry.id).getName()));
+        } catch (IOException ex) {
+            logger.warn("Failed to move queued file for {} to {}: {}", entry.key, failedDirectory, ex.getMessage());
+        }
+        logger.error("Failed to upload queued file for {} to S3 bucket {} after {} attempts, moved to {}",
+                     entry.key, entry.bucket, entry.attempts, failedDirectory, e);
+        entry.uploader.finished(entry, Status.FAILED);
+    }
+
+    /**
+     * @return delay before the next attempt, doubling with each attempt, with jitter so that files which failed
+     * together are not retried together
+     */
+    long retryDelay(int attempts) {
+        long delay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelayMillis << Math.min(attempts - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @return true if the entry was the queued file for its object
+     */
+    private synchronized boolean remove(Entry entry) {
+        return entries.remove(entry.objectId, entry);
+    }
+
+    private void cancelled(Entry entry) {
+        deleteFiles(entry);
+        if (null != entry.uploader) {
+            entry.uploader.finished(entry, Status.CANCELLED);
+        }
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(PROP_BUCKET, entry.bucket);
+        props.setProperty(PROP_KEY, entry.key);
+        props.setProperty(PROP_LENGTH, Long.toString(entry.length));
+        props.setProperty(PROP_QUEUED, Long.toString(entry.queued));
+        props.setProperty(PROP_ATTEMPTS, Integer.toString(entry.attempts));
+        for (Map.Entry<String, String> meta : entry.metadata.entrySet()) {
+            props.setProperty(PROP_META_PREFIX + meta.getKey(), meta.getValue());
+        }
+        File temp = File.createTempFile(entry.id, TEMP_SUFFIX, directory);
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                props.store(out, null);
+                out.getFD().sync();
+            }
+            move(temp, metaFile(entry.id));
+        } finally {
+            delete(temp);
+        }
+    }
+
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteFiles(Entry entry) {
+        // meta first, so a partially deleted entry is never loaded
+        delete(metaFile(entry.id));
+        delete(entry.data);
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.debug("Failed to delete queue file {}", file);
+        }
+    }
+
+    private File dataFile(String id) {
+        return new File(directory, id + DATA_SUFFIX);
+    }
+
+    private File metaFile(String id) {
+        return new File(directory, id + META_SUFFIX);
+    }
+
+    private static String id(File file) {
+        String name = file.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /**
+     * A queued file
+     */
+    static final class Entry {
+        private final String id;
+        private final String objectId;
+        private final String bucket;
+        private final String key;
+        private final Map<String, String> metadata;
+        private final long length;
+        private final long queued;
+        private final File data;
+        private volatile int attempts;
+        private boolean deferred;
+        private volatile Uploader uploader;
+
+        private Entry(
+                String id,
+                String bucket,
+                String key,
+                Map<String, String> metadata,
+                long length,
+                long queued,
+                File data
+        )
+        {
+            this.id = id;
+            this.objectId = LogFileCache.id(bucket, key);
+            this.bucket = bucket;
+            this.key = key;
+            this.metadata = Collections.unmodifiableMap(metadata);
+            this.length = length;
+            this.queued = queued;
+            this.data = data;
+        }
+
+        String getBucket() {
+            return bucket;
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        /**
+         * @return user metadata of the object
+         */
+        Map<String, String> getMetadata() {
+            return metadata;
+        }
+
+        long getLength() {
+            return length;
+        }
+
+        /**
+         * @return upload attempts so far, including the one in progress
+         */
+        int getAttempts() {
+            return attempts;
+        }
+    }
+}
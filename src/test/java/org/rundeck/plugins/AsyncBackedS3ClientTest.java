@@ -0,0 +1,209 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for AsyncBackedS3Client.
+ */
+@RunWith(JUnit4.class)
+public class AsyncBackedS3ClientTest {
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @Test
+    public void headObjectReturnsResponse() {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        HeadObjectResponse response = HeadObjectResponse.builder().contentLength(10L).build();
+        when(async.headObject(any(HeadObjectRequest.class))).thenReturn(CompletableFuture.completedFuture(response));
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async)) {
+            Assert.assertSame(
+                    response,
+                    client.headObject(HeadObjectRequest.builder().bucket("bucket").key("key").build())
+            );
+        }
+    }
+
+    @Test
+    public void deleteObjectsReturnsResponse() {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        DeleteObjectsResponse response = DeleteObjectsResponse.builder().build();
+        when(async.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(response));
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async)) {
+            Assert.assertSame(response, client.deleteObjects(DeleteObjectsRequest.builder().bucket("bucket").build()));
+        }
+    }
+
+    @Test
+    public void failureIsRethrown() {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        when(async.headObject(any(HeadObjectRequest.class))).thenReturn(failed(
+                S3Exception.builder().statusCode(404).message("not found").build()
+        ));
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async)) {
+            client.headObject(HeadObjectRequest.builder().bucket("bucket").key("key").build());
+            Assert.fail("should throw");
+        } catch (S3Exception e) {
+            Assert.assertEquals(404, e.statusCode());
+        }
+    }
+
+    @Test
+    public void checkedFailureIsClientException() {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        when(async.headObject(any(HeadObjectRequest.class))).thenReturn(failed(new IOException("reset")));
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async)) {
+            client.headObject(HeadObjectRequest.builder().bucket("bucket").key("key").build());
+            Assert.fail("should throw");
+        } catch (SdkClientException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void putObjectPassesContentLength() {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        when(async.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async)) {
+            client.putObject(
+                    PutObjectRequest.builder().bucket("bucket").key("key").build(),
+                    RequestBody.fromBytes(new byte[12])
+            );
+        }
+
+        ArgumentCaptor<AsyncRequestBody> body = ArgumentCaptor.forClass(AsyncRequestBody.class);
+        verify(async).putObject(any(PutObjectRequest.class), body.capture());
+        Assert.assertEquals(Long.valueOf(12), body.getValue().contentLength().orElse(null));
+    }
+
+    @Test
+    public void putObjectSendsFileRegionFromFile() throws IOException {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        when(async.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+        File file = File.createTempFile("test-log", ".rdlog");
+        file.deleteOnExit();
+        Files.write(file.toPath(), "log content".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async, 1);
+             FileInputStream stream = new FileInputStream(file)) {
+            client.putObject(
+                    PutObjectRequest.builder().bucket("bucket").key("key").build(),
+                    FileRegion.of(stream, file.length()).requestBody()
+            );
+
+            ArgumentCaptor<AsyncRequestBody> body = ArgumentCaptor.forClass(AsyncRequestBody.class);
+            verify(async).putObject(any(PutObjectRequest.class), body.capture());
+            Assert.assertEquals(Long.valueOf(file.length()), body.getValue().contentLength().orElse(null));
+            // read by the requesting thread, without the body executor
+            body.getValue().subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer chunk) {
+                    byte[] bytes = new byte[chunk.remaining()];
+                    chunk.get(bytes);
+                    sent.write(bytes, 0, bytes.length);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+        }
+
+        Assert.assertEquals("log content", sent.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void getObjectStream() throws IOException {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        byte[] content = "log content".getBytes(StandardCharsets.UTF_8);
+        ResponseInputStream<GetObjectResponse> stream = new ResponseInputStream<>(
+                GetObjectResponse.builder().contentLength((long) content.length).build(),
+                AbortableInputStream.create(new ByteArrayInputStream(content))
+        );
+        when(async.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class)))
+                .thenReturn(CompletableFuture.completedFuture(stream));
+
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async)) {
+            InputStream result = client.getObject(
+                    GetObjectRequest.builder().bucket("bucket").key("key").build(),
+                    ResponseTransformer.toInputStream()
+            );
+            Assert.assertArrayEquals(content, readAll(result));
+        }
+    }
+
+    @Test
+    public void closeClosesAsyncClient() {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+
+        new AsyncBackedS3Client(async).close();
+
+        verify(async).close();
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            return in.readAllBytes();
+        }
+    }
+}
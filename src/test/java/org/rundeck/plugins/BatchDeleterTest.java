@@ -0,0 +1,176 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for BatchDeleter.
+ */
+@RunWith(JUnit4.class)
+public class BatchDeleterTest {
+
+    private S3Client s3;
+    private final Set<String> notified = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() {
+        s3 = mock(S3Client.class);
+    }
+
+    private static List<String> keys(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add("project/p/" + i + ".rdlog");
+        }
+        return keys;
+    }
+
+    private static S3Object object(String key) {
+        return S3Object.builder().key(key).build();
+    }
+
+    @Test
+    public void deleteSplitsIntoBatches() {
+        when(s3.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        PurgeResult result = new BatchDeleter(s3, 2, null).delete("bucket", keys(2500), notified::add);
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(2500, result.getDeleted());
+        Assert.assertEquals(2500, notified.size());
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3, times(3)).deleteObjects(captor.capture());
+        int total = 0;
+        for (DeleteObjectsRequest request : captor.getAllValues()) {
+            Assert.assertEquals("bucket", request.bucket());
+            Assert.assertTrue(request.delete().quiet());
+            Assert.assertTrue(request.delete().objects().size() <= BatchDeleter.MAX_KEYS);
+            total += request.delete().objects().size();
+        }
+        Assert.assertEquals(2500, total);
+    }
+
+    @Test
+    public void deleteReportsKeyErrors() {
+        when(s3.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().errors(
+                S3Error.builder().key("project/p/1.rdlog").code("AccessDenied").message("Access Denied").build()
+        ).build());
+
+        PurgeResult result = new BatchDeleter(s3, 1, null).delete("bucket", keys(3), notified::add);
+
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertEquals(2, result.getDeleted());
+        Assert.assertEquals("AccessDenied: Access Denied", result.getErrors().get("project/p/1.rdlog"));
+    }
+
+    @Test
+    public void guardSendsEachBatch() {
+        when(s3.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        AtomicInteger sent = new AtomicInteger();
+
+        PurgeResult result = new BatchDeleter(s3, 2, null, request -> {
+            sent.incrementAndGet();
+            return request.get();
+        }).delete("bucket", keys(2500), notified::add);
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(3, sent.get());
+    }
+
+    @Test
+    public void batchRejectedByGuardReportsEachKey() {
+        PurgeResult result = new BatchDeleter(s3, 1, null, request -> {
+            throw SdkClientException.create("S3 requests are failing");
+        }).delete("bucket", keys(3), notified::add);
+
+        Assert.assertEquals(0, result.getDeleted());
+        Assert.assertEquals("S3 requests are failing", result.getErrors().get("project/p/1.rdlog"));
+        Assert.assertEquals(3, notified.size());
+        verify(s3, never()).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    @Test
+    public void failedBatchReportsEachKey() {
+        when(s3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(503).message("SlowDown").build())
+                .thenReturn(DeleteObjectsResponse.builder().build());
+
+        PurgeResult result = new BatchDeleter(s3, 1, null).delete("bucket", keys(1500), notified::add);
+
+        Assert.assertEquals(500, result.getDeleted());
+        Assert.assertEquals(1000, result.getErrors().size());
+        Assert.assertEquals("SlowDown", result.getErrors().get("project/p/0.rdlog"));
+    }
+
+    @Test
+    public void deletePrefixDeletesEachPage() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                                    .contents(object("project/p/1.rdlog"), object("project/p/1.state.json"))
+                                    .isTruncated(true)
+                                    .nextContinuationToken("next")
+                                    .build())
+                .thenReturn(ListObjectsV2Response.builder()
+                                    .contents(object("project/p/2.rdlog"))
+                                    .isTruncated(false)
+                                    .build());
+        when(s3.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+
+        PurgeResult result = new BatchDeleter(s3, 2, null).deletePrefix("bucket", "project/p/", notified::add);
+
+        Assert.assertEquals(3, result.getDeleted());
+        ArgumentCaptor<ListObjectsV2Request> lists = ArgumentCaptor.forClass(ListObjectsV2Request.class);
+        verify(s3, times(2)).listObjectsV2(lists.capture());
+        Assert.assertEquals("project/p/", lists.getAllValues().get(0).prefix());
+        Assert.assertNull(lists.getAllValues().get(0).continuationToken());
+        Assert.assertEquals("next", lists.getAllValues().get(1).continuationToken());
+        ArgumentCaptor<DeleteObjectsRequest> deletes = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(s3, times(2)).deleteObjects(deletes.capture());
+        Set<String> deleted = ConcurrentHashMap.newKeySet();
+        for (DeleteObjectsRequest request : deletes.getAllValues()) {
+            for (ObjectIdentifier object : request.delete().objects()) {
+                deleted.add(object.key());
+            }
+        }
+        Assert.assertEquals(notified, deleted);
+    }
+
+    @Test
+    public void deletePrefixListFailure() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenThrow(SdkClientException.create("list"));
+
+        try {
+            new BatchDeleter(s3, 1, null).deletePrefix("bucket", "project/p/", notified::add);
+            Assert.fail("should throw");
+        } catch (SdkClientException e) {
+            Assert.assertEquals("list", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for CircuitBreaker.
+ */
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    private CircuitBreaker breaker(int failureRate, long slowCallMillis, int maxInFlight) {
+        return new CircuitBreaker("bucket", failureRate, slowCallMillis, 5000, maxInFlight, now::get);
+    }
+
+    private static S3Exception status(int statusCode) {
+        return S3Exception.builder().statusCode(statusCode).message("status " + statusCode).build();
+    }
+
+    private static void call(CircuitBreaker breaker, Throwable error) throws CircuitBreaker.RejectedException {
+        CircuitBreaker.Call call = breaker.start(false);
+        if (null != error) {
+            call.failed(error);
+        }
+        call.close();
+    }
+
+    private static boolean rejected(CircuitBreaker breaker) {
+        try {
+            breaker.start(false).close();
+            return false;
+        } catch (CircuitBreaker.RejectedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Open the breaker with failed calls
+     */
+    private static void open(CircuitBreaker breaker) throws CircuitBreaker.RejectedException {
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            call(breaker, status(503));
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void opensAtFailureRate() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        for (int i = 0; i < 5; i++) {
+            call(breaker, null);
+        }
+        for (int i = 0; i < 4; i++) {
+            call(breaker, status(500));
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        call(breaker, SdkClientException.create("timed out"));
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertTrue(rejected(breaker));
+    }
+
+    @Test
+    public void notOpenedBeforeMinCalls() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS - 1; i++) {
+            call(breaker, status(503));
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void oldOutcomesLeaveWindow() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        for (int i = 0; i < 10; i++) {
+            call(breaker, null);
+        }
+        for (int i = 0; i < 9; i++) {
+            call(breaker, status(503));
+        }
+        for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+            call(breaker, null);
+        }
+        for (int i = 0; i < 9; i++) {
+            call(breaker, status(503));
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void clientErrorsNotFailures() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+            call(breaker, status(i % 2 == 0 ? 404 : 403));
+        }
+        call(breaker, new RuntimeException("not S3"));
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void slowTimedCallsAreFailures() throws Exception {
+        CircuitBreaker breaker = breaker(50, 100, 0);
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            CircuitBreaker.Call untimed = breaker.start(false);
+            now.addAndGet(200);
+            untimed.close();
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            CircuitBreaker.Call timed = breaker.start(true);
+            now.addAndGet(200);
+            timed.close();
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenAfterOpenDuration() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        open(breaker);
+
+        now.addAndGet(4999);
+        Assert.assertTrue(rejected(breaker));
+        now.addAndGet(1);
+
+        CircuitBreaker.Call probe = breaker.start(false);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        for (int i = 1; i < CircuitBreaker.PROBE_CALLS; i++) {
+            breaker.start(false);
+        }
+        Assert.assertTrue(rejected(breaker));
+        probe.close();
+    }
+
+    @Test
+    public void probesSucceedingClose() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        open(breaker);
+        now.addAndGet(5000);
+
+        for (int i = 0; i < CircuitBreaker.PROBE_CALLS; i++) {
+            call(breaker, null);
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertFalse(rejected(breaker));
+    }
+
+    @Test
+    public void probeFailingReopens() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        open(breaker);
+        now.addAndGet(5000);
+
+        call(breaker, null);
+        call(breaker, status(503));
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertTrue(rejected(breaker));
+        now.addAndGet(5000);
+        Assert.assertFalse(rejected(breaker));
+    }
+
+    @Test
+    public void callsFromBeforeChangeNotCounted() throws Exception {
+        CircuitBreaker breaker = breaker(50, 0, 0);
+        CircuitBreaker.Call earlier = breaker.start(false);
+        open(breaker);
+        now.addAndGet(5000);
+        call(breaker, null);
+
+        earlier.failed(status(503));
+        earlier.close();
+
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertEquals(0, breaker.getInFlight());
+    }
+
+    @Test
+    public void bulkheadRejectsBeyondLimit() throws Exception {
+        CircuitBreaker breaker = breaker(0, 0, 2);
+        CircuitBreaker.Call first = breaker.start(false);
+        breaker.start(false);
+
+        Assert.assertTrue(rejected(breaker));
+        first.close();
+        first.close();
+        Assert.assertEquals(1, breaker.getInFlight());
+        Assert.assertFalse(rejected(breaker));
+    }
+
+    @Test
+    public void bulkheadOnlyNeverOpens() throws Exception {
+        CircuitBreaker breaker = breaker(0, 0, 2);
+        for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+            call(breaker, status(503));
+        }
+
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void forTargetShared() {
+        CircuitBreaker breaker = CircuitBreaker.forTarget("http://minio:9000", "bucket", 50, 0, 1000, 0);
+
+        Assert.assertSame(breaker, CircuitBreaker.forTarget("http://minio:9000", "bucket", 50, 0, 1000, 0));
+        Assert.assertNotSame(breaker, CircuitBreaker.forTarget(null, "bucket", 50, 0, 1000, 0));
+        Assert.assertNotSame(breaker, CircuitBreaker.forTarget("http://minio:9000", "other", 50, 0, 1000, 0));
+    }
+}
@@ -0,0 +1,138 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for ExecutionLister.
+ */
+@RunWith(JUnit4.class)
+public class ExecutionListerTest {
+
+    private S3Client s3;
+
+    @Before
+    public void setUp() {
+        s3 = mock(S3Client.class);
+    }
+
+    private static S3Object object(String key, long size) {
+        return S3Object.builder().key(key).size(size).eTag("\"" + key.hashCode() + "\"").build();
+    }
+
+    @Test
+    public void listSingleExecution() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().contents(
+                object("project/p/1.rdlog", 100),
+                object("project/p/1.state.json", 20)
+        ).isTruncated(false).build());
+
+        Map<String, Map<String, StoredFile>> found = new ExecutionLister(s3, null)
+                .list("bucket", Collections.singleton("project/p/1"));
+
+        Map<String, StoredFile> files = found.get("project/p/1");
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals(100, files.get("rdlog").getSize());
+        Assert.assertEquals("project/p/1.rdlog", files.get("rdlog").getKey());
+        Assert.assertEquals(20, files.get("state.json").getSize());
+        ArgumentCaptor<ListObjectsV2Request> captor = ArgumentCaptor.forClass(ListObjectsV2Request.class);
+        verify(s3).listObjectsV2(captor.capture());
+        Assert.assertEquals("bucket", captor.getValue().bucket());
+        Assert.assertEquals("project/p/1", captor.getValue().prefix());
+        Assert.assertEquals("project/p/1", captor.getValue().startAfter());
+    }
+
+    @Test
+    public void listExecutionsSharingPrefix() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().contents(
+                object("project/p/10.rdlog", 1),
+                object("project/p/101.rdlog", 2),
+                object("project/p/12.rdlog", 3),
+                object("project/p/12.state.json", 4),
+                object("project/p/13.rdlog", 5),
+                object("project/p/14.rdlog", 6)
+        ).isTruncated(true).nextContinuationToken("next").build());
+
+        Map<String, Map<String, StoredFile>> found = new ExecutionLister(s3, null)
+                .list("bucket", Arrays.asList("project/p/12", "project/p/10", "project/p/11"));
+
+        Assert.assertEquals(Collections.singleton("rdlog"), found.get("project/p/10").keySet());
+        Assert.assertTrue(found.get("project/p/11").isEmpty());
+        Assert.assertEquals(2, found.get("project/p/12").size());
+        ArgumentCaptor<ListObjectsV2Request> captor = ArgumentCaptor.forClass(ListObjectsV2Request.class);
+        // stopped at the first key after the last execution, without listing the next page
+        verify(s3).listObjectsV2(captor.capture());
+        Assert.assertEquals("project/p/1", captor.getValue().prefix());
+        Assert.assertEquals("project/p/10", captor.getValue().startAfter());
+    }
+
+    @Test
+    public void listFollowsPages() {
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenReturn(ListObjectsV2Response.builder()
+                                    .contents(object("project/p/1.rdlog", 1))
+                                    .isTruncated(true)
+                                    .nextContinuationToken("next")
+                                    .build())
+                .thenReturn(ListObjectsV2Response.builder()
+                                    .contents(object("project/p/2.rdlog", 2))
+                                    .isTruncated(false)
+                                    .build());
+
+        Map<String, Map<String, StoredFile>> found = new ExecutionLister(s3, null)
+                .list("bucket", Arrays.asList("project/p/1", "project/p/2"));
+
+        Assert.assertEquals(1, found.get("project/p/1").size());
+        Assert.assertEquals(1, found.get("project/p/2").size());
+        ArgumentCaptor<ListObjectsV2Request> captor = ArgumentCaptor.forClass(ListObjectsV2Request.class);
+        verify(s3, times(2)).listObjectsV2(captor.capture());
+        Assert.assertEquals("next", captor.getAllValues().get(1).continuationToken());
+        Assert.assertNull(captor.getAllValues().get(1).startAfter());
+    }
+
+    @Test
+    public void listPathFollowedByLowerCharacter() {
+        // '-' sorts before '.', so the keys of project/p/1 come after those of project/p/1-a
+        when(s3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder().contents(
+                object("project/p/1-a.rdlog", 1),
+                object("project/p/1.rdlog", 2)
+        ).isTruncated(false).build());
+
+        Map<String, Map<String, StoredFile>> found = new ExecutionLister(s3, null)
+                .list("bucket", Arrays.asList("project/p/1", "project/p/1-a"));
+
+        Assert.assertEquals(1, found.get("project/p/1").size());
+        Assert.assertEquals(1, found.get("project/p/1-a").size());
+    }
+
+    @Test
+    public void listNoExecutions() {
+        Assert.assertTrue(new ExecutionLister(s3, null).list("bucket", Collections.emptyList()).isEmpty());
+        verify(s3, never()).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    public void commonPrefix() {
+        Assert.assertEquals("project/p/1", ExecutionLister.commonPrefix("project/p/10", "project/p/12."));
+        Assert.assertEquals("", ExecutionLister.commonPrefix("a", "b"));
+    }
+}
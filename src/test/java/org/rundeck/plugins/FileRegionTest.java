@@ -0,0 +1,261 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for FileRegion.
+ */
+@RunWith(JUnit4.class)
+public class FileRegionTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = tempFolder.newFile();
+        Files.write(file.toPath(), "0123456789".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void ofFileStreamFromPosition() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertEquals(3, stream.skip(3));
+            FileRegion region = FileRegion.of(stream, 5);
+
+            Assert.assertNotNull(region);
+            Assert.assertEquals(5, region.getLength());
+            Assert.assertEquals("34567", read(region.newStream()));
+            // readable again, as for a retry, without moving or closing the stream
+            Assert.assertEquals("34567", read(region.requestBody().contentStreamProvider().newStream()));
+            Assert.assertEquals('3', stream.read());
+        }
+    }
+
+    @Test
+    public void ofOtherStream() {
+        Assert.assertNull(FileRegion.of(new ByteArrayInputStream(new byte[10]), 10));
+    }
+
+    @Test
+    public void ofUnknownLength() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertNull(FileRegion.of(stream, -1));
+        }
+    }
+
+    @Test
+    public void ofFileShorterThanLength() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertEquals(5, stream.skip(5));
+            Assert.assertNull(FileRegion.of(stream, 6));
+        }
+    }
+
+    @Test
+    public void slice() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            FileRegion region = FileRegion.of(stream, 10).slice(2, 6).slice(1, 3);
+
+            Assert.assertEquals(3, region.getLength());
+            Assert.assertEquals("345", read(region.newStream()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sliceOutsideRegion() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            FileRegion.of(stream, 5).slice(3, 3);
+        }
+    }
+
+    @Test
+    public void fileTruncated() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            FileRegion region = FileRegion.of(stream, 10);
+            Files.write(file.toPath(), "01234".getBytes(StandardCharsets.UTF_8));
+            try {
+                read(region.newStream());
+                Assert.fail("should throw");
+            } catch (IOException e) {
+                Assert.assertEquals("File ended after 5 bytes of a 10 byte upload", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void requestBodyLength() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            RequestBody body = FileRegion.of(stream, 4).requestBody();
+
+            Assert.assertEquals(Long.valueOf(4), body.optionalContentLength().orElse(null));
+        }
+    }
+
+    // ─── Async request body tests ───
+
+    /**
+     * Collects the body, requesting one chunk at a time from within onNext
+     */
+    private static final class Collector implements Subscriber<ByteBuffer> {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final List<Integer> chunks = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+        boolean complete;
+        boolean requestMore = true;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(ByteBuffer chunk) {
+            chunks.add(chunk.remaining());
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            content.write(bytes, 0, bytes.length);
+            if (requestMore) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+    }
+
+    @Test
+    public void asyncRequestBodySendsRegion() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            AsyncRequestBody body = FileRegion.of(stream, 10).slice(3, 5).asyncRequestBody();
+            Collector collector = new Collector();
+
+            body.subscribe(collector);
+            collector.subscription.request(1);
+
+            Assert.assertEquals(Long.valueOf(5), body.contentLength().orElse(null));
+            Assert.assertEquals("34567", collector.content.toString(StandardCharsets.UTF_8));
+            Assert.assertTrue(collector.complete);
+            Assert.assertNull(collector.error);
+        }
+    }
+
+    @Test
+    public void asyncRequestBodySendsChunksOnDemand() throws IOException {
+        int length = FileRegion.ASYNC_CHUNK_SIZE * 2 + 10;
+        Files.write(file.toPath(), new byte[length]);
+        try (FileInputStream stream = new FileInputStream(file)) {
+            AsyncRequestBody body = FileRegion.of(stream, length).asyncRequestBody();
+            Collector collector = new Collector();
+            collector.requestMore = false;
+
+            body.subscribe(collector);
+            Assert.assertTrue(collector.chunks.isEmpty());
+            collector.subscription.request(1);
+            Assert.assertEquals(1, collector.chunks.size());
+            Assert.assertFalse(collector.complete);
+            collector.subscription.request(2);
+
+            Assert.assertEquals(3, collector.chunks.size());
+            Assert.assertEquals(Integer.valueOf(10), collector.chunks.get(2));
+            Assert.assertEquals(length, collector.content.size());
+            Assert.assertTrue(collector.complete);
+        }
+    }
+
+    @Test
+    public void asyncRequestBodySentAgain() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            AsyncRequestBody body = FileRegion.of(stream, 10).asyncRequestBody();
+            Collector first = new Collector();
+            body.subscribe(first);
+            first.subscription.request(1);
+            Collector second = new Collector();
+
+            body.subscribe(second);
+            second.subscription.request(1);
+
+            Assert.assertEquals("0123456789", second.content.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void asyncRequestBodyEmptyCompletesWithoutDemand() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Collector collector = new Collector();
+
+            FileRegion.of(stream, 0).asyncRequestBody().subscribe(collector);
+
+            Assert.assertTrue(collector.complete);
+            Assert.assertTrue(collector.chunks.isEmpty());
+        }
+    }
+
+    @Test
+    public void asyncRequestBodyFileTruncated() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            AsyncRequestBody body = FileRegion.of(stream, 10).asyncRequestBody();
+            Files.write(file.toPath(), "01234".getBytes(StandardCharsets.UTF_8));
+            Collector collector = new Collector();
+
+            body.subscribe(collector);
+            collector.subscription.request(1);
+
+            Assert.assertTrue(collector.error instanceof IOException);
+            Assert.assertEquals("File ended after 5 bytes of a 10 byte upload", collector.error.getMessage());
+            Assert.assertFalse(collector.complete);
+        }
+    }
+
+    @Test
+    public void asyncRequestBodyCancelled() throws IOException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Collector collector = new Collector();
+            FileRegion.of(stream, 10).asyncRequestBody().subscribe(collector);
+
+            collector.subscription.cancel();
+            collector.subscription.request(1);
+
+            Assert.assertTrue(collector.chunks.isEmpty());
+            Assert.assertFalse(collector.complete);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for HeadObjectCache.
+ */
+@RunWith(JUnit4.class)
+public class HeadObjectCacheTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void foundExpiresAfterTtl() {
+        HeadObjectCache cache = new HeadObjectCache(10, now::get);
+        cache.found("bucket", "key", Collections.singletonMap("rundeck.execid", "1"), cache.version());
+
+        HeadObjectCache.Result result = cache.get("bucket", "key", 100, 10);
+        Assert.assertNotNull(result);
+        Assert.assertTrue(result.exists());
+        Assert.assertEquals("1", result.getMetadata().get("rundeck.execid"));
+
+        now.addAndGet(99);
+        Assert.assertNotNull(cache.get("bucket", "key", 100, 10));
+        now.addAndGet(1);
+        Assert.assertNull(cache.get("bucket", "key", 100, 10));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void missingUsesNegativeTtl() {
+        HeadObjectCache cache = new HeadObjectCache(10, now::get);
+        cache.missing("bucket", "key", cache.version());
+
+        HeadObjectCache.Result result = cache.get("bucket", "key", 100, 10);
+        Assert.assertNotNull(result);
+        Assert.assertFalse(result.exists());
+
+        now.addAndGet(10);
+        Assert.assertNull(cache.get("bucket", "key", 100, 10));
+    }
+
+    @Test
+    public void zeroTtlIsNotCached() {
+        HeadObjectCache cache = new HeadObjectCache(10, now::get);
+        cache.found("bucket", "key", null, cache.version());
+        cache.missing("bucket", "other", cache.version());
+
+        Assert.assertNull(cache.get("bucket", "key", 0, 100));
+        Assert.assertNull(cache.get("bucket", "other", 100, 0));
+    }
+
+    @Test
+    public void invalidateRemovesResult() {
+        HeadObjectCache cache = new HeadObjectCache(10, now::get);
+        cache.found("bucket", "key", null, cache.version());
+
+        cache.invalidate("bucket", "key");
+
+        Assert.assertNull(cache.get("bucket", "key", 100, 100));
+    }
+
+    @Test
+    public void resultOfRequestStartedBeforeInvalidateIsIgnored() {
+        HeadObjectCache cache = new HeadObjectCache(10, now::get);
+        long version = cache.version();
+
+        cache.invalidate("bucket", "key");
+        cache.missing("bucket", "key", version);
+
+        Assert.assertNull(cache.get("bucket", "key", 100, 100));
+        cache.missing("bucket", "key", cache.version());
+        Assert.assertNotNull(cache.get("bucket", "key", 100, 100));
+    }
+
+    @Test
+    public void invalidateOtherKeyKeepsRequestInFlight() {
+        HeadObjectCache cache = new HeadObjectCache(10, now::get);
+        long version = cache.version();
+
+        cache.invalidate("bucket", "other");
+        cache.found("bucket", "key", null, version);
+
+        Assert.assertNotNull(cache.get("bucket", "key", 100, 100));
+    }
+
+    @Test
+    public void requestStartedBeforeEvictedInvalidateIsIgnored() {
+        HeadObjectCache cache = new HeadObjectCache(2, now::get);
+        long version = cache.version();
+        cache.invalidate("bucket", "key");
+        cache.invalidate("bucket", "a");
+        cache.invalidate("bucket", "b");
+
+        cache.found("bucket", "key", null, version);
+
+        Assert.assertNull(cache.get("bucket", "key", 100, 100));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        HeadObjectCache cache = new HeadObjectCache(2, now::get);
+        cache.found("bucket", "a", null, cache.version());
+        cache.found("bucket", "b", null, cache.version());
+        Assert.assertNotNull(cache.get("bucket", "a", 100, 100));
+
+        cache.found("bucket", "c", null, cache.version());
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNotNull(cache.get("bucket", "a", 100, 100));
+        Assert.assertNull(cache.get("bucket", "b", 100, 100));
+        Assert.assertNotNull(cache.get("bucket", "c", 100, 100));
+    }
+
+    @Test
+    public void cachePerClient() {
+        S3Client client1 = mock(S3Client.class);
+        S3Client client2 = mock(S3Client.class);
+
+        Assert.assertSame(HeadObjectCache.forClient(client1), HeadObjectCache.forClient(client1));
+        Assert.assertNotSame(HeadObjectCache.forClient(client1), HeadObjectCache.forClient(client2));
+    }
+}
@@ -0,0 +1,67 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+
+/**
+ * Unit tests for HttpTransport.
+ */
+@RunWith(JUnit4.class)
+public class HttpTransportTest {
+
+    private static HttpTransport transport(String httpClient, long attemptTimeout, long callTimeout) {
+        return new HttpTransport(httpClient, 100, 60000, 15000, true, true, attemptTimeout, callTimeout);
+    }
+
+    @Test
+    public void apacheByDefault() {
+        HttpTransport transport = transport(S3LogFileStoragePlugin.HTTP_CLIENT_APACHE, 0, 0);
+
+        Assert.assertTrue(transport.httpClientBuilder() instanceof ApacheHttpClient.Builder);
+    }
+
+    @Test
+    public void urlConnection() {
+        HttpTransport transport = transport(S3LogFileStoragePlugin.HTTP_CLIENT_URL_CONNECTION, 0, 0);
+
+        Assert.assertTrue(transport.httpClientBuilder() instanceof UrlConnectionHttpClient.Builder);
+    }
+
+    @Test
+    public void timeoutsApplied() {
+        ClientOverrideConfiguration config = transport(S3LogFileStoragePlugin.HTTP_CLIENT_APACHE, 1000, 5000)
+                .configure(ClientOverrideConfiguration.builder())
+                .build();
+
+        Assert.assertEquals(Duration.ofMillis(1000), config.apiCallAttemptTimeout().orElse(null));
+        Assert.assertEquals(Duration.ofMillis(5000), config.apiCallTimeout().orElse(null));
+    }
+
+    @Test
+    public void zeroTimeoutsNotSet() {
+        ClientOverrideConfiguration config = transport(S3LogFileStoragePlugin.HTTP_CLIENT_APACHE, 0, 0)
+                .configure(ClientOverrideConfiguration.builder())
+                .build();
+
+        Assert.assertFalse(config.apiCallAttemptTimeout().isPresent());
+        Assert.assertFalse(config.apiCallTimeout().isPresent());
+    }
+
+    @Test
+    public void optionsDifferBySettings() {
+        String apache = S3LogFileStoragePlugin.HTTP_CLIENT_APACHE;
+        String urlConnection = S3LogFileStoragePlugin.HTTP_CLIENT_URL_CONNECTION;
+        String options = transport(apache, 1000, 0).options();
+
+        Assert.assertEquals(options, transport(apache, 1000, 0).options());
+        Assert.assertNotEquals(options, transport(urlConnection, 1000, 0).options());
+        Assert.assertNotEquals(options, transport(apache, 2000, 0).options());
+    }
+}
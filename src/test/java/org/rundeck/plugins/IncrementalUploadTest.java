@@ -0,0 +1,282 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for IncrementalUpload.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalUploadTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private S3Client s3;
+    private MultipartUploader uploader;
+    private final Map<Integer, String> received = new ConcurrentHashMap<>();
+    private final AtomicInteger completed = new AtomicInteger();
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        s3 = mock(S3Client.class);
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload1").build());
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                received.put(request.partNumber(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return UploadPartResponse.builder().eTag("etag" + request.partNumber()).build();
+        });
+        when(s3.uploadPartCopy(any(UploadPartCopyRequest.class))).thenAnswer(invocation -> {
+            UploadPartCopyRequest request = invocation.getArgument(0);
+            return UploadPartCopyResponse.builder()
+                                         .copyPartResult(r -> r.eTag("copy" + request.partNumber()))
+                                         .build();
+        });
+        doAnswer(invocation -> CompleteMultipartUploadResponse.builder()
+                                                               .eTag("\"object" + completed.incrementAndGet() + "\"")
+                                                               .build())
+                .when(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        uploader = new MultipartUploader(s3, 4, 1, 1);
+        file = tempFolder.newFile();
+    }
+
+    @After
+    public void tearDown() {
+        IncrementalUpload.remove("bucket", "key");
+    }
+
+    private long store(IncrementalUpload upload, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return store(upload);
+    }
+
+    private long store(IncrementalUpload upload) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return upload.store(
+                    uploader,
+                    Collections.singletonMap("rundeck.execid", "1"),
+                    FileRegion.of(in, file.length()),
+                    4,
+                    1
+            );
+        }
+    }
+
+    private void append(String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void firstStoreUploadsWholeFile() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+
+        Assert.assertEquals(10, store(upload, "0123456789"));
+
+        Assert.assertEquals("0123", received.get(1));
+        Assert.assertEquals("4567", received.get(2));
+        Assert.assertEquals("89", received.get(3));
+        ArgumentCaptor<CreateMultipartUploadRequest> create =
+                ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(s3).createMultipartUpload(create.capture());
+        Assert.assertEquals("1", create.getValue().metadata().get("rundeck.execid"));
+        verify(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(s3, never()).uploadPartCopy(any(UploadPartCopyRequest.class));
+        Assert.assertEquals(10, upload.getStoredLength());
+    }
+
+    @Test
+    public void nextStoreCopiesStoredContent() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+        store(upload, "0123456789");
+        received.clear();
+        append("abcdef");
+
+        Assert.assertEquals(6, store(upload));
+
+        ArgumentCaptor<UploadPartCopyRequest> copy = ArgumentCaptor.forClass(UploadPartCopyRequest.class);
+        verify(s3).uploadPartCopy(copy.capture());
+        Assert.assertEquals(Integer.valueOf(1), copy.getValue().partNumber());
+        Assert.assertEquals("bytes=0-9", copy.getValue().copySourceRange());
+        Assert.assertEquals("\"object1\"", copy.getValue().copySourceIfMatch());
+        Assert.assertEquals("key", copy.getValue().sourceKey());
+        Assert.assertEquals("abcd", received.get(2));
+        Assert.assertEquals("ef", received.get(3));
+        Assert.assertEquals(2, received.size());
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete =
+                ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3, times(2)).completeMultipartUpload(complete.capture());
+        List<CompletedPart> parts = complete.getAllValues().get(1).multipartUpload().parts();
+        Assert.assertEquals(3, parts.size());
+        Assert.assertEquals("copy1", parts.get(0).eTag());
+        Assert.assertEquals(16, upload.getStoredLength());
+    }
+
+    @Test
+    public void storedContentCopiedInPartsOfMaxSize() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key", 4);
+        store(upload, "0123456789");
+        append("a");
+
+        Assert.assertEquals(1, store(upload));
+
+        ArgumentCaptor<UploadPartCopyRequest> copy = ArgumentCaptor.forClass(UploadPartCopyRequest.class);
+        verify(s3, times(3)).uploadPartCopy(copy.capture());
+        Assert.assertEquals("bytes=0-2", copy.getAllValues().get(0).copySourceRange());
+        Assert.assertEquals("bytes=3-5", copy.getAllValues().get(1).copySourceRange());
+        Assert.assertEquals("bytes=6-9", copy.getAllValues().get(2).copySourceRange());
+    }
+
+    @Test
+    public void changedContentUploadedInFull() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+        store(upload, "0123456789");
+
+        Assert.assertEquals(12, store(upload, "x123456789ab"));
+
+        verify(s3, never()).uploadPartCopy(any(UploadPartCopyRequest.class));
+        Assert.assertEquals("x123", received.get(1));
+    }
+
+    @Test
+    public void shorterFileUploadedInFull() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+        store(upload, "0123456789");
+
+        Assert.assertEquals(5, store(upload, "01234"));
+
+        verify(s3, never()).uploadPartCopy(any(UploadPartCopyRequest.class));
+        Assert.assertEquals(5, upload.getStoredLength());
+    }
+
+    @Test
+    public void objectChangedSinceStoreUploadedInFull() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+        store(upload, "0123456789");
+        doThrow(S3Exception.builder().statusCode(412).message("PreconditionFailed").build())
+                .when(s3).uploadPartCopy(any(UploadPartCopyRequest.class));
+        received.clear();
+        append("ab");
+
+        Assert.assertEquals(12, store(upload));
+
+        verify(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        Assert.assertEquals("0123", received.get(1));
+        Assert.assertEquals("89ab", received.get(3));
+        verify(s3, times(2)).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void failureAbortsAndForgetsStoredContent() throws IOException {
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+        store(upload, "0123456789");
+        doThrow(S3Exception.builder().statusCode(500).message("complete").build())
+                .when(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        append("ab");
+
+        try {
+            store(upload);
+            Assert.fail("should throw");
+        } catch (S3Exception e) {
+            Assert.assertEquals("complete", e.getMessage());
+        }
+        verify(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        Assert.assertEquals(0, upload.getStoredLength());
+    }
+
+    @Test
+    public void forObjectKeptUntilRemoved() {
+        IncrementalUpload upload = IncrementalUpload.forObject("bucket", "key", 1);
+
+        Assert.assertSame(upload, IncrementalUpload.forObject("bucket", "key", 1));
+        Assert.assertSame(upload, IncrementalUpload.remove("bucket", "key"));
+        Assert.assertNull(IncrementalUpload.remove("bucket", "key"));
+    }
+
+    @Test
+    public void objectNotStoredAgainForgotten() throws IOException {
+        IncrementalUpload upload = IncrementalUpload.forObject("bucket", "key", 1);
+        store(upload, "0123456789");
+        long expiry = IncrementalUpload.EXPIRE_AFTER_MILLIS;
+
+        IncrementalUpload.forObject("bucket", "other", 1 + expiry);
+        Assert.assertSame(upload, IncrementalUpload.remove("bucket", "key"));
+        IncrementalUpload.forObject("bucket", "other", 2 + expiry);
+        Assert.assertNull(IncrementalUpload.remove("bucket", "key"));
+        IncrementalUpload.remove("bucket", "other");
+    }
+
+    @Test
+    public void nextStoreCopiesThroughAsyncClient() throws IOException {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        when(async.createMultipartUpload(any(CreateMultipartUploadRequest.class))).thenReturn(
+                CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload1").build()));
+        when(async.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class))).thenReturn(
+                CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(async.uploadPartCopy(any(UploadPartCopyRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                UploadPartCopyResponse.builder().copyPartResult(r -> r.eTag("copy")).build()));
+        CompleteMultipartUploadResponse response = CompleteMultipartUploadResponse.builder().eTag("\"obj\"").build();
+        when(async.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(response));
+        IncrementalUpload upload = new IncrementalUpload("bucket", "key");
+        try (AsyncBackedS3Client client = new AsyncBackedS3Client(async, 1)) {
+            uploader = new MultipartUploader(client, 4, 1, 1);
+            store(upload, "0123456789");
+            append("ab");
+
+            Assert.assertEquals(2, store(upload));
+        }
+
+        verify(async).uploadPartCopy(any(UploadPartCopyRequest.class));
+        Assert.assertEquals(12, upload.getStoredLength());
+    }
+}
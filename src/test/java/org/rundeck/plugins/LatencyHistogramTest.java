@@ -0,0 +1,62 @@
+package org.rundeck.plugins;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for LatencyHistogram.
+ */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketBoundsContainValue() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 12345, 999999, 123456789L};
+        for (long value : values) {
+            int index = LatencyHistogram.index(value);
+            long upper = LatencyHistogram.upperBound(index);
+            Assert.assertTrue(value + " <= " + upper, value <= upper);
+            if (index > 0) {
+                Assert.assertTrue(value + " > " + LatencyHistogram.upperBound(index - 1),
+                                  value > LatencyHistogram.upperBound(index - 1));
+            }
+            Assert.assertTrue(upper - value <= Math.max(1, value / 8));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(50500, histogram.getMean(), 0.001);
+        Assert.assertEquals(100000, histogram.getMax());
+        assertWithin(50000, histogram.getPercentile(50));
+        assertWithin(95000, histogram.getPercentile(95));
+        assertWithin(99000, histogram.getPercentile(99));
+        Assert.assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(99));
+        Assert.assertEquals(0, histogram.getMean(), 0);
+
+        histogram.record(500);
+        histogram.reset();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(expected + " ~ " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,122 @@
+package org.rundeck.plugins;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Unit tests for LogBundle.
+ */
+@RunWith(JUnit4.class)
+public class LogBundleTest {
+
+    private static byte[] read(InputStream stream) throws IOException {
+        try (InputStream in = stream) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Map<String, LogBundle.Entry> index(byte[] bundle) throws IOException {
+        long offset = LogBundle.indexOffset(bundle, bundle.length);
+        return LogBundle.readIndex(Arrays.copyOfRange(
+                bundle,
+                (int) offset,
+                bundle.length - LogBundle.TRAILER_LENGTH
+        ));
+    }
+
+    private static String content(byte[] bundle, LogBundle.Entry entry) throws IOException {
+        byte[] stored = Arrays.copyOfRange(
+                bundle,
+                (int) entry.getOffset(),
+                (int) (entry.getOffset() + entry.getLength())
+        );
+        return new String(
+                read(entry.getCompression().decompress(new ByteArrayInputStream(stored))),
+                StandardCharsets.UTF_8
+        );
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        LogBundle.Builder builder = new LogBundle.Builder(LogCompression.NONE)
+                .add("rdlog", "log content".getBytes(StandardCharsets.UTF_8))
+                .add("state.json", "{}".getBytes(StandardCharsets.UTF_8))
+                .add("empty", new byte[0]);
+
+        byte[] bundle = read(builder.newStream());
+
+        Assert.assertEquals(builder.length(), bundle.length);
+        Assert.assertEquals(Arrays.asList("rdlog", "state.json", "empty"), builder.getFiletypes());
+        Map<String, LogBundle.Entry> entries = index(bundle);
+        Assert.assertEquals(3, entries.size());
+        Assert.assertEquals(0, entries.get("rdlog").getOffset());
+        Assert.assertEquals(11, entries.get("rdlog").getLength());
+        Assert.assertEquals(11, entries.get("state.json").getOffset());
+        Assert.assertEquals("log content", content(bundle, entries.get("rdlog")));
+        Assert.assertEquals("{}", content(bundle, entries.get("state.json")));
+        Assert.assertEquals("", content(bundle, entries.get("empty")));
+        // readable again, as for a retry
+        Assert.assertArrayEquals(bundle, read(builder.newStream()));
+    }
+
+    @Test
+    public void compressedEntries() throws IOException {
+        byte[] log = new byte[10000];
+        Arrays.fill(log, (byte) 'a');
+        LogBundle.Builder builder = new LogBundle.Builder(LogCompression.GZIP)
+                .add("rdlog", log)
+                .add("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+        byte[] bundle = read(builder.newStream());
+
+        Map<String, LogBundle.Entry> entries = index(bundle);
+        Assert.assertSame(LogCompression.GZIP, entries.get("rdlog").getCompression());
+        Assert.assertTrue(entries.get("rdlog").getLength() < log.length);
+        Assert.assertEquals(new String(log, StandardCharsets.UTF_8), content(bundle, entries.get("rdlog")));
+        Assert.assertEquals("{}", content(bundle, entries.get("state.json")));
+    }
+
+    @Test
+    public void indexOffsetFromTail() throws IOException {
+        byte[] bundle = read(new LogBundle.Builder(LogCompression.NONE)
+                                     .add("rdlog", new byte[100])
+                                     .newStream());
+
+        byte[] tail = Arrays.copyOfRange(bundle, 50, bundle.length);
+
+        Assert.assertEquals(100, LogBundle.indexOffset(tail, bundle.length));
+    }
+
+    @Test
+    public void notABundle() {
+        byte[] bytes = "not a bundle at all".getBytes(StandardCharsets.UTF_8);
+        try {
+            LogBundle.indexOffset(bytes, bytes.length);
+            Assert.fail("should throw");
+        } catch (IOException e) {
+            Assert.assertEquals("Not a log bundle", e.getMessage());
+        }
+    }
+
+    @Test
+    public void indexLengthInvalid() throws IOException {
+        byte[] bundle = read(new LogBundle.Builder(LogCompression.NONE).add("rdlog", new byte[1]).newStream());
+        byte[] tail = Arrays.copyOfRange(bundle, 1, bundle.length);
+        try {
+            // as if the bundle were shorter than its index
+            LogBundle.indexOffset(tail, tail.length - 1);
+            Assert.fail("should throw");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Log bundle index length is not valid"));
+        }
+    }
+}
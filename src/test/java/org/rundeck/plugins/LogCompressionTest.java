@@ -0,0 +1,93 @@
+package org.rundeck.plugins;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for LogCompression.
+ */
+@RunWith(JUnit4.class)
+public class LogCompressionTest {
+
+    private static byte[] logContent(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("^^^1234567890|stepctx=1|node=localhost|level=NORMAL^^^line ").append(i).append("\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[7];
+        int count;
+        while ((count = stream.read(buf)) >= 0) {
+            out.write(buf, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void gzipRoundTrip() throws IOException {
+        byte[] content = logContent(20000);
+
+        byte[] compressed = readAll(LogCompression.GZIP.compress(new ByteArrayInputStream(content)));
+
+        Assert.assertTrue(compressed.length * 5 < content.length);
+        Assert.assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        Assert.assertArrayEquals(
+                content,
+                readAll(LogCompression.GZIP.decompress(new ByteArrayInputStream(compressed)))
+        );
+    }
+
+    @Test
+    public void gzipEmptyContent() throws IOException {
+        byte[] compressed = readAll(LogCompression.GZIP.compress(new ByteArrayInputStream(new byte[0])));
+
+        Assert.assertTrue(compressed.length > 0);
+        Assert.assertEquals(0, readAll(LogCompression.GZIP.decompress(new ByteArrayInputStream(compressed))).length);
+    }
+
+    @Test
+    public void noneIsUnchanged() throws IOException {
+        byte[] content = logContent(10);
+
+        Assert.assertArrayEquals(content, readAll(LogCompression.NONE.compress(new ByteArrayInputStream(content))));
+        Assert.assertArrayEquals(content, readAll(LogCompression.NONE.decompress(new ByteArrayInputStream(content))));
+    }
+
+    @Test
+    public void forName() {
+        Assert.assertEquals(LogCompression.NONE, LogCompression.forName(null));
+        Assert.assertEquals(LogCompression.NONE, LogCompression.forName(" "));
+        Assert.assertEquals(LogCompression.NONE, LogCompression.forName("none"));
+        Assert.assertEquals(LogCompression.GZIP, LogCompression.forName("GZIP"));
+        try {
+            LogCompression.forName("lzma");
+            Assert.fail("should throw");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("lzma"));
+        }
+    }
+
+    @Test
+    public void fromMetadataDefaultsToNone() {
+        Map<String, String> metadata = new HashMap<>();
+        Assert.assertEquals(LogCompression.NONE, LogCompression.fromMetadata(null, "rundeck.compression"));
+        Assert.assertEquals(LogCompression.NONE, LogCompression.fromMetadata(metadata, "rundeck.compression"));
+        metadata.put("rundeck.compression", "gzip");
+        Assert.assertEquals(LogCompression.GZIP, LogCompression.fromMetadata(metadata, "rundeck.compression"));
+    }
+}
@@ -0,0 +1,169 @@
+package org.rundeck.plugins;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for LogFileCache.
+ */
+@RunWith(JUnit4.class)
+public class LogFileCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    private static void put(LogFileCache cache, String key, String content) throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (LogFileCache.Writer writer = cache.writer(null, "bucket", key, target)) {
+            writer.write(content.getBytes(StandardCharsets.UTF_8));
+            writer.commit("etag-" + key, Collections.singletonMap("rundeck.execid", "1"));
+        }
+        Assert.assertEquals(content, target.toString("UTF-8"));
+    }
+
+    private static String read(LogFileCache cache, LogFileCache.Entry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = cache.open(entry)) {
+            byte[] buffer = new byte[16];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void committedEntryIsCached() throws IOException {
+        LogFileCache cache = new LogFileCache(folder.newFolder(), 100, now::get);
+        put(cache, "a", "hello");
+
+        LogFileCache.Entry entry = cache.get(null, "bucket", "a");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("etag-a", entry.getETag());
+        Assert.assertEquals("1", entry.getMetadata().get("rundeck.execid"));
+        Assert.assertEquals(5, entry.getLength());
+        Assert.assertEquals("hello", read(cache, entry));
+        Assert.assertNull(cache.get(null, "other", "a"));
+    }
+
+    @Test
+    public void entriesSeparatedByEndpoint() throws IOException {
+        File dir = folder.newFolder();
+        LogFileCache cache = new LogFileCache(dir, 100, now::get);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (LogFileCache.Writer writer = cache.writer("https://minio:9000", "bucket", "a", target)) {
+            writer.write("other".getBytes(StandardCharsets.UTF_8));
+            writer.commit("etag-other", Collections.emptyMap());
+        }
+        put(cache, "a", "hello");
+
+        Assert.assertEquals("etag-other", cache.get("https://minio:9000", "bucket", "a").getETag());
+        Assert.assertEquals("etag-a", cache.get(null, "bucket", "a").getETag());
+        Assert.assertNull(cache.get("https://other:9000", "bucket", "a"));
+
+        LogFileCache reloaded = new LogFileCache(dir, 100, now::get);
+        Assert.assertEquals("other", read(reloaded, reloaded.get("https://minio:9000", "bucket", "a")));
+    }
+
+    @Test
+    public void uncommittedEntryIsDiscarded() throws IOException {
+        File dir = folder.newFolder();
+        LogFileCache cache = new LogFileCache(dir, 100, now::get);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        try (LogFileCache.Writer writer = cache.writer(null, "bucket", "a", target)) {
+            writer.write("partial".getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals("partial", target.toString("UTF-8"));
+        Assert.assertNull(cache.get(null, "bucket", "a"));
+        Assert.assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void entryLargerThanCacheIsNotCached() throws IOException {
+        LogFileCache cache = new LogFileCache(folder.newFolder(), 4, now::get);
+        put(cache, "a", "too large");
+        Assert.assertNull(cache.get(null, "bucket", "a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws IOException {
+        LogFileCache cache = new LogFileCache(folder.newFolder(), 10, now::get);
+        put(cache, "a", "aaaa");
+        put(cache, "b", "bbbb");
+        Assert.assertNotNull(cache.get(null, "bucket", "a"));
+        put(cache, "c", "cccc");
+
+        Assert.assertNotNull(cache.get(null, "bucket", "a"));
+        Assert.assertNull(cache.get(null, "bucket", "b"));
+        Assert.assertNotNull(cache.get(null, "bucket", "c"));
+        Assert.assertEquals(8, cache.size());
+    }
+
+    @Test
+    public void removeDeletesEntry() throws IOException {
+        File dir = folder.newFolder();
+        LogFileCache cache = new LogFileCache(dir, 100, now::get);
+        put(cache, "a", "hello");
+        cache.remove(null, "bucket", "a");
+        Assert.assertNull(cache.get(null, "bucket", "a"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void entriesReloadedAfterRestart() throws IOException {
+        File dir = folder.newFolder();
+        LogFileCache cache = new LogFileCache(dir, 100, now::get);
+        put(cache, "a", "hello");
+        put(cache, "b", "world");
+        // leftovers of an interrupted write
+        new FileOutputStream(new File(dir, "abc.tmp")).close();
+        new FileOutputStream(new File(dir, "orphan.data")).close();
+        File bData = new File(dir, LogFileCache.id(null, "bucket", "b") + ".data");
+        try (FileOutputStream out = new FileOutputStream(bData)) {
+            out.write("truncated-and-wrong".getBytes(StandardCharsets.UTF_8));
+        }
+
+        LogFileCache reloaded = new LogFileCache(dir, 100, now::get);
+        LogFileCache.Entry entry = reloaded.get(null, "bucket", "a");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals("etag-a", entry.getETag());
+        Assert.assertEquals("hello", read(reloaded, entry));
+        Assert.assertNull(reloaded.get(null, "bucket", "b"));
+        Assert.assertEquals(1, reloaded.count());
+        Assert.assertFalse(new File(dir, "abc.tmp").exists());
+        Assert.assertFalse(new File(dir, "orphan.data").exists());
+    }
+
+    @Test
+    public void revalidatedEntryIsFresh() throws IOException {
+        LogFileCache cache = new LogFileCache(folder.newFolder(), 100, now::get);
+        put(cache, "a", "hello");
+        LogFileCache.Entry entry = cache.get(null, "bucket", "a");
+        Assert.assertTrue(cache.isFresh(entry, 1000));
+
+        now.addAndGet(1000);
+        Assert.assertFalse(cache.isFresh(entry, 1000));
+
+        LogFileCache.Entry updated = cache.revalidated(entry);
+        Assert.assertTrue(cache.isFresh(updated, 1000));
+        Assert.assertTrue(cache.isFresh(cache.get(null, "bucket", "a"), 1000));
+    }
+}
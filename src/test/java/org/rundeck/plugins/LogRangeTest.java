@@ -0,0 +1,139 @@
+package org.rundeck.plugins;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for LogRange.
+ */
+@RunWith(JUnit4.class)
+public class LogRangeTest {
+
+    private static InputStream content() {
+        return new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void header() {
+        Assert.assertEquals("bytes=10-19", LogRange.header(10, 10));
+        Assert.assertEquals("bytes=10-", LogRange.header(10, -1));
+        Assert.assertEquals("bytes=-5", LogRange.header(-1, 5));
+    }
+
+    @Test
+    public void sliceWindow() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(content(), out, 2, 3);
+
+        Assert.assertEquals("234", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(2, range.getStart());
+        Assert.assertEquals(3, range.getLength());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void sliceFromOffset() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(content(), out, 7, -1);
+
+        Assert.assertEquals("789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(3, range.getLength());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void slicePastEnd() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(content(), out, 20, 5);
+
+        Assert.assertEquals(0, out.size());
+        Assert.assertEquals(10, range.getStart());
+        Assert.assertEquals(0, range.getLength());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void tail() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(content(), out, -1, 4);
+
+        Assert.assertEquals("6789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(6, range.getStart());
+        Assert.assertEquals(4, range.getLength());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void tailLongerThanContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(content(), out, -1, 50);
+
+        Assert.assertEquals("0123456789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(0, range.getStart());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void tailWrapsAcrossReads() throws IOException {
+        byte[] data = new byte[20_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(new ByteArrayInputStream(data), out, -1, 3000);
+
+        byte[] expected = new byte[3000];
+        System.arraycopy(data, 17_000, expected, 0, 3000);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+        Assert.assertEquals(17_000, range.getStart());
+    }
+
+    @Test
+    public void tailOfAnyLengthDoesNotAllocateIt() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(content(), out, -1, Long.MAX_VALUE);
+
+        Assert.assertEquals("0123456789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void tailWrapsAfterBufferGrows() throws IOException {
+        byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = LogRange.slice(new ByteArrayInputStream(data), out, -1, 50_000);
+
+        byte[] expected = new byte[50_000];
+        System.arraycopy(data, 50_000, expected, 0, 50_000);
+        Assert.assertArrayEquals(expected, out.toByteArray());
+        Assert.assertEquals(50_000, range.getStart());
+        Assert.assertEquals(100_000, range.getTotalLength());
+    }
+
+    @Test
+    public void copyStopsAtLength() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertEquals(4, LogRange.copy(content(), out, 4));
+        Assert.assertEquals("0123", out.toString(StandardCharsets.UTF_8));
+    }
+}
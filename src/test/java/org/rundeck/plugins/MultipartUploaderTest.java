@@ -0,0 +1,193 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for MultipartUploader.
+ */
+@RunWith(JUnit4.class)
+public class MultipartUploaderTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private S3Client s3;
+
+    @Before
+    public void setUp() {
+        s3 = mock(S3Client.class);
+        when(s3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload1").build());
+    }
+
+    @Test
+    public void uploadSplitsIntoParts() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        byte[] content = "0123456789abcd".getBytes(StandardCharsets.UTF_8);
+
+        new MultipartUploader(s3, 4, 2, 1)
+                .upload("bucket", "key", new HashMap<>(), new ByteArrayInputStream(content), content.length);
+
+        ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(s3, times(4)).uploadPart(parts.capture(), any(RequestBody.class));
+        long total = 0;
+        for (UploadPartRequest part : parts.getAllValues()) {
+            Assert.assertEquals("upload1", part.uploadId());
+            total += part.contentLength();
+        }
+        Assert.assertEquals(content.length, total);
+
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete =
+                ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3).completeMultipartUpload(complete.capture());
+        List<CompletedPart> completed = complete.getValue().multipartUpload().parts();
+        Assert.assertEquals(4, completed.size());
+        for (int i = 0; i < completed.size(); i++) {
+            Assert.assertEquals(Integer.valueOf(i + 1), completed.get(i).partNumber());
+        }
+        verify(s3, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void uploadUnknownLengthReadsUntilStreamEnds() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        byte[] content = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+        new MultipartUploader(s3, 4, 2, 1)
+                .upload("bucket", "key", new HashMap<>(), new ByteArrayInputStream(content), -1);
+
+        ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(s3, times(3)).uploadPart(parts.capture(), any(RequestBody.class));
+        long total = 0;
+        for (UploadPartRequest part : parts.getAllValues()) {
+            total += part.contentLength();
+        }
+        Assert.assertEquals(content.length, total);
+        verify(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void uploadFileReadsPartsFromFile() throws IOException {
+        Map<Integer, String> received = new ConcurrentHashMap<>();
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            UploadPartRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            // read twice, as a retry would
+            body.contentStreamProvider().newStream().readAllBytes();
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                received.put(request.partNumber(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return UploadPartResponse.builder().eTag("etag").build();
+        });
+        File file = tempFolder.newFile();
+        Files.write(file.toPath(), "header0123456789ab".getBytes(StandardCharsets.UTF_8));
+
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertEquals(6, stream.skip(6));
+            new MultipartUploader(s3, 4, 2, 1)
+                    .upload("bucket", "key", new HashMap<>(), FileRegion.of(stream, 12));
+        }
+
+        Assert.assertEquals(3, received.size());
+        Assert.assertEquals("0123", received.get(1));
+        Assert.assertEquals("4567", received.get(2));
+        Assert.assertEquals("89ab", received.get(3));
+        verify(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void uploadRetriesFailedPart() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().statusCode(503).message("SlowDown").build())
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        byte[] content = "0123".getBytes(StandardCharsets.UTF_8);
+
+        new MultipartUploader(s3, 4, 1, 2)
+                .upload("bucket", "key", new HashMap<>(), new ByteArrayInputStream(content), content.length);
+
+        verify(s3, times(2)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void uploadAbortsWhenPartFails() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().statusCode(403).message("denied").build());
+        byte[] content = "0123".getBytes(StandardCharsets.UTF_8);
+
+        try {
+            new MultipartUploader(s3, 4, 1, 3)
+                    .upload("bucket", "key", new HashMap<>(), new ByteArrayInputStream(content), content.length);
+            Assert.fail("should throw");
+        } catch (S3Exception e) {
+            Assert.assertTrue(e.getMessage().contains("denied"));
+        }
+        verify(s3, times(1)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+        verify(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        verify(s3, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void uploadAbortsWhenStreamIsShort() {
+        when(s3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        byte[] content = "0123".getBytes(StandardCharsets.UTF_8);
+
+        try {
+            new MultipartUploader(s3, 4, 1, 1)
+                    .upload("bucket", "key", new HashMap<>(), new ByteArrayInputStream(content), 10);
+            Assert.fail("should throw");
+        } catch (SdkClientException e) {
+            Assert.assertTrue(e.getMessage().contains("Stream ended"));
+        }
+        verify(s3).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void effectivePartSizeStaysWithinPartLimit() {
+        MultipartUploader uploader = new MultipartUploader(s3, MultipartUploader.MIN_PART_SIZE, 1, 1);
+        Assert.assertEquals(MultipartUploader.MIN_PART_SIZE, uploader.effectivePartSize(1024));
+        long huge = MultipartUploader.MIN_PART_SIZE * MultipartUploader.MAX_PARTS * 2;
+        Assert.assertEquals(MultipartUploader.MIN_PART_SIZE * 2, uploader.effectivePartSize(huge));
+        Assert.assertEquals(MultipartUploader.MIN_PART_SIZE, uploader.effectivePartSize(-1));
+    }
+}
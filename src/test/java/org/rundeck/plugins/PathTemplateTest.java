@@ -0,0 +1,98 @@
+package org.rundeck.plugins;
+
+import com.dtolabs.rundeck.core.dispatcher.DataContextUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for PathTemplate.
+ */
+@RunWith(JUnit4.class)
+public class PathTemplateTest {
+
+    /**
+     * Previous implementation of S3LogFileStoragePlugin.expandPath
+     */
+    private static String regexExpand(String pathFormat, Map<String, ?> context) {
+        String result = pathFormat.replaceAll("^/+", "");
+        if (null != context) {
+            Map<String, String> data = new HashMap<>();
+            for (String s : context.keySet()) {
+                Object o = context.get(s);
+                if (o != null) {
+                    data.put(s, o.toString());
+                }
+            }
+            result = DataContextUtils.replaceDataReferences(
+                    result,
+                    DataContextUtils.addContext("job", data, new HashMap<>()),
+                    null,
+                    false,
+                    true
+            );
+        }
+        return result.replaceAll("/+", "/");
+    }
+
+    private static Map<String, Object> context() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("execid", 123);
+        map.put("project", "testproject");
+        map.put("id", "testjobid");
+        map.put("name", "jobname");
+        map.put("group", "/ajob group//another group/");
+        map.put("empty", "");
+        map.put("nullvalue", null);
+        return map;
+    }
+
+    @Test
+    public void sameResultAsRegexExpansion() {
+        String[] formats = {
+                "",
+                "/",
+                "///",
+                "project/${job.project}/${job.execid}",
+                "//project//${job.project}///${job.execid}//",
+                "${job.group}${job.name}/${job.execid}",
+                "${job.group}/${job.empty}/${job.execid}",
+                "logs/${job.nullvalue}/${job.missing}/${job.execid}",
+                "logs/${option.value}/${job.execid}",
+                "logs/${job}/${job.}/${ job.execid}/${job.exec id}/${job.execid",
+                "logs/$${job.execid}}/${job.execid}${job.execid}",
+                "logs/${a${job.execid}}",
+                "logs/${job.a.b}/${job.execid}",
+        };
+        for (String format : formats) {
+            Assert.assertEquals(format, regexExpand(format, context()), PathTemplate.compile(format).expand(context()));
+            Assert.assertEquals(format, regexExpand(format, null), PathTemplate.compile(format).expand(null));
+        }
+    }
+
+    @Test
+    public void unexpandedReferenceIsBlank() {
+        Assert.assertEquals(
+                "logs/123",
+                PathTemplate.compile("logs/${job.missing}/${job.execid}").expand(context())
+        );
+    }
+
+    @Test
+    public void nullContextLeavesReferences() {
+        Assert.assertEquals(
+                "logs/${job.execid}",
+                PathTemplate.compile("//logs//${job.execid}").expand(null)
+        );
+    }
+
+    @Test
+    public void compiledTemplateIsReused() {
+        String format = "reuse/${job.project}/${job.execid}";
+        Assert.assertSame(PathTemplate.compile(format), PathTemplate.compile(format));
+    }
+}
@@ -0,0 +1,196 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for RangedDownloader.
+ */
+@RunWith(JUnit4.class)
+public class RangedDownloaderTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Mock client serving byte ranges of the content, failing the first request for a range starting at failStart
+     */
+    private S3Client rangeClient(byte[] content, long failStart) {
+        S3Client s3 = mock(S3Client.class);
+        AtomicInteger failures = new AtomicInteger();
+        doAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            int start = 0;
+            int end = content.length - 1;
+            if (null != request.range()) {
+                String[] range = request.range().substring("bytes=".length()).split("-");
+                start = Integer.parseInt(range[0]);
+                end = Math.min(end, Integer.parseInt(range[1]));
+            }
+            if (start == failStart && failures.getAndIncrement() == 0) {
+                throw S3Exception.builder().statusCode(503).message("SlowDown").build();
+            }
+            byte[] data = Arrays.copyOfRange(content, start, end + 1);
+            GetObjectResponse response = GetObjectResponse.builder()
+                                                          .eTag("\"etag\"")
+                                                          .contentRange("bytes " + start + "-" + end + "/" +
+                                                                        content.length)
+                                                          .build();
+            ResponseTransformer<GetObjectResponse, ?> transformer = invocation.getArgument(1);
+            return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(data)));
+        }).when(s3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        return s3;
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[3];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void smallObjectUsesSingleRequest() throws IOException {
+        S3Client s3 = rangeClient(CONTENT, -1);
+        byte[] result = readAll(new RangedDownloader(s3, 16, 16, 2, 1).open("bucket", "key"));
+        Assert.assertArrayEquals(CONTENT, result);
+
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3, times(1)).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("bytes=0-15", captor.getValue().range());
+    }
+
+    @Test
+    public void objectBelowThresholdFetchedInTwoRequests() throws IOException {
+        S3Client s3 = rangeClient(CONTENT, -1);
+        byte[] result = readAll(new RangedDownloader(s3, 16, 4, 2, 1).open("bucket", "key"));
+        Assert.assertArrayEquals(CONTENT, result);
+
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3, times(2)).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("bytes=0-3", captor.getAllValues().get(0).range());
+        Assert.assertEquals("bytes=4-9", captor.getAllValues().get(1).range());
+    }
+
+    @Test
+    public void remainderBelowThresholdIsStreamed() throws IOException {
+        S3Client s3 = rangeClient(CONTENT, -1);
+        Assert.assertArrayEquals(CONTENT, readAll(new RangedDownloader(s3, 16, 4, 2, 1).open("bucket", "key")));
+
+        ArgumentCaptor<ResponseTransformer> captor = ArgumentCaptor.forClass(ResponseTransformer.class);
+        verify(s3, times(2)).getObject(any(GetObjectRequest.class), captor.capture());
+        Assert.assertTrue(captor.getAllValues().get(1).needsConnectionLeftOpen());
+    }
+
+    @Test
+    public void partsInMemoryLimitedByConcurrency() throws IOException, InterruptedException {
+        S3Client s3 = rangeClient(CONTENT, -1);
+        try (InputStream in = new RangedDownloader(s3, 4, 2, 1, 1).open("bucket", "key")) {
+            Assert.assertEquals(2, in.read(new byte[2]));
+            Assert.assertEquals(1, in.read(new byte[1]));
+
+            // the part being read is the only one held: the next is requested once it is read
+            Thread.sleep(100);
+            verify(s3, times(2)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+            Assert.assertEquals(1, in.read(new byte[1]));
+            Assert.assertEquals(2, in.read(new byte[2]));
+        }
+        verify(s3, times(3)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    public void largeObjectReassembledInOrder() throws IOException {
+        S3Client s3 = rangeClient(CONTENT, -1);
+        byte[] result = readAll(new RangedDownloader(s3, 4, 2, 2, 1).open("bucket", "key"));
+        Assert.assertArrayEquals(CONTENT, result);
+
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3, times(5)).getObject(captor.capture(), any(ResponseTransformer.class));
+        List<GetObjectRequest> requests = captor.getAllValues();
+        Assert.assertEquals("bytes=0-1", requests.get(0).range());
+        for (GetObjectRequest request : requests.subList(1, requests.size())) {
+            Assert.assertEquals("\"etag\"", request.ifMatch());
+        }
+    }
+
+    @Test
+    public void failedRangeIsRetried() throws IOException {
+        S3Client s3 = rangeClient(CONTENT, 6);
+        byte[] result = readAll(new RangedDownloader(s3, 4, 2, 2, 2).open("bucket", "key"));
+        Assert.assertArrayEquals(CONTENT, result);
+        verify(s3, times(6)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    public void failedRangeWithoutRetriesFails() throws IOException {
+        S3Client s3 = rangeClient(CONTENT, 6);
+        try {
+            readAll(new RangedDownloader(s3, 4, 2, 1, 1).open("bucket", "key"));
+            Assert.fail("should throw");
+        } catch (S3Exception e) {
+            Assert.assertTrue(e.getMessage().contains("SlowDown"));
+        }
+    }
+
+    @Test
+    public void emptyObjectFallsBackToPlainRequest() throws IOException {
+        S3Client s3 = mock(S3Client.class);
+        ResponseInputStream<GetObjectResponse> empty = new ResponseInputStream<>(
+                GetObjectResponse.builder().build(),
+                AbortableInputStream.create(new ByteArrayInputStream(new byte[0]))
+        );
+        doAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            if (null != request.range()) {
+                throw S3Exception.builder().statusCode(416).message("InvalidRange").build();
+            }
+            return empty;
+        }).when(s3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        Assert.assertEquals(0, readAll(new RangedDownloader(s3, 4, 2, 1, 1).open("bucket", "key")).length);
+        verify(s3, times(2)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    public void totalLength() {
+        Assert.assertEquals(1234, RangedDownloader.totalLength("bytes 0-99/1234"));
+        Assert.assertEquals(-1, RangedDownloader.totalLength("bytes 0-99/*"));
+        Assert.assertEquals(-1, RangedDownloader.totalLength(null));
+    }
+
+    @Test
+    public void rangeStart() {
+        Assert.assertEquals(100, RangedDownloader.rangeStart("bytes 100-199/1234"));
+        Assert.assertEquals(-1, RangedDownloader.rangeStart("bytes */1234"));
+        Assert.assertEquals(-1, RangedDownloader.rangeStart(null));
+    }
+}
@@ -0,0 +1,252 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for RequestHedger.
+ */
+@RunWith(JUnit4.class)
+public class RequestHedgerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void warmUp(RequestHedger hedger) {
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            hedger.call(() -> "warm", r -> {});
+        }
+    }
+
+    @Test
+    public void notHedgedUntilEnoughSamples() {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 1.0);
+        Thread caller = Thread.currentThread();
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES - 1; i++) {
+            Assert.assertEquals(caller, hedger.call(Thread::currentThread, r -> {}));
+            Assert.assertEquals(-1, hedger.getDelayMicros());
+        }
+        hedger.call(() -> "last", r -> {});
+
+        Assert.assertTrue(hedger.getDelayMicros() >= RequestHedger.MIN_DELAY_MICROS);
+        Assert.assertEquals(0, hedger.getHedged());
+    }
+
+    @Test
+    public void delayFollowsPercentile() {
+        long[] clock = new long[1];
+        RequestHedger hedger = new RequestHedger(executor, () -> clock[0], 90, 1.0);
+        for (int i = 1; i <= RequestHedger.MIN_SAMPLES; i++) {
+            long millis = i;
+            hedger.call(() -> clock[0] += TimeUnit.MILLISECONDS.toNanos(millis), r -> {});
+        }
+
+        Assert.assertEquals(18_000, hedger.getDelayMicros());
+    }
+
+    @Test
+    public void slowRequestHedged() throws InterruptedException {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 1.0);
+        warmUp(hedger);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        List<String> discarded = new CopyOnWriteArrayList<>();
+
+        String result = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                // ignores the interrupt, so its response arrives after the hedge won
+                while (true) {
+                    try {
+                        release.await();
+                        return "slow";
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+            return "hedge";
+        }, discarded::add);
+
+        Assert.assertEquals("hedge", result);
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertEquals(1, hedger.getHedged());
+        Assert.assertEquals(1, hedger.getHedgeWins());
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (discarded.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("slow", discarded.get(0));
+    }
+
+    @Test
+    public void callerRunsRequestWhenNoThreadFree() throws InterruptedException {
+        ExecutorService bounded = TransferExecutors.newBoundedCachedThreadPool("test-hedge", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            RequestHedger hedger = new RequestHedger(bounded, System::nanoTime, 95, 1.0);
+            warmUp(hedger);
+            bounded.submit(() -> {
+                release.await();
+                return null;
+            });
+            Thread caller = Thread.currentThread();
+
+            Assert.assertEquals(caller, hedger.call(Thread::currentThread, r -> {}));
+            Assert.assertEquals(0, hedger.getHedged());
+        } finally {
+            release.countDown();
+            bounded.shutdownNow();
+        }
+    }
+
+    @Test
+    public void notHedgedWhenNoThreadFree() throws InterruptedException {
+        ExecutorService bounded = TransferExecutors.newBoundedCachedThreadPool("test-hedge", 1);
+        try {
+            RequestHedger hedger = new RequestHedger(bounded, System::nanoTime, 95, 1.0);
+            warmUp(hedger);
+            AtomicInteger attempts = new AtomicInteger();
+
+            String result = hedger.call(() -> {
+                attempts.incrementAndGet();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "primary";
+            }, r -> {});
+
+            Assert.assertEquals("primary", result);
+            Assert.assertEquals(1, attempts.get());
+            Assert.assertEquals(0, hedger.getHedged());
+        } finally {
+            bounded.shutdownNow();
+        }
+    }
+
+    @Test
+    public void losingRequestInterrupted() throws InterruptedException {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 1.0);
+        warmUp(hedger);
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        String result = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return "slow";
+            }
+            return "hedge";
+        }, r -> {});
+
+        Assert.assertEquals("hedge", result);
+        Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void budgetLimitsHedging() {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 0.0);
+        warmUp(hedger);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = hedger.call(() -> {
+            attempts.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "slow";
+        }, r -> {});
+
+        Assert.assertEquals("slow", result);
+        Assert.assertEquals(1, attempts.get());
+        Assert.assertEquals(0, hedger.getHedged());
+    }
+
+    @Test
+    public void budgetSpentByHedges() {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 0.25);
+        warmUp(hedger);
+        AtomicInteger attempts = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            hedger.call(() -> {
+                attempts.incrementAndGet();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "slow";
+            }, r -> {});
+        }
+
+        // five tokens from the warm up calls, then a quarter for each call
+        Assert.assertEquals(7, hedger.getHedged());
+        Assert.assertEquals(10 + hedger.getHedged(), attempts.get());
+    }
+
+    @Test
+    public void failureReturnedWhenBothFail() {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 1.0);
+        warmUp(hedger);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            hedger.call(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw S3Exception.builder().statusCode(500).message("slow").build();
+                }
+                throw S3Exception.builder().statusCode(500).message("fast").build();
+            }, r -> {});
+            Assert.fail("should throw");
+        } catch (S3Exception e) {
+            Assert.assertEquals(2, attempts.get());
+            Assert.assertEquals("fast", e.getMessage());
+        }
+    }
+
+    @Test
+    public void fastFailureNotHedged() {
+        RequestHedger hedger = new RequestHedger(executor, System::nanoTime, 95, 1.0);
+        warmUp(hedger);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            hedger.call(() -> {
+                attempts.incrementAndGet();
+                throw S3Exception.builder().statusCode(404).message("missing").build();
+            }, r -> {});
+            Assert.fail("should throw");
+        } catch (S3Exception e) {
+            Assert.assertEquals("missing", e.getMessage());
+        }
+        Assert.assertEquals(0, hedger.getHedged());
+    }
+}
@@ -0,0 +1,184 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for RequestLimiter.
+ */
+@RunWith(JUnit4.class)
+public class RequestLimiterTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static S3Exception status(int statusCode) {
+        return S3Exception.builder().statusCode(statusCode).message("status " + statusCode).build();
+    }
+
+    private Future<RequestLimiter.Permit> acquireLater(RequestLimiter limiter, RequestLimiter.Kind kind)
+            throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<RequestLimiter.Permit> permit = executor.submit(() -> {
+            started.countDown();
+            return limiter.acquire(kind);
+        });
+        started.await();
+        return permit;
+    }
+
+    /**
+     * @return true if the permit is not granted within a short wait
+     */
+    private static boolean blocked(Future<RequestLimiter.Permit> permit) throws InterruptedException {
+        Thread.sleep(100);
+        return !permit.isDone();
+    }
+
+    @Test
+    public void limitsInFlight() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 2);
+        RequestLimiter.Permit first = limiter.acquire(RequestLimiter.Kind.READ);
+        limiter.acquire(RequestLimiter.Kind.READ);
+
+        Future<RequestLimiter.Permit> third = acquireLater(limiter, RequestLimiter.Kind.READ);
+        Assert.assertTrue(blocked(third));
+
+        first.close();
+        Assert.assertNotNull(third.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, limiter.getInFlight(RequestLimiter.Kind.READ));
+    }
+
+    @Test
+    public void backgroundShareLeavesPermitsForReads() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 4);
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire(RequestLimiter.Kind.WRITE);
+        }
+
+        Future<RequestLimiter.Permit> write = acquireLater(limiter, RequestLimiter.Kind.WRITE);
+        Assert.assertTrue(blocked(write));
+
+        Assert.assertNotNull(acquireLater(limiter, RequestLimiter.Kind.READ).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, limiter.getInFlight(RequestLimiter.Kind.WRITE));
+        Assert.assertEquals(1, limiter.getInFlight(RequestLimiter.Kind.READ));
+    }
+
+    @Test
+    public void readsBeforeWrites() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 1);
+        RequestLimiter.Permit held = limiter.acquire(RequestLimiter.Kind.WRITE);
+        Future<RequestLimiter.Permit> write = acquireLater(limiter, RequestLimiter.Kind.WRITE);
+        Assert.assertTrue(blocked(write));
+        Future<RequestLimiter.Permit> read = acquireLater(limiter, RequestLimiter.Kind.READ);
+        Assert.assertTrue(blocked(read));
+
+        held.close();
+
+        read.get(5, TimeUnit.SECONDS).close();
+        Assert.assertNotNull(write.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void throttlingHalvesLimitOnce() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 8);
+        List<RequestLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            permits.add(limiter.acquire(RequestLimiter.Kind.READ));
+        }
+
+        for (RequestLimiter.Permit permit : permits) {
+            permit.failed(status(503));
+            permit.close();
+        }
+
+        Assert.assertEquals(4, limiter.getLimit());
+        RequestLimiter.Permit later = limiter.acquire(RequestLimiter.Kind.READ);
+        later.failed(status(503));
+        later.close();
+        Assert.assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void limitRecoversAdditively() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 8);
+        RequestLimiter.Permit throttled = limiter.acquire(RequestLimiter.Kind.WRITE);
+        throttled.failed(status(503));
+        throttled.close();
+        Assert.assertEquals(4, limiter.getLimit());
+
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire(RequestLimiter.Kind.WRITE).close();
+        }
+        Assert.assertEquals(4, limiter.getLimit());
+        limiter.acquire(RequestLimiter.Kind.WRITE).close();
+        Assert.assertEquals(5, limiter.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(RequestLimiter.Kind.WRITE).close();
+        }
+        Assert.assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    public void otherErrorsDoNotLowerLimit() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 8);
+        RequestLimiter.Permit permit = limiter.acquire(RequestLimiter.Kind.DELETE);
+        permit.failed(status(500));
+        permit.close();
+        permit = limiter.acquire(RequestLimiter.Kind.DELETE);
+        permit.failed(new RuntimeException("not S3"));
+        permit.close();
+
+        Assert.assertEquals(8, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight(RequestLimiter.Kind.DELETE));
+    }
+
+    @Test
+    public void closeTwiceReleasesOnce() throws Exception {
+        RequestLimiter limiter = new RequestLimiter("bucket", 2);
+        limiter.acquire(RequestLimiter.Kind.READ);
+        RequestLimiter.Permit permit = limiter.acquire(RequestLimiter.Kind.READ);
+
+        permit.close();
+        permit.close();
+
+        Assert.assertEquals(1, limiter.getInFlight(RequestLimiter.Kind.READ));
+    }
+
+    @Test
+    public void forTargetShared() {
+        RequestLimiter limiter = RequestLimiter.forTarget("http://minio:9000", "shared", 10);
+
+        Assert.assertSame(limiter, RequestLimiter.forTarget("http://minio:9000", "shared", 10));
+        Assert.assertNotSame(limiter, RequestLimiter.forTarget("http://minio:9000", "other", 10));
+        Assert.assertNotSame(limiter, RequestLimiter.forTarget(null, "shared", 10));
+    }
+
+    @Test
+    public void forTargetSmallestMaxApplies() {
+        RequestLimiter limiter = RequestLimiter.forTarget(null, "smallest", 10);
+
+        Assert.assertSame(limiter, RequestLimiter.forTarget(null, "smallest", 4));
+        Assert.assertEquals(4, limiter.getLimit());
+        Assert.assertSame(limiter, RequestLimiter.forTarget(null, "smallest", 8));
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+}
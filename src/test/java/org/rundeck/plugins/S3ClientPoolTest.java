@@ -0,0 +1,187 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.services.s3.S3Client;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for S3ClientPool.
+ */
+@RunWith(JUnit4.class)
+public class S3ClientPoolTest {
+
+    private final AtomicLong now = new AtomicLong(1000);
+    private final S3ClientPool pool = new S3ClientPool(now::get);
+
+    private S3ClientPool.ClientKey key(String endpoint) {
+        return new S3ClientPool.ClientKey("static:abc", "us-east-1", endpoint, false, "async=none");
+    }
+
+    @Test
+    public void sameKeySharesClient() {
+        AtomicInteger created = new AtomicInteger();
+        S3ClientPool.Lease lease1 = pool.acquire(key("a"), 0, () -> {
+            created.incrementAndGet();
+            return mock(S3Client.class);
+        });
+        S3ClientPool.Lease lease2 = pool.acquire(key("a"), 0, () -> {
+            created.incrementAndGet();
+            return mock(S3Client.class);
+        });
+        Assert.assertEquals(1, created.get());
+        Assert.assertSame(lease1.client(), lease2.client());
+        Assert.assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void differentKeysUseDifferentClients() {
+        S3ClientPool.Lease lease1 = pool.acquire(key("a"), 0, () -> mock(S3Client.class));
+        S3ClientPool.Lease lease2 = pool.acquire(key("b"), 0, () -> mock(S3Client.class));
+        Assert.assertNotSame(lease1.client(), lease2.client());
+        Assert.assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void clientBuiltWithoutBlockingOtherKeys() throws InterruptedException {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch built = new CountDownLatch(1);
+        Thread slow = new Thread(() -> pool.acquire(key("a"), 0, () -> {
+            building.countDown();
+            try {
+                built.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return mock(S3Client.class);
+        }));
+        slow.start();
+        Assert.assertTrue(building.await(5, TimeUnit.SECONDS));
+
+        S3ClientPool.Lease other = pool.acquire(key("b"), 0, () -> mock(S3Client.class));
+
+        Assert.assertNotNull(other.client());
+        built.countDown();
+        slow.join(5000);
+        Assert.assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void clientBuiltConcurrentlyForSameKeyIsClosed() throws InterruptedException {
+        S3Client duplicate = mock(S3Client.class);
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch built = new CountDownLatch(1);
+        AtomicReference<S3ClientPool.Lease> slowLease = new AtomicReference<>();
+        Thread slow = new Thread(() -> slowLease.set(pool.acquire(key("a"), 0, () -> {
+            building.countDown();
+            try {
+                built.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return duplicate;
+        })));
+        slow.start();
+        Assert.assertTrue(building.await(5, TimeUnit.SECONDS));
+        S3Client client = mock(S3Client.class);
+        S3ClientPool.Lease lease = pool.acquire(key("a"), 0, () -> client);
+
+        built.countDown();
+        slow.join(5000);
+
+        Assert.assertSame(client, slowLease.get().client());
+        verify(duplicate).close();
+        lease.close();
+        verify(client, never()).close();
+        slowLease.get().close();
+        verify(client).close();
+    }
+
+    @Test
+    public void clientClosedWhenLastLeaseReleased() {
+        S3Client client = mock(S3Client.class);
+        S3ClientPool.Lease lease1 = pool.acquire(key("a"), 0, () -> client);
+        S3ClientPool.Lease lease2 = pool.acquire(key("a"), 0, () -> client);
+        lease1.close();
+        verify(client, never()).close();
+        Assert.assertEquals(1, pool.size());
+        lease2.close();
+        verify(client).close();
+        Assert.assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void leaseCloseIsIdempotent() {
+        S3Client client = mock(S3Client.class);
+        S3ClientPool.Lease lease1 = pool.acquire(key("a"), 0, () -> client);
+        S3ClientPool.Lease lease2 = pool.acquire(key("a"), 0, () -> client);
+        lease1.close();
+        lease1.close();
+        verify(client, never()).close();
+        Assert.assertEquals(1, pool.size());
+        lease2.close();
+    }
+
+    @Test
+    public void idleClientKeptUntilTimeout() {
+        S3Client client = mock(S3Client.class);
+        pool.acquire(key("a"), 5000, () -> client).close();
+        Assert.assertEquals(1, pool.size());
+
+        now.addAndGet(4999);
+        Assert.assertEquals(0, pool.evictIdle());
+        verify(client, never()).close();
+
+        now.addAndGet(1);
+        Assert.assertEquals(1, pool.evictIdle());
+        verify(client).close();
+        Assert.assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void idleClientReusedBeforeTimeout() {
+        S3Client client = mock(S3Client.class);
+        pool.acquire(key("a"), 5000, () -> client).close();
+        now.addAndGet(1000);
+        S3ClientPool.Lease lease = pool.acquire(key("a"), 5000, () -> mock(S3Client.class));
+        Assert.assertSame(client, lease.client());
+
+        now.addAndGet(10000);
+        Assert.assertEquals(0, pool.evictIdle());
+        verify(client, never()).close();
+    }
+
+    @Test
+    public void idleClientClosedInBackground() throws InterruptedException {
+        ScheduledExecutorService sweeper = S3ClientPool.newSweeper();
+        try {
+            S3ClientPool swept = new S3ClientPool(System::currentTimeMillis, sweeper);
+            S3Client client = mock(S3Client.class);
+            CountDownLatch closed = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                closed.countDown();
+                return null;
+            }).when(client).close();
+            swept.acquire(key("a"), 50, () -> client).close();
+            Assert.assertEquals(1, swept.size());
+
+            Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, swept.size());
+        } finally {
+            sweeper.shutdownNow();
+        }
+    }
+}
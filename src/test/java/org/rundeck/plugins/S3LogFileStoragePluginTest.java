@@ -7,15 +7,33 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.http.AbortableInputStream;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartCopyResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
 import com.dtolabs.rundeck.core.logging.ExecutionFileStorageException;
+import com.dtolabs.rundeck.core.logging.MultiFileStorageRequestErrors;
+import com.dtolabs.rundeck.core.logging.StorageFile;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -23,22 +41,41 @@ import org.junit.runners.JUnit4;
 import org.mockito.ArgumentCaptor;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -122,10 +159,12 @@ public class S3LogFileStoragePluginTest {
         Region capturedRegion;
         String capturedEndpoint;
         boolean capturedPathStyle;
+        int createCount;
 
         testPlugin() {
             setPath(DEFAULT_PATH_FORMAT);
             setRegion(DEFAULT_REGION);
+            setShareClient(false);
         }
 
         @Override
@@ -133,6 +172,7 @@ public class S3LogFileStoragePluginTest {
             capturedRegion = region;
             capturedEndpoint = getEndpoint();
             capturedPathStyle = isPathStyle();
+            createCount++;
             mockS3 = mock(S3Client.class);
             return mockS3;
         }
@@ -339,6 +379,65 @@ public class S3LogFileStoragePluginTest {
         Assert.assertTrue(plugin.capturedPathStyle);
     }
 
+    // ─── initialize: shared client ────────────────────────────────────────────
+
+    @Test
+    public void initializeSharedClientIsReused() {
+        testPlugin plugin1 = new testPlugin();
+        plugin1.setShareClient(true);
+        plugin1.setSharedClientIdleTimeout(0);
+        plugin1.setAWSAccessKeyId("shared");
+        plugin1.setAWSSecretKey("shared");
+        plugin1.setBucket("testBucket");
+        plugin1.setEndpoint("https://shared.example.com");
+        plugin1.initialize(testContext());
+
+        testPlugin plugin2 = new testPlugin();
+        plugin2.setShareClient(true);
+        plugin2.setSharedClientIdleTimeout(0);
+        plugin2.setAWSAccessKeyId("shared");
+        plugin2.setAWSSecretKey("shared");
+        plugin2.setBucket("otherBucket");
+        plugin2.setEndpoint("https://shared.example.com");
+        plugin2.initialize(testContext());
+
+        Assert.assertEquals(1, plugin1.createCount);
+        Assert.assertEquals(0, plugin2.createCount);
+        Assert.assertSame(plugin1.getS3Client(), plugin2.getS3Client());
+
+        plugin1.close();
+        verify(plugin1.mockS3, never()).close();
+        plugin2.close();
+        verify(plugin1.mockS3).close();
+    }
+
+    @Test
+    public void initializeSharedClientDifferentCredentials() {
+        testPlugin plugin1 = new testPlugin();
+        plugin1.setShareClient(true);
+        plugin1.setSharedClientIdleTimeout(0);
+        plugin1.setAWSAccessKeyId("shared");
+        plugin1.setAWSSecretKey("secret1");
+        plugin1.setBucket("testBucket");
+        plugin1.setEndpoint("https://shared-creds.example.com");
+        plugin1.initialize(testContext());
+
+        testPlugin plugin2 = new testPlugin();
+        plugin2.setShareClient(true);
+        plugin2.setSharedClientIdleTimeout(0);
+        plugin2.setAWSAccessKeyId("shared");
+        plugin2.setAWSSecretKey("secret2");
+        plugin2.setBucket("testBucket");
+        plugin2.setEndpoint("https://shared-creds.example.com");
+        plugin2.initialize(testContext());
+
+        Assert.assertEquals(1, plugin1.createCount);
+        Assert.assertEquals(1, plugin2.createCount);
+        Assert.assertNotSame(plugin1.getS3Client(), plugin2.getS3Client());
+        plugin1.close();
+        plugin2.close();
+    }
+
     // ─── initialize: bucket / path validation ────────────────────────────────
 
     @Test
@@ -527,6 +626,209 @@ public class S3LogFileStoragePluginTest {
         }
     }
 
+    /**
+     * Caches HEAD results for 30 seconds, and missing files for 5
+     */
+    private static Consumer<testPlugin> headCache() {
+        return config -> {
+            config.setHeadCacheTtl(30);
+            config.setHeadCacheNegativeTtl(5);
+        };
+    }
+
+    @Test
+    public void isAvailableCachesResult() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(headCache());
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        verify(plugin.mockS3, times(1)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void isAvailableCacheInvalidatedByStore() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(headCache());
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(404).message("Not Found").build())
+                .thenReturn(HeadObjectResponse.builder().build());
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+
+        Assert.assertFalse(plugin.isAvailable(DEFAULT_FILETYPE));
+        Assert.assertFalse(plugin.isAvailable(DEFAULT_FILETYPE));
+        plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[0]), 0, new Date());
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        verify(plugin.mockS3, times(2)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void isAvailableCacheDisabledByDefault() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        verify(plugin.mockS3, times(2)).headObject(any(HeadObjectRequest.class));
+    }
+
+    // ─── metrics tests ────────────────────────────────────────────────────────
+
+    @Test
+    public void metricsRecordedForOperations() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("metricsBucket");
+        plugin.initialize(testContext());
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                in.readAllBytes();
+            }
+            return PutObjectResponse.builder().build();
+        });
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(403).message("denied").build());
+        OperationStats store = S3Metrics.getInstance().stats("metricsBucket", S3Operation.STORE);
+        OperationStats head = S3Metrics.getInstance().stats("metricsBucket", S3Operation.HEAD);
+        long stored = store.getCount();
+        long storedBytes = store.getBytes();
+        long headErrors = head.getErrorCount();
+
+        plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[10]), 10, null);
+        try {
+            plugin.isAvailable(DEFAULT_FILETYPE);
+            Assert.fail("should throw");
+        } catch (ExecutionFileStorageException e) {
+            Assert.assertEquals("denied", e.getMessage());
+        }
+
+        Assert.assertEquals(stored + 1, store.getCount());
+        Assert.assertEquals(storedBytes + 10, store.getBytes());
+        Assert.assertEquals(0, store.getInFlight());
+        Assert.assertEquals(headErrors + 1, head.getErrorCount());
+        Assert.assertTrue(head.getErrorsByStatus().get("403") >= 1);
+    }
+
+    @Test
+    public void metricsDisabled() throws ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("metricsDisabledBucket");
+        plugin.setMetricsEnabled(false);
+        plugin.initialize(testContext());
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        Assert.assertEquals(0, S3Metrics.getInstance().stats("metricsDisabledBucket", S3Operation.HEAD).getCount());
+    }
+
+    @Test
+    public void sdkMetricsAttachedToRequests() throws ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setSdkMetricsEnabled(true);
+        plugin.initialize(testContext());
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        ArgumentCaptor<HeadObjectRequest> captor = ArgumentCaptor.forClass(HeadObjectRequest.class);
+        verify(plugin.mockS3).headObject(captor.capture());
+        Assert.assertTrue(captor.getValue().overrideConfiguration().isPresent());
+        Assert.assertEquals(1, captor.getValue().overrideConfiguration().get().metricPublishers().size());
+    }
+
+    @Test
+    public void sdkMetricsDisabledByDefault() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        ArgumentCaptor<HeadObjectRequest> captor = ArgumentCaptor.forClass(HeadObjectRequest.class);
+        verify(plugin.mockS3).headObject(captor.capture());
+        Assert.assertFalse(captor.getValue().overrideConfiguration().isPresent());
+    }
+
+    @Test
+    public void hedgedRequests() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setHedgeRequests(true);
+        plugin.initialize(testContext());
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+        testInputStream testInputStream = new testInputStream();
+        doReturn(makeResponseStream(testInputStream))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, new testOutputStream()));
+
+        Assert.assertTrue(testInputStream.wasRead);
+        int percentile = S3LogFileStoragePlugin.DEFAULT_HEDGE_PERCENTILE;
+        int budget = S3LogFileStoragePlugin.DEFAULT_HEDGE_BUDGET;
+        Assert.assertEquals(1, RequestHedger.forClient(plugin.mockS3, "HeadObject", percentile, budget).getRequests());
+        Assert.assertEquals(1, RequestHedger.forClient(plugin.mockS3, "GetObject", percentile, budget).getRequests());
+    }
+
+    @Test
+    public void initializeHedgePercentileOutOfRange() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setHedgeRequests(true);
+        plugin.setHedgePercentile(100);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("hedgePercentile must be between 50 and 99", e.getMessage());
+        }
+    }
+
+    @Test
+    public void initializeHedgeBudgetOutOfRange() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setHedgeRequests(true);
+        plugin.setHedgeBudget(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("hedgeBudget must be between 1 and 100", e.getMessage());
+        }
+    }
+
+    @Test
+    public void initializeSlowCallThresholdNegative() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setSlowCallThreshold(-1);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("slowCallThreshold must not be negative", e.getMessage());
+        }
+    }
+
     // ─── store tests ──────────────────────────────────────────────────────────
 
     @Test
@@ -579,6 +881,35 @@ public class S3LogFileStoragePluginTest {
         Assert.assertEquals(testContext().get("serverUUID"), userMetadata.get("rundeck.serverUUID"));
     }
 
+    @Test
+    public void storeFromFile() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                in.transferTo(uploaded);
+            }
+            return PutObjectResponse.builder().build();
+        });
+        File file = File.createTempFile("test-log", ".rdlog");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write("log content".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, stream, file.length(), new Date()));
+            // uploaded from the file, not read through the stream
+            Assert.assertEquals(0, stream.getChannel().position());
+        }
+
+        Assert.assertEquals("log content", uploaded.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals(file.length(), (long) captor.getValue().contentLength());
+    }
+
     @Test
     public void storeEncodedMetadata() throws IOException, ExecutionFileStorageException {
         testPlugin plugin = new testPlugin();
@@ -607,114 +938,602 @@ public class S3LogFileStoragePluginTest {
         Assert.assertEquals(URLEncoder.encode((String) testContext().get("serverUUID"), StandardCharsets.UTF_8.toString()), userMetadata.get("rundeck.serverUUID"));
     }
 
-    // ─── retrieve tests ───────────────────────────────────────────────────────
+    @Test
+    public void storeMultipartAboveThreshold() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setMultipartThreshold(10);
+        plugin.initialize(testContext());
 
-    class testOutputStream extends OutputStream {
-        boolean wasWrite = false;
-        boolean writeIOException = false;
+        when(plugin.mockS3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload1").build());
+        when(plugin.mockS3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
 
-        @Override
-        public void write(int i) throws IOException {
-            wasWrite = true;
-            if (writeIOException) {
-                throw new IOException("testOutputStream.writeIOException");
-            }
-        }
+        byte[] content = new byte[10];
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(content), content.length, new Date()));
 
-        boolean wasClosed;
+        ArgumentCaptor<CreateMultipartUploadRequest> captor = ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(plugin.mockS3).createMultipartUpload(captor.capture());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+        Assert.assertEquals(5, captor.getValue().metadata().size());
+        verify(plugin.mockS3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
 
-        @Override
-        public void close() throws IOException {
-            wasClosed = true;
-        }
+    private static Consumer<testPlugin> incrementalUpload() {
+        return config -> {
+            config.setIncrementalUpload(true);
+            config.setMultipartPartSize(MultipartUploader.MIN_PART_SIZE);
+        };
     }
 
-    class testInputStream extends InputStream {
-        boolean wasRead = false;
-        int bytes = 1;
-        boolean readIOException = false;
+    /**
+     * Stubs the requests of multipart uploads, which complete with ETag "stored"
+     */
+    private static void stubMultipartUpload(testPlugin plugin) {
+        when(plugin.mockS3.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload1").build());
+        when(plugin.mockS3.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("etag").build());
+        when(plugin.mockS3.uploadPartCopy(any(UploadPartCopyRequest.class)))
+                .thenReturn(UploadPartCopyResponse.builder().copyPartResult(r -> r.eTag("copied")).build());
+        when(plugin.mockS3.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompleteMultipartUploadResponse.builder().eTag("\"stored\"").build());
+    }
 
-        @Override
-        public int read() throws IOException {
-            wasRead = true;
-            if (readIOException) {
-                throw new IOException("testInputStream.readIOException");
-            }
-            --bytes;
-            return bytes < 0 ? -1 : bytes;
+    private File logFile(int length) throws IOException {
+        File file = File.createTempFile("test-log", ".rdlog");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
         }
+        return file;
+    }
 
-        boolean wasClosed = false;
-
-        @Override
-        public void close() throws IOException {
-            wasClosed = true;
-            super.close();
+    private void storeFile(testPlugin plugin, File file) throws IOException, ExecutionFileStorageException {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, stream, file.length(), new Date()));
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private ResponseInputStream<GetObjectResponse> makeResponseStream(InputStream body) {
-        return new ResponseInputStream<>(
-                GetObjectResponse.builder().build(),
-                AbortableInputStream.create(body)
-        );
+    @Test
+    public void storeAgainCopiesStoredContent() throws IOException, ExecutionFileStorageException {
+        int partSize = (int) MultipartUploader.MIN_PART_SIZE;
+        File file = logFile(partSize + 100);
+        testPlugin first = initializeTestPlugin(incrementalUpload());
+        stubMultipartUpload(first);
+        storeFile(first, file);
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[partSize]);
+        }
+
+        // the grown file is stored by another instance
+        testPlugin plugin = initializeTestPlugin(incrementalUpload());
+        stubMultipartUpload(plugin);
+        plugin.setSkipUnchanged(true);
+        existingChecksum(plugin, "stored", partSize + 100);
+        storeFile(plugin, file);
+
+        ArgumentCaptor<UploadPartCopyRequest> copy = ArgumentCaptor.forClass(UploadPartCopyRequest.class);
+        verify(plugin.mockS3).uploadPartCopy(copy.capture());
+        Assert.assertEquals("bytes=0-" + (partSize + 99), copy.getValue().copySourceRange());
+        Assert.assertEquals("\"stored\"", copy.getValue().copySourceIfMatch());
+        ArgumentCaptor<UploadPartRequest> parts = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(plugin.mockS3).uploadPart(parts.capture(), any(RequestBody.class));
+        Assert.assertEquals(Integer.valueOf(2), parts.getValue().partNumber());
+        Assert.assertEquals(Long.valueOf(partSize), parts.getValue().contentLength());
+        ArgumentCaptor<CreateMultipartUploadRequest> create =
+                ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(plugin.mockS3).createMultipartUpload(create.capture());
+        Assert.assertEquals(Long.toString(file.length()), create.getValue().metadata().get("rundeck.length"));
+        Assert.assertNotNull(create.getValue().metadata().get("rundeck.crc32c"));
+        verify(plugin.mockS3).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        IncrementalUpload.remove("testBucket", create.getValue().key());
     }
 
     @Test
-    public void retrieve() throws IOException, ExecutionFileStorageException {
+    public void incrementalUploadDisabledByDefault() throws IOException, ExecutionFileStorageException {
         testPlugin plugin = initializeTestPlugin();
-        testOutputStream stream = new testOutputStream();
-        testInputStream testInputStream = new testInputStream();
-
-        ResponseInputStream<GetObjectResponse> mockStream = makeResponseStream(testInputStream);
-        doReturn(mockStream).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
 
-        boolean result = plugin.retrieve(DEFAULT_FILETYPE, stream);
-        Assert.assertTrue(result);
+        storeFile(plugin, logFile((int) MultipartUploader.MIN_PART_SIZE));
 
-        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
-        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
-        Assert.assertEquals("testBucket", captor.getValue().bucket());
-        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+        verify(plugin.mockS3, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+        verify(plugin.mockS3).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
 
-        Assert.assertTrue(testInputStream.wasRead);
-        Assert.assertTrue(testInputStream.bytes < 0);
-        Assert.assertTrue(testInputStream.wasClosed);
-        Assert.assertTrue(stream.wasWrite);
-        Assert.assertFalse(stream.wasClosed);
+    @Test
+    public void deleteForgetsIncrementalUpload() throws IOException, ExecutionFileStorageException {
+        File file = logFile((int) MultipartUploader.MIN_PART_SIZE);
+        testPlugin first = initializeTestPlugin(incrementalUpload());
+        stubMultipartUpload(first);
+        storeFile(first, file);
+        testPlugin plugin = initializeTestPlugin(incrementalUpload());
+        stubMultipartUpload(plugin);
+
+        Assert.assertTrue(plugin.deleteFile(DEFAULT_FILETYPE));
+        storeFile(plugin, file);
+
+        verify(plugin.mockS3, never()).uploadPartCopy(any(UploadPartCopyRequest.class));
+        ArgumentCaptor<CreateMultipartUploadRequest> create =
+                ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(plugin.mockS3).createMultipartUpload(create.capture());
+        IncrementalUpload.remove("testBucket", create.getValue().key());
     }
 
     @Test
-    public void retrieveClientException() throws IOException {
-        testPlugin plugin = initializeTestPlugin();
-        testOutputStream stream = new testOutputStream();
+    public void purgeForgetsIncrementalUpload() throws IOException, ExecutionFileStorageException {
+        File file = logFile((int) MultipartUploader.MIN_PART_SIZE);
+        testPlugin first = initializeTestPlugin(incrementalUpload());
+        stubMultipartUpload(first);
+        storeFile(first, file);
+        testPlugin plugin = initializeTestPlugin(incrementalUpload());
+        stubMultipartUpload(plugin);
+        when(plugin.mockS3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(DeleteObjectsResponse.builder().build());
+
+        Assert.assertTrue(plugin.purge(Collections.singletonList(testContext()),
+                                       Collections.singletonList(DEFAULT_FILETYPE)).isSuccessful());
+        storeFile(plugin, file);
+
+        verify(plugin.mockS3, never()).uploadPartCopy(any(UploadPartCopyRequest.class));
+        ArgumentCaptor<CreateMultipartUploadRequest> create =
+                ArgumentCaptor.forClass(CreateMultipartUploadRequest.class);
+        verify(plugin.mockS3).createMultipartUpload(create.capture());
+        IncrementalUpload.remove("testBucket", create.getValue().key());
+    }
 
-        doThrow(SdkClientException.create("getObject"))
-                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    @Test
+    public void storeCompressed() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setCompression("gzip");
+        plugin.initialize(testContext());
 
-        boolean result = false;
-        try {
-            result = plugin.retrieve(DEFAULT_FILETYPE, stream);
-            Assert.fail("should throw");
-        } catch (ExecutionFileStorageException e) {
-            Assert.assertEquals("getObject", e.getMessage());
-        }
-        Assert.assertFalse(result);
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
 
-        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
-        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
-        Assert.assertEquals("testBucket", captor.getValue().bucket());
-        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+        byte[] content = logContent();
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(content), content.length, new Date()));
 
-        Assert.assertFalse(stream.wasWrite);
-        Assert.assertFalse(stream.wasClosed);
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        ArgumentCaptor<RequestBody> body = ArgumentCaptor.forClass(RequestBody.class);
+        verify(plugin.mockS3).putObject(captor.capture(), body.capture());
+        Assert.assertEquals("gzip", captor.getValue().metadata().get("rundeck.compression"));
+        Assert.assertEquals(testContext().get("execid"), captor.getValue().metadata().get("rundeck.execid"));
+        Assert.assertTrue(captor.getValue().contentLength() < content.length);
+
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(body.getValue().contentStreamProvider().newStream())) {
+            in.transferTo(uncompressed);
+        }
+        Assert.assertArrayEquals(content, uncompressed.toByteArray());
     }
 
     @Test
-    public void retrieveS3Exception() throws IOException {
-        testPlugin plugin = initializeTestPlugin();
-        testOutputStream stream = new testOutputStream();
+    public void initializeUnsupportedCompression() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setCompression("lzma");
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("lzma"));
+        }
+    }
+
+    @Test
+    public void initializeUnsupportedAsyncBackend() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setAsyncBackend("okhttp");
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("okhttp"));
+        }
+    }
+
+    @Test
+    public void initializeAsyncMaxConcurrencyTooSmall() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setAsyncBackend("netty");
+        plugin.setAsyncMaxConcurrency(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("asyncMaxConcurrency"));
+        }
+    }
+
+    @Test
+    public void initializeCrtAsyncBackendWithTimeout() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setAsyncBackend("crt");
+        plugin.setApiCallTimeout(30000);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("apiCallTimeout"));
+        }
+    }
+
+    @Test
+    public void asyncBackendUsesAsyncClient() throws ExecutionFileStorageException {
+        S3AsyncClient async = mock(S3AsyncClient.class);
+        S3LogFileStoragePlugin plugin = new S3LogFileStoragePlugin() {
+            @Override
+            protected S3AsyncClient createS3AsyncClient(AwsCredentialsProvider credentials, Region region) {
+                return async;
+            }
+        };
+        plugin.setPath(S3LogFileStoragePlugin.DEFAULT_PATH_FORMAT);
+        plugin.setRegion(S3LogFileStoragePlugin.DEFAULT_REGION);
+        plugin.setShareClient(false);
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setAsyncBackend("netty");
+        plugin.initialize(testContext());
+        when(async.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(HeadObjectResponse.builder().build()));
+
+        Assert.assertTrue(plugin.getS3Client() instanceof AsyncBackedS3Client);
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+        verify(async).headObject(any(HeadObjectRequest.class));
+
+        plugin.close();
+        verify(async).close();
+    }
+
+    @Test
+    public void initializeMultipartPartSizeTooSmall() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setMultipartPartSize(1024);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("multipartPartSize"));
+        }
+    }
+
+    @Test
+    public void initializeMultipartPartSizeTooLarge() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("blah");
+        plugin.setMultipartPartSize(MultipartUploader.MAX_PART_SIZE + 1);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("multipartPartSize"));
+        }
+    }
+
+    // ─── skip unchanged tests ─────────────────────────────────────────────────
+
+    private static void existingChecksum(testPlugin plugin, String crc32c, long length) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("rundeck.crc32c", crc32c);
+        metadata.put("rundeck.length", Long.toString(length));
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().metadata(metadata).build());
+    }
+
+    @Test
+    public void crc32c() throws IOException {
+        Assert.assertEquals(
+                "4waSgw==",
+                S3LogFileStoragePlugin.crc32c(new ByteArrayInputStream("123456789".getBytes(StandardCharsets.UTF_8)))
+        );
+    }
+
+    @Test
+    public void storeSkipsUnchanged() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setSkipUnchanged(true));
+        byte[] content = "log content".getBytes(StandardCharsets.UTF_8);
+        existingChecksum(plugin, S3LogFileStoragePlugin.crc32c(new ByteArrayInputStream(content)), content.length);
+
+        InputStream stream = new ByteArrayInputStream(content);
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, stream, content.length, new Date()));
+
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    public void storeSkipsUnchangedFile() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setSkipUnchanged(true));
+        byte[] content = "log content".getBytes(StandardCharsets.UTF_8);
+        existingChecksum(plugin, S3LogFileStoragePlugin.crc32c(new ByteArrayInputStream(content)), content.length);
+        File file = File.createTempFile("test-log", ".rdlog");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+
+        try (FileInputStream stream = new FileInputStream(file)) {
+            Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, stream, file.length(), new Date()));
+        }
+
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    public void storeUploadsChanged() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setSkipUnchanged(true));
+        byte[] content = "log content".getBytes(StandardCharsets.UTF_8);
+        existingChecksum(plugin, "AAAAAA==", content.length);
+        ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                in.transferTo(uploaded);
+            }
+            return PutObjectResponse.builder().build();
+        });
+
+        InputStream stream = new ByteArrayInputStream(content);
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, stream, content.length, new Date()));
+
+        Assert.assertEquals("log content", uploaded.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals(
+                S3LogFileStoragePlugin.crc32c(new ByteArrayInputStream(content)),
+                captor.getValue().metadata().get("rundeck.crc32c")
+        );
+        Assert.assertEquals("11", captor.getValue().metadata().get("rundeck.length"));
+        Assert.assertEquals("testexecid", captor.getValue().metadata().get("rundeck.execid"));
+    }
+
+    @Test
+    public void storeUploadsMissing() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setSkipUnchanged(true));
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(404).message("Not Found").build());
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[]{1, 2}), 2, new Date()));
+
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals("2", captor.getValue().metadata().get("rundeck.length"));
+    }
+
+    @Test
+    public void storeMultipleBundleSkipsUnchanged() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setSkipUnchanged(true);
+        plugin.setBundleStorage(true);
+        plugin.initialize(testContext());
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", new byte[]{1, 2, 3});
+        request.content.put("state.json", new byte[]{4});
+        LogBundle.Builder bundle = new LogBundle.Builder(LogCompression.NONE)
+                .add("rdlog", new byte[]{1, 2, 3})
+                .add("state.json", new byte[]{4});
+        existingChecksum(plugin, S3LogFileStoragePlugin.crc32c(bundle.newStream()), bundle.length());
+
+        plugin.storeMultiple(request);
+
+        Assert.assertEquals(Boolean.TRUE, request.results.get("rdlog"));
+        Assert.assertEquals(Boolean.TRUE, request.results.get("state.json"));
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    // ─── storeMultiple tests ──────────────────────────────────────────────────
+
+    class testStorageRequest implements MultiFileStorageRequestErrors {
+        final Map<String, byte[]> content = new LinkedHashMap<>();
+        /**
+         * declared length of a file, if not the length of its content
+         */
+        final Map<String, Long> lengths = new HashMap<>();
+        final Map<String, Boolean> results = new ConcurrentHashMap<>();
+        final Map<String, String> failures = new ConcurrentHashMap<>();
+
+        @Override
+        public Set<String> getAvailableFiletypes() {
+            return content.keySet();
+        }
+
+        @Override
+        public StorageFile getStorageFile(String filetype) {
+            byte[] data = content.get(filetype);
+            return new StorageFile() {
+                @Override
+                public String getFiletype() {
+                    return filetype;
+                }
+
+                @Override
+                public InputStream getInputStream() {
+                    return new ByteArrayInputStream(data);
+                }
+
+                @Override
+                public long getLength() {
+                    return lengths.getOrDefault(filetype, (long) data.length);
+                }
+
+                @Override
+                public Date getLastModified() {
+                    return new Date();
+                }
+            };
+        }
+
+        @Override
+        public void storageResultForFiletype(String filetype, boolean success) {
+            results.put(filetype, success);
+        }
+
+        @Override
+        public void storageFailureForFiletype(String filetype, String message) {
+            failures.put(filetype, message);
+        }
+    }
+
+    private void storeMultipleResults(int storeConcurrency) throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        plugin.setStoreConcurrency(storeConcurrency);
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            if (request.key().endsWith(".state.json")) {
+                throw S3Exception.builder().statusCode(500).message("state failed").build();
+            }
+            return PutObjectResponse.builder().build();
+        });
+
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", new byte[]{1, 2, 3});
+        request.content.put("state.json", new byte[]{4});
+        request.content.put("execution.xml", new byte[]{5, 6});
+        plugin.storeMultiple(request);
+
+        Assert.assertEquals(Boolean.TRUE, request.results.get("rdlog"));
+        Assert.assertEquals(Boolean.TRUE, request.results.get("execution.xml"));
+        Assert.assertNull(request.results.get("state.json"));
+        Assert.assertTrue(request.failures.get("state.json").contains("state failed"));
+        Assert.assertEquals(1, request.failures.size());
+        verify(plugin.mockS3, times(3)).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    public void storeMultipleConcurrent() throws IOException, ExecutionFileStorageException {
+        storeMultipleResults(4);
+    }
+
+    @Test
+    public void storeMultipleSequential() throws IOException, ExecutionFileStorageException {
+        storeMultipleResults(1);
+    }
+
+    // ─── retrieve tests ───────────────────────────────────────────────────────
+
+    class testOutputStream extends OutputStream {
+        boolean wasWrite = false;
+        boolean writeIOException = false;
+
+        @Override
+        public void write(int i) throws IOException {
+            wasWrite = true;
+            if (writeIOException) {
+                throw new IOException("testOutputStream.writeIOException");
+            }
+        }
+
+        boolean wasClosed;
+
+        @Override
+        public void close() throws IOException {
+            wasClosed = true;
+        }
+    }
+
+    class testInputStream extends InputStream {
+        boolean wasRead = false;
+        int bytes = 1;
+        boolean readIOException = false;
+
+        @Override
+        public int read() throws IOException {
+            wasRead = true;
+            if (readIOException) {
+                throw new IOException("testInputStream.readIOException");
+            }
+            --bytes;
+            return bytes < 0 ? -1 : bytes;
+        }
+
+        boolean wasClosed = false;
+
+        @Override
+        public void close() throws IOException {
+            wasClosed = true;
+            super.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ResponseInputStream<GetObjectResponse> makeResponseStream(InputStream body) {
+        return new ResponseInputStream<>(
+                GetObjectResponse.builder().build(),
+                AbortableInputStream.create(body)
+        );
+    }
+
+    @Test
+    public void retrieve() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        testOutputStream stream = new testOutputStream();
+        testInputStream testInputStream = new testInputStream();
+
+        ResponseInputStream<GetObjectResponse> mockStream = makeResponseStream(testInputStream);
+        doReturn(mockStream).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        boolean result = plugin.retrieve(DEFAULT_FILETYPE, stream);
+        Assert.assertTrue(result);
+
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("testBucket", captor.getValue().bucket());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+
+        Assert.assertTrue(testInputStream.wasRead);
+        Assert.assertTrue(testInputStream.bytes < 0);
+        Assert.assertTrue(testInputStream.wasClosed);
+        Assert.assertTrue(stream.wasWrite);
+        Assert.assertFalse(stream.wasClosed);
+    }
+
+    @Test
+    public void retrieveClientException() throws IOException {
+        testPlugin plugin = initializeTestPlugin();
+        testOutputStream stream = new testOutputStream();
+
+        doThrow(SdkClientException.create("getObject"))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        boolean result = false;
+        try {
+            result = plugin.retrieve(DEFAULT_FILETYPE, stream);
+            Assert.fail("should throw");
+        } catch (ExecutionFileStorageException e) {
+            Assert.assertEquals("getObject", e.getMessage());
+        }
+        Assert.assertFalse(result);
+
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("testBucket", captor.getValue().bucket());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+
+        Assert.assertFalse(stream.wasWrite);
+        Assert.assertFalse(stream.wasClosed);
+    }
+
+    @Test
+    public void retrieveS3Exception() throws IOException {
+        testPlugin plugin = initializeTestPlugin();
+        testOutputStream stream = new testOutputStream();
 
         doThrow(S3Exception.builder().statusCode(403).message("getObject").build())
                 .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
@@ -786,13 +1605,1375 @@ public class S3LogFileStoragePluginTest {
         Assert.assertFalse(stream.wasClosed);
     }
 
-    // ─── helpers ──────────────────────────────────────────────────────────────
-
-    private testPlugin initializeTestPlugin() {
+    @Test
+    public void retrieveServedFromLocalCache() throws IOException, ExecutionFileStorageException {
+        File cacheDir = File.createTempFile("s3-log-cache", "");
+        Assert.assertTrue(cacheDir.delete());
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setCacheDirectory(cacheDir.getAbsolutePath());
+        plugin.initialize(testContext());
+
+        byte[] content = "log content".getBytes(StandardCharsets.UTF_8);
+        doReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().eTag("\"etag\"").build(),
+                AbortableInputStream.create(new ByteArrayInputStream(content))
+        )).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"etag\"").build());
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, first));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, second));
+
+        Assert.assertArrayEquals(content, first.toByteArray());
+        Assert.assertArrayEquals(content, second.toByteArray());
+        verify(plugin.mockS3, times(1)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        // the cached copy is checked on each read by default
+        verify(plugin.mockS3, times(1)).headObject(any(HeadObjectRequest.class));
+
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+        plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(content), content.length, new Date());
+        Assert.assertNull(LogFileCache.forDirectory(cacheDir, plugin.getCacheMaxSize())
+                                      .get(null, "testBucket", "project/testproject/testexecid.rdlog"));
+    }
+
+    @Test
+    public void retrieveChangedFileNotServedFromLocalCache() throws IOException, ExecutionFileStorageException {
+        File cacheDir = File.createTempFile("s3-log-cache", "");
+        Assert.assertTrue(cacheDir.delete());
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setCacheDirectory(cacheDir.getAbsolutePath());
+        plugin.initialize(testContext());
+
+        doReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().eTag("\"old\"").build(),
+                AbortableInputStream.create(new ByteArrayInputStream("old".getBytes(StandardCharsets.UTF_8)))
+        )).doReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().eTag("\"new\"").build(),
+                AbortableInputStream.create(new ByteArrayInputStream("new".getBytes(StandardCharsets.UTF_8)))
+        )).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        // stored again by another server
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().eTag("\"new\"").build());
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, first));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, second));
+
+        Assert.assertEquals("old", first.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals("new", second.toString(StandardCharsets.UTF_8));
+        verify(plugin.mockS3, times(2)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    public void localCacheKeyedByEndpoint() throws IOException, ExecutionFileStorageException {
+        File cacheDir = File.createTempFile("s3-log-cache", "");
+        Assert.assertTrue(cacheDir.delete());
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setEndpoint("minio.example.com:9000");
+        plugin.setCacheDirectory(cacheDir.getAbsolutePath());
+        plugin.initialize(testContext());
+        doReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().eTag("\"etag\"").build(),
+                AbortableInputStream.create(new ByteArrayInputStream("log".getBytes(StandardCharsets.UTF_8)))
+        )).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, new ByteArrayOutputStream()));
+
+        LogFileCache cache = LogFileCache.forDirectory(cacheDir, plugin.getCacheMaxSize());
+        String key = "project/testproject/testexecid.rdlog";
+        Assert.assertNotNull(cache.get("https://minio.example.com:9000", "testBucket", key));
+        Assert.assertNull(cache.get(null, "testBucket", key));
+    }
+
+    @Test
+    public void retrieveDecompresses() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        byte[] content = logContent();
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("rundeck.compression", "gzip");
+        doReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().metadata(metadata).build(),
+                AbortableInputStream.create(new ByteArrayInputStream(gzip(content)))
+        )).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, stream));
+
+        Assert.assertArrayEquals(content, stream.toByteArray());
+    }
+
+    @Test
+    public void retrieveCompressedServedFromLocalCache() throws IOException, ExecutionFileStorageException {
+        File cacheDir = File.createTempFile("s3-log-cache", "");
+        Assert.assertTrue(cacheDir.delete());
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setCacheDirectory(cacheDir.getAbsolutePath());
+        plugin.setCacheRevalidateInterval(60);
+        plugin.initialize(testContext());
+
+        byte[] content = logContent();
+        byte[] compressed = gzip(content);
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("rundeck.compression", "gzip");
+        doReturn(new ResponseInputStream<>(
+                GetObjectResponse.builder().eTag("\"etag\"").metadata(metadata).build(),
+                AbortableInputStream.create(new ByteArrayInputStream(compressed))
+        )).when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, first));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, second));
+
+        Assert.assertArrayEquals(content, first.toByteArray());
+        Assert.assertArrayEquals(content, second.toByteArray());
+        verify(plugin.mockS3, times(1)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        verify(plugin.mockS3, never()).headObject(any(HeadObjectRequest.class));
+        Assert.assertEquals(
+                compressed.length,
+                LogFileCache.forDirectory(cacheDir, plugin.getCacheMaxSize())
+                            .get(null, "testBucket", "project/testproject/testexecid.rdlog")
+                            .getLength()
+        );
+    }
+
+    // ─── list tests ───────────────────────────────────────────────────────────
+
+    @Test
+    public void listAvailable() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(
+                ListObjectsV2Response.builder().contents(
+                        S3Object.builder().key("project/testproject/testexecid.rdlog").size(10L).eTag("a").build(),
+                        S3Object.builder().key("project/testproject/testexecid.state.json").size(2L).eTag("b").build()
+                ).isTruncated(false).build());
+
+        Map<String, StoredFile> files = plugin.listAvailable();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("rdlog", "state.json")), files.keySet());
+        Assert.assertEquals(10, files.get("rdlog").getSize());
+        Assert.assertEquals("b", files.get("state.json").getETag());
+        verify(plugin.mockS3, never()).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void listAvailableForExecutions() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(
+                ListObjectsV2Response.builder().contents(
+                        S3Object.builder().key("project/testproject/exec2.rdlog").size(10L).build()
+                ).isTruncated(false).build());
+        HashMap<String, Object> first = testContext();
+        first.put("execid", "exec1");
+        HashMap<String, Object> second = testContext();
+        second.put("execid", "exec2");
+
+        Map<String, Map<String, StoredFile>> found = plugin.listAvailable(Arrays.asList(first, second));
+
+        Assert.assertTrue(found.get("exec1").isEmpty());
+        Assert.assertEquals(Collections.singleton("rdlog"), found.get("exec2").keySet());
+        ArgumentCaptor<ListObjectsV2Request> captor = ArgumentCaptor.forClass(ListObjectsV2Request.class);
+        verify(plugin.mockS3).listObjectsV2(captor.capture());
+        Assert.assertEquals("project/testproject/exec", captor.getValue().prefix());
+    }
+
+    @Test
+    public void listAvailableError() {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenThrow(SdkClientException.create("list"));
+        try {
+            plugin.listAvailable();
+            Assert.fail("Expected failure");
+        } catch (ExecutionFileStorageException e) {
+            Assert.assertEquals("list", e.getMessage());
+        }
+    }
+
+    // ─── purge tests ──────────────────────────────────────────────────────────
+
+    @Test
+    public void purgeExecutions() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(DeleteObjectsResponse.builder().build());
+        HashMap<String, Object> other = testContext();
+        other.put("execid", "otherexecid");
+
+        PurgeResult result = plugin.purge(Arrays.asList(testContext(), other), Arrays.asList("rdlog", "state.json"));
+
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(4, result.getDeleted());
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(plugin.mockS3).deleteObjects(captor.capture());
+        Set<String> keys = new HashSet<>();
+        for (ObjectIdentifier object : captor.getValue().delete().objects()) {
+            keys.add(object.key());
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                "project/testproject/testexecid.rdlog",
+                "project/testproject/testexecid.state.json",
+                "project/testproject/otherexecid.rdlog",
+                "project/testproject/otherexecid.state.json"
+        )), keys);
+        verify(plugin.mockS3, never()).deleteObject(any(DeleteObjectRequest.class));
+    }
+
+    @Test
+    public void purgeInvalidatesHeadCache() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+        when(plugin.mockS3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(DeleteObjectsResponse.builder().build());
+        plugin.isAvailable(DEFAULT_FILETYPE);
+
+        plugin.purge(Collections.singletonList(testContext()), Collections.singletonList(DEFAULT_FILETYPE));
+        plugin.isAvailable(DEFAULT_FILETYPE);
+
+        verify(plugin.mockS3, times(2)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void purgePrefixEmpty() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        try {
+            plugin.purgePrefix(" ");
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("prefix must not be empty", e.getMessage());
+        }
+        verify(plugin.mockS3, never()).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    @Test
+    public void purgePrefixListFailure() {
+        testPlugin plugin = initializeTestPlugin();
+        when(plugin.mockS3.listObjectsV2(any(ListObjectsV2Request.class)))
+                .thenThrow(S3Exception.builder().statusCode(403).message("AccessDenied").build());
+        try {
+            plugin.purgePrefix("project/testproject/");
+            Assert.fail("Expected failure");
+        } catch (ExecutionFileStorageException e) {
+            Assert.assertEquals("AccessDenied", e.getMessage());
+        }
+    }
+
+    @Test
+    public void initializePurgeConcurrencyInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setBucket("testBucket");
+        plugin.setPurgeConcurrency(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("purgeConcurrency must be at least 1", e.getMessage());
+        }
+    }
+
+    // ─── ranged retrieve tests ────────────────────────────────────────────────
+
+    private static ResponseInputStream<GetObjectResponse> rangeResponse(
+            byte[] body,
+            String contentRange,
+            Map<String, String> metadata
+    )
+    {
+        return new ResponseInputStream<>(
+                GetObjectResponse.builder().contentRange(contentRange).metadata(metadata).build(),
+                AbortableInputStream.create(new ByteArrayInputStream(body))
+        );
+    }
+
+    @Test
+    public void retrieveRange() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        doReturn(rangeResponse("34567".getBytes(StandardCharsets.UTF_8), "bytes 3-7/10", new HashMap<>()))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveRange(DEFAULT_FILETYPE, out, 3, 5);
+
+        Assert.assertEquals("34567", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(3, range.getStart());
+        Assert.assertEquals(5, range.getLength());
+        Assert.assertEquals(10, range.getTotalLength());
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("bytes=3-7", captor.getValue().range());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void retrieveTail() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        doReturn(rangeResponse("789".getBytes(StandardCharsets.UTF_8), "bytes 7-9/10", new HashMap<>()))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveTail(DEFAULT_FILETYPE, out, 3);
+
+        Assert.assertEquals("789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(7, range.getStart());
+        Assert.assertEquals(10, range.getTotalLength());
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("bytes=-3", captor.getValue().range());
+    }
+
+    @Test
+    public void retrieveFromEnd() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        doThrow(S3Exception.builder().statusCode(416).message("InvalidRange").build())
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().contentLength(10L).build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveFrom(DEFAULT_FILETYPE, out, 10);
+
+        Assert.assertEquals(0, out.size());
+        Assert.assertEquals(10, range.getStart());
+        Assert.assertEquals(0, range.getLength());
+        Assert.assertEquals(10, range.getTotalLength());
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("bytes=10-", captor.getValue().range());
+    }
+
+    @Test
+    public void retrieveRangeRangeIgnored() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        doReturn(rangeResponse("0123456789".getBytes(StandardCharsets.UTF_8), null, new HashMap<>()))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveRange(DEFAULT_FILETYPE, out, 2, 3);
+
+        Assert.assertEquals("234", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void retrieveRangeCompressed() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        byte[] content = logContent();
+        byte[] compressed = gzip(content);
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("rundeck.compression", "gzip");
+        byte[] window = Arrays.copyOfRange(compressed, 100, 200);
+        doReturn(rangeResponse(window, "bytes 100-199/" + compressed.length, metadata))
+                .doReturn(rangeResponse(compressed, null, metadata))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveRange(DEFAULT_FILETYPE, out, 100, 100);
+
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 200), out.toByteArray());
+        Assert.assertEquals(100, range.getStart());
+        Assert.assertEquals(content.length, range.getTotalLength());
+        verify(plugin.mockS3, times(2)).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    public void retrieveRangeInvalid() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        try {
+            plugin.retrieveRange(DEFAULT_FILETYPE, new ByteArrayOutputStream(), -1, 10);
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("offset must not be negative and length must be at least 1", e.getMessage());
+        }
+    }
+
+    // ─── bundle tests ─────────────────────────────────────────────────────────
+
+    private static byte[] bundle(Map<String, byte[]> files) throws IOException {
+        LogBundle.Builder builder = new LogBundle.Builder(LogCompression.NONE);
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            builder.add(file.getKey(), file.getValue());
+        }
+        try (InputStream in = builder.newStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * HEAD of the bundle returns its metadata, and of any other file 404
+     */
+    private static void bundleHead(testPlugin plugin, String filetypes) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("rundeck.execid", "testexecid");
+        metadata.put("rundeck.bundle", filetypes);
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+            HeadObjectRequest request = invocation.getArgument(0);
+            if (request.key().endsWith(".rdbundle")) {
+                return HeadObjectResponse.builder().metadata(metadata).build();
+            }
+            throw S3Exception.builder().statusCode(404).message("Not Found").build();
+        });
+    }
+
+    /**
+     * HEAD of the bundle, and of any other file, returns 404
+     */
+    private static void noBundle(testPlugin plugin) {
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(404).message("Not Found").build());
+    }
+
+    /**
+     * GET of the bundle returns the requested range of its content, and of any other file 404
+     */
+    private static void bundleContent(testPlugin plugin, byte[] bundle) {
+        when(plugin.mockS3.getObject(any(GetObjectRequest.class), any(ResponseTransformer.class))).thenAnswer(
+                invocation -> {
+                    GetObjectRequest request = invocation.getArgument(0);
+                    if (!request.key().endsWith(".rdbundle")) {
+                        throw S3Exception.builder().statusCode(404).message("Not Found").build();
+                    }
+                    String range = request.range().substring("bytes=".length());
+                    int start;
+                    int end;
+                    if (range.startsWith("-")) {
+                        start = Math.max(0, bundle.length - Integer.parseInt(range.substring(1)));
+                        end = bundle.length - 1;
+                    } else {
+                        start = Integer.parseInt(range.substring(0, range.indexOf('-')));
+                        end = Math.min(bundle.length - 1, Integer.parseInt(range.substring(range.indexOf('-') + 1)));
+                    }
+                    return new ResponseInputStream<>(
+                            GetObjectResponse.builder()
+                                    .contentRange("bytes " + start + "-" + end + "/" + bundle.length)
+                                    .eTag("\"bundle1\"")
+                                    .build(),
+                            AbortableInputStream.create(new ByteArrayInputStream(
+                                    Arrays.copyOfRange(bundle, start, end + 1)
+                            ))
+                    );
+                }
+        );
+    }
+
+    @Test
+    public void storeMultipleBundle() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        Map<String, byte[]> uploaded = new ConcurrentHashMap<>();
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                uploaded.put(request.key(), in.readAllBytes());
+            }
+            return PutObjectResponse.builder().build();
+        });
+
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", "log".getBytes(StandardCharsets.UTF_8));
+        request.content.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        plugin.storeMultiple(request);
+
+        Assert.assertEquals(Boolean.TRUE, request.results.get("rdlog"));
+        Assert.assertEquals(Boolean.TRUE, request.results.get("state.json"));
+        Assert.assertEquals(Collections.singleton("project/testproject/testexecid.rdbundle"), uploaded.keySet());
+        Assert.assertArrayEquals(bundle(request.content), uploaded.get("project/testproject/testexecid.rdbundle"));
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals("rdlog,state.json", captor.getValue().metadata().get("rundeck.bundle"));
+        Assert.assertEquals("testexecid", captor.getValue().metadata().get("rundeck.execid"));
+    }
+
+    @Test
+    public void storeMultipleBundleLargeFileSeparate() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        plugin.setBundleMaxFileSize(2);
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", new byte[]{1, 2, 3});
+        request.content.put("state.json", new byte[]{4});
+        request.content.put("execution.xml", new byte[]{5, 6});
+        plugin.storeMultiple(request);
+
+        Assert.assertEquals(3, request.results.size());
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3, times(2)).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals("project/testproject/testexecid.rdbundle", captor.getAllValues().get(0).key());
+        Assert.assertEquals("state.json,execution.xml", captor.getAllValues().get(0).metadata().get("rundeck.bundle"));
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getAllValues().get(1).key());
+    }
+
+    @Test
+    public void storeMultipleBundleSingleFileSeparate() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", new byte[]{1, 2, 3});
+        plugin.storeMultiple(request);
+
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void storeMultipleBundleFailure() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenThrow(S3Exception.builder().statusCode(500).message("bundle failed").build());
+
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", new byte[]{1, 2, 3});
+        request.content.put("state.json", new byte[]{4});
+        plugin.storeMultiple(request);
+
+        Assert.assertTrue(request.results.isEmpty());
+        Assert.assertTrue(request.failures.get("rdlog").contains("bundle failed"));
+        Assert.assertTrue(request.failures.get("state.json").contains("bundle failed"));
+    }
+
+    @Test
+    public void storeMultipleBundleShortReadFails() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+
+        testStorageRequest request = new testStorageRequest();
+        request.content.put("rdlog", new byte[]{1, 2, 3});
+        request.lengths.put("rdlog", 5L);
+        request.content.put("state.json", new byte[]{4});
+        request.content.put("execution.xml", new byte[]{5, 6});
+        plugin.storeMultiple(request);
+
+        Assert.assertTrue(request.failures.get("rdlog").contains("Expected 5 bytes of rdlog but read 3"));
+        Assert.assertEquals(Boolean.TRUE, request.results.get("state.json"));
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals("state.json,execution.xml", captor.getValue().metadata().get("rundeck.bundle"));
+    }
+
+    @Test
+    public void bundleMaxFileSizeInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setBundleStorage(true);
+        plugin.setBundleMaxFileSize(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().startsWith("bundleMaxFileSize must be between 1 and"));
+        }
+    }
+
+    @Test
+    public void isAvailableFromBundle() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog,state.json");
+
+        Assert.assertTrue(plugin.isAvailable("rdlog"));
+        Assert.assertFalse(plugin.isAvailable("execution.xml"));
+    }
+
+    @Test
+    public void retrieveFromBundleTail() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog,state.json");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", "log".getBytes(StandardCharsets.UTF_8));
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertTrue(plugin.retrieve("rdlog", out));
+
+        Assert.assertEquals("log", out.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("project/testproject/testexecid.rdbundle", captor.getValue().key());
+        Assert.assertEquals("bytes=-" + LogBundle.TAIL_LENGTH, captor.getValue().range());
+    }
+
+    @Test
+    public void retrieveFromBundleBeforeTail() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog,state.json");
+        byte[] log = new byte[LogBundle.TAIL_LENGTH * 2];
+        Arrays.fill(log, (byte) 'x');
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", log);
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertTrue(plugin.retrieve("rdlog", out));
+
+        Assert.assertArrayEquals(log, out.toByteArray());
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3, times(2)).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("bytes=0-" + (log.length - 1), captor.getAllValues().get(1).range());
+        Assert.assertEquals("\"bundle1\"", captor.getAllValues().get(1).ifMatch());
+    }
+
+    @Test
+    public void retrieveTailFromBundle() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog,state.json");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", "0123456789".getBytes(StandardCharsets.UTF_8));
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveTail("rdlog", out, 3);
+
+        Assert.assertEquals("789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(7, range.getStart());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void isAvailableFromBundleAfterBundleStorageTurnedOff() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setReadBundles(true));
+        bundleHead(plugin, "rdlog,state.json");
+
+        Assert.assertTrue(plugin.isAvailable("rdlog"));
+        Assert.assertFalse(plugin.isAvailable("execution.xml"));
+    }
+
+    @Test
+    public void retrieveFromBundleAfterBundleStorageTurnedOff() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setReadBundles(true));
+        bundleHead(plugin, "rdlog,state.json");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", "0123456789".getBytes(StandardCharsets.UTF_8));
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertTrue(plugin.retrieve("rdlog", out));
+
+        Assert.assertEquals("0123456789", out.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3, times(2)).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getAllValues().get(0).key());
+        Assert.assertEquals("project/testproject/testexecid.rdbundle", captor.getAllValues().get(1).key());
+    }
+
+    @Test
+    public void retrieveTailFromBundleAfterBundleStorageTurnedOff() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setReadBundles(true));
+        bundleHead(plugin, "rdlog,state.json");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", "0123456789".getBytes(StandardCharsets.UTF_8));
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        LogRange range = plugin.retrieveTail("rdlog", out, 3);
+
+        Assert.assertEquals("789", out.toString(StandardCharsets.UTF_8));
+        Assert.assertEquals(7, range.getStart());
+        Assert.assertEquals(10, range.getTotalLength());
+    }
+
+    @Test
+    public void bundleNotReadAfterBundleStorageTurnedOff() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin();
+        noBundle(plugin);
+
+        Assert.assertFalse(plugin.isAvailable("rdlog"));
+        Assert.assertTrue(plugin.deleteFile("rdlog"));
+
+        ArgumentCaptor<HeadObjectRequest> captor = ArgumentCaptor.forClass(HeadObjectRequest.class);
+        verify(plugin.mockS3).headObject(captor.capture());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void retrieveNotInBundle() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "state.json,execution.xml");
+        doReturn(makeResponseStream(new ByteArrayInputStream("log".getBytes(StandardCharsets.UTF_8))))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertTrue(plugin.retrieve("rdlog", out));
+
+        Assert.assertEquals("log", out.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void listAvailableExpandsBundle() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog,state.json");
+        when(plugin.mockS3.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(
+                ListObjectsV2Response.builder().contents(
+                        S3Object.builder().key("project/testproject/testexecid.execution.xml").size(9L).build(),
+                        S3Object.builder().key("project/testproject/testexecid.rdbundle").size(40L).eTag("b").build()
+                ).isTruncated(false).build());
+
+        Map<String, StoredFile> files = plugin.listAvailable();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("execution.xml", "rdlog", "state.json")), files.keySet());
+        Assert.assertEquals(9, files.get("execution.xml").getSize());
+        Assert.assertEquals("project/testproject/testexecid.rdbundle", files.get("rdlog").getKey());
+        Assert.assertEquals("b", files.get("state.json").getETag());
+        verify(plugin.mockS3).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void deleteFileDeletesBundleOfOnlyThatFile() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog");
+
+        Assert.assertTrue(plugin.deleteFile("rdlog"));
+
+        ArgumentCaptor<DeleteObjectRequest> captor = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(plugin.mockS3, times(2)).deleteObject(captor.capture());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getAllValues().get(0).key());
+        Assert.assertEquals("project/testproject/testexecid.rdbundle", captor.getAllValues().get(1).key());
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    public void deleteFileRewritesBundleWithoutIt() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setReadBundles(true));
+        bundleHead(plugin, "rdlog,state.json,execution.xml");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", "log".getBytes(StandardCharsets.UTF_8));
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        files.put("execution.xml", "<xml/>".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        Map<String, byte[]> uploaded = new ConcurrentHashMap<>();
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                uploaded.put(request.key(), in.readAllBytes());
+            }
+            return PutObjectResponse.builder().build();
+        });
+
+        Assert.assertTrue(plugin.deleteFile("state.json"));
+
+        files.remove("state.json");
+        Assert.assertArrayEquals(bundle(files), uploaded.get("project/testproject/testexecid.rdbundle"));
+        ArgumentCaptor<PutObjectRequest> putCaptor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(putCaptor.capture(), any(RequestBody.class));
+        Assert.assertEquals("rdlog,execution.xml", putCaptor.getValue().metadata().get("rundeck.bundle"));
+        ArgumentCaptor<DeleteObjectRequest> captor = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(plugin.mockS3).deleteObject(captor.capture());
+        Assert.assertEquals("project/testproject/testexecid.state.json", captor.getValue().key());
+    }
+
+    private static Set<String> purgedKeys(testPlugin plugin) {
+        ArgumentCaptor<DeleteObjectsRequest> captor = ArgumentCaptor.forClass(DeleteObjectsRequest.class);
+        verify(plugin.mockS3).deleteObjects(captor.capture());
+        Set<String> keys = new HashSet<>();
+        for (ObjectIdentifier object : captor.getValue().delete().objects()) {
+            keys.add(object.key());
+        }
+        return keys;
+    }
+
+    @Test
+    public void purgeRewritesBundleWithoutPurgedFiles() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "rdlog,state.json,execution.xml");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("rdlog", "log".getBytes(StandardCharsets.UTF_8));
+        files.put("state.json", "{}".getBytes(StandardCharsets.UTF_8));
+        files.put("execution.xml", "<xml/>".getBytes(StandardCharsets.UTF_8));
+        bundleContent(plugin, bundle(files));
+        Map<String, byte[]> uploaded = new ConcurrentHashMap<>();
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            PutObjectRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                uploaded.put(request.key(), in.readAllBytes());
+            }
+            return PutObjectResponse.builder().build();
+        });
+        when(plugin.mockS3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(DeleteObjectsResponse.builder().build());
+
+        Assert.assertTrue(plugin.purge(Collections.singletonList(testContext()), Arrays.asList("rdlog", "state.json"))
+                                .isSuccessful());
+
+        files.remove("rdlog");
+        files.remove("state.json");
+        Assert.assertArrayEquals(bundle(files), uploaded.get("project/testproject/testexecid.rdbundle"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                "project/testproject/testexecid.rdlog",
+                "project/testproject/testexecid.state.json"
+        )), purgedKeys(plugin));
+    }
+
+    @Test
+    public void purgeDeletesBundleOfOnlyPurgedFiles() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setReadBundles(true));
+        bundleHead(plugin, "rdlog,state.json");
+        when(plugin.mockS3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenReturn(DeleteObjectsResponse.builder().build());
+
+        plugin.purge(Collections.singletonList(testContext()), Arrays.asList("rdlog", "state.json"));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+                "project/testproject/testexecid.rdlog",
+                "project/testproject/testexecid.state.json",
+                "project/testproject/testexecid.rdbundle"
+        )), purgedKeys(plugin));
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    public void deleteFileNotInBundleKeepsBundle() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(config -> config.setBundleStorage(true));
+        bundleHead(plugin, "state.json,execution.xml");
+
+        Assert.assertTrue(plugin.deleteFile("rdlog"));
+
+        ArgumentCaptor<DeleteObjectRequest> captor = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(plugin.mockS3).deleteObject(captor.capture());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+        verify(plugin.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    // ─── sharding tests ───────────────────────────────────────────────────────
+
+    private static final String SHARDED_PATH = "${job.shard}/project/${job.project}/${job.execid}";
+
+    private static Consumer<testPlugin> sharded(String fallbackPath) {
+        return config -> {
+            config.setPath(SHARDED_PATH);
+            config.setFallbackPath(fallbackPath);
+        };
+    }
+
+    /**
+     * HEAD of a key not starting with the shard returns 200, of any other 404
+     */
+    private static void storedAtFallback(testPlugin plugin) {
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+            HeadObjectRequest request = invocation.getArgument(0);
+            if (request.key().startsWith("project/")) {
+                return HeadObjectResponse.builder().build();
+            }
+            throw S3Exception.builder().statusCode(404).message("Not Found").build();
+        });
+    }
+
+    @Test
+    public void shardIsHashPrefix() {
+        // sha-256 of "testexecid" starts with d1f
+        Assert.assertEquals("d1", S3LogFileStoragePlugin.shard("testexecid", 2));
+        Assert.assertEquals("d1f", S3LogFileStoragePlugin.shard("testexecid", 3));
+    }
+
+    @Test
+    public void shardedPath() {
+        testPlugin plugin = initializeTestPlugin(sharded(null));
+
+        Assert.assertEquals("d1/project/testproject/testexecid", plugin.expandedPath);
+    }
+
+    @Test
+    public void shardLengthInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setPath(SHARDED_PATH);
+        plugin.setShardLength(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("shardLength must be between 1 and 16", e.getMessage());
+        }
+    }
+
+    @Test
+    public void fallbackPathInvalid() {
+        try {
+            initializeTestPlugin(sharded("project/${job.project}"));
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("fallbackPath must contain ${job.execid} or end with /", e.getMessage());
+        }
+    }
+
+    @Test
+    public void isAvailableAtFallback() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(sharded(S3LogFileStoragePlugin.DEFAULT_PATH_FORMAT));
+        storedAtFallback(plugin);
+
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+
+        ArgumentCaptor<HeadObjectRequest> captor = ArgumentCaptor.forClass(HeadObjectRequest.class);
+        verify(plugin.mockS3, times(2)).headObject(captor.capture());
+        Assert.assertEquals("d1/project/testproject/testexecid.rdlog", captor.getAllValues().get(0).key());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getAllValues().get(1).key());
+    }
+
+    @Test
+    public void isAvailableWithoutFallback() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(sharded(null));
+        storedAtFallback(plugin);
+
+        Assert.assertFalse(plugin.isAvailable(DEFAULT_FILETYPE));
+        ArgumentCaptor<HeadObjectRequest> captor = ArgumentCaptor.forClass(HeadObjectRequest.class);
+        verify(plugin.mockS3).headObject(captor.capture());
+        Assert.assertEquals("d1/project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void retrieveFromFallback() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(sharded(S3LogFileStoragePlugin.DEFAULT_PATH_FORMAT));
+        storedAtFallback(plugin);
+        doReturn(makeResponseStream(new ByteArrayInputStream("log".getBytes(StandardCharsets.UTF_8))))
+                .when(plugin.mockS3).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, out));
+
+        Assert.assertEquals("log", out.toString(StandardCharsets.UTF_8));
+        ArgumentCaptor<GetObjectRequest> captor = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(plugin.mockS3).getObject(captor.capture(), any(ResponseTransformer.class));
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void storeAtShardedPath() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(sharded(S3LogFileStoragePlugin.DEFAULT_PATH_FORMAT));
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().build());
+
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[]{1}), 1, new Date()));
+
+        ArgumentCaptor<PutObjectRequest> captor = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(plugin.mockS3).putObject(captor.capture(), any(RequestBody.class));
+        Assert.assertEquals("d1/project/testproject/testexecid.rdlog", captor.getValue().key());
+    }
+
+    @Test
+    public void deleteFileAtBothPaths() throws IOException, ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(sharded(S3LogFileStoragePlugin.DEFAULT_PATH_FORMAT));
+
+        Assert.assertTrue(plugin.deleteFile(DEFAULT_FILETYPE));
+
+        ArgumentCaptor<DeleteObjectRequest> captor = ArgumentCaptor.forClass(DeleteObjectRequest.class);
+        verify(plugin.mockS3, times(2)).deleteObject(captor.capture());
+        Assert.assertEquals("d1/project/testproject/testexecid.rdlog", captor.getAllValues().get(0).key());
+        Assert.assertEquals("project/testproject/testexecid.rdlog", captor.getAllValues().get(1).key());
+    }
+
+    @Test
+    public void listAvailableWithFallback() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(sharded(S3LogFileStoragePlugin.DEFAULT_PATH_FORMAT));
+        when(plugin.mockS3.listObjectsV2(any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request request = invocation.getArgument(0);
+            if (request.prefix().startsWith("d1/")) {
+                return ListObjectsV2Response.builder().contents(
+                        S3Object.builder().key("d1/project/testproject/testexecid.rdlog").size(10L).eTag("new").build()
+                ).isTruncated(false).build();
+            }
+            return ListObjectsV2Response.builder().contents(
+                    S3Object.builder().key("project/testproject/testexecid.rdlog").size(5L).eTag("old").build(),
+                    S3Object.builder().key("project/testproject/testexecid.state.json").size(2L).eTag("b").build()
+            ).isTruncated(false).build();
+        });
+
+        Map<String, StoredFile> files = plugin.listAvailable();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("rdlog", "state.json")), files.keySet());
+        Assert.assertEquals("new", files.get("rdlog").getETag());
+        Assert.assertEquals("b", files.get("state.json").getETag());
+        verify(plugin.mockS3, times(2)).listObjectsV2(any(ListObjectsV2Request.class));
+    }
+
+    // ─── write-behind tests ───────────────────────────────────────────────────
+
+    /**
+     * Queues stored files in a new directory
+     */
+    private static Consumer<testPlugin> writeBehind() throws IOException {
+        File dir = File.createTempFile("s3-log-queue", "");
+        Assert.assertTrue(dir.delete());
+        return config -> config.setWriteBehindDirectory(dir.getAbsolutePath());
+    }
+
+    @Test
+    public void writeBehindStoreReturnsBeforeUpload() throws Exception {
+        testPlugin plugin = initializeTestPlugin(writeBehind());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch uploaded = new CountDownLatch(1);
+        Map<String, String> stored = new ConcurrentHashMap<>();
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            Assert.assertTrue(release.await(5, TimeUnit.SECONDS));
+            PutObjectRequest request = invocation.getArgument(0);
+            RequestBody body = invocation.getArgument(1);
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                stored.put(request.key(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals("testexecid", request.metadata().get("rundeck.execid"));
+            uploaded.countDown();
+            return PutObjectResponse.builder().build();
+        });
+
+        byte[] content = "log content".getBytes(StandardCharsets.UTF_8);
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(content), content.length, null));
+
+        // available and retrieved from the queue while the upload waits
+        Assert.assertTrue(plugin.isAvailable(DEFAULT_FILETYPE));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertTrue(plugin.retrieve(DEFAULT_FILETYPE, out));
+        Assert.assertEquals("log content", out.toString("UTF-8"));
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        LogRange range = plugin.retrieveTail(DEFAULT_FILETYPE, tail, 7);
+        Assert.assertEquals("content", tail.toString("UTF-8"));
+        Assert.assertEquals(11, range.getTotalLength());
+
+        release.countDown();
+        Assert.assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("log content", stored.get("project/testproject/testexecid.rdlog"));
+        verify(plugin.mockS3, never()).headObject(any(HeadObjectRequest.class));
+        verify(plugin.mockS3, never()).getObject(any(GetObjectRequest.class), any(ResponseTransformer.class));
+    }
+
+    @Test
+    public void writeBehindRetriesFailedUpload() throws Exception {
+        testPlugin plugin = initializeTestPlugin(writeBehind());
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch uploaded = new CountDownLatch(1);
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw S3Exception.builder().statusCode(503).message("Slow Down").build();
+            }
+            uploaded.countDown();
+            return PutObjectResponse.builder().build();
+        });
+
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[3]), 3, null));
+
+        Assert.assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void writeBehindDeleteRemovesQueuedFile() throws Exception {
+        testPlugin plugin = initializeTestPlugin(writeBehind());
+        CountDownLatch attempted = new CountDownLatch(1);
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            attempted.countDown();
+            throw S3Exception.builder().statusCode(500).message("Internal Error").build();
+        });
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[3]), 3, null));
+        Assert.assertTrue(attempted.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(plugin.deleteFile(DEFAULT_FILETYPE));
+
+        File[] queued = new File(plugin.getWriteBehindDirectory()).listFiles((dir, name) -> name.endsWith(".data"));
+        Assert.assertNotNull(queued);
+        Assert.assertEquals(0, queued.length);
+        verify(plugin.mockS3).deleteObject(any(DeleteObjectRequest.class));
+    }
+
+    @Test
+    public void writeBehindCloseWaitsForQueuedFiles() throws Exception {
+        testPlugin plugin = initializeTestPlugin(writeBehind());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        when(plugin.mockS3.putObject(any(PutObjectRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            Assert.assertTrue(release.await(5, TimeUnit.SECONDS));
+            return PutObjectResponse.builder().build();
+        });
+        doAnswer(invocation -> {
+            closed.countDown();
+            return null;
+        }).when(plugin.mockS3).close();
+        Assert.assertTrue(plugin.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[3]), 3, null));
+
+        plugin.close();
+
+        Assert.assertEquals(1, closed.getCount());
+        release.countDown();
+        Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void writeBehindInvalidConcurrency() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setWriteBehindDirectory("s3-log-queue");
+        plugin.setWriteBehindConcurrency(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("should throw");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("writeBehindConcurrency must be at least 1", e.getMessage());
+        }
+    }
+
+    // ─── circuit breaker tests ────────────────────────────────────────────────
+
+    /**
+     * @param bucket bucket name, distinct per test as breakers are shared by all plugins using a bucket
+     */
+    private static Consumer<testPlugin> circuitBreaker(String bucket) {
+        return config -> {
+            config.setBucket(bucket);
+            config.setCircuitBreaker(true);
+        };
+    }
+
+    @Test
+    public void circuitBreakerFailsFastAfterErrors() {
+        testPlugin plugin = initializeTestPlugin(circuitBreaker("breakerFailsFast"));
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(503).message("Slow Down").build());
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            try {
+                plugin.isAvailable(DEFAULT_FILETYPE);
+                Assert.fail("Should throw");
+            } catch (ExecutionFileStorageException e) {
+                Assert.assertTrue(e.getMessage().contains("Slow Down"));
+            }
+        }
+
+        try {
+            plugin.isAvailable(DEFAULT_FILETYPE);
+            Assert.fail("Should throw");
+        } catch (ExecutionFileStorageException e) {
+            Assert.assertTrue(e.getMessage().contains("are failing"));
+            Assert.assertTrue(e.getCause() instanceof CircuitBreaker.RejectedException);
+        }
+        verify(plugin.mockS3, times(CircuitBreaker.MIN_CALLS)).headObject(any(HeadObjectRequest.class));
+    }
+
+    @Test
+    public void circuitBreakerSharedByBucket() throws ExecutionFileStorageException {
+        testPlugin failing = initializeTestPlugin(circuitBreaker("breakerShared"));
+        when(failing.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(SdkClientException.create("timed out"));
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            try {
+                failing.isAvailable(DEFAULT_FILETYPE);
+                Assert.fail("Should throw");
+            } catch (ExecutionFileStorageException e) {
+                Assert.assertEquals("timed out", e.getMessage());
+            }
+        }
+        testPlugin other = initializeTestPlugin(circuitBreaker("breakerSharedOther"));
+        when(other.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenReturn(HeadObjectResponse.builder().build());
+        testPlugin same = initializeTestPlugin(circuitBreaker("breakerShared"));
+
+        Assert.assertTrue(other.isAvailable(DEFAULT_FILETYPE));
+        try {
+            same.store(DEFAULT_FILETYPE, new ByteArrayInputStream(new byte[]{1}), 1, new Date());
+            Assert.fail("Should throw");
+        } catch (ExecutionFileStorageException e) {
+            Assert.assertTrue(e.getMessage().contains("are failing"));
+        }
+        verify(same.mockS3, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    public void circuitBreakerCountsPurgeBatches() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(circuitBreaker("breakerPurge"));
+        when(plugin.mockS3.deleteObjects(any(DeleteObjectsRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(503).message("Slow Down").build());
+        List<HashMap<String, Object>> contexts = Collections.singletonList(testContext());
+        List<String> filetypes = Collections.singletonList(DEFAULT_FILETYPE);
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            PurgeResult result = plugin.purge(contexts, filetypes);
+            Assert.assertTrue(result.getErrors().values().iterator().next().contains("Slow Down"));
+        }
+
+        PurgeResult result = plugin.purge(contexts, filetypes);
+
+        Assert.assertTrue(result.getErrors().values().iterator().next().contains("are failing"));
+        verify(plugin.mockS3, times(CircuitBreaker.MIN_CALLS)).deleteObjects(any(DeleteObjectsRequest.class));
+    }
+
+    @Test
+    public void circuitBreakerIgnoresNotFound() throws ExecutionFileStorageException {
+        testPlugin plugin = initializeTestPlugin(circuitBreaker("breakerNotFound"));
+        when(plugin.mockS3.headObject(any(HeadObjectRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(404).message("Not Found").build());
+        for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+            Assert.assertFalse(plugin.isAvailable(DEFAULT_FILETYPE));
+        }
+
+        Assert.assertFalse(plugin.isAvailable(DEFAULT_FILETYPE));
+    }
+
+    @Test
+    public void circuitBreakerFailureRateInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setCircuitBreaker(true);
+        plugin.setCircuitBreakerFailureRate(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("circuitBreakerFailureRate"));
+        }
+    }
+
+    @Test
+    public void bulkheadLimitInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setBulkheadLimit(-1);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("bulkheadLimit"));
+        }
+    }
+
+    // ─── HTTP transport tests ─────────────────────────────────────────────────
+
+    @Test
+    public void sharedClientNotReusedWithOtherHttpSettings() {
+        testPlugin plugin1 = new testPlugin();
+        plugin1.setShareClient(true);
+        plugin1.setSharedClientIdleTimeout(0);
+        plugin1.setAWSAccessKeyId("shared");
+        plugin1.setAWSSecretKey("shared");
+        plugin1.setBucket("testBucket");
+        plugin1.setEndpoint("https://shared-http.example.com");
+        plugin1.initialize(testContext());
+
+        testPlugin plugin2 = new testPlugin();
+        plugin2.setShareClient(true);
+        plugin2.setSharedClientIdleTimeout(0);
+        plugin2.setAWSAccessKeyId("shared");
+        plugin2.setAWSSecretKey("shared");
+        plugin2.setBucket("testBucket");
+        plugin2.setEndpoint("https://shared-http.example.com");
+        plugin2.setMaxConnections(500);
+        plugin2.initialize(testContext());
+
+        Assert.assertEquals(1, plugin1.createCount);
+        Assert.assertEquals(1, plugin2.createCount);
+        Assert.assertNotSame(plugin1.getS3Client(), plugin2.getS3Client());
+        plugin1.close();
+        plugin2.close();
+    }
+
+    @Test
+    public void httpClientInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setHttpClient("netty");
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("Unsupported httpClient: netty"));
+        }
+    }
+
+    @Test
+    public void maxConnectionsInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setMaxConnections(0);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("maxConnections"));
+        }
+    }
+
+    @Test
+    public void apiCallTimeoutInvalid() {
+        testPlugin plugin = new testPlugin();
+        plugin.setAWSAccessKeyId("blah");
+        plugin.setAWSSecretKey("blah");
+        plugin.setBucket("testBucket");
+        plugin.setApiCallTimeout(-1);
+        try {
+            plugin.initialize(testContext());
+            Assert.fail("Expected failure");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("apiCallTimeout"));
+        }
+    }
+
+    // ─── helpers ──────────────────────────────────────────────────────────────
+
+    private static byte[] logContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("^^^1234567890|node=localhost|level=NORMAL^^^log line ").append(i).append("\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private testPlugin initializeTestPlugin() {
+        return initializeTestPlugin(config -> { });
+    }
+
+    /**
+     * @param configure sets the properties under test, after the credentials and bucket and before initialize
+     */
+    private testPlugin initializeTestPlugin(Consumer<testPlugin> configure) {
         testPlugin plugin = new testPlugin();
         plugin.setAWSAccessKeyId("blah");
         plugin.setAWSSecretKey("blah");
         plugin.setBucket("testBucket");
+        configure.accept(plugin);
         plugin.initialize(testContext());
         return plugin;
     }
@@ -0,0 +1,128 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for S3Metrics.
+ */
+@RunWith(JUnit4.class)
+public class S3MetricsTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    public void sampleRecordsLatencyAndBytes() throws IOException {
+        S3Metrics metrics = new S3Metrics(null, nanos::get);
+
+        S3Metrics.Sample sample = metrics.start("bucket", S3Operation.STORE);
+        Assert.assertEquals(1, metrics.stats("bucket", S3Operation.STORE).getInFlight());
+        try (InputStream in = sample.counting(new ByteArrayInputStream(new byte[100]))) {
+            in.readAllBytes();
+        }
+        nanos.addAndGet(5_000_000);
+        sample.succeeded();
+        sample.close();
+
+        OperationStats stats = metrics.stats("bucket", S3Operation.STORE);
+        Assert.assertEquals(1, stats.getCount());
+        Assert.assertEquals(0, stats.getErrorCount());
+        Assert.assertEquals(0, stats.getInFlight());
+        Assert.assertEquals(100, stats.getBytes());
+        Assert.assertEquals(5.0, stats.getLatencyMaxMillis(), 0.001);
+    }
+
+    @Test
+    public void errorsByStatus() {
+        S3Metrics metrics = new S3Metrics(null, nanos::get);
+
+        S3Metrics.Sample sample = metrics.start("bucket", S3Operation.RETRIEVE);
+        sample.failed(S3Exception.builder().statusCode(503).message("slow down").build());
+        sample.close();
+        sample = metrics.start("bucket", S3Operation.RETRIEVE);
+        sample.failed(SdkClientException.create("timeout"));
+        sample.close();
+        sample = metrics.start("bucket", S3Operation.RETRIEVE);
+        sample.close();
+
+        OperationStats stats = metrics.stats("bucket", S3Operation.RETRIEVE);
+        Assert.assertEquals(3, stats.getCount());
+        Assert.assertEquals(3, stats.getErrorCount());
+        Assert.assertEquals(Long.valueOf(1), stats.getErrorsByStatus().get("503"));
+        Assert.assertEquals(Long.valueOf(1), stats.getErrorsByStatus().get("client"));
+        Assert.assertEquals(Long.valueOf(1), stats.getErrorsByStatus().get("other"));
+    }
+
+    @Test
+    public void countingOutputStream() throws IOException {
+        S3Metrics metrics = new S3Metrics(null, nanos::get);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+
+        S3Metrics.Sample sample = metrics.start("bucket", S3Operation.RETRIEVE);
+        OutputStream out = sample.counting(target);
+        out.write(1);
+        out.write(new byte[10], 2, 5);
+        sample.succeeded();
+        sample.close();
+        sample.close();
+
+        OperationStats stats = metrics.stats("bucket", S3Operation.RETRIEVE);
+        Assert.assertEquals(6, target.size());
+        Assert.assertEquals(6, stats.getBytes());
+        Assert.assertEquals(1, stats.getCount());
+    }
+
+    @Test
+    public void statsPerBucketAndOperation() {
+        S3Metrics metrics = new S3Metrics(null, nanos::get);
+
+        Assert.assertSame(metrics.stats("a", S3Operation.HEAD), metrics.stats("a", S3Operation.HEAD));
+        Assert.assertNotSame(metrics.stats("a", S3Operation.HEAD), metrics.stats("b", S3Operation.HEAD));
+        Assert.assertNotSame(metrics.stats("a", S3Operation.HEAD), metrics.stats("a", S3Operation.DELETE));
+    }
+
+    @Test
+    public void publishedWithJmx() throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        S3Metrics metrics = new S3Metrics(server, nanos::get);
+
+        S3Metrics.Sample sample = metrics.start("my-bucket", S3Operation.DELETE);
+        sample.succeeded();
+        sample.close();
+
+        Assert.assertEquals(
+                1L,
+                server.getAttribute(S3Metrics.objectName("my-bucket", "delete"), "Count")
+        );
+
+        // registering again, as after the plugin is reloaded, replaces the previous bean
+        S3Metrics reloaded = new S3Metrics(server, nanos::get);
+        reloaded.stats("my-bucket", S3Operation.DELETE);
+        Assert.assertEquals(
+                0L,
+                server.getAttribute(S3Metrics.objectName("my-bucket", "delete"), "Count")
+        );
+    }
+
+    @Test
+    public void noneRecordsNothing() throws IOException {
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        Assert.assertSame(in, S3Metrics.Sample.NONE.counting(in));
+        S3Metrics.Sample.NONE.succeeded();
+        S3Metrics.Sample.NONE.close();
+    }
+}
@@ -0,0 +1,181 @@
+package org.rundeck.plugins;
+
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricCollector;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for SdkMetricsPublisher.
+ */
+@RunWith(JUnit4.class)
+public class SdkMetricsPublisherTest {
+
+    private final AtomicLong millis = new AtomicLong(1_000_000);
+
+    /**
+     * A PutObject call of the given duration with two attempts, the first failing with a 503
+     */
+    private static MetricCollection putObjectCall(long callMillis, boolean successful) {
+        MetricCollector call = MetricCollector.create("ApiCall");
+        call.reportMetric(CoreMetric.OPERATION_NAME, "PutObject");
+        call.reportMetric(CoreMetric.API_CALL_DURATION, Duration.ofMillis(callMillis));
+        call.reportMetric(CoreMetric.API_CALL_SUCCESSFUL, successful);
+        call.reportMetric(CoreMetric.RETRY_COUNT, 1);
+        call.reportMetric(CoreMetric.CREDENTIALS_FETCH_DURATION, Duration.ofMillis(2));
+        attempt(call, 503, 40, 30, 5, 3);
+        attempt(call, 200, 20, 60, 50, 0);
+        return call.collect();
+    }
+
+    private static void attempt(
+            MetricCollector call,
+            int status,
+            long acquireMillis,
+            long serviceMillis,
+            long firstByteMillis,
+            int pending
+    )
+    {
+        MetricCollector attempt = call.createChild("ApiCallAttempt");
+        attempt.reportMetric(CoreMetric.SERVICE_CALL_DURATION, Duration.ofMillis(serviceMillis));
+        attempt.reportMetric(CoreMetric.TIME_TO_FIRST_BYTE, Duration.ofMillis(firstByteMillis));
+        attempt.reportMetric(CoreMetric.AWS_REQUEST_ID, "req-" + status);
+        attempt.reportMetric(HttpMetric.HTTP_STATUS_CODE, status);
+        MetricCollector http = attempt.createChild("HttpClient");
+        http.reportMetric(HttpMetric.CONCURRENCY_ACQUIRE_DURATION, Duration.ofMillis(acquireMillis));
+        http.reportMetric(HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+        http.reportMetric(HttpMetric.LEASED_CONCURRENCY, 50);
+        http.reportMetric(HttpMetric.MAX_CONCURRENCY, 50);
+    }
+
+    @Test
+    public void summarizeCall() {
+        SdkMetricsPublisher.Call call = SdkMetricsPublisher.Call.from(putObjectCall(250, true));
+
+        Assert.assertEquals("PutObject", call.getOperation());
+        Assert.assertTrue(call.isSuccessful());
+        Assert.assertEquals(250_000, call.getApiCallMicros());
+        Assert.assertEquals(2_000, call.getCredentialsFetchMicros());
+        Assert.assertEquals(1, call.getRetries());
+        Assert.assertEquals(2, call.getAttempts().size());
+        SdkMetricsPublisher.Attempt first = call.getAttempts().get(0);
+        Assert.assertEquals(40_000, first.getConcurrencyAcquireMicros());
+        Assert.assertEquals(30_000, first.getServiceCallMicros());
+        Assert.assertEquals(5_000, first.getTimeToFirstByteMicros());
+        Assert.assertEquals(3, first.getPendingConcurrencyAcquires());
+        String description = call.toString();
+        Assert.assertTrue(description, description.contains("PutObject took 250 ms"));
+        Assert.assertTrue(description, description.contains("attempt 1: status 503"));
+        Assert.assertTrue(description, description.contains("connection wait 40 ms (leased 50/50, pending 3)"));
+        Assert.assertTrue(description, description.contains("request id req-200"));
+    }
+
+    @Test
+    public void summarizeMissingMetrics() {
+        MetricCollector collector = MetricCollector.create("ApiCall");
+        collector.createChild("ApiCallAttempt");
+        SdkMetricsPublisher.Call call = SdkMetricsPublisher.Call.from(collector.collect());
+
+        Assert.assertEquals("unknown", call.getOperation());
+        Assert.assertTrue(call.isSuccessful());
+        Assert.assertEquals(0, call.getApiCallMicros());
+        Assert.assertEquals(-1, call.getCredentialsFetchMicros());
+        Assert.assertEquals(0, call.getRetries());
+        SdkMetricsPublisher.Attempt attempt = call.getAttempts().get(0);
+        Assert.assertEquals(-1, attempt.getConcurrencyAcquireMicros());
+        Assert.assertEquals(-1, attempt.getServiceCallMicros());
+        Assert.assertEquals(-1, attempt.getPendingConcurrencyAcquires());
+    }
+
+    @Test
+    public void credentialsFetchReportedByAttempt() {
+        MetricCollector collector = MetricCollector.create("ApiCall");
+        collector.createChild("ApiCallAttempt")
+                 .reportMetric(CoreMetric.CREDENTIALS_FETCH_DURATION, Duration.ofMillis(3));
+        collector.createChild("ApiCallAttempt")
+                 .reportMetric(CoreMetric.CREDENTIALS_FETCH_DURATION, Duration.ofMillis(1));
+
+        Assert.assertEquals(4_000, SdkMetricsPublisher.Call.from(collector.collect()).getCredentialsFetchMicros());
+    }
+
+    @Test
+    public void publishAggregatesByOperation() {
+        SdkMetricsPublisher publisher = new SdkMetricsPublisher(null, millis::get);
+
+        publisher.publish(putObjectCall(100, true));
+        publisher.publish(putObjectCall(300, false));
+
+        SdkCallStats stats = publisher.stats("PutObject");
+        Assert.assertEquals(2, stats.getCalls());
+        Assert.assertEquals(1, stats.getFailedCalls());
+        Assert.assertEquals(2, stats.getRetries());
+        Assert.assertEquals(200.0, stats.getApiCallMeanMillis(), 0.001);
+        Assert.assertEquals(300.0, stats.getApiCallMaxMillis(), 0.001);
+        Assert.assertEquals(30.0, stats.getConcurrencyAcquireMeanMillis(), 0.001);
+        Assert.assertEquals(40.0, stats.getConcurrencyAcquireMaxMillis(), 0.001);
+        Assert.assertEquals(45.0, stats.getServiceCallMeanMillis(), 0.001);
+        Assert.assertEquals(50.0, stats.getTimeToFirstByteMaxMillis(), 0.001);
+        Assert.assertEquals(2.0, stats.getCredentialsFetchMeanMillis(), 0.001);
+        Assert.assertEquals(3, stats.getMaxPendingConcurrencyAcquires());
+        Assert.assertEquals(0, publisher.stats("GetObject").getCalls());
+    }
+
+    @Test
+    public void summariesExpireAfterWindow() {
+        SdkMetricsPublisher publisher = new SdkMetricsPublisher(null, millis::get);
+        publisher.publish(putObjectCall(100, true));
+
+        millis.addAndGet(SdkCallStats.WINDOW_MILLIS / 2);
+        publisher.publish(putObjectCall(300, true));
+        Assert.assertEquals(2, publisher.stats("PutObject").getCalls());
+
+        millis.addAndGet(SdkCallStats.WINDOW_MILLIS / 2 + 1);
+        Assert.assertEquals(1, publisher.stats("PutObject").getCalls());
+        Assert.assertEquals(300.0, publisher.stats("PutObject").getApiCallMaxMillis(), 0.001);
+
+        millis.addAndGet(SdkCallStats.WINDOW_MILLIS);
+        Assert.assertEquals(0, publisher.stats("PutObject").getCalls());
+        Assert.assertEquals(0.0, publisher.stats("PutObject").getApiCallMeanMillis(), 0.001);
+    }
+
+    @Test
+    public void executionPublisherRecordsToSharedSummaries() {
+        SdkMetricsPublisher publisher = new SdkMetricsPublisher(null, millis::get);
+        MetricPublisher execution = publisher.forExecution("123", 200);
+
+        execution.publish(putObjectCall(100, true));
+        execution.publish(putObjectCall(300, true));
+        execution.close();
+
+        Assert.assertEquals(2, publisher.stats("PutObject").getCalls());
+    }
+
+    @Test
+    public void registeredWithJmx() throws JMException {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        SdkMetricsPublisher publisher = new SdkMetricsPublisher(server, millis::get);
+        publisher.publish(putObjectCall(100, true));
+
+        ObjectName name = new ObjectName("org.rundeck.plugins:type=S3LogStorageSdk,operation=\"PutObject\"");
+        Assert.assertEquals(1L, server.getAttribute(name, "Calls"));
+        Assert.assertEquals(40.0, server.getAttribute(name, "ConcurrencyAcquireMaxMillis"));
+
+        // a new publisher, as after the plugin is reloaded, replaces the bean
+        SdkMetricsPublisher reloaded = new SdkMetricsPublisher(server, millis::get);
+        reloaded.stats("PutObject");
+        Assert.assertEquals(0L, server.getAttribute(name, "Calls"));
+    }
+}
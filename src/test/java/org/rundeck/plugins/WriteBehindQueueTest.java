@@ -0,0 +1,290 @@
+package org.rundeck.plugins;
+
+import com.dtolabs.rundeck.core.logging.ExecutionFileStorageException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for WriteBehindQueue.
+ */
+@RunWith(JUnit4.class)
+public class WriteBehindQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<WriteBehindQueue> queues = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (WriteBehindQueue queue : queues) {
+            queue.shutdown();
+        }
+    }
+
+    private WriteBehindQueue queue(File directory, int maxAttempts, long retryDelayMillis) throws IOException {
+        WriteBehindQueue queue = new WriteBehindQueue(directory, 2, maxAttempts, retryDelayMillis);
+        queues.add(queue);
+        return queue;
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Records uploaded content and final statuses, failing the first uploads as configured
+     */
+    private static class TestUploader implements WriteBehindQueue.Uploader {
+        final Map<String, String> uploaded = new ConcurrentHashMap<>();
+        final BlockingQueue<WriteBehindQueue.Status> statuses = new LinkedBlockingQueue<>();
+        final AtomicInteger failures;
+        volatile CountDownLatch started;
+        volatile CountDownLatch release;
+
+        TestUploader(int failures) {
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public void upload(WriteBehindQueue.Entry entry, InputStream content)
+                throws IOException, ExecutionFileStorageException
+        {
+            String text = new String(content.readAllBytes(), StandardCharsets.UTF_8);
+            if (null != started) {
+                started.countDown();
+            }
+            if (null != release) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new ExecutionFileStorageException("upload failed");
+            }
+            uploaded.put(entry.getKey(), text);
+        }
+
+        @Override
+        public void finished(WriteBehindQueue.Entry entry, WriteBehindQueue.Status status) {
+            statuses.add(status);
+        }
+
+        WriteBehindQueue.Status next() throws InterruptedException {
+            return statuses.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int queuedFiles(File directory) {
+        String[] names = directory.list((dir, name) -> name.endsWith(".data") || name.endsWith(".meta"));
+        return null != names ? names.length : 0;
+    }
+
+    @Test
+    public void addUploadsInBackground() throws Exception {
+        File dir = folder.newFolder();
+        WriteBehindQueue queue = queue(dir, 3, 1);
+        TestUploader uploader = new TestUploader(0);
+
+        WriteBehindQueue.Entry entry = queue.add(
+                "bucket",
+                "key",
+                Collections.singletonMap("execid", "1"),
+                stream("log content"),
+                11,
+                uploader
+        );
+
+        Assert.assertEquals(11, entry.getLength());
+        Assert.assertEquals("1", entry.getMetadata().get("execid"));
+        Assert.assertEquals(WriteBehindQueue.Status.STORED, uploader.next());
+        Assert.assertEquals("log content", uploader.uploaded.get("key"));
+        Assert.assertNull(queue.get("bucket", "key"));
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(0, queuedFiles(dir));
+    }
+
+    @Test
+    public void unknownLengthReadToEnd() throws Exception {
+        WriteBehindQueue queue = queue(folder.newFolder(), 3, 1);
+        TestUploader uploader = new TestUploader(0);
+
+        WriteBehindQueue.Entry entry = queue.add("bucket", "key", Collections.emptyMap(), stream("abc"), -1, uploader);
+
+        Assert.assertEquals(3, entry.getLength());
+        Assert.assertEquals(WriteBehindQueue.Status.STORED, uploader.next());
+        Assert.assertEquals("abc", uploader.uploaded.get("key"));
+    }
+
+    @Test
+    public void shortContentNotQueued() throws Exception {
+        File dir = folder.newFolder();
+        WriteBehindQueue queue = queue(dir, 3, 1);
+
+        try {
+            queue.add("bucket", "key", Collections.emptyMap(), stream("abc"), 10, new TestUploader(0));
+            Assert.fail("should throw");
+        } catch (IOException e) {
+            Assert.assertEquals("Content ended after 3 of 10 bytes", e.getMessage());
+        }
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(0, queuedFiles(dir));
+    }
+
+    @Test
+    public void retriedUntilStored() throws Exception {
+        WriteBehindQueue queue = queue(folder.newFolder(), 3, 1);
+        TestUploader uploader = new TestUploader(2);
+
+        WriteBehindQueue.Entry entry = queue.add("bucket", "key", Collections.emptyMap(), stream("abc"), 3, uploader);
+
+        Assert.assertEquals(WriteBehindQueue.Status.STORED, uploader.next());
+        Assert.assertEquals(3, entry.getAttempts());
+        Assert.assertEquals("abc", uploader.uploaded.get("key"));
+    }
+
+    @Test
+    public void movedToFailedAfterMaxAttempts() throws Exception {
+        File dir = folder.newFolder();
+        WriteBehindQueue queue = queue(dir, 2, 1);
+        TestUploader uploader = new TestUploader(2);
+
+        queue.add("bucket", "key", Collections.emptyMap(), stream("abc"), 3, uploader);
+
+        Assert.assertEquals(WriteBehindQueue.Status.FAILED, uploader.next());
+        Assert.assertNull(queue.get("bucket", "key"));
+        Assert.assertEquals(0, queuedFiles(dir));
+        Assert.assertEquals(2, queuedFiles(new File(dir, WriteBehindQueue.FAILED_DIRECTORY)));
+        Assert.assertTrue(uploader.uploaded.isEmpty());
+    }
+
+    @Test
+    public void retryDelayDoublesUpToMax() throws Exception {
+        WriteBehindQueue queue = queue(folder.newFolder(), 3, 1000);
+
+        long first = queue.retryDelay(1);
+        Assert.assertTrue(first >= 500 && first <= 1000);
+        long third = queue.retryDelay(3);
+        Assert.assertTrue(third >= 2000 && third <= 4000);
+        Assert.assertTrue(queue.retryDelay(100) <= WriteBehindQueue.MAX_RETRY_DELAY_MILLIS);
+    }
+
+    @Test
+    public void queuedFilesRecoveredAfterRestart() throws Exception {
+        File dir = folder.newFolder();
+        // the first attempt fails, and the retry is not due before the restart
+        WriteBehindQueue before = queue(dir, 3, TimeUnit.HOURS.toMillis(1));
+        TestUploader failing = new TestUploader(1);
+        failing.started = new CountDownLatch(1);
+        before.add("bucket", "key", Collections.singletonMap("execid", "1"), stream("abc"), 3, failing);
+        Assert.assertTrue(failing.started.await(5, TimeUnit.SECONDS));
+        before.shutdown();
+
+        WriteBehindQueue after = queue(dir, 3, 1);
+        WriteBehindQueue.Entry entry = after.get("bucket", "key");
+        Assert.assertNotNull(entry);
+        try (InputStream in = after.open(entry)) {
+            Assert.assertEquals("abc", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        TestUploader uploader = new TestUploader(0);
+        Assert.assertEquals(0, after.recover("other", uploader));
+        Assert.assertEquals(1, after.recover("bucket", uploader));
+        Assert.assertEquals(0, after.recover("bucket", uploader));
+
+        Assert.assertEquals(WriteBehindQueue.Status.STORED, uploader.next());
+        Assert.assertEquals("abc", uploader.uploaded.get("key"));
+        Assert.assertEquals("1", entry.getMetadata().get("execid"));
+        Assert.assertEquals(2, entry.getAttempts());
+        Assert.assertEquals(0, queuedFiles(dir));
+    }
+
+    @Test
+    public void incompleteFilesRemovedOnLoad() throws Exception {
+        File dir = folder.newFolder();
+        new FileOutputStream(new File(dir, "abc.tmp")).close();
+        new FileOutputStream(new File(dir, "orphan.data")).close();
+        try (FileOutputStream out = new FileOutputStream(new File(dir, "broken.meta"))) {
+            out.write("bucket=bucket\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        WriteBehindQueue queue = queue(dir, 3, 1);
+
+        Assert.assertEquals(0, queue.size());
+        String[] names = dir.list();
+        Assert.assertNotNull(names);
+        Assert.assertEquals(1, names.length);
+        Assert.assertEquals(WriteBehindQueue.FAILED_DIRECTORY, names[0]);
+    }
+
+    @Test
+    public void newerFileReplacesQueued() throws Exception {
+        File dir = folder.newFolder();
+        WriteBehindQueue queue = queue(dir, 3, 1);
+        TestUploader uploader = new TestUploader(0);
+        uploader.started = new CountDownLatch(1);
+        uploader.release = new CountDownLatch(1);
+
+        queue.add("bucket", "key", Collections.emptyMap(), stream("old"), 3, uploader);
+        Assert.assertTrue(uploader.started.await(5, TimeUnit.SECONDS));
+        WriteBehindQueue.Entry newer = queue.add("bucket", "key", Collections.emptyMap(), stream("new"), 3, uploader);
+
+        Assert.assertEquals(WriteBehindQueue.Status.CANCELLED, uploader.next());
+        Assert.assertSame(newer, queue.get("bucket", "key"));
+        uploader.release.countDown();
+
+        Assert.assertEquals(WriteBehindQueue.Status.STORED, uploader.next());
+        Assert.assertEquals("new", uploader.uploaded.get("key"));
+        Assert.assertNull(uploader.statuses.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, queuedFiles(dir));
+    }
+
+    @Test
+    public void removeCancels() throws Exception {
+        File dir = folder.newFolder();
+        WriteBehindQueue queue = queue(dir, 3, TimeUnit.HOURS.toMillis(1));
+        TestUploader uploader = new TestUploader(1);
+        uploader.started = new CountDownLatch(1);
+        queue.add("bucket", "key", Collections.emptyMap(), stream("abc"), 3, uploader);
+        Assert.assertTrue(uploader.started.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(queue.remove("bucket", "key"));
+
+        Assert.assertEquals(WriteBehindQueue.Status.CANCELLED, uploader.next());
+        Assert.assertFalse(queue.remove("bucket", "key"));
+        Assert.assertNull(queue.get("bucket", "key"));
+        Assert.assertEquals(0, queuedFiles(dir));
+    }
+
+    @Test
+    public void forDirectoryShared() throws Exception {
+        File dir = folder.newFolder();
+        WriteBehindQueue queue = WriteBehindQueue.forDirectory(dir, 2, 3);
+
+        Assert.assertSame(queue, WriteBehindQueue.forDirectory(new File(dir, "."), 4, 3));
+    }
+}